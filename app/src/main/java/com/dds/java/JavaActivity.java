@@ -73,6 +73,8 @@ public class JavaActivity extends AppCompatActivity implements IUserState {
 
     // login
     public void connect(View view) {
+        // warm up the media engine while we log in, the first call then finds it ready
+        SkyEngineKit.init(new VoipEvent(), getApplicationContext());
         SocketManager.getInstance().connect(
                 wss.getText().toString().trim(),
                 et_name.getText().toString().trim(),
@@ -83,12 +85,13 @@ public class JavaActivity extends AppCompatActivity implements IUserState {
     // drop out
     public void unConnect(View view) {
         SocketManager.getInstance().unConnect();
+        SkyEngineKit.shutdown();
     }
 
     // Dial voice
     public void call(View view) {
         String phone = ((TextView) findViewById(R.id.et_phone)).getText().toString().trim();
-        SkyEngineKit.init(new VoipEvent());
+        SkyEngineKit.init(new VoipEvent(), getApplicationContext());
         CallSingleActivity.openActivity(this, phone, true, true);
 
     }
@@ -96,7 +99,7 @@ public class JavaActivity extends AppCompatActivity implements IUserState {
     // Dial video
     public void callVideo(View view) {
         String phone = ((TextView) findViewById(R.id.et_phone)).getText().toString().trim();
-        SkyEngineKit.init(new VoipEvent());
+        SkyEngineKit.init(new VoipEvent(), getApplicationContext());
         CallSingleActivity.openActivity(this, phone, true, false);
     }
 
@@ -3,44 +3,107 @@ package com.dds.java.socket;
 import android.annotation.SuppressLint;
 import android.util.Log;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
+import com.dds.java.socket.signal.SignalDecoder;
+import com.dds.java.socket.signal.SignalEncoder;
+import com.dds.java.socket.signal.SignalEvent;
+import com.dds.webrtc.BuildConfig;
 
+import org.java_websocket.WebSocket;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.PingFrame;
 import org.java_websocket.handshake.ServerHandshake;
+import org.webrtc.IceCandidate;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
+import javax.net.SocketFactory;
 import javax.net.ssl.X509TrustManager;
 
 /**
  * Created by dds on 2019/7/26.
  * android_shuai@163.com
  */
-public class DWebSocket extends WebSocketClient {
+public class DWebSocket extends WebSocketClient implements SignalSendQueue.Transport, SignalHeartbeat.Pinger {
     private final static String TAG = "dds_WebSocket";
+    // message contents are only logged in debug builds
+    private final static boolean LOG = BuildConfig.DEBUG;
     private IEvent iEvent;
     private boolean connectFlag = false;
+    private final SignalDecoder decoder = new SignalDecoder();
+    private final SignalEncoder encoder = new SignalEncoder();
+    private final SignalSendQueue sendQueue;
+    private final SignalMetrics metrics;
+    private final SignalHeartbeat heartbeat;
+    // the ping in flight and when it was written
+    private volatile long pingSeq = -1;
+    private volatile long pingNanos;
+    private final long activeHeartbeatMs;
+    private final long idleHeartbeatMs;
+    private final long minPongTimeoutMs;
+    private SocketFactory socketFactory;
+    // a newer client took over, whatever this one still reports is stale
+    private volatile boolean replaced;
+
+
+    public DWebSocket(URI serverUri, IEvent event, SignalSendQueue sendQueue, SignalMetrics metrics) {
+        this(serverUri, event, sendQueue, metrics, SignalHeartbeat.DEFAULT_ACTIVE_INTERVAL_MS,
+                SignalHeartbeat.DEFAULT_IDLE_INTERVAL_MS, SignalHeartbeat.DEFAULT_MIN_PONG_TIMEOUT_MS);
+    }
 
-
-    public DWebSocket(URI serverUri, IEvent event) {
+    DWebSocket(URI serverUri, IEvent event, SignalSendQueue sendQueue, SignalMetrics metrics,
+               long activeHeartbeatMs, long idleHeartbeatMs, long minPongTimeoutMs) {
         super(serverUri);
         this.iEvent = event;
+        this.sendQueue = sendQueue;
+        this.metrics = metrics;
+        this.activeHeartbeatMs = activeHeartbeatMs;
+        this.idleHeartbeatMs = idleHeartbeatMs;
+        this.minPongTimeoutMs = minPongTimeoutMs;
+        this.heartbeat = new SignalHeartbeat(this, metrics, activeHeartbeatMs, idleHeartbeatMs, minPongTimeoutMs);
+        // the heartbeat replaces the library's fixed 60s lost connection check
+        setConnectionLostTimeout(0);
+    }
+
+    /**
+     * A new client for the same uri and socket factory, to reconnect with. The library's own
+     * reconnect() reuses the client, and the writer thread of the dropped connection can then
+     * close the new socket. This one is closed and its callbacks are ignored from now on.
+     */
+    public DWebSocket replace() {
+        replaced = true;
+        heartbeat.stop();
+        close();
+        DWebSocket next = new DWebSocket(getURI(), iEvent, sendQueue, metrics,
+                activeHeartbeatMs, idleHeartbeatMs, minPongTimeoutMs);
+        // logged in before, a failed attempt reconnects instead of logging out
+        next.connectFlag = connectFlag;
+        if (socketFactory != null) {
+            next.setSocketFactory(socketFactory);
+        }
+        return next;
+    }
+
+    @Override
+    public void setSocketFactory(SocketFactory socketFactory) {
+        this.socketFactory = socketFactory;
+        super.setSocketFactory(socketFactory);
     }
 
     @Override
     public void onClose(int code, String reason, boolean remote) {
+        if (replaced) return;
         Log.e("dds_error", "onClose:" + reason + "remote:" + remote);
+        heartbeat.stop();
+        metrics.onDisconnected();
         if (connectFlag) {
-            try {
-                Thread.sleep(3000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            sendQueue.onClosed();
+            // SocketManager schedules the reconnect, don't hold this thread
             this.iEvent.reConnect();
         } else {
             this.iEvent.logout("onClose");
@@ -50,191 +113,91 @@ public class DWebSocket extends WebSocketClient {
 
     @Override
     public void onError(Exception ex) {
+        if (replaced) return;
         Log.e("dds_error", "onError:" + ex.toString());
-        this.iEvent.logout("onError");
-        connectFlag = false;
+        // once logged in, errors end in onClose and a reconnect
+        if (!connectFlag) {
+            this.iEvent.logout("onError");
+        }
     }
 
     @Override
     public void onOpen(ServerHandshake handshakedata) {
+        if (replaced) return;
         Log.e("dds_info", "onOpen");
         this.iEvent.onOpen();
         connectFlag = true;
+        heartbeat.start();
     }
 
     @Override
     public void onMessage(String message) {
-        Log.d(TAG, message);
-        handleMessage(message);
-    }
-
-
-    public void setConnectFlag(boolean flag) {
-        connectFlag = flag;
-    }
-
-    /**
-     * ---------------------------------------处理接收消息-------------------------------------
-     */
-    private void handleMessage(String message) {
-        Map map = JSON.parseObject(message, Map.class);
-        String eventName = (String) map.get("eventName");
-        if (eventName == null) return;
-        // 登录成功
-        if (eventName.equals("__login_success")) {
-            handleLogin(map);
-            return;
-        }
-        // 被邀请
-        if (eventName.equals("__invite")) {
-            handleInvite(map);
-            return;
-        }
-        // 取消拨出
-        if (eventName.equals("__cancel")) {
-            handleCancel(map);
-            return;
-        }
-        // 响铃
-        if (eventName.equals("__ring")) {
-            handleRing(map);
-            return;
-        }
-        // 进入房间
-        if (eventName.equals("__peers")) {
-            handlePeers(map);
-            return;
-        }
-        // Newcomer enters the room
-        if (eventName.equals("__new_peer")) {
-            handleNewPeer(map);
-            return;
-        }
-        // Refuse to answer
-        if (eventName.equals("__reject")) {
-            handleReject(map);
-            return;
-        }
-        // offer
-        if (eventName.equals("__offer")) {
-            handleOffer(map);
-            return;
-        }
-        // answer
-        if (eventName.equals("__answer")) {
-            handleAnswer(map);
-            return;
-        }
-        // ice-candidate
-        if (eventName.equals("__ice_candidate")) {
-            handleIceCandidate(map);
-        }
-        // Leave the room
-        if (eventName.equals("__leave")) {
-            handleLeave(map);
-
-        }
-    }
-
-    private void handleLogin(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String userID = (String) data.get("userID");
-            String avatar = (String) data.get("avatar");
-            this.iEvent.loginSuccess(userID, avatar);
-        }
-
-
-    }
-
-    private void handleIceCandidate(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String userID = (String) data.get("userID");
-            String id = (String) data.get("id");
-            int label = (int) data.get("label");
-            String candidate = (String) data.get("candidate");
-            this.iEvent.onIceCandidate(userID, id, label, candidate);
-        }
-    }
-
-    private void handleAnswer(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String sdp = (String) data.get("sdp");
-            String userID = (String) data.get("fromID");
-            this.iEvent.onAnswer(userID, sdp);
-        }
-    }
-
-    private void handleOffer(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String sdp = (String) data.get("sdp");
-            String userID = (String) data.get("fromID");
-            this.iEvent.onOffer(userID, sdp);
+        if (replaced) return;
+        if (LOG) {
+            Log.d(TAG, message);
         }
+        sendQueue.onInbound();
+        heartbeat.onInbound();
+        handleMessage(message);
     }
 
-    private void handleReject(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String fromID = (String) data.get("fromID");
-            int rejectType = Integer.parseInt(String.valueOf(data.get("refuseType")));
-            this.iEvent.onReject(fromID, rejectType);
+    @Override
+    public void onWebsocketPong(WebSocket conn, Framedata f) {
+        if (replaced) return;
+        ByteBuffer payload = f.getPayloadData();
+        if (payload.remaining() != 8) return;
+        long seq = payload.getLong(payload.position());
+        if (seq == pingSeq) {
+            // everything written before the ping got through
+            sendQueue.onAcknowledged(pingNanos);
         }
+        heartbeat.onPong(seq);
     }
 
-    private void handlePeers(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String userID = (String) data.get("userID");
-            String connections = (String) data.get("connections");
-            this.iEvent.onPeers(userID, connections);
+    @Override
+    public boolean sendPing(long seq) {
+        if (!isOpen()) return false;
+        PingFrame ping = new PingFrame();
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putLong(seq).flip();
+        ping.setPayload(payload);
+        pingNanos = System.nanoTime();
+        pingSeq = seq;
+        try {
+            sendFrame(ping);
+        } catch (RuntimeException e) {
+            return false;
         }
+        return true;
     }
 
-    private void handleNewPeer(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String userID = (String) data.get("userID");
-            this.iEvent.onNewPeer(userID);
-        }
+    @Override
+    public void onDead() {
+        // half open, a close handshake would never finish, drop the tcp connection,
+        // onClose then reconnects as usual
+        closeConnection(CloseFrame.ABNORMAL_CLOSE, "heartbeat timeout");
     }
 
-    private void handleRing(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String fromId = (String) data.get("fromID");
-            this.iEvent.onRing(fromId);
-        }
-    }
 
-    private void handleCancel(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String inviteID = (String) data.get("inviteID");
-            String userList = (String) data.get("userList");
-            this.iEvent.onCancel(inviteID);
-        }
+    public void setConnectFlag(boolean flag) {
+        connectFlag = flag;
     }
 
-    private void handleInvite(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String room = (String) data.get("room");
-            boolean audioOnly = (boolean) data.get("audioOnly");
-            String inviteID = (String) data.get("inviteID");
-            String userList = (String) data.get("userList");
-            this.iEvent.onInvite(room, audioOnly, inviteID, userList);
+    /**
+     * ---------------------------------------处理接收消息-------------------------------------
+     */
+    private void handleMessage(String message) {
+        long start = System.nanoTime();
+        SignalEvent event;
+        try {
+            event = decoder.decode(message);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "handleMessage: " + e.getMessage());
+            return;
         }
-    }
-
-    private void handleLeave(Map map) {
-        Map data = (Map) map.get("data");
-        if (data != null) {
-            String fromID = (String) data.get("fromID");
-            this.iEvent.onLeave(fromID);
+        if (event != null) {
+            event.dispatch(this.iEvent);
+            metrics.recordInbound(event.eventName(), System.nanoTime() - start);
         }
     }
 
@@ -242,175 +205,78 @@ public class DWebSocket extends WebSocketClient {
      * ------------------------------发送消息----------------------------------------
      */
     public void createRoom(String room, int roomSize, String myId) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__create");
-
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("room", room);
-        childMap.put("roomSize", roomSize);
-        childMap.put("userID", myId);
-
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__create", encoder.createRoom(room, roomSize, myId));
     }
 
     // 发送邀请
     public void sendInvite(String room, String myId, String users, boolean audioOnly) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__invite");
-
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("room", room);
-        childMap.put("audioOnly", audioOnly);
-        childMap.put("inviteID", myId);
-        childMap.put("userList", users);
-
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__invite", encoder.invite(room, myId, users, audioOnly));
     }
 
-    public void sendMeetingInvite(String room, String myId, String userId) {
+    // 发送邀请 with our offer and the candidates gathered so far, the invitee answers when it accepts
+    public void sendInvite(String room, String myId, String users, boolean audioOnly,
+                           String sdp, List<IceCandidate> candidates) {
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__invite",
+                encoder.invite(room, myId, users, audioOnly, sdp, candidates));
+    }
 
+    // 会议邀请, an __invite naming every invitee, each of them gets the whole list
+    public void sendMeetingInvite(String room, String myId, String userList, boolean audioOnly) {
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__invite", encoder.invite(room, myId, userList, audioOnly));
     }
 
     // 取消邀请
     public void sendCancel(String useId, String userList) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__cancel");
-
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("inviteID", useId);
-        childMap.put("userList", userList);
-
-
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__cancel", encoder.cancel(useId, userList));
     }
 
     // Send ring notification
     public void sendRing(String myId, String toId) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__ring");
-
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("fromID", myId);
-        childMap.put("toID", toId);
-
-
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__ring", encoder.ring(myId, toId));
     }
 
     //Join the room
     public void sendJoin(String room, String myId) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__join");
-        Map<String, String> childMap = new HashMap<>();
-        childMap.put("room", room);
-        childMap.put("userID", myId);
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__join", encoder.join(room, myId));
     }
 
     // Refuse to answer
     public void sendRefuse(String inviteID, String myId, int refuseType) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__reject");
-
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("toID", inviteID);
-        childMap.put("fromID", myId);
-        childMap.put("refuseType", String.valueOf(refuseType));
-
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__reject", encoder.reject(inviteID, myId, refuseType));
     }
 
     // Leave the room
     public void sendLeave(String myId, String room, String userId) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__leave");
-
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("room", room);
-        childMap.put("fromID", myId);
-        childMap.put("userID", userId);
-
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        if (isOpen()) {
-            send(jsonString);
-        }
+        sendMessage(SignalSendQueue.Lane.CONTROL, "__leave", encoder.leave(room, myId, userId));
     }
 
     // send offer
     public void sendOffer(String myId, String userId, String sdp) {
-        Map<String, Object> map = new HashMap<>();
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("sdp", sdp);
-        childMap.put("userID", userId);
-        childMap.put("fromID", myId);
-        map.put("data", childMap);
-        map.put("eventName", "__offer");
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.SDP, "__offer", encoder.offer(myId, userId, sdp));
     }
 
     // send answer
     public void sendAnswer(String myId, String userId, String sdp) {
-        Map<String, Object> map = new HashMap<>();
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("sdp", sdp);
-        childMap.put("fromID", myId);
-        childMap.put("userID", userId);
-        map.put("data", childMap);
-        map.put("eventName", "__answer");
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        send(jsonString);
+        sendMessage(SignalSendQueue.Lane.SDP, "__answer", encoder.answer(myId, userId, sdp));
     }
 
     // send ice-candidate
     public void sendIceCandidate(String userId, String id, int label, String candidate) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("eventName", "__ice_candidate");
-
-        Map<String, Object> childMap = new HashMap<>();
-        childMap.put("userID", userId);
-        childMap.put("id", id);
-        childMap.put("label", label);
-        childMap.put("candidate", candidate);
-
-        map.put("data", childMap);
-        JSONObject object = new JSONObject(map);
-        final String jsonString = object.toString();
-        Log.d(TAG, "send-->" + jsonString);
-        if (isOpen()) {
-            send(jsonString);
+        sendMessage(SignalSendQueue.Lane.ICE, "__ice_candidate", encoder.iceCandidate(userId, id, label, candidate));
+    }
+
+    // send a batch of ice-candidates in one message
+    public void sendIceCandidates(String userId, List<IceCandidate> candidates) {
+        sendMessage(SignalSendQueue.Lane.ICE, "__ice_candidates", encoder.iceCandidates(userId, candidates));
+    }
+
+    // Messages go out on the send queue thread, buffered while the socket is down
+    private void sendMessage(SignalSendQueue.Lane lane, String eventName, String json) {
+        if (LOG) {
+            Log.d(TAG, "send-->" + json);
         }
+        heartbeat.onOutbound();
+        sendQueue.offer(lane, eventName, json);
     }
 
 
@@ -1,5 +1,9 @@
 package com.dds.java.socket;
 
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
 /**
  * Created by dds on 2019/7/26.
  * android_shuai@163.com
@@ -11,7 +15,9 @@ public interface IEvent {
     void loginSuccess(String userId, String avatar);
 
 
-    void onInvite(String room, boolean audioOnly, String inviteId, String userList);
+    // offer and candidates are null unless the caller sent its offer along with the invite
+    void onInvite(String room, boolean audioOnly, String inviteId, String userList,
+                  String offer, List<IceCandidate> candidates);
 
 
     void onCancel(String inviteId);
@@ -36,6 +42,9 @@ public interface IEvent {
     // ice-candidate
     void onIceCandidate(String userId, String id, int label, String candidate);
 
+    // batched ice-candidates
+    void onIceCandidates(String userId, List<IceCandidate> candidates);
+
     void onLeave(String userId);
 
     void logout(String str);
@@ -0,0 +1,92 @@
+package com.dds.java.socket;
+
+/**
+ * Fixed size latency histogram with power of two buckets.
+ * <p>
+ * Bucket 0 holds values below 1us, bucket i values in [2^(i-1), 2^i) us, the last bucket
+ * everything from about 8 s up. Percentiles are reported as the upper bound of their bucket,
+ * so they are accurate to a factor of two, which is plenty to tell 40ms from 400ms.
+ * Not thread safe, the owner synchronizes.
+ */
+public class LatencyHistogram {
+    static final int BUCKETS = 25;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        if (bucket >= BUCKETS) bucket = BUCKETS - 1;
+        counts[bucket]++;
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        System.arraycopy(counts, 0, copy.counts, 0, BUCKETS);
+        copy.count = count;
+        copy.totalNanos = totalNanos;
+        copy.maxNanos = maxNanos;
+        return copy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    // Number of values in bucket i, see the class comment for the bounds
+    public long getBucketCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return upper bound of the bucket holding the percentile, never more than the max
+     */
+    public long getPercentileNanos(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? maxNanos : Math.min(maxNanos, (1L << i) * 1000);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count
+                + " mean=" + getMeanNanos() / 1000 + "us"
+                + " p50=" + getPercentileNanos(50) / 1000 + "us"
+                + " p90=" + getPercentileNanos(90) / 1000 + "us"
+                + " p99=" + getPercentileNanos(99) / 1000 + "us"
+                + " max=" + maxNanos / 1000 + "us";
+    }
+}
@@ -0,0 +1,155 @@
+package com.dds.java.socket;
+
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules socket reconnects off the socket and main threads.
+ * <p>
+ * Attempts are spaced with exponential backoff and full jitter, a random delay between
+ * zero and min(maxDelay, baseDelay * 2^attempt), so clients dropped together by an
+ * overloaded server don't all come back at the same moment. Nothing is attempted while
+ * the network is down, and the first attempt after it comes back is immediate.
+ */
+public class ReconnectScheduler {
+    private final static String TAG = "dds_ReconnectScheduler";
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 30_000;
+
+    public interface Connector {
+        // Blocking reconnect of the same socket, runs on the scheduler thread
+        void reconnect();
+    }
+
+    private final Connector connector;
+    private final ScheduledExecutorService executor;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Random random;
+
+    // guarded by this
+    private ScheduledFuture<?> pending;
+    private int attempt;
+    private boolean networkAvailable = true;
+    private long disconnectedAtNanos = -1;
+
+    // metrics, guarded by this
+    private int attempts;
+    private int reconnects;
+    private long lastTimeToReconnectMs = -1;
+    private long totalTimeToReconnectMs;
+
+    public ReconnectScheduler(Connector connector) {
+        this(connector, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, new Random());
+    }
+
+    public ReconnectScheduler(Connector connector, long baseDelayMs, long maxDelayMs, Random random) {
+        this.connector = connector;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.random = random;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SignalReconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // The socket closed unexpectedly, or the last attempt failed
+    public synchronized void onDisconnected() {
+        if (disconnectedAtNanos < 0) {
+            disconnectedAtNanos = System.nanoTime();
+        }
+        if (networkAvailable) {
+            schedule(nextDelayMs());
+        }
+    }
+
+    public synchronized void onConnected() {
+        cancelPending();
+        if (disconnectedAtNanos >= 0) {
+            lastTimeToReconnectMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAtNanos);
+            totalTimeToReconnectMs += lastTimeToReconnectMs;
+            reconnects++;
+            disconnectedAtNanos = -1;
+        }
+        attempt = 0;
+    }
+
+    public synchronized void setNetworkAvailable(boolean available) {
+        if (networkAvailable == available) return;
+        networkAvailable = available;
+        if (!available) {
+            // would only fail, wait for the network to come back
+            cancelPending();
+        } else if (disconnectedAtNanos >= 0) {
+            attempt = 0;
+            schedule(0);
+        }
+    }
+
+    // The user logged out, forget the outage
+    public synchronized void stop() {
+        cancelPending();
+        disconnectedAtNanos = -1;
+        attempt = 0;
+    }
+
+    synchronized long nextDelayMs() {
+        // cap the shift so the multiplication can't overflow
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+        attempt++;
+        return (long) (random.nextDouble() * (ceiling + 1));
+    }
+
+    private void schedule(long delayMs) {
+        cancelPending();
+        pending = executor.schedule(this::attempt, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private void attempt() {
+        synchronized (this) {
+            pending = null;
+            if (disconnectedAtNanos < 0 || !networkAvailable) return;
+            attempts++;
+        }
+        try {
+            connector.reconnect();
+        } catch (RuntimeException e) {
+            // no onClose will follow, without this nothing would ever try again
+            Log.e(TAG, "reconnect failed: " + e);
+            onDisconnected();
+        }
+    }
+
+    // -----------------------------------------stats------------------------------------------
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized int getReconnects() {
+        return reconnects;
+    }
+
+    // Time from the drop until the socket was open again, -1 before the first reconnect
+    public synchronized long getLastTimeToReconnectMs() {
+        return lastTimeToReconnectMs;
+    }
+
+    public synchronized long getAverageTimeToReconnectMs() {
+        return reconnects == 0 ? -1 : totalTimeToReconnectMs / reconnects;
+    }
+}
@@ -0,0 +1,120 @@
+package com.dds.java.socket;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs inbound signaling events on one dedicated thread, in arrival order.
+ * <p>
+ * Socket threads only link a node onto a lock-free multi producer single consumer queue
+ * (an intrusive linked list, producers swap the tail, the consumer follows next pointers),
+ * so a reconnect never races an old socket's events and the socket thread never waits on
+ * the session. Events go from here straight into the session's executor, nothing touches
+ * the main thread unless the callback is for the UI.
+ */
+public class SignalDispatcher {
+    private final static String TAG = "dds_SignalDispatcher";
+
+    private static final class Node {
+        volatile Node next;
+        String eventName;
+        Runnable task;
+        long enqueueNanos;
+    }
+
+    private final SignalMetrics metrics;
+    private final AtomicReference<Node> tail;
+    // consumer only, a stub whose next is the first pending node
+    private Node head;
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private volatile Thread thread;
+    private volatile boolean running;
+
+    public SignalDispatcher(SignalMetrics metrics) {
+        this.metrics = metrics;
+        Node stub = new Node();
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::loop, "SignalDispatch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Thread t = thread;
+        thread = null;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    // Any thread, never blocks
+    public void post(String eventName, Runnable task) {
+        Node node = new Node();
+        node.eventName = eventName;
+        node.task = task;
+        node.enqueueNanos = System.nanoTime();
+        Node prev = tail.getAndSet(node);
+        // a full volatile write, it must not pass the read of sleeping below
+        prev.next = node;
+        posted.incrementAndGet();
+        if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Events posted but not started yet
+    public long getPending() {
+        return posted.get() - dispatched.get();
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    private Node poll() {
+        Node next = head.next;
+        if (next == null) return null;
+        head = next;
+        return next;
+    }
+
+    private void loop() {
+        while (running) {
+            Node node = poll();
+            if (node == null) {
+                sleeping.set(true);
+                // a producer may have linked a node before it saw the flag
+                node = poll();
+                if (node == null) {
+                    LockSupport.park(this);
+                    sleeping.set(false);
+                    continue;
+                }
+                sleeping.set(false);
+            }
+            Runnable task = node.task;
+            node.task = null;
+            metrics.recordDwell(node.eventName, System.nanoTime() - node.enqueueNanos);
+            // counted before it runs, whatever the event waits on may look at the count
+            dispatched.incrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "event " + node.eventName + " failed: " + e);
+            }
+        }
+    }
+}
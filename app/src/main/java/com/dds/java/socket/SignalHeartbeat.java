@@ -0,0 +1,180 @@
+package com.dds.java.socket;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ping/pong heartbeat on the signaling socket.
+ * <p>
+ * One ping is in flight at a time. Its pong gives an RTT sample, a ping that goes
+ * unanswered for max(minPongTimeout, 4 * smoothed RTT) is missed and probed again
+ * right away, and after {@link #MAX_MISSED} misses in a row the connection is
+ * reported dead, a half open TCP connection never closes by itself.
+ * <p>
+ * The interval adapts: pings go out every activeInterval while signaling is in use and
+ * double on every quiet pong up to idleInterval, any outbound message brings it back
+ * down so a call never starts on a dead connection for long.
+ */
+public class SignalHeartbeat {
+    private final static String TAG = "dds_SignalHeartbeat";
+    public static final long DEFAULT_ACTIVE_INTERVAL_MS = 5_000;
+    public static final long DEFAULT_IDLE_INTERVAL_MS = 30_000;
+    public static final long DEFAULT_MIN_PONG_TIMEOUT_MS = 2_000;
+    static final int MAX_MISSED = 2;
+    // traffic within this window counts as active
+    private static final long ACTIVE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    public interface Pinger {
+        // false if the socket is not open
+        boolean sendPing(long seq);
+
+        // Nothing came back for MAX_MISSED pings, runs on the heartbeat thread
+        void onDead();
+    }
+
+    private final Pinger pinger;
+    private final SignalMetrics metrics;
+    private final long activeIntervalMs;
+    private final long idleIntervalMs;
+    private final long minPongTimeoutMs;
+
+    // guarded by this
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> next;
+    private long seq;
+    private long outstandingSeq = -1;
+    private long outstandingSentNanos;
+    private int missed;
+    private long intervalMs;
+    private long srttNanos = -1;
+    private long lastTrafficNanos;
+
+    public SignalHeartbeat(Pinger pinger, SignalMetrics metrics) {
+        this(pinger, metrics, DEFAULT_ACTIVE_INTERVAL_MS, DEFAULT_IDLE_INTERVAL_MS, DEFAULT_MIN_PONG_TIMEOUT_MS);
+    }
+
+    public SignalHeartbeat(Pinger pinger, SignalMetrics metrics,
+                           long activeIntervalMs, long idleIntervalMs, long minPongTimeoutMs) {
+        this.pinger = pinger;
+        this.metrics = metrics;
+        this.activeIntervalMs = activeIntervalMs;
+        this.idleIntervalMs = idleIntervalMs;
+        this.minPongTimeoutMs = minPongTimeoutMs;
+    }
+
+    // The socket opened, the first ping goes out right away for an early RTT sample
+    public synchronized void start() {
+        if (executor != null) return;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SignalHeartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        outstandingSeq = -1;
+        missed = 0;
+        intervalMs = activeIntervalMs;
+        lastTrafficNanos = System.nanoTime();
+        schedule(this::ping, 0);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+        next = null;
+        outstandingSeq = -1;
+    }
+
+    // A message is about to go out, probe at the active rate from now on
+    public synchronized void onOutbound() {
+        lastTrafficNanos = System.nanoTime();
+        if (executor == null || intervalMs <= activeIntervalMs) return;
+        intervalMs = activeIntervalMs;
+        if (outstandingSeq < 0 && next != null && next.getDelay(TimeUnit.MILLISECONDS) > intervalMs) {
+            schedule(this::ping, intervalMs);
+        }
+    }
+
+    // Anything from the server proves the connection is alive
+    public synchronized void onInbound() {
+        lastTrafficNanos = System.nanoTime();
+        missed = 0;
+    }
+
+    public synchronized void onPong(long pongSeq) {
+        if (executor == null || pongSeq != outstandingSeq) return;
+        long rtt = System.nanoTime() - outstandingSentNanos;
+        outstandingSeq = -1;
+        missed = 0;
+        // RFC 6298 smoothing, only used for the pong timeout
+        srttNanos = srttNanos < 0 ? rtt : srttNanos + (rtt - srttNanos) / 8;
+        metrics.recordRtt(rtt);
+        if (System.nanoTime() - lastTrafficNanos > ACTIVE_WINDOW_NANOS) {
+            intervalMs = Math.min(idleIntervalMs, intervalMs * 2);
+        } else {
+            intervalMs = activeIntervalMs;
+        }
+        schedule(this::ping, Math.max(0, intervalMs - TimeUnit.NANOSECONDS.toMillis(rtt)));
+    }
+
+    synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    synchronized long pongTimeoutMs() {
+        long timeout = srttNanos < 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(4 * srttNanos);
+        return Math.max(minPongTimeoutMs, timeout);
+    }
+
+    private void schedule(Runnable task, long delayMs) {
+        if (next != null) {
+            next.cancel(false);
+        }
+        next = executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void ping() {
+        long pingSeq;
+        synchronized (this) {
+            if (executor == null) return;
+            pingSeq = ++seq;
+            outstandingSeq = pingSeq;
+            outstandingSentNanos = System.nanoTime();
+            schedule(() -> timeout(pingSeq), pongTimeoutMs());
+        }
+        if (pinger.sendPing(pingSeq)) {
+            metrics.recordPing();
+            return;
+        }
+        // socket is closing, start() runs again once it is open
+        synchronized (this) {
+            if (executor == null || outstandingSeq != pingSeq) return;
+            outstandingSeq = -1;
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    private void timeout(long pingSeq) {
+        synchronized (this) {
+            if (executor == null || outstandingSeq != pingSeq) return;
+            outstandingSeq = -1;
+            missed++;
+            metrics.recordPongMissed();
+            if (missed < MAX_MISSED) {
+                // maybe only a lost pong, ask again before giving up
+                intervalMs = activeIntervalMs;
+                schedule(this::ping, 0);
+                return;
+            }
+        }
+        Log.w(TAG, "no pong for " + MAX_MISSED + " pings, connection is dead");
+        metrics.recordDeadConnection();
+        pinger.onDead();
+        stop();
+    }
+}
@@ -0,0 +1,221 @@
+package com.dds.java.socket;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters and latency histograms for the signaling connection.
+ * <p>
+ * Inbound latency is the time spent decoding and dispatching a message, outbound latency
+ * the time a message waited in the send queue, dwell the time an inbound event waited for
+ * the dispatcher thread. Round trips of the call setup requests
+ * (__create -> __peers, __invite -> __ring, __offer -> __answer) are measured from the
+ * moment the request hit the socket until the reply arrived. RTT samples come from the
+ * heartbeat and only the most recent ones are kept, so the RTT histogram follows the
+ * current network.
+ */
+public class SignalMetrics {
+    static final int RTT_WINDOW = 64;
+
+    // request -> the reply that ends its round trip
+    private static final Map<String, String> REPLIES = new HashMap<>();
+
+    static {
+        REPLIES.put("__create", "__peers");
+        REPLIES.put("__join", "__peers");
+        REPLIES.put("__invite", "__ring");
+        REPLIES.put("__offer", "__answer");
+    }
+
+    // all guarded by this
+    private final Map<String, LatencyHistogram> inbound = new HashMap<>();
+    private final Map<String, LatencyHistogram> outbound = new HashMap<>();
+    private final Map<String, LatencyHistogram> roundTrips = new HashMap<>();
+    private final Map<String, LatencyHistogram> dwell = new HashMap<>();
+    // reply event -> request waiting for it and when the request went out
+    private final Map<String, String> awaitingRequest = new HashMap<>();
+    private final Map<String, Long> awaitingSince = new HashMap<>();
+    private final long[] rttWindow = new long[RTT_WINDOW];
+    private int rttNext;
+    private int rttFilled;
+    private long lastRttNanos = -1;
+    private long pingsSent;
+    private long pongsReceived;
+    private long pongsMissed;
+    private long deadConnections;
+
+    public synchronized void recordInbound(String eventName, long processingNanos) {
+        histogram(inbound, eventName).record(processingNanos);
+        String request = awaitingRequest.remove(eventName);
+        if (request != null) {
+            long since = awaitingSince.remove(eventName);
+            histogram(roundTrips, request + "->" + eventName).record(System.nanoTime() - since);
+        }
+    }
+
+    // Called on the send thread once the message is written to the socket
+    public synchronized void recordOutbound(String eventName, long queuedNanos) {
+        histogram(outbound, eventName).record(queuedNanos);
+        String reply = REPLIES.get(eventName);
+        if (reply != null) {
+            awaitingRequest.put(reply, eventName);
+            awaitingSince.put(reply, System.nanoTime());
+        }
+    }
+
+    // Called on the dispatcher thread when an event is taken off its queue
+    public synchronized void recordDwell(String eventName, long dwellNanos) {
+        histogram(dwell, eventName).record(dwellNanos);
+    }
+
+    public synchronized void recordPing() {
+        pingsSent++;
+    }
+
+    public synchronized void recordRtt(long rttNanos) {
+        pongsReceived++;
+        lastRttNanos = rttNanos;
+        rttWindow[rttNext] = rttNanos;
+        rttNext = (rttNext + 1) % RTT_WINDOW;
+        if (rttFilled < RTT_WINDOW) rttFilled++;
+    }
+
+    public synchronized void recordPongMissed() {
+        pongsMissed++;
+    }
+
+    public synchronized void recordDeadConnection() {
+        deadConnections++;
+    }
+
+    // The connection dropped, a reply to a request from before the drop is not a round trip
+    public synchronized void onDisconnected() {
+        awaitingRequest.clear();
+        awaitingSince.clear();
+    }
+
+    private static LatencyHistogram histogram(Map<String, LatencyHistogram> map, String eventName) {
+        LatencyHistogram histogram = map.get(eventName);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            map.put(eventName, histogram);
+        }
+        return histogram;
+    }
+
+    private static Map<String, LatencyHistogram> copy(Map<String, LatencyHistogram> map) {
+        Map<String, LatencyHistogram> copy = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : map.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    // -----------------------------------------snapshot---------------------------------------
+
+    /**
+     * @param queue     stats of the send queue, may be null
+     * @param reconnect the reconnect scheduler, may be null
+     */
+    public Snapshot snapshot(SignalSendQueue.Stats queue, ReconnectScheduler reconnect) {
+        LatencyHistogram rtt = new LatencyHistogram();
+        Snapshot snapshot;
+        synchronized (this) {
+            for (int i = 0; i < rttFilled; i++) {
+                rtt.record(rttWindow[i]);
+            }
+            snapshot = new Snapshot(copy(inbound), copy(outbound), copy(roundTrips), copy(dwell), rtt, lastRttNanos,
+                    pingsSent, pongsReceived, pongsMissed, deadConnections, queue);
+        }
+        if (reconnect != null) {
+            snapshot.reconnectAttempts = reconnect.getAttempts();
+            snapshot.reconnects = reconnect.getReconnects();
+            snapshot.lastTimeToReconnectMs = reconnect.getLastTimeToReconnectMs();
+            snapshot.averageTimeToReconnectMs = reconnect.getAverageTimeToReconnectMs();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Point in time copy, safe to keep and read from any thread.
+     */
+    public static class Snapshot {
+        // event name -> histogram, sorted by name
+        public final Map<String, LatencyHistogram> inbound;
+        public final Map<String, LatencyHistogram> outbound;
+        // "request->reply" -> histogram
+        public final Map<String, LatencyHistogram> roundTrips;
+        // event name -> time waiting for the dispatcher thread
+        public final Map<String, LatencyHistogram> dwell;
+        // the last RTT_WINDOW heartbeat round trips
+        public final LatencyHistogram rtt;
+        public final long lastRttNanos;
+        public final long pingsSent;
+        public final long pongsReceived;
+        public final long pongsMissed;
+        // connections closed because the heartbeat went unanswered
+        public final long deadConnections;
+        public final SignalSendQueue.Stats sendQueue;
+        public int reconnectAttempts;
+        public int reconnects;
+        public long lastTimeToReconnectMs = -1;
+        public long averageTimeToReconnectMs = -1;
+
+        Snapshot(Map<String, LatencyHistogram> inbound, Map<String, LatencyHistogram> outbound,
+                 Map<String, LatencyHistogram> roundTrips, Map<String, LatencyHistogram> dwell,
+                 LatencyHistogram rtt, long lastRttNanos,
+                 long pingsSent, long pongsReceived, long pongsMissed, long deadConnections,
+                 SignalSendQueue.Stats sendQueue) {
+            this.inbound = inbound;
+            this.outbound = outbound;
+            this.roundTrips = roundTrips;
+            this.dwell = dwell;
+            this.rtt = rtt;
+            this.lastRttNanos = lastRttNanos;
+            this.pingsSent = pingsSent;
+            this.pongsReceived = pongsReceived;
+            this.pongsMissed = pongsMissed;
+            this.deadConnections = deadConnections;
+            this.sendQueue = sendQueue;
+        }
+
+        public long getInboundCount(String eventName) {
+            LatencyHistogram histogram = inbound.get(eventName);
+            return histogram == null ? 0 : histogram.getCount();
+        }
+
+        public long getOutboundCount(String eventName) {
+            LatencyHistogram histogram = outbound.get(eventName);
+            return histogram == null ? 0 : histogram.getCount();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("SignalMetrics{rtt: ").append(rtt)
+                    .append(" last=").append(lastRttNanos / 1000).append("us")
+                    .append(", pings=").append(pingsSent)
+                    .append(" pongs=").append(pongsReceived)
+                    .append(" missed=").append(pongsMissed)
+                    .append(" dead=").append(deadConnections);
+            append(sb, "in", inbound);
+            append(sb, "out", outbound);
+            append(sb, "roundTrip", roundTrips);
+            append(sb, "dwell", dwell);
+            sb.append(", reconnects=").append(reconnects)
+                    .append(" attempts=").append(reconnectAttempts)
+                    .append(" lastTimeToReconnectMs=").append(lastTimeToReconnectMs);
+            if (sendQueue != null) {
+                sb.append(", ").append(sendQueue);
+            }
+            return sb.append('}').toString();
+        }
+
+        private static void append(StringBuilder sb, String label, Map<String, LatencyHistogram> map) {
+            for (Map.Entry<String, LatencyHistogram> entry : map.entrySet()) {
+                sb.append(", ").append(label).append(' ').append(entry.getKey())
+                        .append(": ").append(entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.dds.java.socket;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outbound signaling queue with one sender thread.
+ * <p>
+ * Callers never touch the socket, they only enqueue. Messages are sent by lane priority:
+ * call control first, then SDP, then ICE. While the socket is down messages are kept
+ * and flushed once it opens again. Lanes are bounded, a full ICE lane drops its oldest
+ * candidate, the other lanes refuse new messages.
+ * <p>
+ * The protocol has no acks, a call control message counts as delivered once the server
+ * has sent something after it. Control messages that were sent shortly before the socket
+ * dropped without anything coming back are replayed after the reconnect, as long as the
+ * other side takes a second copy as a no-op. A repeated __invite reaches the callee as a
+ * second call and is refused as busy, a repeated __create or __join answers with __peers
+ * again, so those are sent once and a lost one ends like an unanswered call.
+ */
+public class SignalSendQueue {
+    private final static String TAG = "dds_SignalSendQueue";
+    private final static long REPLAY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // call control that can arrive twice without doing anything twice
+    private final static Set<String> REPLAYABLE = new HashSet<>(Arrays.asList("__cancel", "__reject", "__leave"));
+
+    public enum Lane {
+        // __create __join __invite __ring __cancel __reject __leave
+        CONTROL(64),
+        // __offer __answer
+        SDP(16),
+        // __ice_candidate __ice_candidates
+        ICE(128);
+
+        final int capacity;
+
+        Lane(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    public interface Transport {
+        boolean isOpen();
+
+        void send(String text);
+    }
+
+    private static class Message {
+        final Lane lane;
+        final String eventName;
+        final String json;
+        final long enqueueNanos;
+        long sentNanos;
+
+        Message(Lane lane, String eventName, String json, long enqueueNanos) {
+            this.lane = lane;
+            this.eventName = eventName;
+            this.json = json;
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final ArrayDeque<Message>[] lanes;
+    // replayable messages sent on the current connection that nothing came back for yet
+    private final ArrayDeque<Message> unacknowledged = new ArrayDeque<>();
+    private volatile Transport transport;
+    private volatile SignalMetrics metrics;
+    private Thread thread;
+    private boolean running;
+
+    // counters, guarded by lock
+    private final long[] enqueued = new long[Lane.values().length];
+    private final long[] dropped = new long[Lane.values().length];
+    private long sent;
+    private long sendLatencyTotalNanos;
+    private long sendLatencyMaxNanos;
+    private long replayed;
+    // bumped on every drop, tells the sender the socket closed while it was writing
+    private long closes;
+
+    @SuppressWarnings("unchecked")
+    public SignalSendQueue() {
+        Lane[] values = Lane.values();
+        lanes = new ArrayDeque[values.length];
+        for (Lane lane : values) {
+            lanes[lane.ordinal()] = new ArrayDeque<>(lane.capacity);
+        }
+    }
+
+    public void start() {
+        lock.lock();
+        try {
+            if (running) return;
+            running = true;
+            thread = new Thread(this::loop, "SignalSender");
+            thread.setDaemon(true);
+            thread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void stop() {
+        Thread t;
+        lock.lock();
+        try {
+            running = false;
+            t = thread;
+            thread = null;
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+        onOpen();
+    }
+
+    public void setMetrics(SignalMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // The socket (re)connected, send whatever was buffered
+    public void onOpen() {
+        lock.lock();
+        try {
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return false if the message was refused because its lane is full
+     */
+    public boolean offer(Lane lane, String eventName, String json) {
+        lock.lock();
+        try {
+            ArrayDeque<Message> queue = lanes[lane.ordinal()];
+            if (queue.size() >= lane.capacity) {
+                dropped[lane.ordinal()]++;
+                if (lane != Lane.ICE) {
+                    Log.w(TAG, "lane " + lane + " is full, message dropped");
+                    return false;
+                }
+                // an old candidate is less useful than the newest one
+                queue.pollFirst();
+            }
+            queue.addLast(new Message(lane, eventName, json, System.nanoTime()));
+            enqueued[lane.ordinal()]++;
+            ready.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A message arrived from the server, everything sent before it got through
+    public void onInbound() {
+        lock.lock();
+        try {
+            unacknowledged.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The server answered a ping, everything sent before the ping got through
+    public void onAcknowledged(long sentBeforeNanos) {
+        lock.lock();
+        try {
+            Message message;
+            while ((message = unacknowledged.peekFirst()) != null && message.sentNanos - sentBeforeNanos <= 0) {
+                unacknowledged.pollFirst();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The socket dropped, put recent unacknowledged replayable messages back in front of their lane
+    public void onClosed() {
+        lock.lock();
+        try {
+            closes++;
+            long now = System.nanoTime();
+            ArrayDeque<Message> control = lanes[Lane.CONTROL.ordinal()];
+            Message message;
+            while ((message = unacknowledged.pollLast()) != null) {
+                if (now - message.sentNanos > REPLAY_WINDOW_NANOS) break;
+                if (control.size() >= Lane.CONTROL.capacity) break;
+                control.addFirst(message);
+                replayed++;
+            }
+            unacknowledged.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drop everything pending, used when the user logs out
+    public void clear() {
+        lock.lock();
+        try {
+            for (ArrayDeque<Message> queue : lanes) {
+                queue.clear();
+            }
+            unacknowledged.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            Message message = null;
+            Transport current = null;
+            long connection;
+            lock.lock();
+            try {
+                while (running) {
+                    current = transport;
+                    if (current != null && current.isOpen() && (message = peek()) != null) break;
+                    // the socket gives no callback for every state change, poll it while we wait
+                    ready.await(500, TimeUnit.MILLISECONDS);
+                }
+                if (!running) return;
+                connection = closes;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                current.send(message.json);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "send failed: " + e);
+                // socket closed in between, keep the message for the next open,
+                // a message that fails on an open socket would never go out
+                if (current.isOpen()) {
+                    lock.lock();
+                    try {
+                        remove(message);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                continue;
+            }
+            long latency;
+            lock.lock();
+            try {
+                remove(message);
+                message.sentNanos = System.nanoTime();
+                if (message.lane == Lane.CONTROL && REPLAYABLE.contains(message.eventName)) {
+                    if (closes != connection) {
+                        // onClosed ran during the write and couldn't see this one
+                        lanes[Lane.CONTROL.ordinal()].addFirst(message);
+                        replayed++;
+                    } else {
+                        if (unacknowledged.size() >= Lane.CONTROL.capacity) {
+                            unacknowledged.pollFirst();
+                        }
+                        unacknowledged.addLast(message);
+                    }
+                }
+                latency = message.sentNanos - message.enqueueNanos;
+                sent++;
+                sendLatencyTotalNanos += latency;
+                if (latency > sendLatencyMaxNanos) {
+                    sendLatencyMaxNanos = latency;
+                }
+            } finally {
+                lock.unlock();
+            }
+            SignalMetrics m = metrics;
+            if (m != null) {
+                m.recordOutbound(message.eventName, latency);
+            }
+        }
+    }
+
+    private Message peek() {
+        for (ArrayDeque<Message> queue : lanes) {
+            Message message = queue.peekFirst();
+            if (message != null) return message;
+        }
+        return null;
+    }
+
+    // Usually the head of its lane, unless replayed messages went in front of it meanwhile
+    private void remove(Message message) {
+        lanes[message.lane.ordinal()].removeFirstOccurrence(message);
+    }
+
+    // -----------------------------------------stats------------------------------------------
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            Lane[] values = Lane.values();
+            int[] depth = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                depth[i] = lanes[i].size();
+            }
+            return new Stats(depth, enqueued.clone(), dropped.clone(), sent, replayed,
+                    sent == 0 ? 0 : sendLatencyTotalNanos / sent, sendLatencyMaxNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static class Stats {
+        private final int[] depth;
+        private final long[] enqueued;
+        private final long[] dropped;
+        public final long sent;
+        public final long replayed;
+        public final long avgSendLatencyNanos;
+        public final long maxSendLatencyNanos;
+
+        Stats(int[] depth, long[] enqueued, long[] dropped, long sent, long replayed,
+              long avgSendLatencyNanos, long maxSendLatencyNanos) {
+            this.depth = depth;
+            this.enqueued = enqueued;
+            this.dropped = dropped;
+            this.sent = sent;
+            this.replayed = replayed;
+            this.avgSendLatencyNanos = avgSendLatencyNanos;
+            this.maxSendLatencyNanos = maxSendLatencyNanos;
+        }
+
+        public int getDepth(Lane lane) {
+            return depth[lane.ordinal()];
+        }
+
+        public long getEnqueued(Lane lane) {
+            return enqueued[lane.ordinal()];
+        }
+
+        public long getDropped(Lane lane) {
+            return dropped[lane.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("SignalSendQueue{");
+            for (Lane lane : Lane.values()) {
+                sb.append(lane).append(": depth=").append(getDepth(lane))
+                        .append(" enqueued=").append(getEnqueued(lane))
+                        .append(" dropped=").append(getDropped(lane)).append(", ");
+            }
+            return sb.append("sent=").append(sent)
+                    .append(" replayed=").append(replayed)
+                    .append(" avgLatencyUs=").append(avgSendLatencyNanos / 1000)
+                    .append(" maxLatencyUs=").append(maxSendLatencyNanos / 1000)
+                    .append('}').toString();
+        }
+    }
+}
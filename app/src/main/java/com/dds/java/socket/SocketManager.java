@@ -10,12 +10,19 @@ import com.dds.App;
 import com.dds.java.voip.Utils;
 import com.dds.java.voip.VoipReceiver;
 import com.dds.skywebrtc.CallSession;
+import com.dds.skywebrtc.CallTrace;
+import com.dds.skywebrtc.EnumType;
 import com.dds.skywebrtc.SkyEngineKit;
 
+import org.webrtc.IceCandidate;
+import org.webrtc.NetworkMonitor;
+import org.webrtc.NetworkMonitorAutoDetect;
+
 import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.SecureRandom;
+import java.util.List;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -27,15 +34,35 @@ import javax.net.ssl.TrustManager;
  */
 public class SocketManager implements IEvent {
     private final static String TAG = "dds_SocketManager";
-    private DWebSocket webSocket;
+    private volatile DWebSocket webSocket;
     private int userState;
     private String myId;
 
 
+    // only for callbacks that end up in the UI
     private Handler handler = new Handler(Looper.getMainLooper());
+    private final SignalSendQueue sendQueue = new SignalSendQueue();
+    private final SignalMetrics metrics = new SignalMetrics();
+    // session events run here, in order, and go straight on to the session's executor
+    private final SignalDispatcher dispatcher = new SignalDispatcher(metrics);
+    private final ReconnectScheduler reconnectScheduler = new ReconnectScheduler(() -> {
+        DWebSocket socket = webSocket;
+        if (socket != null) {
+            // same uri and socket factory, the server logs us in again on connect
+            webSocket = socket.replace();
+            sendQueue.setTransport(webSocket);
+            webSocket.connect();
+        }
+    });
+    private final NetworkMonitor.NetworkObserver networkObserver = connectionType ->
+            reconnectScheduler.setNetworkAvailable(
+                    connectionType != NetworkMonitorAutoDetect.ConnectionType.CONNECTION_NONE);
+    private boolean networkMonitoring;
 
     private SocketManager() {
-
+        sendQueue.setMetrics(metrics);
+        sendQueue.start();
+        dispatcher.start();
     }
 
 
@@ -57,7 +84,8 @@ public class SocketManager implements IEvent {
                 e.printStackTrace();
                 return;
             }
-            webSocket = new DWebSocket(uri, this);
+            webSocket = new DWebSocket(uri, this, sendQueue, metrics);
+            sendQueue.setTransport(webSocket);
             // Set wss
             if (url.startsWith("wss")) {
                 try {
@@ -72,12 +100,18 @@ public class SocketManager implements IEvent {
                     }
 
                     if (factory != null) {
-                        webSocket.setSocket(factory.createSocket());
+                        // a factory instead of a socket, so reconnects keep using tls
+                        webSocket.setSocketFactory(factory);
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
             }
+            if (!networkMonitoring) {
+                networkMonitoring = true;
+                NetworkMonitor.getInstance().startMonitoring(App.getInstance());
+                NetworkMonitor.getInstance().addObserver(networkObserver);
+            }
             // Start connect
             webSocket.connect();
         }
@@ -91,12 +125,22 @@ public class SocketManager implements IEvent {
             webSocket.close();
             webSocket = null;
         }
+        reconnectScheduler.stop();
+        sendQueue.setTransport(null);
+        sendQueue.clear();
+        if (networkMonitoring) {
+            networkMonitoring = false;
+            NetworkMonitor.getInstance().removeObserver(networkObserver);
+            NetworkMonitor.getInstance().stopMonitoring();
+        }
 
     }
 
     @Override
     public void onOpen() {
         Log.i(TAG, "socket is open!");
+        reconnectScheduler.onConnected();
+        sendQueue.onOpen();
 
     }
 
@@ -105,9 +149,11 @@ public class SocketManager implements IEvent {
         Log.i(TAG, "loginSuccess:" + userId);
         myId = userId;
         userState = 1;
-        if (iUserState != null && iUserState.get() != null) {
-            iUserState.get().userLogin();
-        }
+        handler.post(() -> {
+            if (iUserState != null && iUserState.get() != null) {
+                iUserState.get().userLogin();
+            }
+        });
     }
 
 
@@ -125,6 +171,12 @@ public class SocketManager implements IEvent {
         }
     }
 
+    public void sendInvite(String room, String users, boolean audioOnly, String sdp, List<IceCandidate> candidates) {
+        if (webSocket != null) {
+            webSocket.sendInvite(room, myId, users, audioOnly, sdp, candidates);
+        }
+    }
+
     public void sendLeave(String room, String userId) {
         if (webSocket != null) {
             webSocket.sendLeave(myId, room, userId);
@@ -155,8 +207,10 @@ public class SocketManager implements IEvent {
         }
     }
 
-    public void sendMeetingInvite(String userList) {
-
+    public void sendMeetingInvite(String room, String userList, boolean audioOnly) {
+        if (webSocket != null) {
+            webSocket.sendMeetingInvite(room, myId, userList, audioOnly);
+        }
     }
 
     public void sendOffer(String userId, String sdp) {
@@ -177,30 +231,52 @@ public class SocketManager implements IEvent {
         }
     }
 
+    public void sendIceCandidates(String userId, List<IceCandidate> candidates) {
+        if (webSocket != null) {
+            webSocket.sendIceCandidates(userId, candidates);
+        }
+    }
+
 
     // ========================================================================================
     @Override
-    public void onInvite(String room, boolean audioOnly, String inviteId, String userList) {
-        Intent intent = new Intent();
-        intent.putExtra("room", room);
-        intent.putExtra("audioOnly", audioOnly);
-        intent.putExtra("inviteId", inviteId);
-        intent.putExtra("userList", userList);
-        intent.setAction(Utils.ACTION_VOIP_RECEIVER);
-        intent.setComponent(new ComponentName(App.getInstance().getPackageName(), VoipReceiver.class.getName()));
-        // 发送广播
-        App.getInstance().sendBroadcast(intent);
+    public void onInvite(String room, boolean audioOnly, String inviteId, String userList,
+                         String offer, List<IceCandidate> candidates) {
+        // same queue as the other events, so what follows the invite stays behind it
+        dispatcher.post("__invite", () -> {
+            Intent intent = new Intent();
+            intent.putExtra("room", room);
+            intent.putExtra("audioOnly", audioOnly);
+            intent.putExtra("inviteId", inviteId);
+            intent.putExtra("userList", userList);
+            if (offer != null) {
+                // the caller's offer, answered as soon as the call is accepted
+                intent.putExtra("offer", offer);
+                Utils.putCandidates(intent, candidates);
+            }
+            intent.setAction(Utils.ACTION_VOIP_RECEIVER);
+            intent.setComponent(new ComponentName(App.getInstance().getPackageName(), VoipReceiver.class.getName()));
+            // 发送广播
+            App.getInstance().sendBroadcast(intent);
+        });
 
     }
 
     @Override
     public void onCancel(String inviteId) {
+        dispatcher.post("__cancel", () -> {
+            // the caller hung up while we were ringing, drop what was prepared for the call
+            CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
+            if (currentSession != null && currentSession.getState() == EnumType.CallState.Incoming) {
+                currentSession.onCancel(inviteId);
+            }
+        });
 
     }
 
     @Override
     public void onRing(String fromId) {
-        handler.post(() -> {
+        dispatcher.post("__ring", () -> {
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
                 currentSession.onRingBack(fromId);
@@ -212,7 +288,12 @@ public class SocketManager implements IEvent {
 
     @Override  // 加入房间
     public void onPeers(String myId, String userId) {
-        handler.post(() -> {
+        // stamp the arrival, not when the dispatcher gets to it
+        CallSession session = SkyEngineKit.Instance().getCurrentSession();
+        if (session != null) {
+            session.getTrace().mark(CallTrace.Milestone.PEERS);
+        }
+        dispatcher.post("__peers", () -> {
             //自己进入了房间，然后开始发送offer
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
@@ -224,7 +305,7 @@ public class SocketManager implements IEvent {
 
     @Override
     public void onNewPeer(String userId) {
-        handler.post(() -> {
+        dispatcher.post("__new_peer", () -> {
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
                 currentSession.newPeer(userId);
@@ -235,7 +316,7 @@ public class SocketManager implements IEvent {
 
     @Override
     public void onReject(String userId, int type) {
-        handler.post(() -> {
+        dispatcher.post("__reject", () -> {
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
                 currentSession.onRefuse(userId);
@@ -246,7 +327,7 @@ public class SocketManager implements IEvent {
 
     @Override
     public void onOffer(String userId, String sdp) {
-        handler.post(() -> {
+        dispatcher.post("__offer", () -> {
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
                 currentSession.onReceiveOffer(userId, sdp);
@@ -258,7 +339,7 @@ public class SocketManager implements IEvent {
 
     @Override
     public void onAnswer(String userId, String sdp) {
-        handler.post(() -> {
+        dispatcher.post("__answer", () -> {
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
                 currentSession.onReceiverAnswer(userId, sdp);
@@ -269,7 +350,7 @@ public class SocketManager implements IEvent {
 
     @Override
     public void onIceCandidate(String userId, String id, int label, String candidate) {
-        handler.post(() -> {
+        dispatcher.post("__ice_candidate", () -> {
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
                 currentSession.onRemoteIceCandidate(userId, id, label, candidate);
@@ -278,9 +359,19 @@ public class SocketManager implements IEvent {
 
     }
 
+    @Override
+    public void onIceCandidates(String userId, List<IceCandidate> candidates) {
+        dispatcher.post("__ice_candidates", () -> {
+            CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
+            if (currentSession != null) {
+                currentSession.onRemoteIceCandidates(userId, candidates);
+            }
+        });
+    }
+
     @Override
     public void onLeave(String userId) {
-        handler.post(() -> {
+        dispatcher.post("__leave", () -> {
             CallSession currentSession = SkyEngineKit.Instance().getCurrentSession();
             if (currentSession != null) {
                 currentSession.onLeave(userId);
@@ -292,16 +383,16 @@ public class SocketManager implements IEvent {
     public void logout(String str) {
         Log.i(TAG, "logout:" + str);
         userState = 0;
-        if (iUserState != null && iUserState.get() != null) {
-            iUserState.get().userLogout();
-        }
+        handler.post(() -> {
+            if (iUserState != null && iUserState.get() != null) {
+                iUserState.get().userLogout();
+            }
+        });
     }
 
     @Override
     public void reConnect() {
-        handler.post(() -> {
-            webSocket.reconnect();
-        });
+        reconnectScheduler.onDisconnected();
     }
     //===========================================================================================
 
@@ -310,6 +401,21 @@ public class SocketManager implements IEvent {
         return userState;
     }
 
+    // Depth, drops and send latency of the outbound queue
+    public SignalSendQueue.Stats getSendQueueStats() {
+        return sendQueue.getStats();
+    }
+
+    // Reconnect attempts and time-to-reconnect
+    public ReconnectScheduler getReconnectScheduler() {
+        return reconnectScheduler;
+    }
+
+    // RTT, per event counters and latencies, send queue and reconnect stats in one copy
+    public SignalMetrics.Snapshot getSignalingSnapshot() {
+        return metrics.snapshot(sendQueue.getStats(), reconnectScheduler);
+    }
+
     private WeakReference<IUserState> iUserState;
 
     public void addUserStateCallback(IUserState userState) {
@@ -0,0 +1,288 @@
+package com.dds.java.socket.signal;
+
+/**
+ * Minimal forward-only json reader for signaling messages.
+ * <p>
+ * Reads values straight out of the message string without building maps,
+ * only what the signaling protocol needs: objects, arrays, strings, numbers, booleans and null.
+ */
+public class JsonPullReader {
+    private String in;
+    private int pos;
+    private int limit;
+    private final StringBuilder buffer = new StringBuilder(64);
+
+    public JsonPullReader() {
+    }
+
+    public JsonPullReader(String json) {
+        reset(json);
+    }
+
+    public void reset(String json) {
+        this.in = json;
+        this.pos = 0;
+        this.limit = json.length();
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    public void seek(int position) {
+        this.pos = position;
+    }
+
+    public void beginObject() {
+        expect('{');
+    }
+
+    public void endObject() {
+        expect('}');
+    }
+
+    public void beginArray() {
+        expect('[');
+    }
+
+    public void endArray() {
+        expect(']');
+    }
+
+    // True if the current object or array has another member, consumes the separating comma
+    public boolean hasNext() {
+        char c = peekChar();
+        if (c == ',') {
+            pos++;
+            c = peekChar();
+        }
+        return c != '}' && c != ']';
+    }
+
+    public String nextName() {
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    public boolean nextNull() {
+        if (peekChar() == 'n') {
+            expectLiteral("null");
+            return true;
+        }
+        return false;
+    }
+
+    public String nextString() {
+        char c = peekChar();
+        if (c == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        if (c != '"') {
+            throw syntaxError("Expected string");
+        }
+        int start = ++pos;
+        // fast path: no escapes, return a substring of the original message
+        while (pos < limit) {
+            c = in.charAt(pos);
+            if (c == '"') {
+                return in.substring(start, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        if (pos >= limit) {
+            throw syntaxError("Unterminated string");
+        }
+        buffer.setLength(0);
+        buffer.append(in, start, pos);
+        while (pos < limit) {
+            c = in.charAt(pos++);
+            if (c == '"') {
+                return buffer.toString();
+            }
+            if (c == '\\') {
+                buffer.append(readEscape());
+            } else {
+                buffer.append(c);
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    // Numbers are also accepted as quoted strings, some fields are sent that way
+    public int nextInt() {
+        char c = peekChar();
+        if (c == '"') {
+            String value = nextString();
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw syntaxError("Expected int but was " + value);
+            }
+        }
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            pos++;
+        }
+        int start = pos;
+        long value = 0;
+        while (pos < limit) {
+            c = in.charAt(pos);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw syntaxError("Int overflow");
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw syntaxError("Expected int");
+        }
+        // tolerate a fraction like 1.0, it is truncated
+        if (pos < limit && in.charAt(pos) == '.') {
+            pos++;
+            while (pos < limit && in.charAt(pos) >= '0' && in.charAt(pos) <= '9') pos++;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    public boolean nextBoolean() {
+        char c = peekChar();
+        if (c == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        if (c == 'f') {
+            expectLiteral("false");
+            return false;
+        }
+        if (c == '"') {
+            return Boolean.parseBoolean(nextString());
+        }
+        throw syntaxError("Expected boolean");
+    }
+
+    public void skipValue() {
+        char c = peekChar();
+        switch (c) {
+            case '{':
+                beginObject();
+                while (hasNext()) {
+                    skipString();
+                    expect(':');
+                    skipValue();
+                }
+                endObject();
+                break;
+            case '[':
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case '"':
+                skipString();
+                break;
+            case 't':
+                expectLiteral("true");
+                break;
+            case 'f':
+                expectLiteral("false");
+                break;
+            case 'n':
+                expectLiteral("null");
+                break;
+            default:
+                // number
+                while (pos < limit) {
+                    c = in.charAt(pos);
+                    if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) break;
+                    pos++;
+                }
+                break;
+        }
+    }
+
+    private void skipString() {
+        expect('"');
+        while (pos < limit) {
+            char c = in.charAt(pos++);
+            if (c == '"') return;
+            if (c == '\\') pos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private char readEscape() {
+        if (pos >= limit) {
+            throw syntaxError("Unterminated escape");
+        }
+        char c = in.charAt(pos++);
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                if (pos + 4 > limit) {
+                    throw syntaxError("Unterminated escape");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(in.charAt(pos++), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Bad unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                // \" \\ \/
+                return c;
+        }
+    }
+
+    private void expect(char expected) {
+        if (peekChar() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private void expectLiteral(String literal) {
+        if (!in.startsWith(literal, pos)) {
+            throw syntaxError("Expected " + literal);
+        }
+        pos += literal.length();
+    }
+
+    // Skips whitespace and returns the next character without consuming it
+    private char peekChar() {
+        while (pos < limit) {
+            char c = in.charAt(pos);
+            if (!isWhitespace(c)) return c;
+            pos++;
+        }
+        throw syntaxError("Unexpected end of input");
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " at " + pos);
+    }
+}
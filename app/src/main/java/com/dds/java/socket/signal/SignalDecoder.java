@@ -0,0 +1,350 @@
+package com.dds.java.socket.signal;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes inbound signaling messages into {@link SignalEvent}s.
+ * <p>
+ * The eventName selects a parser from a lookup table, the parser then reads the
+ * fields of "data" directly from the json text. Not thread safe, the socket
+ * delivers messages on a single thread.
+ */
+public class SignalDecoder {
+
+    interface DataParser {
+        SignalEvent parse(JsonPullReader reader);
+    }
+
+    private final Map<String, DataParser> parsers = new HashMap<>();
+    private final JsonPullReader reader = new JsonPullReader();
+
+    public SignalDecoder() {
+        parsers.put("__login_success", SignalDecoder::parseLogin);
+        parsers.put("__invite", SignalDecoder::parseInvite);
+        parsers.put("__cancel", SignalDecoder::parseCancel);
+        parsers.put("__ring", SignalDecoder::parseRing);
+        parsers.put("__peers", SignalDecoder::parsePeers);
+        parsers.put("__new_peer", SignalDecoder::parseNewPeer);
+        parsers.put("__reject", SignalDecoder::parseReject);
+        parsers.put("__offer", SignalDecoder::parseOffer);
+        parsers.put("__answer", SignalDecoder::parseAnswer);
+        parsers.put("__ice_candidate", SignalDecoder::parseIceCandidate);
+        parsers.put("__ice_candidates", SignalDecoder::parseIceCandidates);
+        parsers.put("__leave", SignalDecoder::parseLeave);
+    }
+
+    /**
+     * @return the decoded event, or null for unknown events and messages without data
+     * @throws IllegalArgumentException if the message is not valid json
+     */
+    public SignalEvent decode(String message) {
+        reader.reset(message);
+        reader.beginObject();
+        DataParser parser = null;
+        String eventName = null;
+        SignalEvent event = null;
+        int dataPosition = -1;
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("eventName".equals(name)) {
+                eventName = reader.nextString();
+                parser = eventName == null ? null : parsers.get(eventName);
+            } else if ("data".equals(name)) {
+                if (parser != null) {
+                    event = parser.parse(reader);
+                } else if (eventName == null) {
+                    // data came before eventName, come back to it later
+                    dataPosition = reader.position();
+                    reader.skipValue();
+                } else {
+                    reader.skipValue();
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        if (event == null && parser != null && dataPosition >= 0) {
+            reader.seek(dataPosition);
+            event = parser.parse(reader);
+        }
+        return event;
+    }
+
+    // ------------------------------------parsers------------------------------------------
+
+    private static SignalEvent parseLogin(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String userId = null;
+        String avatar = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "userID":
+                    userId = reader.nextString();
+                    break;
+                case "avatar":
+                    avatar = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SignalEvent.LoginSuccess(userId, avatar);
+    }
+
+    private static SignalEvent parseInvite(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String room = null;
+        boolean audioOnly = false;
+        String inviteId = null;
+        String userList = null;
+        String offer = null;
+        List<IceCandidate> candidates = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "room":
+                    room = reader.nextString();
+                    break;
+                case "audioOnly":
+                    audioOnly = reader.nextBoolean();
+                    break;
+                case "inviteID":
+                    inviteId = reader.nextString();
+                    break;
+                case "userList":
+                    userList = reader.nextString();
+                    break;
+                case "offer":
+                    offer = reader.nextString();
+                    break;
+                case "candidates":
+                    candidates = readCandidates(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SignalEvent.Invite(room, audioOnly, inviteId, userList, offer, candidates);
+    }
+
+    private static SignalEvent parseCancel(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String inviteId = null;
+        String userList = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "inviteID":
+                    inviteId = reader.nextString();
+                    break;
+                case "userList":
+                    userList = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SignalEvent.Cancel(inviteId, userList);
+    }
+
+    private static SignalEvent parseRing(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        return new SignalEvent.Ring(readSingleString(reader, "fromID"));
+    }
+
+    private static SignalEvent parsePeers(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String userId = null;
+        String connections = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "userID":
+                    userId = reader.nextString();
+                    break;
+                case "connections":
+                    connections = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SignalEvent.Peers(userId, connections);
+    }
+
+    private static SignalEvent parseNewPeer(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        return new SignalEvent.NewPeer(readSingleString(reader, "userID"));
+    }
+
+    private static SignalEvent parseReject(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String fromId = null;
+        int refuseType = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "fromID":
+                    fromId = reader.nextString();
+                    break;
+                case "refuseType":
+                    refuseType = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SignalEvent.Reject(fromId, refuseType);
+    }
+
+    private static SignalEvent parseOffer(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String[] fields = readSdp(reader);
+        return new SignalEvent.Offer(fields[0], fields[1]);
+    }
+
+    private static SignalEvent parseAnswer(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String[] fields = readSdp(reader);
+        return new SignalEvent.Answer(fields[0], fields[1]);
+    }
+
+    private static SignalEvent parseIceCandidate(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String userId = null;
+        String id = null;
+        int label = 0;
+        String candidate = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "userID":
+                    userId = reader.nextString();
+                    break;
+                case "id":
+                    id = reader.nextString();
+                    break;
+                case "label":
+                    label = reader.nextInt();
+                    break;
+                case "candidate":
+                    candidate = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SignalEvent.Candidate(userId, id, label, candidate);
+    }
+
+    private static SignalEvent parseIceCandidates(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        String userId = null;
+        List<IceCandidate> candidates = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "userID":
+                    userId = reader.nextString();
+                    break;
+                case "candidates":
+                    List<IceCandidate> read = readCandidates(reader);
+                    if (read != null) candidates = read;
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SignalEvent.Candidates(userId, candidates);
+    }
+
+    private static SignalEvent parseLeave(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        return new SignalEvent.Leave(readSingleString(reader, "fromID"));
+    }
+
+    // ------------------------------------helpers------------------------------------------
+
+    // null for a json null
+    private static List<IceCandidate> readCandidates(JsonPullReader reader) {
+        if (reader.nextNull()) return null;
+        List<IceCandidate> candidates = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            candidates.add(readCandidate(reader));
+        }
+        reader.endArray();
+        return candidates;
+    }
+
+    private static IceCandidate readCandidate(JsonPullReader reader) {
+        String id = null;
+        int label = 0;
+        String candidate = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    id = reader.nextString();
+                    break;
+                case "label":
+                    label = reader.nextInt();
+                    break;
+                case "candidate":
+                    candidate = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new IceCandidate(id, label, candidate);
+    }
+
+    // Returns {fromID, sdp}
+    private static String[] readSdp(JsonPullReader reader) {
+        String[] fields = new String[2];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "fromID":
+                    fields[0] = reader.nextString();
+                    break;
+                case "sdp":
+                    fields[1] = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private static String readSingleString(JsonPullReader reader, String key) {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (key.equals(reader.nextName())) {
+                value = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+}
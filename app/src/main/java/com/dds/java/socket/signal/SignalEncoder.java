@@ -0,0 +1,226 @@
+package com.dds.java.socket.signal;
+
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
+/**
+ * Writes outbound signaling messages as json.
+ * <p>
+ * Every message is written into one reused buffer and copied out once into an
+ * exactly sized String, no maps or json objects are built in between.
+ */
+public class SignalEncoder {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // SDP messages are the largest, start big enough for a typical offer
+    private final StringBuilder out = new StringBuilder(8 * 1024);
+    private boolean firstField;
+
+    public synchronized String createRoom(String room, int roomSize, String userId) {
+        begin("__create");
+        field("room", room);
+        field("roomSize", roomSize);
+        field("userID", userId);
+        return end();
+    }
+
+    public synchronized String invite(String room, String inviteId, String userList, boolean audioOnly) {
+        begin("__invite");
+        field("room", room);
+        field("audioOnly", audioOnly);
+        field("inviteID", inviteId);
+        field("userList", userList);
+        return end();
+    }
+
+    // The offer-in-invite variant, the invitee can answer as soon as it accepts
+    public synchronized String invite(String room, String inviteId, String userList, boolean audioOnly,
+                                      String offer, List<IceCandidate> candidates) {
+        begin("__invite");
+        field("room", room);
+        field("audioOnly", audioOnly);
+        field("inviteID", inviteId);
+        field("userList", userList);
+        field("offer", offer);
+        name("candidates");
+        candidates(candidates);
+        return end();
+    }
+
+    public synchronized String cancel(String inviteId, String userList) {
+        begin("__cancel");
+        field("inviteID", inviteId);
+        field("userList", userList);
+        return end();
+    }
+
+    public synchronized String ring(String fromId, String toId) {
+        begin("__ring");
+        field("fromID", fromId);
+        field("toID", toId);
+        return end();
+    }
+
+    public synchronized String join(String room, String userId) {
+        begin("__join");
+        field("room", room);
+        field("userID", userId);
+        return end();
+    }
+
+    // refuseType has always been sent as a string
+    public synchronized String reject(String toId, String fromId, int refuseType) {
+        begin("__reject");
+        field("toID", toId);
+        field("fromID", fromId);
+        name("refuseType");
+        out.append('"').append(refuseType).append('"');
+        return end();
+    }
+
+    public synchronized String leave(String room, String fromId, String userId) {
+        begin("__leave");
+        field("room", room);
+        field("fromID", fromId);
+        field("userID", userId);
+        return end();
+    }
+
+    public synchronized String offer(String fromId, String userId, String sdp) {
+        return sdp("__offer", fromId, userId, sdp);
+    }
+
+    public synchronized String answer(String fromId, String userId, String sdp) {
+        return sdp("__answer", fromId, userId, sdp);
+    }
+
+    public synchronized String iceCandidate(String userId, String id, int label, String candidate) {
+        begin("__ice_candidate");
+        field("userID", userId);
+        field("id", id);
+        field("label", label);
+        field("candidate", candidate);
+        return end();
+    }
+
+    public synchronized String iceCandidates(String userId, List<IceCandidate> candidates) {
+        begin("__ice_candidates");
+        field("userID", userId);
+        name("candidates");
+        candidates(candidates);
+        return end();
+    }
+
+    // ------------------------------------writing------------------------------------------
+
+    private void candidates(List<IceCandidate> candidates) {
+        out.append('[');
+        for (int i = 0; i < candidates.size(); i++) {
+            IceCandidate candidate = candidates.get(i);
+            if (i > 0) out.append(',');
+            out.append("{\"id\":");
+            string(candidate.sdpMid);
+            out.append(",\"label\":").append(candidate.sdpMLineIndex);
+            out.append(",\"candidate\":");
+            string(candidate.sdp);
+            out.append('}');
+        }
+        out.append(']');
+    }
+
+    private String sdp(String eventName, String fromId, String userId, String sdp) {
+        begin(eventName);
+        field("sdp", sdp);
+        field("userID", userId);
+        field("fromID", fromId);
+        return end();
+    }
+
+    private void begin(String eventName) {
+        out.setLength(0);
+        out.append("{\"eventName\":\"").append(eventName).append("\",\"data\":{");
+        firstField = true;
+    }
+
+    private String end() {
+        out.append("}}");
+        String message = out.toString();
+        // don't keep a huge buffer around after an unusually large message
+        if (out.capacity() > 64 * 1024) {
+            out.setLength(0);
+            out.trimToSize();
+            out.ensureCapacity(8 * 1024);
+        }
+        return message;
+    }
+
+    private void name(String name) {
+        if (!firstField) out.append(',');
+        firstField = false;
+        out.append('"').append(name).append("\":");
+    }
+
+    private void field(String name, String value) {
+        name(name);
+        string(value);
+    }
+
+    private void field(String name, int value) {
+        name(name);
+        out.append(value);
+    }
+
+    private void field(String name, boolean value) {
+        name(name);
+        out.append(value);
+    }
+
+    private void string(String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int length = value.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) continue;
+            out.append(value, runStart, i);
+            runStart = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u")
+                            .append(HEX[(c >> 12) & 0xF])
+                            .append(HEX[(c >> 8) & 0xF])
+                            .append(HEX[(c >> 4) & 0xF])
+                            .append(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        out.append(value, runStart, length);
+        out.append('"');
+    }
+}
@@ -0,0 +1,278 @@
+package com.dds.java.socket.signal;
+
+import com.dds.java.socket.IEvent;
+
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
+/**
+ * Typed inbound signaling messages, one class per eventName.
+ */
+public abstract class SignalEvent {
+
+    public abstract String eventName();
+
+    // Hand the message to the socket callback
+    public abstract void dispatch(IEvent event);
+
+    // __login_success
+    public static final class LoginSuccess extends SignalEvent {
+        public final String userId;
+        public final String avatar;
+
+        public LoginSuccess(String userId, String avatar) {
+            this.userId = userId;
+            this.avatar = avatar;
+        }
+
+        @Override
+        public String eventName() {
+            return "__login_success";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.loginSuccess(userId, avatar);
+        }
+    }
+
+    // __invite
+    public static final class Invite extends SignalEvent {
+        public final String room;
+        public final boolean audioOnly;
+        public final String inviteId;
+        public final String userList;
+        // the caller's offer and first candidates, null in the classic flow
+        public final String offer;
+        public final List<IceCandidate> candidates;
+
+        public Invite(String room, boolean audioOnly, String inviteId, String userList,
+                      String offer, List<IceCandidate> candidates) {
+            this.room = room;
+            this.audioOnly = audioOnly;
+            this.inviteId = inviteId;
+            this.userList = userList;
+            this.offer = offer;
+            this.candidates = candidates;
+        }
+
+        @Override
+        public String eventName() {
+            return "__invite";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onInvite(room, audioOnly, inviteId, userList, offer, candidates);
+        }
+    }
+
+    // __cancel
+    public static final class Cancel extends SignalEvent {
+        public final String inviteId;
+        public final String userList;
+
+        public Cancel(String inviteId, String userList) {
+            this.inviteId = inviteId;
+            this.userList = userList;
+        }
+
+        @Override
+        public String eventName() {
+            return "__cancel";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onCancel(inviteId);
+        }
+    }
+
+    // __ring
+    public static final class Ring extends SignalEvent {
+        public final String fromId;
+
+        public Ring(String fromId) {
+            this.fromId = fromId;
+        }
+
+        @Override
+        public String eventName() {
+            return "__ring";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onRing(fromId);
+        }
+    }
+
+    // __peers
+    public static final class Peers extends SignalEvent {
+        public final String userId;
+        public final String connections;
+
+        public Peers(String userId, String connections) {
+            this.userId = userId;
+            this.connections = connections;
+        }
+
+        @Override
+        public String eventName() {
+            return "__peers";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onPeers(userId, connections);
+        }
+    }
+
+    // __new_peer
+    public static final class NewPeer extends SignalEvent {
+        public final String userId;
+
+        public NewPeer(String userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public String eventName() {
+            return "__new_peer";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onNewPeer(userId);
+        }
+    }
+
+    // __reject
+    public static final class Reject extends SignalEvent {
+        public final String fromId;
+        public final int refuseType;
+
+        public Reject(String fromId, int refuseType) {
+            this.fromId = fromId;
+            this.refuseType = refuseType;
+        }
+
+        @Override
+        public String eventName() {
+            return "__reject";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onReject(fromId, refuseType);
+        }
+    }
+
+    // __offer
+    public static final class Offer extends SignalEvent {
+        public final String fromId;
+        public final String sdp;
+
+        public Offer(String fromId, String sdp) {
+            this.fromId = fromId;
+            this.sdp = sdp;
+        }
+
+        @Override
+        public String eventName() {
+            return "__offer";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onOffer(fromId, sdp);
+        }
+    }
+
+    // __answer
+    public static final class Answer extends SignalEvent {
+        public final String fromId;
+        public final String sdp;
+
+        public Answer(String fromId, String sdp) {
+            this.fromId = fromId;
+            this.sdp = sdp;
+        }
+
+        @Override
+        public String eventName() {
+            return "__answer";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onAnswer(fromId, sdp);
+        }
+    }
+
+    // __ice_candidate
+    public static final class Candidate extends SignalEvent {
+        public final String userId;
+        public final String id;
+        public final int label;
+        public final String candidate;
+
+        public Candidate(String userId, String id, int label, String candidate) {
+            this.userId = userId;
+            this.id = id;
+            this.label = label;
+            this.candidate = candidate;
+        }
+
+        @Override
+        public String eventName() {
+            return "__ice_candidate";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onIceCandidate(userId, id, label, candidate);
+        }
+    }
+
+    // __ice_candidates
+    public static final class Candidates extends SignalEvent {
+        public final String userId;
+        public final List<IceCandidate> candidates;
+
+        public Candidates(String userId, List<IceCandidate> candidates) {
+            this.userId = userId;
+            this.candidates = candidates;
+        }
+
+        @Override
+        public String eventName() {
+            return "__ice_candidates";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onIceCandidates(userId, candidates);
+        }
+    }
+
+    // __leave
+    public static final class Leave extends SignalEvent {
+        public final String fromId;
+
+        public Leave(String fromId) {
+            this.fromId = fromId;
+        }
+
+        @Override
+        public String eventName() {
+            return "__leave";
+        }
+
+        @Override
+        public void dispatch(IEvent event) {
+            event.onLeave(fromId);
+        }
+    }
+}
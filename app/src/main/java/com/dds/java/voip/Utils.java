@@ -1,7 +1,14 @@
 package com.dds.java.voip;
 
+import android.content.Intent;
+
 import com.dds.App;
 
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by dds on 2019/8/5.
  * android_shuai@163.com
@@ -10,4 +17,34 @@ public class Utils {
 
     public static String ACTION_VOIP_RECEIVER = App.getInstance().getPackageName() + ".voip.Receiver";
 
+    // IceCandidate isn't Parcelable, its fields go as three arrays
+    public static void putCandidates(Intent intent, List<IceCandidate> candidates) {
+        if (candidates == null) return;
+        String[] ids = new String[candidates.size()];
+        int[] labels = new int[candidates.size()];
+        String[] sdps = new String[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            IceCandidate candidate = candidates.get(i);
+            ids[i] = candidate.sdpMid;
+            labels[i] = candidate.sdpMLineIndex;
+            sdps[i] = candidate.sdp;
+        }
+        intent.putExtra("candidateIds", ids);
+        intent.putExtra("candidateLabels", labels);
+        intent.putExtra("candidates", sdps);
+    }
+
+    // null if putCandidates wasn't called
+    public static List<IceCandidate> getCandidates(Intent intent) {
+        String[] ids = intent.getStringArrayExtra("candidateIds");
+        int[] labels = intent.getIntArrayExtra("candidateLabels");
+        String[] sdps = intent.getStringArrayExtra("candidates");
+        if (ids == null || labels == null || sdps == null) return null;
+        List<IceCandidate> candidates = new ArrayList<>(sdps.length);
+        for (int i = 0; i < sdps.length; i++) {
+            candidates.add(new IceCandidate(ids[i], labels[i], sdps[i]));
+        }
+        return candidates;
+    }
+
 }
@@ -8,6 +8,10 @@ import com.dds.java.socket.SocketManager;
 import com.dds.skywebrtc.inter.ISkyEvent;
 import com.dds.webrtc.R;
 
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
 /**
  * Created by dds on 2019/8/25.
  * android_shuai@163.com
@@ -30,8 +34,13 @@ public class VoipEvent implements ISkyEvent {
     }
 
     @Override
-    public void sendMeetingInvite(String userList) {
-        SocketManager.getInstance().sendMeetingInvite(userList);
+    public void sendInvite(String room, String users, boolean audioOnly, String sdp, List<IceCandidate> candidates) {
+        SocketManager.getInstance().sendInvite(room, users, audioOnly, sdp, candidates);
+    }
+
+    @Override
+    public void sendMeetingInvite(String room, String userList, boolean audioOnly) {
+        SocketManager.getInstance().sendMeetingInvite(room, userList, audioOnly);
 
     }
 
@@ -77,6 +86,11 @@ public class VoipEvent implements ISkyEvent {
         SocketManager.getInstance().sendIceCandidate(userId, id, label, candidate);
     }
 
+    @Override
+    public void sendIceCandidates(String userId, List<IceCandidate> candidates) {
+        SocketManager.getInstance().sendIceCandidates(userId, candidates);
+    }
+
 
     //==============================================================================
     @Override
@@ -20,16 +20,14 @@ public class VoipReceiver extends BroadcastReceiver {
             String room = intent.getStringExtra("room");
             boolean audioOnly = intent.getBooleanExtra("audioOnly", true);
             String inviteId = intent.getStringExtra("inviteId");
-            String userList = intent.getStringExtra("userList");
-            String[] list = userList.split(",");
-            SkyEngineKit.init(new VoipEvent());
-            boolean b = SkyEngineKit.Instance().startInCall(App.getInstance(), room, inviteId, audioOnly);
+            SkyEngineKit.init(new VoipEvent(), App.getInstance());
+            // null unless the caller sent its offer along
+            String offer = intent.getStringExtra("offer");
+            boolean b = SkyEngineKit.Instance().startInCall(App.getInstance(), room, inviteId, audioOnly,
+                    offer, Utils.getCandidates(intent));
             if (b) {
-                if (list.length == 1) {
-                    CallSingleActivity.openActivity(context, inviteId, false, audioOnly);
-                } else {
-                    // 群聊
-                }
+                // a meeting (several users in the list) joins the same way, the screen shows the inviter
+                CallSingleActivity.openActivity(context, inviteId, false, audioOnly);
 
             }
 
@@ -0,0 +1,315 @@
+package com.dds.java.socket;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reconnects against a local stand-in server that keeps killing the connection.
+ */
+public class DWebSocketReconnectTest {
+
+    private StandInServer server;
+    private volatile DWebSocket socket;
+    private SignalSendQueue sendQueue;
+    private ReconnectScheduler scheduler;
+    private final SignalMetrics metrics = new SignalMetrics();
+    private final AtomicInteger opens = new AtomicInteger();
+    private final AtomicInteger logouts = new AtomicInteger();
+    private volatile CountDownLatch loggedIn = new CountDownLatch(1);
+    private volatile boolean tornDown;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer(freePort());
+        server.start();
+        assertTrue(server.started.await(5, TimeUnit.SECONDS));
+
+        sendQueue = new SignalSendQueue();
+        sendQueue.setMetrics(metrics);
+        sendQueue.start();
+        // pings every 50 ms, a pong may take 2 s before it counts as missed
+        useSocket(2000);
+        // a socket left reconnecting would find the next test's server on a reused port
+        scheduler = new ReconnectScheduler(() -> {
+            if (tornDown) return;
+            socket = socket.replace();
+            sendQueue.setTransport(socket);
+            socket.connect();
+        }, 10, 50, new Random(1));
+    }
+
+    private void useSocket(long minPongTimeoutMs) throws URISyntaxException {
+        socket = new DWebSocket(new URI("ws://127.0.0.1:" + server.getPort() + "/ws/user/0"), new Event(), sendQueue, metrics,
+                50, 200, minPongTimeoutMs);
+        sendQueue.setTransport(socket);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tornDown = true;
+        scheduler.stop();
+        socket.setConnectFlag(false);
+        socket.closeBlocking();
+        sendQueue.stop();
+        server.stop(1000);
+    }
+
+    @Test
+    public void reconnectsEveryTimeTheServerKillsTheConnection() throws Exception {
+        server.killOnOpen.set(5);
+        socket.connect();
+        waitFor(() -> opens.get() == 6 && server.killOnOpen.get() == 0);
+        waitFor(() -> scheduler.getReconnects() == 5);
+        assertTrue(scheduler.getAttempts() >= 5);
+        assertTrue(scheduler.getLastTimeToReconnectMs() >= 0);
+        assertEquals(0, logouts.get());
+    }
+
+    @Test
+    public void replaysCallControlLostInTheDrop() throws Exception {
+        server.killOnCancel.set(1);
+        socket.connect();
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        loggedIn = new CountDownLatch(1);
+
+        socket.sendCancel("user", "peer");
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        waitFor(() -> server.cancels.get() == 2);
+        assertEquals(1, sendQueue.getStats().replayed);
+    }
+
+    @Test
+    public void inviteIsNotRepeatedWhenTheDropComesBeforeTheRing() throws Exception {
+        // the callee would take a second __invite for a second call and refuse it as busy
+        server.killOnInvite.set(1);
+        socket.connect();
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        loggedIn = new CountDownLatch(1);
+
+        socket.sendInvite("room", "user", "peer", false);
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        socket.sendCancel("user", "peer");
+        waitFor(() -> server.cancels.get() == 1);
+        assertEquals(1, server.invites.get());
+        assertEquals(0, sendQueue.getStats().replayed);
+    }
+
+    @Test
+    public void iceIsNotReplayed() throws Exception {
+        server.killOnIce.set(1);
+        socket.connect();
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        loggedIn = new CountDownLatch(1);
+
+        socket.sendIceCandidate("peer", "0", 0, "candidate:1 1 udp 1 10.0.0.1 9 typ host");
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, server.candidates.get());
+        assertEquals(0, sendQueue.getStats().replayed);
+    }
+
+    @Test
+    public void detectsAHalfOpenConnection() throws Exception {
+        // the server stops answering pings, like a peer that vanished without a FIN
+        server.ignorePings = true;
+        useSocket(100);
+        socket.connect();
+        waitFor(() -> opens.get() >= 2);
+        server.ignorePings = false;
+        SignalMetrics.Snapshot snapshot = metrics.snapshot(sendQueue.getStats(), scheduler);
+        assertTrue(snapshot.deadConnections >= 1);
+        assertTrue(snapshot.reconnects >= 1);
+        assertEquals(0, logouts.get());
+    }
+
+    @Test
+    public void snapshotCountsEventsAndRtt() throws Exception {
+        socket.connect();
+        assertTrue(loggedIn.await(5, TimeUnit.SECONDS));
+        socket.sendInvite("room", "user", "peer", false);
+        waitFor(() -> metrics.snapshot(null, null).getOutboundCount("__invite") == 1);
+        waitFor(() -> metrics.snapshot(null, null).pongsReceived > 0);
+        SignalMetrics.Snapshot snapshot = metrics.snapshot(sendQueue.getStats(), scheduler);
+        assertEquals(1, snapshot.getInboundCount("__login_success"));
+        assertTrue(snapshot.rtt.getCount() > 0);
+        assertEquals(0, snapshot.deadConnections);
+    }
+
+    // ------------------------------------------------------------------------------------
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.met()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static class StandInServer extends WebSocketServer {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger killOnOpen = new AtomicInteger();
+        final AtomicInteger killOnInvite = new AtomicInteger();
+        final AtomicInteger killOnIce = new AtomicInteger();
+        final AtomicInteger killOnCancel = new AtomicInteger();
+        final AtomicInteger invites = new AtomicInteger();
+        final AtomicInteger cancels = new AtomicInteger();
+        final AtomicInteger candidates = new AtomicInteger();
+        final List<String> received = new CopyOnWriteArrayList<>();
+        volatile boolean ignorePings;
+
+        StandInServer(int port) {
+            super(new InetSocketAddress("127.0.0.1", port));
+            setReuseAddr(true);
+        }
+
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+            conn.send("{\"eventName\":\"__login_success\",\"data\":{\"userID\":\"user\",\"avatar\":\"\"}}");
+            if (killOnOpen.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                conn.close();
+            }
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+            received.add(message);
+            if (message.contains("\"__invite\"")) {
+                invites.incrementAndGet();
+                if (killOnInvite.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                    conn.close();
+                }
+            } else if (message.contains("\"__cancel\"")) {
+                cancels.incrementAndGet();
+                if (killOnCancel.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                    conn.close();
+                }
+            } else if (message.contains("\"__ice_candidate\"")) {
+                candidates.incrementAndGet();
+                if (killOnIce.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                    conn.close();
+                }
+            }
+        }
+
+        @Override
+        public void onWebsocketPing(WebSocket conn, Framedata f) {
+            if (!ignorePings) {
+                super.onWebsocketPing(conn, f);
+            }
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+
+        @Override
+        public void onStart() {
+            started.countDown();
+        }
+    }
+
+    private class Event implements IEvent {
+
+        @Override
+        public void onOpen() {
+            opens.incrementAndGet();
+            scheduler.onConnected();
+            sendQueue.onOpen();
+        }
+
+        @Override
+        public void loginSuccess(String userId, String avatar) {
+            loggedIn.countDown();
+        }
+
+        @Override
+        public void onInvite(String room, boolean audioOnly, String inviteId, String userList,
+                             String offer, List<IceCandidate> candidates) {
+        }
+
+        @Override
+        public void onCancel(String inviteId) {
+        }
+
+        @Override
+        public void onRing(String userId) {
+        }
+
+        @Override
+        public void onPeers(String myId, String userList) {
+        }
+
+        @Override
+        public void onNewPeer(String myId) {
+        }
+
+        @Override
+        public void onReject(String userId, int type) {
+        }
+
+        @Override
+        public void onOffer(String userId, String sdp) {
+        }
+
+        @Override
+        public void onAnswer(String userId, String sdp) {
+        }
+
+        @Override
+        public void onIceCandidate(String userId, String id, int label, String candidate) {
+        }
+
+        @Override
+        public void onIceCandidates(String userId, List<IceCandidate> candidates) {
+        }
+
+        @Override
+        public void onLeave(String userId) {
+        }
+
+        @Override
+        public void logout(String str) {
+            logouts.incrementAndGet();
+        }
+
+        @Override
+        public void reConnect() {
+            if (!tornDown) scheduler.onDisconnected();
+        }
+    }
+}
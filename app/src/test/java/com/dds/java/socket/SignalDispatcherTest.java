@@ -0,0 +1,82 @@
+package com.dds.java.socket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SignalDispatcherTest {
+
+    private final SignalMetrics metrics = new SignalMetrics();
+    private final SignalDispatcher dispatcher = new SignalDispatcher(metrics);
+
+    @After
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    @Test
+    public void keepsEachProducersOrder() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        // only touched on the dispatcher thread
+        int[] last = new int[producers];
+        int[] outOfOrder = new int[1];
+        CountDownLatch done = new CountDownLatch(producers * perProducer);
+        dispatcher.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= perProducer; i++) {
+                    int seq = i;
+                    dispatcher.post("__ice_candidate", () -> {
+                        if (last[producer] != seq - 1) outOfOrder[0]++;
+                        last[producer] = seq;
+                        done.countDown();
+                    });
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, outOfOrder[0]);
+        assertEquals(producers * perProducer, dispatcher.getDispatched());
+        assertEquals(0, dispatcher.getPending());
+    }
+
+    @Test
+    public void recordsDwellAndSurvivesAFailingEvent() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.start();
+        dispatcher.post("__offer", () -> {
+            throw new IllegalStateException("session gone");
+        });
+        dispatcher.post("__answer", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        SignalMetrics.Snapshot snapshot = metrics.snapshot(null, null);
+        assertEquals(1, snapshot.dwell.get("__offer").getCount());
+        assertEquals(1, snapshot.dwell.get("__answer").getCount());
+    }
+
+    @Test
+    public void eventsPostedBeforeStartRunAfterIt() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        dispatcher.post("__peers", done::countDown);
+        dispatcher.post("__new_peer", done::countDown);
+        dispatcher.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
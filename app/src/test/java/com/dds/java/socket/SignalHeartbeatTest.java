@@ -0,0 +1,109 @@
+package com.dds.java.socket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SignalHeartbeatTest {
+
+    private final SignalMetrics metrics = new SignalMetrics();
+    private final FakePinger pinger = new FakePinger();
+    private final SignalHeartbeat heartbeat = new SignalHeartbeat(pinger, metrics, 20, 80, 30);
+
+    @After
+    public void tearDown() {
+        heartbeat.stop();
+    }
+
+    @Test
+    public void pongsGiveRttSamples() throws InterruptedException {
+        pinger.answer = true;
+        heartbeat.start();
+        Thread.sleep(200);
+        SignalMetrics.Snapshot snapshot = metrics.snapshot(null, null);
+        assertTrue(snapshot.pongsReceived >= 3);
+        assertEquals(0, snapshot.pongsMissed);
+        assertTrue(snapshot.rtt.getCount() > 0);
+        assertTrue(snapshot.lastRttNanos >= 0);
+        assertEquals(0, pinger.dead.get());
+    }
+
+    @Test
+    public void reportsDeadAfterMissedPongs() throws InterruptedException {
+        heartbeat.start();
+        assertTrue(pinger.deadLatch.await(2, TimeUnit.SECONDS));
+        SignalMetrics.Snapshot snapshot = metrics.snapshot(null, null);
+        assertEquals(SignalHeartbeat.MAX_MISSED, snapshot.pongsMissed);
+        assertEquals(1, snapshot.deadConnections);
+        assertEquals(1, pinger.dead.get());
+    }
+
+    @Test
+    public void inboundTrafficKeepsTheConnectionAlive() throws InterruptedException {
+        heartbeat.start();
+        // no pongs, but the server keeps talking
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(5);
+            heartbeat.onInbound();
+        }
+        assertEquals(0, pinger.dead.get());
+        assertTrue(metrics.snapshot(null, null).pongsMissed > 0);
+    }
+
+    @Test
+    public void roundTripsAreMatchedToTheirReply() {
+        metrics.recordOutbound("__invite", 1000);
+        metrics.recordOutbound("__ice_candidate", 1000);
+        metrics.recordInbound("__ring", 2000);
+        metrics.recordInbound("__ring", 2000);
+        SignalMetrics.Snapshot snapshot = metrics.snapshot(null, null);
+        assertEquals(1, snapshot.getOutboundCount("__invite"));
+        assertEquals(2, snapshot.getInboundCount("__ring"));
+        assertEquals(1, snapshot.roundTrips.get("__invite->__ring").getCount());
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+        }
+        long p50 = histogram.getPercentileNanos(50);
+        long p99 = histogram.getPercentileNanos(99);
+        assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(10) && p50 < TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), p99);
+        assertEquals(100, histogram.getCount());
+    }
+
+    private class FakePinger implements SignalHeartbeat.Pinger {
+        volatile boolean answer;
+        final AtomicInteger dead = new AtomicInteger();
+        final AtomicLong pings = new AtomicLong();
+        final CountDownLatch deadLatch = new CountDownLatch(1);
+
+        @Override
+        public boolean sendPing(long seq) {
+            pings.incrementAndGet();
+            if (answer) {
+                new Thread(() -> heartbeat.onPong(seq)).start();
+            }
+            return true;
+        }
+
+        @Override
+        public void onDead() {
+            dead.incrementAndGet();
+            deadLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.dds.java.socket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SignalSendQueueTest {
+
+    private final SignalSendQueue queue = new SignalSendQueue();
+    private final FakeTransport transport = new FakeTransport();
+
+    @After
+    public void tearDown() {
+        queue.stop();
+    }
+
+    @Test
+    public void buffersWhileClosedAndFlushesByPriority() throws InterruptedException {
+        queue.setTransport(transport);
+        queue.start();
+        queue.offer(SignalSendQueue.Lane.ICE, "__ice_candidate", "ice");
+        queue.offer(SignalSendQueue.Lane.SDP, "__offer", "offer");
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__invite", "invite");
+        Thread.sleep(50);
+        assertTrue(transport.sent.isEmpty());
+
+        transport.open = true;
+        queue.onOpen();
+        waitForSent(3);
+        assertEquals("invite", transport.sent.get(0));
+        assertEquals("offer", transport.sent.get(1));
+        assertEquals("ice", transport.sent.get(2));
+        assertEquals(3, queue.getStats().sent);
+    }
+
+    @Test
+    public void fullIceLaneDropsOldest() throws InterruptedException {
+        queue.setTransport(transport);
+        queue.start();
+        int total = SignalSendQueue.Lane.ICE.capacity + 10;
+        for (int i = 0; i < total; i++) {
+            assertTrue(queue.offer(SignalSendQueue.Lane.ICE, "__ice_candidate", "ice" + i));
+        }
+        SignalSendQueue.Stats stats = queue.getStats();
+        assertEquals(10, stats.getDropped(SignalSendQueue.Lane.ICE));
+        assertEquals(SignalSendQueue.Lane.ICE.capacity, stats.getDepth(SignalSendQueue.Lane.ICE));
+
+        transport.open = true;
+        queue.onOpen();
+        waitForSent(SignalSendQueue.Lane.ICE.capacity);
+        assertEquals("ice10", transport.sent.get(0));
+    }
+
+    @Test
+    public void fullControlLaneRefusesNewMessages() {
+        for (int i = 0; i < SignalSendQueue.Lane.CONTROL.capacity; i++) {
+            assertTrue(queue.offer(SignalSendQueue.Lane.CONTROL, "__leave", "leave"));
+        }
+        assertEquals(false, queue.offer(SignalSendQueue.Lane.CONTROL, "__leave", "leave"));
+        assertEquals(1, queue.getStats().getDropped(SignalSendQueue.Lane.CONTROL));
+    }
+
+    @Test
+    public void pongOnlyAcknowledgesWhatWasSentBeforeThePing() throws InterruptedException {
+        transport.open = true;
+        queue.setTransport(transport);
+        queue.start();
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__reject", "reject");
+        waitForSent(1);
+        long ping = System.nanoTime();
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__leave", "leave");
+        waitForSent(2);
+
+        queue.onAcknowledged(ping);
+        queue.onClosed();
+        assertEquals(1, queue.getStats().replayed);
+    }
+
+    @Test
+    public void onlyMessagesSafeToRepeatAreReplayed() throws InterruptedException {
+        transport.open = true;
+        queue.setTransport(transport);
+        queue.start();
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__create", "create");
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__invite", "invite");
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__join", "join");
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__cancel", "cancel");
+        waitForSent(4);
+
+        transport.open = false;
+        queue.onClosed();
+        assertEquals(1, queue.getStats().replayed);
+        transport.open = true;
+        queue.onOpen();
+        waitForSent(5);
+        assertEquals("cancel", transport.sent.get(4));
+    }
+
+    @Test
+    public void dropDuringTheWriteIsReplayed() throws InterruptedException {
+        transport.open = true;
+        // the socket's reader sees the close before the sender is back from the write
+        transport.onSend = () -> {
+            transport.onSend = null;
+            queue.onClosed();
+        };
+        queue.setTransport(transport);
+        queue.start();
+        queue.offer(SignalSendQueue.Lane.CONTROL, "__leave", "leave");
+        waitForSent(2);
+        assertEquals("leave", transport.sent.get(1));
+        assertEquals(1, queue.getStats().replayed);
+    }
+
+    private void waitForSent(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        // counted right after the write
+        while (queue.getStats().sent < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, transport.sent.size());
+    }
+
+    private static class FakeTransport implements SignalSendQueue.Transport {
+        volatile boolean open;
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        volatile Runnable onSend;
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void send(String text) {
+            sent.add(text);
+            Runnable hook = onSend;
+            if (hook != null) {
+                hook.run();
+            }
+        }
+    }
+}
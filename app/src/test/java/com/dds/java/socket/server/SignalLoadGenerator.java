@@ -0,0 +1,425 @@
+package com.dds.java.socket.server;
+
+import com.dds.java.socket.DWebSocket;
+import com.dds.java.socket.IEvent;
+import com.dds.java.socket.SignalMetrics;
+import com.dds.java.socket.SignalSendQueue;
+import com.dds.java.socket.signal.SignalDecoder;
+import com.dds.java.socket.signal.SignalEvent;
+
+import org.webrtc.IceCandidate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives pairs of real DWebSocket clients through a full call setup against {@link SignalServer}.
+ * <p>
+ * Per pair in the {@link Mode#CLASSIC} flow: caller __create -> __peers -> __invite, callee
+ * __ring + __join -> __peers, caller gets __new_peer, callee __offer + ice, caller __answer
+ * + ice, callee __leave. With {@link Mode#OFFER_IN_INVITE} the caller's offer and candidates
+ * go with the __invite and the callee answers right away, the __join round trip and a relay
+ * of the offer are saved. Setup latency is measured from the caller's __create until both
+ * sides have the other's description and candidates, give the server a relay delay to see
+ * the round trips in it. All clients connect and log in first, only the
+ * calls are measured, at most {@code concurrency} of them in flight so the latency is
+ * the protocol's and not a queue of thousands of calls started in the same instant.
+ * Client allocation is read per thread from the JVM, server threads excluded, so it
+ * includes the socket library and not just our code.
+ * <p>
+ * Run main() with the number of pairs, the concurrency, the mode and the relay delay, e.g.
+ * "1000 50" for 2000 clients or "100 10 OFFER_IN_INVITE 30".
+ */
+public class SignalLoadGenerator {
+
+    public enum Mode {
+        CLASSIC,
+        // the caller sends its offer with the invite
+        OFFER_IN_INVITE,
+        // it does, but the callees are older clients that ignore it, the caller has to fall back
+        OFFER_IN_INVITE_OLD_CALLEE
+    }
+
+    private static final List<IceCandidate> CANDIDATES = Arrays.asList(
+            new IceCandidate("0", 0, "candidate:1 1 udp 2122260223 192.168.1.23 51234 typ host generation 0"),
+            new IceCandidate("0", 0, "candidate:2 1 udp 1686052607 203.0.113.24 51234 typ srflx raddr 192.168.1.23 rport 51234 generation 0"),
+            new IceCandidate("0", 0, "candidate:3 1 tcp 1518280447 192.168.1.23 9 typ host tcptype active generation 0"));
+
+    private final int pairs;
+    private final int concurrency;
+    private final Mode mode;
+    private final long relayDelayMs;
+    private final String offerSdp;
+    private final String answerSdp;
+    private final long[] setupNanos;
+    private final AtomicInteger setups = new AtomicInteger();
+    private final Semaphore inFlight;
+    private final AtomicInteger failures = new AtomicInteger();
+    private CountDownLatch loggedIn;
+    private CountDownLatch completed;
+    private CountDownLatch left;
+
+    public SignalLoadGenerator(int pairs, int concurrency) {
+        this(pairs, concurrency, Mode.CLASSIC, 0);
+    }
+
+    public SignalLoadGenerator(int pairs, int concurrency, Mode mode, long relayDelayMs) {
+        this.pairs = pairs;
+        this.concurrency = concurrency;
+        this.mode = mode;
+        this.relayDelayMs = relayDelayMs;
+        this.setupNanos = new long[pairs];
+        this.inFlight = new Semaphore(concurrency);
+        SignalDecoder decoder = new SignalDecoder();
+        this.offerSdp = ((SignalEvent.Offer) decoder.decode(resource("/signal/offer.json"))).sdp;
+        this.answerSdp = ((SignalEvent.Answer) decoder.decode(resource("/signal/answer.json"))).sdp;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        Mode mode = args.length > 2 ? Mode.valueOf(args[2]) : Mode.CLASSIC;
+        long relayDelayMs = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        System.out.println(new SignalLoadGenerator(pairs, concurrency, mode, relayDelayMs).run());
+        System.exit(0);
+    }
+
+    public Report run() throws Exception {
+        SignalServer server = new SignalServer(freePort());
+        server.setRelayDelayMs(relayDelayMs);
+        server.startAndWait();
+        List<Client> clients = new ArrayList<>(pairs * 2);
+        try {
+            loggedIn = new CountDownLatch(pairs * 2);
+            completed = new CountDownLatch(pairs);
+            left = new CountDownLatch(pairs);
+            String base = "ws://127.0.0.1:" + server.getPort() + "/ws/";
+            for (int i = 0; i < pairs; i++) {
+                Client caller = new Client(base, "caller" + i, "callee" + i, "room" + i, true);
+                Client callee = new Client(base, "callee" + i, "caller" + i, "room" + i, false);
+                caller.peer = callee;
+                callee.peer = caller;
+                AtomicInteger ready = new AtomicInteger();
+                caller.pairReady = ready;
+                callee.pairReady = ready;
+                clients.add(caller);
+                clients.add(callee);
+                caller.socket.connect();
+                callee.socket.connect();
+            }
+            if (!loggedIn.await(60, TimeUnit.SECONDS)) {
+                throw new IllegalStateException((pairs * 2 - loggedIn.getCount()) + " of " + pairs * 2 + " clients logged in");
+            }
+
+            long receivedBefore = server.getReceived();
+            long sentBefore = server.getSent();
+            long allocatedBefore = clientAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < clients.size(); i += 2) {
+                if (!inFlight.tryAcquire(30, TimeUnit.SECONDS)) break;
+                clients.get(i).call();
+            }
+            boolean done = completed.await(60, TimeUnit.SECONDS) && left.await(30, TimeUnit.SECONDS);
+            long elapsedNanos = System.nanoTime() - start;
+            long allocated = clientAllocatedBytes() - allocatedBefore;
+            long messages = server.getReceived() - receivedBefore + server.getSent() - sentBefore;
+
+            SignalMetrics.Snapshot sample = clients.get(0).metrics.snapshot(null, null);
+            int count = Math.min(setups.get(), pairs);
+            long[] sorted = Arrays.copyOf(setupNanos, count);
+            Arrays.sort(sorted);
+            return new Report(mode, relayDelayMs, pairs, concurrency, done ? pairs : pairs - (int) completed.getCount(), failures.get(),
+                    sorted, messages, elapsedNanos, allocated, sample);
+        } finally {
+            for (Client client : clients) {
+                client.close();
+            }
+            server.stop(1000);
+        }
+    }
+
+    private void onSetupComplete(long nanos) {
+        int i = setups.getAndIncrement();
+        if (i < pairs) {
+            setupNanos[i] = nanos;
+        }
+        inFlight.release();
+        completed.countDown();
+    }
+
+    // -----------------------------------------client-----------------------------------------
+
+    private class Client implements IEvent {
+        final String id;
+        final String peerId;
+        final String room;
+        final boolean caller;
+        final SignalMetrics metrics = new SignalMetrics();
+        final SignalSendQueue sendQueue = new SignalSendQueue();
+        final DWebSocket socket;
+        Client peer;
+        // how many of the two sides are ready
+        AtomicInteger pairReady;
+        volatile long callStartNanos;
+        // this side has the other's description and candidates
+        private boolean haveSdp;
+        private boolean haveCandidates;
+        private boolean ready;
+        // callee: answered the offer of the invite, no offer after joining
+        private boolean answeredInvite;
+
+        Client(String base, String id, String peerId, String room, boolean caller) throws Exception {
+            this.id = id;
+            this.peerId = peerId;
+            this.room = room;
+            this.caller = caller;
+            sendQueue.setMetrics(metrics);
+            sendQueue.start();
+            socket = new DWebSocket(new URI(base + id + "/0"), this, sendQueue, metrics);
+            sendQueue.setTransport(socket);
+        }
+
+        void call() {
+            callStartNanos = System.nanoTime();
+            socket.createRoom(room, 2, id);
+        }
+
+        void close() {
+            socket.setConnectFlag(false);
+            socket.close();
+            sendQueue.stop();
+        }
+
+        private synchronized void gotSdp() {
+            haveSdp = true;
+            checkReady();
+        }
+
+        private synchronized void gotCandidates() {
+            haveCandidates = true;
+            checkReady();
+        }
+
+        private void checkReady() {
+            if (ready || !haveSdp || !haveCandidates) return;
+            ready = true;
+            if (pairReady.incrementAndGet() == 2) {
+                Client caller = this.caller ? this : peer;
+                Client callee = this.caller ? peer : this;
+                onSetupComplete(System.nanoTime() - caller.callStartNanos);
+                callee.socket.sendLeave(callee.id, room, caller.id);
+            }
+        }
+
+        @Override
+        public void onOpen() {
+            sendQueue.onOpen();
+        }
+
+        @Override
+        public void loginSuccess(String userId, String avatar) {
+            loggedIn.countDown();
+        }
+
+        @Override
+        public void onInvite(String room, boolean audioOnly, String inviteId, String userList,
+                             String offer, List<IceCandidate> candidates) {
+            socket.sendRing(id, inviteId);
+            socket.sendJoin(room, id);
+            if (offer == null || mode == Mode.OFFER_IN_INVITE_OLD_CALLEE) return;
+            synchronized (this) {
+                answeredInvite = true;
+            }
+            socket.sendAnswer(id, inviteId, answerSdp);
+            socket.sendIceCandidates(inviteId, CANDIDATES);
+            gotSdp();
+            if (candidates != null && !candidates.isEmpty()) {
+                gotCandidates();
+            }
+        }
+
+        @Override
+        public void onCancel(String inviteId) {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public void onRing(String userId) {
+        }
+
+        @Override
+        public void onPeers(String myId, String userList) {
+            if (caller) {
+                if (mode == Mode.CLASSIC) {
+                    socket.sendInvite(room, id, peerId, false);
+                } else {
+                    socket.sendInvite(room, id, peerId, false, offerSdp, CANDIDATES);
+                }
+            } else {
+                synchronized (this) {
+                    if (answeredInvite) return;
+                }
+                socket.sendOffer(id, peerId, offerSdp);
+                socket.sendIceCandidates(peerId, CANDIDATES);
+            }
+        }
+
+        @Override
+        public void onNewPeer(String myId) {
+        }
+
+        @Override
+        public void onReject(String userId, int type) {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public void onOffer(String userId, String sdp) {
+            // in OFFER_IN_INVITE_OLD_CALLEE the caller drops its own offer here, as CallSession does
+            socket.sendAnswer(id, userId, answerSdp);
+            socket.sendIceCandidates(userId, CANDIDATES);
+            gotSdp();
+        }
+
+        @Override
+        public void onAnswer(String userId, String sdp) {
+            gotSdp();
+        }
+
+        @Override
+        public void onIceCandidate(String userId, String id, int label, String candidate) {
+        }
+
+        @Override
+        public void onIceCandidates(String userId, List<IceCandidate> list) {
+            gotCandidates();
+        }
+
+        @Override
+        public void onLeave(String userId) {
+            left.countDown();
+        }
+
+        @Override
+        public void logout(String str) {
+        }
+
+        @Override
+        public void reConnect() {
+            failures.incrementAndGet();
+        }
+    }
+
+    // -----------------------------------------report-----------------------------------------
+
+    public static class Report {
+        public final Mode mode;
+        public final long relayDelayMs;
+        public final int pairs;
+        public final int concurrency;
+        public final int completed;
+        public final int failures;
+        // sorted
+        public final long[] setupNanos;
+        public final long messages;
+        public final long elapsedNanos;
+        public final long clientAllocatedBytes;
+        // metrics of one caller, for the per-event picture
+        public final SignalMetrics.Snapshot sampleClient;
+
+        Report(Mode mode, long relayDelayMs, int pairs, int concurrency, int completed, int failures,
+               long[] setupNanos, long messages, long elapsedNanos, long clientAllocatedBytes,
+               SignalMetrics.Snapshot sampleClient) {
+            this.mode = mode;
+            this.relayDelayMs = relayDelayMs;
+            this.pairs = pairs;
+            this.concurrency = concurrency;
+            this.completed = completed;
+            this.failures = failures;
+            this.setupNanos = setupNanos;
+            this.messages = messages;
+            this.elapsedNanos = elapsedNanos;
+            this.clientAllocatedBytes = clientAllocatedBytes;
+            this.sampleClient = sampleClient;
+        }
+
+        // Exact percentile of the measured setups, 0..100
+        public long getSetupPercentileNanos(double percentile) {
+            if (setupNanos.length == 0) return 0;
+            int rank = (int) Math.ceil(percentile / 100 * setupNanos.length);
+            return setupNanos[Math.max(0, Math.min(setupNanos.length, rank) - 1)];
+        }
+
+        public double getMessagesPerSecond() {
+            return elapsedNanos == 0 ? 0 : messages * 1e9 / elapsedNanos;
+        }
+
+        public double getClientAllocationMbPerSecond() {
+            return elapsedNanos == 0 ? 0 : clientAllocatedBytes * 1e9 / elapsedNanos / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return mode + ", relay delay " + relayDelayMs + "ms\n"
+                    + "calls " + completed + "/" + pairs + " (" + pairs * 2 + " clients, " + concurrency
+                    + " in flight), failures " + failures + "\n"
+                    + String.format("setup latency ms: p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                    getSetupPercentileNanos(50) / 1e6, getSetupPercentileNanos(90) / 1e6,
+                    getSetupPercentileNanos(99) / 1e6, getSetupPercentileNanos(100) / 1e6)
+                    + String.format("messages: %d in %.2f s, %.0f msg/s%n", messages, elapsedNanos / 1e9, getMessagesPerSecond())
+                    + String.format("client allocation: %.1f MB/s, %d KB per call%n", getClientAllocationMbPerSecond(),
+                    completed == 0 ? 0 : clientAllocatedBytes / completed / 1024)
+                    + "sample client: " + sampleClient;
+        }
+    }
+
+    // -----------------------------------------helpers----------------------------------------
+
+    // Bytes allocated so far by every live thread except the server's
+    private static long clientAllocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.startsWith("WebSocketSelector-") || name.startsWith("WebSocketWorker-")) continue;
+            long bytes = threads.getThreadAllocatedBytes(thread.getId());
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static String resource(String name) {
+        try (InputStream in = SignalLoadGenerator.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("missing resource " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.dds.java.socket.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A small run of the load generator, every call has to make it through the stand-in server.
+ */
+public class SignalLoadGeneratorTest {
+
+    @Test
+    public void everyCallCompletes() throws Exception {
+        SignalLoadGenerator.Report report = new SignalLoadGenerator(20, 5).run();
+        assertEquals(20, report.completed);
+        assertEquals(0, report.failures);
+        assertEquals(20, report.setupNanos.length);
+        assertTrue(report.getSetupPercentileNanos(50) <= report.getSetupPercentileNanos(99));
+        assertTrue(report.messages > 0);
+        assertEquals(1, report.sampleClient.getOutboundCount("__create"));
+        assertEquals(1, report.sampleClient.getInboundCount("__offer"));
+    }
+
+    @Test
+    public void offerInInviteSavesRoundTrips() throws Exception {
+        long delay = 25;
+        SignalLoadGenerator.Report classic = new SignalLoadGenerator(10, 5,
+                SignalLoadGenerator.Mode.CLASSIC, delay).run();
+        SignalLoadGenerator.Report fast = new SignalLoadGenerator(10, 5,
+                SignalLoadGenerator.Mode.OFFER_IN_INVITE, delay).run();
+        assertEquals(10, classic.completed);
+        assertEquals(10, fast.completed);
+        assertEquals(0, fast.failures);
+        // five relays (__peers __invite __peers __offer __answer) against three (__peers __invite __answer)
+        long saved = classic.getSetupPercentileNanos(50) - fast.getSetupPercentileNanos(50);
+        assertTrue(saved / 1e6 + "ms saved", saved >= TimeUnit.MILLISECONDS.toNanos(delay * 3 / 2));
+        assertTrue(fast.messages < classic.messages);
+        // the caller's offer only went with the invite
+        assertEquals(0, fast.sampleClient.getOutboundCount("__offer"));
+        assertEquals(1, fast.sampleClient.getInboundCount("__answer"));
+    }
+
+    @Test
+    public void olderCalleesFallBackToTheClassicFlow() throws Exception {
+        SignalLoadGenerator.Report report = new SignalLoadGenerator(10, 5,
+                SignalLoadGenerator.Mode.OFFER_IN_INVITE_OLD_CALLEE, 0).run();
+        assertEquals(10, report.completed);
+        assertEquals(0, report.failures);
+        assertEquals(1, report.sampleClient.getInboundCount("__offer"));
+        assertEquals(1, report.sampleClient.getOutboundCount("__answer"));
+    }
+}
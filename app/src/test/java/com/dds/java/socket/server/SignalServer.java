@@ -0,0 +1,358 @@
+package com.dds.java.socket.server;
+
+import com.dds.java.socket.signal.JsonPullReader;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the signaling server.
+ * <p>
+ * Speaks the room protocol DWebSocket expects: clients connect to .../{userId}/{device}
+ * and get __login_success, __create and __join answer with __peers and tell the room
+ * with __new_peer, __invite __ring __cancel __reject go to the named users, __offer
+ * __answer and ice candidates are relayed to their target with the sender filled in,
+ * and __leave (or a dropped connection) tells whoever is left in the room.
+ * <p>
+ * An __invite carrying the caller's offer is relayed with it unless that is switched off,
+ * like a server that only knows the classic fields. A relay delay holds back everything the
+ * server sends, so benchmarks can count round trips over something like a real network.
+ */
+public class SignalServer extends WebSocketServer {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final Map<String, WebSocket> users = new ConcurrentHashMap<>();
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private volatile boolean relayInviteOffer = true;
+    private volatile long relayDelayMs;
+    // in order, everything is delayed by the same amount
+    private final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "SignalServer-delay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Room {
+        final List<String> members = new ArrayList<>();
+    }
+
+    public SignalServer(int port) {
+        super(new InetSocketAddress("127.0.0.1", port));
+        setReuseAddr(true);
+        setTcpNoDelay(true);
+    }
+
+    public void startAndWait() throws InterruptedException {
+        start();
+        if (!started.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("signal server did not start");
+        }
+    }
+
+    public void setRelayInviteOffer(boolean relayInviteOffer) {
+        this.relayInviteOffer = relayInviteOffer;
+    }
+
+    // One way latency added to every message the server sends
+    public void setRelayDelayMs(long relayDelayMs) {
+        this.relayDelayMs = relayDelayMs;
+    }
+
+    @Override
+    public void stop(int timeout) throws InterruptedException {
+        super.stop(timeout);
+        delayer.shutdownNow();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        // .../ws/{userId}/{device}
+        String[] path = handshake.getResourceDescriptor().split("/");
+        String userId = path.length >= 2 ? path[path.length - 2] : "";
+        conn.setAttachment(userId);
+        WebSocket old = users.put(userId, conn);
+        if (old != null && old != conn) {
+            old.close();
+        }
+        send(conn, "__login_success", "userID", userId, "avatar", "");
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        received.incrementAndGet();
+        String from = conn.getAttachment();
+        Map<String, String> data = new HashMap<>();
+        String eventName = parse(message, data);
+        if (eventName == null) return;
+        switch (eventName) {
+            case "__create":
+            case "__join":
+                join(conn, from, data.get("room"));
+                break;
+            case "__invite":
+                boolean withOffer = relayInviteOffer && data.get("offer") != null;
+                for (String userId : split(data.get("userList"))) {
+                    if (withOffer) {
+                        send(userId, "__invite", "room", data.get("room"),
+                                "audioOnly", raw(data.get("audioOnly")),
+                                "inviteID", data.get("inviteID"), "userList", data.get("userList"),
+                                "offer", data.get("offer"), "candidates", raw(data.get("candidates")));
+                    } else {
+                        send(userId, "__invite", "room", data.get("room"),
+                                "audioOnly", raw(data.get("audioOnly")),
+                                "inviteID", data.get("inviteID"), "userList", data.get("userList"));
+                    }
+                }
+                break;
+            case "__cancel":
+                for (String userId : split(data.get("userList"))) {
+                    send(userId, "__cancel", "inviteID", data.get("inviteID"), "userList", data.get("userList"));
+                }
+                break;
+            case "__ring":
+                send(data.get("toID"), "__ring", "fromID", from);
+                break;
+            case "__reject":
+                send(data.get("toID"), "__reject", "fromID", from, "refuseType", data.get("refuseType"));
+                break;
+            case "__offer":
+            case "__answer":
+                send(data.get("userID"), eventName, "sdp", data.get("sdp"), "fromID", from);
+                break;
+            case "__ice_candidate":
+                send(data.get("userID"), eventName, "userID", from, "id", data.get("id"),
+                        "label", raw(data.get("label")), "candidate", data.get("candidate"));
+                break;
+            case "__ice_candidates":
+                send(data.get("userID"), eventName, "userID", from, "candidates", raw(data.get("candidates")));
+                break;
+            case "__leave":
+                leave(from, data.get("room"));
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        String userId = conn.getAttachment();
+        if (userId == null || !users.remove(userId, conn)) return;
+        for (String room : new ArrayList<>(rooms.keySet())) {
+            leave(userId, room);
+        }
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    // ------------------------------------rooms------------------------------------------
+
+    private void join(WebSocket conn, String userId, String roomId) {
+        if (roomId == null) return;
+        List<String> others;
+        Room room = rooms.computeIfAbsent(roomId, id -> new Room());
+        synchronized (room) {
+            others = new ArrayList<>(room.members);
+            if (!room.members.contains(userId)) {
+                room.members.add(userId);
+            }
+        }
+        others.remove(userId);
+        send(conn, "__peers", "connections", join(others), "userID", userId);
+        for (String other : others) {
+            send(other, "__new_peer", "userID", userId);
+        }
+    }
+
+    private void leave(String userId, String roomId) {
+        Room room = roomId == null ? null : rooms.get(roomId);
+        if (room == null) return;
+        List<String> others;
+        synchronized (room) {
+            if (!room.members.remove(userId)) return;
+            others = new ArrayList<>(room.members);
+            if (others.isEmpty()) {
+                rooms.remove(roomId, room);
+            }
+        }
+        for (String other : others) {
+            send(other, "__leave", "fromID", userId);
+        }
+    }
+
+    // ------------------------------------json-------------------------------------------
+
+    // A value written as is instead of as a string
+    private static final class Raw {
+        final String json;
+
+        Raw(String json) {
+            this.json = json;
+        }
+    }
+
+    private static Raw raw(String json) {
+        return new Raw(json == null ? "null" : json);
+    }
+
+    private void send(String userId, String eventName, Object... fields) {
+        WebSocket conn = userId == null ? null : users.get(userId);
+        if (conn != null) {
+            send(conn, eventName, fields);
+        }
+    }
+
+    private void send(WebSocket conn, String eventName, Object... fields) {
+        StringBuilder out = new StringBuilder(128);
+        out.append("{\"eventName\":\"").append(eventName).append("\",\"data\":{");
+        for (int i = 0; i < fields.length; i += 2) {
+            if (i > 0) out.append(',');
+            out.append('"').append(fields[i]).append("\":");
+            Object value = fields[i + 1];
+            if (value instanceof Raw) {
+                out.append(((Raw) value).json);
+            } else {
+                string(out, (String) value);
+            }
+        }
+        out.append("}}");
+        String message = out.toString();
+        long delay = relayDelayMs;
+        if (delay > 0) {
+            delayer.schedule(() -> write(conn, message), delay, TimeUnit.MILLISECONDS);
+        } else {
+            write(conn, message);
+        }
+    }
+
+    private void write(WebSocket conn, String message) {
+        if (conn.isOpen()) {
+            conn.send(message);
+            sent.incrementAndGet();
+        }
+    }
+
+    private static void string(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Reads the eventName and the top level fields of data. Strings are decoded,
+     * anything else is kept as its json text.
+     */
+    private static String parse(String message, Map<String, String> data) {
+        JsonPullReader reader = new JsonPullReader(message);
+        String eventName = null;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("eventName".equals(name)) {
+                    eventName = reader.nextString();
+                } else if ("data".equals(name) && !reader.nextNull()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String key = reader.nextName();
+                        int start = reader.position();
+                        reader.skipValue();
+                        String value = message.substring(start, reader.position()).trim();
+                        if (value.startsWith("\"")) {
+                            value = new JsonPullReader(value).nextString();
+                        }
+                        data.put(key, value);
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return eventName;
+    }
+
+    private static List<String> split(String userList) {
+        List<String> ids = new ArrayList<>();
+        if (userList == null) return ids;
+        for (String id : userList.split(",")) {
+            if (!id.isEmpty()) ids.add(id);
+        }
+        return ids;
+    }
+
+    private static String join(List<String> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (String id : ids) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+}
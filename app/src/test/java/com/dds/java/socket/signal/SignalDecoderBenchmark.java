@@ -0,0 +1,76 @@
+package com.dds.java.socket.signal;
+
+import com.alibaba.fastjson.JSON;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typed decoder against the previous JSON-to-Map parsing of DWebSocket.handleMessage.
+ * Run main() from the IDE, add "-prof gc" to the options to see allocation per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalDecoderBenchmark {
+
+    @Param({"offer.json", "answer.json", "ice_candidate.json"})
+    public String payload;
+
+    private String message;
+    private SignalDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        message = SignalPayloads.load(payload);
+        decoder = new SignalDecoder();
+    }
+
+    @Benchmark
+    public SignalEvent typedDecoder() {
+        return decoder.decode(message);
+    }
+
+    // What handleMessage did before: parse to a Map, compare names, read fields through casts
+    @Benchmark
+    public void legacyMap(Blackhole blackhole) {
+        Map map = JSON.parseObject(message, Map.class);
+        String eventName = (String) map.get("eventName");
+        if (eventName == null) return;
+        Map data = (Map) map.get("data");
+        if (eventName.equals("__offer") || eventName.equals("__answer")) {
+            blackhole.consume(data.get("sdp"));
+            blackhole.consume(data.get("fromID"));
+        } else if (eventName.equals("__ice_candidate")) {
+            blackhole.consume(data.get("userID"));
+            blackhole.consume(data.get("id"));
+            blackhole.consume((int) data.get("label"));
+            blackhole.consume(data.get("candidate"));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SignalDecoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.dds.java.socket.signal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SignalDecoderTest {
+
+    private final SignalDecoder decoder = new SignalDecoder();
+
+    @Test
+    public void decodesRecordedOffer() {
+        SignalEvent event = decoder.decode(SignalPayloads.load("offer.json"));
+        assertTrue(event instanceof SignalEvent.Offer);
+        SignalEvent.Offer offer = (SignalEvent.Offer) event;
+        assertEquals("caller", offer.fromId);
+        assertTrue(offer.sdp.startsWith("v=0\r\n"));
+        assertTrue(offer.sdp.endsWith("\r\n"));
+    }
+
+    @Test
+    public void decodesDataBeforeEventName() {
+        SignalEvent event = decoder.decode(SignalPayloads.load("answer.json"));
+        assertTrue(event instanceof SignalEvent.Answer);
+        assertEquals("callee", ((SignalEvent.Answer) event).fromId);
+    }
+
+    @Test
+    public void decodesIceCandidate() {
+        SignalEvent.Candidate candidate =
+                (SignalEvent.Candidate) decoder.decode(SignalPayloads.load("ice_candidate.json"));
+        assertEquals("caller", candidate.userId);
+        assertEquals("0", candidate.id);
+        assertEquals(0, candidate.label);
+        assertTrue(candidate.candidate.startsWith("candidate:"));
+    }
+
+    @Test
+    public void decodesCandidateBatch() {
+        SignalEvent.Candidates batch = (SignalEvent.Candidates) decoder.decode(
+                "{\"eventName\":\"__ice_candidates\",\"data\":{\"userID\":\"u\",\"candidates\":["
+                        + "{\"id\":\"0\",\"label\":0,\"candidate\":\"a\"},"
+                        + "{\"id\":\"1\",\"label\":1,\"candidate\":\"b\\u0021\"}]}}");
+        assertEquals(2, batch.candidates.size());
+        assertEquals(1, batch.candidates.get(1).sdpMLineIndex);
+        assertEquals("b!", batch.candidates.get(1).sdp);
+    }
+
+    @Test
+    public void acceptsQuotedRefuseType() {
+        SignalEvent.Reject reject = (SignalEvent.Reject) decoder.decode(
+                "{\"eventName\":\"__reject\",\"data\":{\"toID\":\"b\",\"fromID\":\"a\",\"refuseType\":\"1\"}}");
+        assertEquals("a", reject.fromId);
+        assertEquals(1, reject.refuseType);
+    }
+
+    @Test
+    public void skipsUnknownFieldsAndEvents() {
+        SignalEvent.Invite invite = (SignalEvent.Invite) decoder.decode(
+                "{ \"eventName\" : \"__invite\", \"extra\": [1, {\"x\": null}, true],"
+                        + " \"data\": {\"room\":\"r\",\"audioOnly\":true,\"inviteID\":\"i\",\"userList\":\"a,b\"} }");
+        assertEquals("r", invite.room);
+        assertTrue(invite.audioOnly);
+        assertEquals("a,b", invite.userList);
+
+        assertNull(decoder.decode("{\"eventName\":\"__unknown\",\"data\":{\"a\":1}}"));
+        assertNull(decoder.decode("{\"eventName\":\"__leave\",\"data\":null}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedMessage() {
+        decoder.decode("{\"eventName\":\"__offer\",\"data\":{\"sdp\":\"v=0");
+    }
+}
@@ -0,0 +1,92 @@
+package com.dds.java.socket.signal;
+
+import com.alibaba.fastjson.JSONObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SignalEncoder against the HashMap + JSONObject building the DWebSocket senders did before.
+ * The gc profiler reports bytes allocated per message as gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalEncoderBenchmark {
+
+    private static final String CANDIDATE =
+            "candidate:842163049 1 udp 1677729535 203.0.113.24 51234 typ srflx raddr 192.168.1.23 rport 51234 generation 0";
+
+    private SignalEncoder encoder;
+    private String sdp;
+
+    @Setup
+    public void setUp() {
+        encoder = new SignalEncoder();
+        SignalEvent.Offer offer = (SignalEvent.Offer) new SignalDecoder().decode(SignalPayloads.load("offer.json"));
+        sdp = offer.sdp;
+    }
+
+    @Benchmark
+    public String offerEncoder() {
+        return encoder.offer("caller", "callee", sdp);
+    }
+
+    @Benchmark
+    public String offerLegacy() {
+        Map<String, Object> map = new HashMap<>();
+        Map<String, Object> childMap = new HashMap<>();
+        childMap.put("sdp", sdp);
+        childMap.put("userID", "callee");
+        childMap.put("fromID", "caller");
+        map.put("data", childMap);
+        map.put("eventName", "__offer");
+        JSONObject object = new JSONObject(map);
+        return object.toString();
+    }
+
+    @Benchmark
+    public String iceEncoder() {
+        return encoder.iceCandidate("callee", "0", 0, CANDIDATE);
+    }
+
+    @Benchmark
+    public String iceLegacy() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("eventName", "__ice_candidate");
+        Map<String, Object> childMap = new HashMap<>();
+        childMap.put("userID", "callee");
+        childMap.put("id", "0");
+        childMap.put("label", 0);
+        childMap.put("candidate", CANDIDATE);
+        map.put("data", childMap);
+        JSONObject object = new JSONObject(map);
+        return object.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SignalEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package com.dds.java.socket.signal;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SignalEncoderTest {
+
+    private final SignalEncoder encoder = new SignalEncoder();
+    private final SignalDecoder decoder = new SignalDecoder();
+
+    @Test
+    public void offerRoundTrip() {
+        String sdp = ((SignalEvent.Offer) decoder.decode(SignalPayloads.load("offer.json"))).sdp;
+        SignalEvent.Offer offer = (SignalEvent.Offer) decoder.decode(encoder.offer("me", "you", sdp));
+        assertEquals("me", offer.fromId);
+        assertEquals(sdp, offer.sdp);
+    }
+
+    @Test
+    public void escapesControlCharacters() {
+        assertEquals("{\"eventName\":\"__join\",\"data\":{\"room\":\"a\\\"b\\\\c\\n\\u0001\\u2028\",\"userID\":null}}",
+                encoder.join("a\"b\\c\n\u0001\u2028", null));
+    }
+
+    @Test
+    public void rejectKeepsRefuseTypeAsString() {
+        assertEquals("{\"eventName\":\"__reject\",\"data\":{\"toID\":\"a\",\"fromID\":\"b\",\"refuseType\":\"1\"}}",
+                encoder.reject("a", "b", 1));
+    }
+
+    @Test
+    public void inviteWithOfferRoundTrip() {
+        String sdp = ((SignalEvent.Offer) decoder.decode(SignalPayloads.load("offer.json"))).sdp;
+        SignalEvent.Invite invite = (SignalEvent.Invite) decoder.decode(encoder.invite("r", "me", "you", false, sdp,
+                Arrays.asList(new IceCandidate("0", 0, "candidate:2 1 udp 1686052607 203.0.113.24 51234 typ srflx"))));
+        assertEquals("r", invite.room);
+        assertEquals("me", invite.inviteId);
+        assertEquals(sdp, invite.offer);
+        assertEquals(1, invite.candidates.size());
+        assertEquals("0", invite.candidates.get(0).sdpMid);
+        // the classic invite has neither
+        invite = (SignalEvent.Invite) decoder.decode(encoder.invite("r", "me", "you", false));
+        assertNull(invite.offer);
+        assertNull(invite.candidates);
+    }
+
+    @Test
+    public void candidateBatchRoundTrip() {
+        String json = encoder.iceCandidates("u", Arrays.asList(
+                new IceCandidate("0", 0, "candidate:1 1 udp 2122260223 10.0.0.2 5000 typ host"),
+                new IceCandidate("1", 1, "candidate:2 1 tcp 1518280447 10.0.0.2 9 typ host tcptype active")));
+        SignalEvent.Candidates batch = (SignalEvent.Candidates) decoder.decode(json);
+        assertEquals("u", batch.userId);
+        assertEquals(2, batch.candidates.size());
+        assertEquals("1", batch.candidates.get(1).sdpMid);
+        assertEquals(1, batch.candidates.get(1).sdpMLineIndex);
+    }
+}
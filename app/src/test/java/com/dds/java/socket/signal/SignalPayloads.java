@@ -0,0 +1,32 @@
+package com.dds.java.socket.signal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recorded signaling messages under test resources/signal.
+ */
+final class SignalPayloads {
+
+    private SignalPayloads() {
+    }
+
+    static String load(String name) {
+        try (InputStream in = SignalPayloads.class.getResourceAsStream("/signal/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("missing payload " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -42,9 +42,6 @@ public interface CameraVideoCapturer extends VideoCapturer {
 
     // Callback invoked when camera is closed.
     void onCameraClosed();
-
-    // callback invoked when there's frames from the camera
-    void onProcessingFrame(int width, int height, int rotation, int facing, byte[] data);
   }
 
   /**
@@ -12,7 +12,6 @@ package org.webrtc;
 
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -21,15 +20,12 @@ import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
-import android.media.Image;
-import android.media.ImageReader;
 import android.os.Handler;
 
 import android.util.Log;
 import android.util.Range;
 import android.view.Surface;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -70,11 +66,6 @@ class Camera2Session implements CameraSession {
     private CameraDevice cameraDevice;
     private Surface surface;
 
-  /**
-   * An {@link ImageReader} that handles live preview.
-   */
-  private ImageReader mImageReaderFrameProcessing;
-
   // Initialized when capture session is created
     private CameraCaptureSession captureSession;
 
@@ -134,12 +125,8 @@ class Camera2Session implements CameraSession {
         surfaceTextureHelper.setTextureSize(captureFormat.width, captureFormat.height);
         surface = new Surface(surfaceTextureHelper.getSurfaceTexture());
 
-        //added by Murodjon, 2020.03.10
-        mImageReaderFrameProcessing = ImageReader.newInstance(captureFormat.width, captureFormat.height, ImageFormat.YUV_420_888, 3);
-        mImageReaderFrameProcessing.setOnImageAvailableListener(mOnImageAvailableListener, cameraThreadHandler);
-
         camera.createCaptureSession(
-            Arrays.asList(surface, mImageReaderFrameProcessing.getSurface()), new CaptureSessionCallback(), cameraThreadHandler);
+            Arrays.asList(surface), new CaptureSessionCallback(), cameraThreadHandler);
       } catch (CameraAccessException e) {
         reportError("Failed to create capture session. " + e);
         return;
@@ -155,46 +142,6 @@ class Camera2Session implements CameraSession {
     }
   }
 
-  // added by Murodjon 2020.
-  /**
-   * This is a callback object for the {@link ImageReader}. "onImageAvailable" will be called when a
-   * still image is ready to be saved.
-   */
-  private PictureDoneCallback mOnImageAvailableListener = new PictureDoneCallback();
-
-  private class PictureDoneCallback implements ImageReader.OnImageAvailableListener {
-
-    @Override
-    public void onImageAvailable(ImageReader reader) {
-      Image mImage = reader.acquireLatestImage();
-      if(mImage == null || events ==null) {
-        return;
-      }
-//        mListener.onPictureTaken(reader.acquireLatestImage(), getRotation(), mPictureSize);//checkCameraSupport() == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY ? getRotation():getOrientation(), mPictureSize);
-      events.onProcessingFrame(convertYUV420888ToNV21(mImage));
-      mImage.close();
-    }
-  }
-
-  //added by me
-  public static byte[] convertYUV420888ToNV21(Image imgYUV420) {
-    // Converting YUV_420_888 data to NV21.
-    try {
-      byte[] data;
-      ByteBuffer buffer0 = imgYUV420.getPlanes()[0].getBuffer();
-      ByteBuffer buffer2 = imgYUV420.getPlanes()[2].getBuffer();
-      int buffer0_size = buffer0.remaining();
-      int buffer2_size = buffer2.remaining();
-      data = new byte[buffer0_size + buffer2_size];
-      buffer0.get(data, 0, buffer0_size);
-      buffer2.get(data, buffer0_size, buffer2_size);
-      return data;
-    }catch (IllegalStateException e){
-      e.printStackTrace();
-      return null;
-    }
-  }
-
   private class CaptureSessionCallback extends CameraCaptureSession.StateCallback {
     @Override
     public void onConfigureFailed(CameraCaptureSession session) {
@@ -228,8 +175,6 @@ class Camera2Session implements CameraSession {
         chooseStabilizationMode(captureRequestBuilder);
         chooseFocusMode(captureRequestBuilder);
 
-        //added by me
-        captureRequestBuilder.addTarget(mImageReaderFrameProcessing.getSurface());
         captureRequestBuilder.addTarget(surface);
         session.setRepeatingRequest(
             captureRequestBuilder.build(), new CameraCaptureCallback(), cameraThreadHandler);
@@ -443,10 +388,6 @@ class Camera2Session implements CameraSession {
       cameraDevice.close();
       cameraDevice = null;
     }
-    if (null != mImageReaderFrameProcessing) {
-      mImageReaderFrameProcessing.close();
-      mImageReaderFrameProcessing = null;
-    }
 
     if (events!=null){
       events.onCameraClosed(null);
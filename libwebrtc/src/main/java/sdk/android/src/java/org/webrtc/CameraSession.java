@@ -15,8 +15,6 @@ import android.graphics.Matrix;
 import android.view.WindowManager;
 import android.view.Surface;
 
-import java.nio.ByteBuffer;
-
 interface CameraSession {
   enum FailureType { ERROR, DISCONNECTED }
 
@@ -33,8 +31,6 @@ interface CameraSession {
     void onCameraDisconnected(CameraSession session);
     void onCameraClosed(CameraSession session);
     void onFrameCaptured(CameraSession session, VideoFrame frame);
-    void onProcessingFrame(byte[] data);
-    default void onProcessingFrame(ByteBuffer data){}
   }
 
   /**
@@ -0,0 +1,83 @@
+package com.dds.skywebrtc;
+
+/**
+ * How long the messages of all {@link SessionActor}s waited in their mailbox and ran, per
+ * {@link CallEvent}, and how deep the mailboxes got.
+ */
+public class ActorMetrics {
+    private static final CallEvent[] EVENTS = CallEvent.values();
+
+    // guarded by this, indexed by event ordinal
+    private final long[] count = new long[EVENTS.length];
+    private final long[] waitTotalNanos = new long[EVENTS.length];
+    private final long[] waitMaxNanos = new long[EVENTS.length];
+    private final long[] runTotalNanos = new long[EVENTS.length];
+    private final long[] runMaxNanos = new long[EVENTS.length];
+    private long dropped;
+    private int maxDepth;
+
+    synchronized void record(CallEvent event, long waitNanos, long runNanos) {
+        int i = event.ordinal();
+        count[i]++;
+        waitTotalNanos[i] += waitNanos;
+        waitMaxNanos[i] = Math.max(waitMaxNanos[i], waitNanos);
+        runTotalNanos[i] += runNanos;
+        runMaxNanos[i] = Math.max(runMaxNanos[i], runNanos);
+    }
+
+    synchronized void recordDepth(int depth) {
+        if (depth > maxDepth) maxDepth = depth;
+    }
+
+    synchronized void recordDropped() {
+        dropped++;
+    }
+
+    public synchronized long getCount(CallEvent event) {
+        return count[event.ordinal()];
+    }
+
+    // -1 if the event never ran
+    public synchronized double getAverageWaitMs(CallEvent event) {
+        int i = event.ordinal();
+        return count[i] == 0 ? -1 : waitTotalNanos[i] / 1e6 / count[i];
+    }
+
+    public synchronized double getMaxWaitMs(CallEvent event) {
+        return waitMaxNanos[event.ordinal()] / 1e6;
+    }
+
+    public synchronized double getAverageRunMs(CallEvent event) {
+        int i = event.ordinal();
+        return count[i] == 0 ? -1 : runTotalNanos[i] / 1e6 / count[i];
+    }
+
+    public synchronized double getMaxRunMs(CallEvent event) {
+        return runMaxNanos[event.ordinal()] / 1e6;
+    }
+
+    // Deepest any mailbox got
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    // Messages posted to an actor that was already shut down
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("ActorMetrics{maxDepth=").append(maxDepth)
+                .append(" dropped=").append(dropped);
+        for (CallEvent event : EVENTS) {
+            int i = event.ordinal();
+            if (count[i] == 0) continue;
+            sb.append(", ").append(event.name().toLowerCase()).append(' ').append(count[i])
+                    .append(String.format(" wait=%.2f/%.2fms run=%.2f/%.2fms",
+                            getAverageWaitMs(event), getMaxWaitMs(event),
+                            getAverageRunMs(event), getMaxRunMs(event)));
+        }
+        return sb.append('}').toString();
+    }
+}
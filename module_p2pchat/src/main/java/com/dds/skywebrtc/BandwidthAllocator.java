@@ -0,0 +1,69 @@
+package com.dds.skywebrtc;
+
+/**
+ * Splits the uplink between the peers of a mesh call.
+ * <p>
+ * In a mesh every peer gets its own copy of the local video, so a 4 person call sends
+ * three encodes over a phone's uplink. Each peer gets an equal share after audio, capped
+ * to what a 720p encode can use, and the resolution is scaled down with the share so a
+ * low bitrate is not spent on pixels the encoder can't keep sharp.
+ */
+public class BandwidthAllocator {
+    // a conservative mobile uplink
+    public static final int DEFAULT_UPLINK_BPS = 1_500_000;
+    // opus plus packet overhead, kept out of the video share
+    public static final int AUDIO_BPS = 40_000;
+    public static final int MIN_VIDEO_BPS = 100_000;
+    public static final int MAX_VIDEO_BPS = 2_500_000;
+
+    private volatile int uplinkBps;
+
+    public BandwidthAllocator() {
+        this(DEFAULT_UPLINK_BPS);
+    }
+
+    public BandwidthAllocator(int uplinkBps) {
+        this.uplinkBps = uplinkBps;
+    }
+
+    public void setUplinkBps(int uplinkBps) {
+        this.uplinkBps = uplinkBps;
+    }
+
+    public int getUplinkBps() {
+        return uplinkBps;
+    }
+
+    /**
+     * @param peers number of peers the local video is sent to
+     */
+    public Allocation allocate(int peers) {
+        if (peers < 1) peers = 1;
+        long share = (long) uplinkBps / peers - AUDIO_BPS;
+        int videoBps = (int) Math.max(MIN_VIDEO_BPS, Math.min(MAX_VIDEO_BPS, share));
+        return new Allocation(videoBps, scaleFor(videoBps));
+    }
+
+    // Resolution for a bitrate, relative to the 1280x720 capture
+    static double scaleFor(int videoBps) {
+        if (videoBps >= 1_200_000) return 1.0;
+        if (videoBps >= 600_000) return 1.5;
+        if (videoBps >= 300_000) return 2.0;
+        return 4.0;
+    }
+
+    public static class Allocation {
+        public final int maxBitrateBps;
+        public final double scaleResolutionDownBy;
+
+        Allocation(int maxBitrateBps, double scaleResolutionDownBy) {
+            this.maxBitrateBps = maxBitrateBps;
+            this.scaleResolutionDownBy = scaleResolutionDownBy;
+        }
+
+        @Override
+        public String toString() {
+            return "Allocation{" + maxBitrateBps / 1000 + "kbps, 1/" + scaleResolutionDownBy + "}";
+        }
+    }
+}
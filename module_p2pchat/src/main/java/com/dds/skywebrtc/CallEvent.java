@@ -0,0 +1,36 @@
+package com.dds.skywebrtc;
+
+/**
+ * The messages a {@link CallSession} handles on its {@link SessionActor}, see
+ * {@link CallStateMachine} for which state accepts which.
+ */
+public enum CallEvent {
+    // we call out, the room gets created
+    INVITE,
+    // someone calls us
+    INCOMING,
+    // ringing, either side
+    RING,
+    // the local user answered
+    ACCEPT,
+    // the room told us who is in it
+    JOINED,
+    // someone came into the room
+    PEER_JOINED,
+    OFFER,
+    ANSWER,
+    ICE,
+    // someone left the room
+    LEAVE,
+    // an invitee turned the call down
+    REFUSE,
+    // the caller gave up before we answered
+    CANCEL,
+    // the local user ended the call
+    HANG_UP,
+    NETWORK,
+    // the last of the call is gone, teardown
+    END,
+    // follow up work of the session itself: sdp callbacks, timers, stats
+    TASK
+}
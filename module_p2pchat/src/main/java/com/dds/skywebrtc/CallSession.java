@@ -6,7 +6,16 @@ import android.media.AudioManager;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.dds.skywebrtc.engine.PeerNegotiator;
+import com.dds.skywebrtc.engine.RtcPeer;
+import com.dds.skywebrtc.engine.WebRtcEngine;
+import com.dds.skywebrtc.engine.WebRtcPeer;
+import com.dds.skywebrtc.render.AnalysisSink;
 import com.dds.skywebrtc.render.ProxyVideoSink;
+import com.dds.skywebrtc.stats.CallStatsCollector;
+import com.dds.skywebrtc.stats.PeerStatsAggregator;
+import com.dds.skywebrtc.stats.StatsRing;
+import com.dds.skywebrtc.stats.StatsSample;
 import com.example.tracking.FrameProcessingTask;
 
 import org.webrtc.AudioSource;
@@ -15,38 +24,35 @@ import org.webrtc.Camera1Enumerator;
 import org.webrtc.Camera2Enumerator;
 import org.webrtc.CameraEnumerator;
 import org.webrtc.CameraVideoCapturer;
-import org.webrtc.DataChannel;
-import org.webrtc.DefaultVideoDecoderFactory;
-import org.webrtc.DefaultVideoEncoderFactory;
 import org.webrtc.EglBase;
 import org.webrtc.IceCandidate;
 import org.webrtc.Logging;
 import org.webrtc.MediaConstraints;
 import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
 import org.webrtc.NetworkMonitor;
 import org.webrtc.NetworkMonitorAutoDetect;
 import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnectionFactory;
 import org.webrtc.RendererCommon;
-import org.webrtc.RtpReceiver;
-import org.webrtc.SdpObserver;
+import org.webrtc.RtpParameters;
+import org.webrtc.RtpSender;
 import org.webrtc.SessionDescription;
 import org.webrtc.SurfaceTextureHelper;
 import org.webrtc.SurfaceViewRenderer;
 import org.webrtc.VideoCapturer;
-import org.webrtc.VideoDecoderFactory;
-import org.webrtc.VideoEncoderFactory;
 import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
 import org.webrtc.audio.AudioDeviceModule;
-import org.webrtc.audio.JavaAudioDeviceModule;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by dds on 2019/8/19.
@@ -56,7 +62,9 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
     public final static String TAG = "dds_CallSession";
     private WeakReference<CallSessionCallback> sessionCallback;
     private SkyEngineKit avEngineKit;
-    public ExecutorService executor;
+    // the session's actor, every message and follow up task runs on it
+    public SessionExecutor executor;
+    private final SessionActor actor;
 
     public static final String VIDEO_TRACK_ID = "ARDAMSv0";
     public static final String AUDIO_TRACK_ID = "ARDAMSa0";
@@ -64,11 +72,24 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
     public static final int VIDEO_RESOLUTION_WIDTH = 1280;
     public static final int VIDEO_RESOLUTION_HEIGHT = 720;
     public static final int FPS = 20;
+    // candidates the peer prepared while ringing gathers before there is an offer to send them with
+    public static final int SPECULATIVE_POOL_SIZE = 2;
+    // ICE often comes back by itself after a short DISCONNECTED, restart if it doesn't
+    public static final long ICE_RESTART_DELAY_MS = 1500;
+    // how long an offer-in-invite waits for a candidate from beyond the NAT to go along
+    public static final long INVITE_GATHER_MS = 250;
+    // an offer-in-invite not ready by then goes out as a plain invite, the callee offers instead
+    public static final long INVITE_OFFER_TIMEOUT_MS = 2000;
+    // sending under this share of the capture rate counts as the encoder falling behind
+    static final float ENCODER_BEHIND_RATIO = 0.8f;
 
     public PeerConnectionFactory _factory;
+    // makes the peers on _factory
+    private WebRtcEngine engine;
     public MediaStream _localStream;
-    private MediaStream _remoteStream;
     public VideoTrack _localVideoTrack;
+    // face detection's share of the local video
+    private final AnalysisSink analysisSink = new AnalysisSink(FrameProcessingTask.getInstance());
     public AudioTrack _localAudioTrack;
     public VideoSource videoSource;
     public AudioSource audioSource;
@@ -77,29 +98,89 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
     private Context mContext;
     private AudioManager audioManager;
     private NetworkMonitor networkMonitor;
-    private Peer mPeer;
+    // one per remote user, all sending the same local stream. Changed on the executor only
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
     // session参数
     public boolean mIsAudioOnly;
     public String mTargetId;
+    // everyone an outgoing call invited, more than one makes it a meeting
+    private List<String> mUserList = new ArrayList<>();
+    // invitees that turned a meeting down
+    private final List<String> refused = new ArrayList<>();
     public String mRoom;
     public String mMyId;
     public boolean mIsComing;
-    public EnumType.CallState _callState = EnumType.CallState.Idle;
+    // written on the actor only, through the CallStateMachine
+    private volatile EnumType.CallState _callState = EnumType.CallState.Idle;
     private long startTime;
 
+    private final MediaEngine mediaEngine;
     private AudioDeviceModule audioDeviceModule;
+    // how long this call waited for the media engine, -1 until it got it
+    private long factoryAcquireMs = -1;
+    // a peer prepared while ringing carried the call
+    private boolean speculative;
+    private long speculativeSetupMs = -1;
+    // callee: the inviter's offer that came with the invite, null in the classic flow
+    private String inviteOffer;
+    // callee: the inviter's candidates that came before a peer to answer with was made
+    private final List<IceCandidate> inviteCandidates = new ArrayList<>();
+    // when the call was answered, 0 while ringing
+    private volatile long acceptTime;
+    private volatile long acceptToConnectedMs = -1;
+    // setup milestones of this call
+    private final CallTrace trace;
+    private boolean traceRecorded;
+    // capture and send quality from the network type and the peers' stats, guarded by itself
+    private final QualityController quality = new QualityController();
+    // one sample per stats period for all peers, guarded by quality
+    private final PeerStatsAggregator periodStats = new PeerStatsAggregator();
+    // stats of the peers closed so far, by user
+    private final Map<String, byte[]> statsDumps = new ConcurrentHashMap<>();
     private boolean isSwitch = false; // Whether the camera is being switched
 
 
+    // Handles one message on the actor, from is the state before it
+    private interface Handler {
+        void handle(EnumType.CallState from);
+    }
+
+    // Any thread. Whether the event still applies is decided when it runs, by the state then
+    private void post(CallEvent event, Handler handler) {
+        actor.post(event, () -> {
+            EnumType.CallState from = _callState;
+            if (!transition(event)) return;
+            handler.handle(from);
+        });
+    }
 
-    private enum Role {Caller, Receiver,}
+    // On the actor
+    private boolean transition(CallEvent event) {
+        EnumType.CallState from = _callState;
+        EnumType.CallState to = CallStateMachine.next(from, event);
+        if (to == null) {
+            Log.d(TAG, "dropped " + event + " in " + from);
+            return false;
+        }
+        _callState = to;
+        return true;
+    }
 
-    private Role _role;
+    // The first transition, INVITE or INCOMING. Made by SkyEngineKit before the session is
+    // handed out, so a second call sees it busy right away
+    void start(CallEvent event) {
+        _callState = CallStateMachine.next(EnumType.CallState.Idle, event);
+    }
 
     public CallSession(SkyEngineKit avEngineKit, Context context, boolean audioOnly) {
         this.avEngineKit = avEngineKit;
-        mRootEglBase = EglBase.create();
-        executor = Executors.newSingleThreadExecutor();
+        trace = new CallTrace(true, audioOnly);
+        trace.mark(CallTrace.Milestone.START);
+        // shared with every other call, kept so release() goes to the engine we took from
+        mediaEngine = avEngineKit.getMediaEngine(context);
+        mRootEglBase = mediaEngine.getRootEglBase();
+        actor = avEngineKit.newSessionActor("CallSession");
+        executor = actor;
         mContext = context;
         this.mIsAudioOnly = audioOnly;
         audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
@@ -111,7 +192,8 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     // Create room
     public void createHome(String room, int roomSize) {
-        executor.execute(() -> {
+        post(CallEvent.INVITE, from -> {
+            trace.mark(CallTrace.Milestone.CREATE_HOME);
             if (avEngineKit.mEvent != null) {
                 avEngineKit.mEvent.createRoom(room, roomSize);
             }
@@ -120,11 +202,14 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     // Join the room
     public void joinHome() {
-        executor.execute(() -> {
-            _callState = EnumType.CallState.Connecting;
+        acceptTime = System.currentTimeMillis();
+        post(CallEvent.ACCEPT, from -> {
             if (avEngineKit.mEvent != null) {
                 avEngineKit.mEvent.sendJoin(mRoom);
             }
+            if (inviteOffer != null) {
+                answerInvite();
+            }
         });
 
     }
@@ -145,13 +230,30 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     // Send a ring reply
     public void sendRingBack(String targetId) {
-        executor.execute(() -> {
+        post(CallEvent.RING, from -> {
             if (avEngineKit.mEvent != null) {
                 avEngineKit.mEvent.sendRingBack(targetId);
             }
         });
     }
 
+    // The local user ends the call, refusing, cancelling or leaving depending on where it
+    // got to by the time this runs
+    public void hangUp() {
+        shouldStopRing();
+        post(CallEvent.HANG_UP, from -> {
+            if (mIsComing && from == EnumType.CallState.Incoming) {
+                // Received invitation, did not agree, send rejection
+                sendRefuse();
+            } else if (!mIsComing && from == EnumType.CallState.Outgoing) {
+                sendCancel();
+            } else {
+                // Already connected, hang up
+                leave();
+            }
+        });
+    }
+
     // Send rejection signaling
     public void sendRefuse() {
         executor.execute(() -> {
@@ -160,7 +262,147 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 avEngineKit.mEvent.sendRefuse(mTargetId, EnumType.RefuseType.Hangup.ordinal());
             }
         });
+        // free what was prepared while ringing
+        release();
+    }
+
+    // Build the media and the peer connection while the phone rings, accepting then only has
+    // to exchange sdp. The candidate pool gathers right away, nothing is sent before the offer.
+    public void prepareSpeculative() {
+        if (!avEngineKit.isSpeculativeSetup()) return;
+        executor.execute(this::createSpeculativePeer);
+    }
+
+    // On the executor
+    private void createSpeculativePeer() {
+        if (_callState == EnumType.CallState.Idle || !peers.isEmpty() || TextUtils.isEmpty(mTargetId)) return;
+        long start = System.currentTimeMillis();
+        if (_factory == null) {
+            _factory = createConnectionFactory();
+        }
+        if (_localStream == null) {
+            createLocalStream();
+        }
+        Peer peer = new Peer(mTargetId, SPECULATIVE_POOL_SIZE);
+        peer.pc.addStream(_localStream);
+        peer.speculative = true;
+        peers.put(mTargetId, peer);
+        if (inviteOffer != null) {
+            applyInviteOffer(peer);
+        }
+        speculativeSetupMs = System.currentTimeMillis() - start;
+        Log.d(TAG, "speculative peer for " + mTargetId + " ready in " + speculativeSetupMs + "ms");
+    }
+
+    // Before start(), the invite carried the caller's offer and its first candidates
+    void setInviteOffer(String offer, List<IceCandidate> candidates) {
+        inviteOffer = offer;
+        if (candidates != null) {
+            inviteCandidates.addAll(candidates);
+        }
+    }
+
+    // On the executor, callee: the offer goes into the peer while ringing, so accepting only
+    // has to create the answer
+    private void applyInviteOffer(Peer peer) {
+        if (peer.answersInvite || peer.pc == null) return;
+        peer.answersInvite = true;
+        peer.negotiator.setRemoteOffer(inviteOffer);
+        for (IceCandidate candidate : inviteCandidates) {
+            peer.negotiator.addRemoteIceCandidate(candidate);
+        }
+        inviteCandidates.clear();
+    }
+
+    // On the executor, callee: answer right on accept instead of offering once __peers is in
+    private void answerInvite() {
+        if (_factory == null) {
+            _factory = createConnectionFactory();
+        }
+        if (_localStream == null) {
+            createLocalStream();
+        }
+        Peer peer = createPeer(mTargetId);
+        applyInviteOffer(peer);
+        // without a peer onJoinHome offers the classic way
+        if (peer.answersInvite) {
+            peer.negotiator.createAnswer();
+        }
+    }
 
+    // On the executor, caller of a 1:1 call: the offer is made before the invite and goes with it,
+    // see Peer.sendOffer
+    private void createInviteOfferPeer() {
+        Peer peer = new Peer(mTargetId, SPECULATIVE_POOL_SIZE);
+        if (peer.pc == null) {
+            closePeer(peer);
+            avEngineKit.mEvent.sendInvite(mRoom, mTargetId, mIsAudioOnly);
+            return;
+        }
+        peer.pc.addStream(_localStream);
+        // reused by newPeer like a peer prepared while ringing
+        peer.speculative = true;
+        peer.offerInInvite = true;
+        peer.heldCandidates = new ArrayList<>();
+        peers.put(mTargetId, peer);
+        // the callee must ring even if the offer never comes
+        peer.inviteTimer = executor.schedule(() -> peer.sendPlainInvite("no offer after "
+                + INVITE_OFFER_TIMEOUT_MS + "ms"), INVITE_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        peer.createOffer();
+    }
+
+    // On the executor, reuses the peer prepared while ringing when it is for the same user
+    private Peer createPeer(String userId) {
+        Peer peer = peers.get(userId);
+        if (peer != null && peer.speculative) {
+            speculative = true;
+            return peer;
+        }
+        if (peer != null) {
+            closePeer(peer);
+        }
+        peer = new Peer(userId);
+        peer.pc.addStream(_localStream);
+        peers.put(userId, peer);
+        allocateBandwidth();
+        return peer;
+    }
+
+    // On the executor
+    private void closePeer(Peer peer) {
+        peers.remove(peer.userId, peer);
+        if (peer.speculative && !speculative) {
+            avEngineKit.getCallSetupStats().recordDiscarded();
+        }
+        peer.iceBatcher.close();
+        peer.stopStats();
+        // a discarded speculative peer never carried media
+        if ((speculative || !peer.speculative) && peer.stats.getRing().size() > 0) {
+            statsDumps.put(peer.userId, peer.stats.dump());
+        }
+        peer.dispose();
+    }
+
+    // On the executor, share the uplink between the peers again after one came or went
+    private void allocateBandwidth() {
+        if (mIsAudioOnly || peers.isEmpty()) return;
+        QualityController.Level level = getQualityLevel();
+        BandwidthAllocator.Allocation allocation = QualityController.limit(
+                avEngineKit.getBandwidthAllocator().allocate(peers.size()), level);
+        for (Peer peer : peers.values()) {
+            peer.applyAllocation(allocation, level.fps);
+        }
+        Log.d(TAG, "allocateBandwidth " + peers.size() + " peers at " + level + ": " + allocation);
+    }
+
+    // Everyone invited by an outgoing call, comma separated as the signaling expects
+    private String userList() {
+        if (mUserList.isEmpty()) return mTargetId;
+        return TextUtils.join(",", mUserList);
+    }
+
+    public boolean isMeeting() {
+        return mUserList.size() > 1;
     }
 
     // Send cancellation signalling
@@ -168,7 +410,7 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
         executor.execute(() -> {
             if (avEngineKit.mEvent != null) {
                 // cancel
-                avEngineKit.mEvent.sendCancel(mTargetId);
+                avEngineKit.mEvent.sendCancel(userList());
             }
         });
         //added by Murodjon 2020.03.11
@@ -236,6 +478,7 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                     @Override
                     public void onCameraSwitchDone(boolean isFrontCamera) {
                         isSwitch = false;
+                        analysisSink.setFrontFacing(isFrontCamera);
                     }
 
                     @Override
@@ -252,9 +495,10 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     }
 
+    // Teardown, the last message the actor runs
     private void release() {
         networkMonitor.removeObserver(this);
-        executor.execute(() -> {
+        post(CallEvent.END, from -> {
             if (audioManager != null) {
                 audioManager.setMode(AudioManager.MODE_NORMAL);
             }
@@ -264,6 +508,9 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 audioSource = null;
             }
             // video release
+            if (_localVideoTrack != null) {
+                _localVideoTrack.removeSink(analysisSink);
+            }
             if (videoSource != null) {
                 videoSource.dispose();
                 videoSource = null;
@@ -278,11 +525,14 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 captureAndroid.dispose();
                 captureAndroid = null;
             }
-            if (_localStream!=null)_localStream.dispose();
-            if (_remoteStream!=null)_remoteStream.dispose();
-            // close peer
-            if (mPeer != null && mPeer.pc != null) {
-                mPeer.pc.close();
+            // close the peers before the stream they send
+            for (Peer peer : new ArrayList<>(peers.values())) {
+                closePeer(peer);
+            }
+            // nulled, a refuse and a late cancel may both release
+            if (_localStream != null) {
+                _localStream.dispose();
+                _localStream = null;
             }
 
             // Release canvas
@@ -290,18 +540,33 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 surfaceTextureHelper.dispose();
                 surfaceTextureHelper = null;
             }
-            // Release factory
+            // Hand the factory back, the engine outlives the call
             if (_factory != null) {
-                _factory.dispose();
+                if (audioDeviceModule != null) {
+                    audioDeviceModule.setMicrophoneMute(false);
+                    audioDeviceModule.setSpeakerMute(false);
+                    audioDeviceModule = null;
+                }
                 _factory = null;
+                engine = null;
+                mediaEngine.release();
+            }
+            if (!statsDumps.isEmpty()) {
+                avEngineKit.setLastStatsDumps(new HashMap<>(statsDumps));
+            }
+            // a hang up may have set Idle already
+            if (!traceRecorded) {
+                traceRecorded = true;
+                avEngineKit.getCallTraceStats().add(trace);
+                Log.d(TAG, "call trace " + trace.toRecord());
             }
-            // Status is set Idle
-            _callState = EnumType.CallState.Idle;
 
             //Interface callback
             if (sessionCallback.get() != null) {
                 sessionCallback.get().didCallEndWithReason(null);
             }
+            // a refuse and a late cancel may both release, drop the second
+            actor.shutdown();
         });
     }
 
@@ -309,16 +574,18 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     // Joined room successfully
     public void onJoinHome(String myId, String users) {
+        // already marked when the socket got __peers, this covers other signaling layers
+        trace.mark(CallTrace.Milestone.PEERS);
         startTime = 0;
         audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
         networkMonitor.addObserver(this);
-        executor.execute(() -> {
+        post(CallEvent.JOINED, from -> {
             mMyId = myId;
-            // todo Multi-person conference
+            // everyone already in the room, the inviter first
+            List<String> members = new ArrayList<>();
             if (!TextUtils.isEmpty(users)) {
-                String[] split = users.split(",");
-                List<String> strings = Arrays.asList(split);
-                mTargetId = strings.get(0);
+                members.addAll(Arrays.asList(users.split(",")));
+                mTargetId = members.get(0);
             }
             if (_factory == null) {
                 _factory = createConnectionFactory();
@@ -327,28 +594,40 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 createLocalStream();
             }
             if (mIsComing) {
-                // Answering the call
-                _role = Role.Caller;
-                // Create peer
-                mPeer = new Peer(mTargetId);
-                // Adding a local stream
-                mPeer.pc.addStream(_localStream);
-                // Create offer
-                mPeer.createOffer();
+                // Answering the call, a peer prepared for someone who is not here is of no use
+                for (Peer peer : new ArrayList<>(peers.values())) {
+                    if (!members.contains(peer.userId)) {
+                        closePeer(peer);
+                    }
+                }
+                // The newcomer offers to everyone in the room, a 1:1 call has just the inviter
+                for (String userId : members) {
+                    Peer peer = peers.get(userId);
+                    // already answering the offer that came with the invite
+                    if (peer != null && peer.answersInvite) continue;
+                    createPeer(userId).createOffer();
+                }
 
                 // Turn off the bell
                 if (avEngineKit.mEvent != null) {
                     avEngineKit.mEvent.shouldStopRing();
                 }
-                // Change interface
-                _callState = EnumType.CallState.Connected;
-
+                // Change interface, JOINED took us from Connecting to Connected
                 if (sessionCallback.get() != null) {
                     sessionCallback.get().didChangeState(_callState);
                     startTime = System.currentTimeMillis();
                 }
             } else {
-                avEngineKit.mEvent.sendInvite(mRoom, mTargetId, mIsAudioOnly);
+                if (isMeeting()) {
+                    avEngineKit.mEvent.sendMeetingInvite(mRoom, userList(), mIsAudioOnly);
+                } else if (avEngineKit.isOfferInInvite()) {
+                    createInviteOfferPeer();
+                } else {
+                    avEngineKit.mEvent.sendInvite(mRoom, mTargetId, mIsAudioOnly);
+                    if (avEngineKit.isSpeculativeSetup()) {
+                        createSpeculativePeer();
+                    }
+                }
             }
 
             // Start showing local screen
@@ -369,23 +648,33 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     // New members enter
     public void newPeer(String userId) {
-        executor.execute(() -> {
+        if (acceptTime == 0) {
+            acceptTime = System.currentTimeMillis();
+        }
+        post(CallEvent.PEER_JOINED, from -> {
             if (_localStream == null) {
                 createLocalStream();
             }
             try {
-                mPeer = new Peer(userId);
-                mPeer.pc.addStream(_localStream);
+                Peer peer = createPeer(userId);
+                if (peer.offerInInvite) {
+                    // it answers the offer of the invite, or offers itself if it didn't take it
+                    peer.releaseCandidates();
+                } else {
+                    // it will send the offer, this side answers
+                    peer.negotiator.setRole(PeerNegotiator.Role.Receiver);
+                }
             } catch (Exception e) {
                 Log.e(TAG, e.toString());
             }
+            // a meeting is already running when the third person comes in
+            if (from == EnumType.CallState.Connected) return;
             // Turn off the bell
             if (avEngineKit.mEvent != null) {
                 avEngineKit.mEvent.shouldStopRing();
             }
 
             // Switch interface
-            _callState = EnumType.CallState.Connected;
             if (sessionCallback.get() != null) {
                 sessionCallback.get().didChangeState(EnumType.CallState.Connected);
                 startTime = System.currentTimeMillis();
@@ -394,27 +683,54 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
         });
     }
 
-    // The other party has rejected
+    // The other party has rejected, a meeting only ends when nobody is left to come
     public void onRefuse(String userId) {
-        release();
+        post(CallEvent.REFUSE, from -> {
+            if (!isMeeting()) {
+                release();
+                return;
+            }
+            if (!refused.contains(userId)) {
+                refused.add(userId);
+            }
+            if (peers.isEmpty() && refused.containsAll(mUserList)) {
+                release();
+            }
+        });
+    }
+
+    // The other party cancelled before we answered
+    public void onCancel(String userId) {
+        shouldStopRing();
+        post(CallEvent.CANCEL, from -> release());
     }
 
     // The other party has rang
     public void onRingBack(String userId) {
-        if (avEngineKit.mEvent != null) {
-            avEngineKit.mEvent.shouldStartRing(false);
-        }
+        post(CallEvent.RING, from -> {
+            if (avEngineKit.mEvent != null) {
+                avEngineKit.mEvent.shouldStartRing(false);
+            }
+            // its session is there now to take the candidates the invite didn't carry
+            Peer peer = peers.get(userId);
+            if (peer != null) {
+                peer.releaseCandidates();
+            }
+        });
     }
 
     public void onReceiveOffer(String userId, String description) {
-        executor.execute(() -> {
-            _role = Role.Receiver;
-            SessionDescription sdp = new SessionDescription(SessionDescription.Type.OFFER, description);
-            if (mPeer != null) {
-                mPeer.pc.setRemoteDescription(mPeer, sdp);
-                if (_role == Role.Receiver) {
-                    mPeer.createAnswer();
-                }
+        post(CallEvent.OFFER, from -> {
+            Peer peer = peers.get(userId);
+            if (peer != null && peer.offerInInvite && peer.pc != null && !peer.rtc.hasRemoteDescription()) {
+                // the callee didn't take the offer of the invite (an older client, or the server
+                // dropped it) and offers after joining, ours goes and the classic flow goes on
+                Log.d(TAG, userId + " offered instead of answering the invite");
+                closePeer(peer);
+                peer = createPeer(userId);
+            }
+            if (peer != null && peer.pc != null) {
+                peer.negotiator.onRemoteOffer(description);
             }
 
 
@@ -424,70 +740,251 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     public void onReceiverAnswer(String userId, String sdp) {
         Log.e("dds_test", "onReceiverAnswer:" + userId);
-        executor.execute(() -> {
-            SessionDescription sessionDescription = new SessionDescription(SessionDescription.Type.ANSWER, sdp);
-            if (mPeer != null && mPeer.pc != null) {
-                mPeer.pc.setRemoteDescription(mPeer, sessionDescription);
+        post(CallEvent.ANSWER, from -> {
+            Peer peer = peers.get(userId);
+            if (peer != null && peer.pc != null) {
+                // in case the ring got lost
+                peer.releaseCandidates();
+                peer.negotiator.onRemoteAnswer(sdp);
             }
         });
 
     }
 
     public void onRemoteIceCandidate(String userId, String id, int label, String candidate) {
-        executor.execute(() -> {
-            if (mPeer != null && mPeer.pc != null) {
-                IceCandidate iceCandidate = new IceCandidate(id, label, candidate);
-                mPeer.addRemoteIceCandidate(iceCandidate);
-
+        post(CallEvent.ICE, from -> {
+            Peer peer = peers.get(userId);
+            if (peer != null && peer.pc != null) {
+                peer.negotiator.addRemoteIceCandidate(new IceCandidate(id, label, candidate));
+            } else if (inviteOffer != null && userId.equals(mTargetId)) {
+                inviteCandidates.add(new IceCandidate(id, label, candidate));
             }
         });
 
     }
 
-    // the other leave the room
+    // A batch of candidates is applied in one task
+    public void onRemoteIceCandidates(String userId, List<IceCandidate> candidates) {
+        post(CallEvent.ICE, from -> {
+            Peer peer = peers.get(userId);
+            if (peer != null && peer.pc != null) {
+                for (IceCandidate iceCandidate : candidates) {
+                    peer.negotiator.addRemoteIceCandidate(iceCandidate);
+                }
+            } else if (inviteOffer != null && userId.equals(mTargetId)) {
+                // ringing, the peer that answers the invite isn't made yet
+                inviteCandidates.addAll(candidates);
+            }
+        });
+    }
+
+    // the other leave the room, the call ends with the last one
     public void onLeave(String userId) {
-        release();
+        post(CallEvent.LEAVE, from -> {
+            Peer peer = peers.get(userId);
+            if (peer != null) {
+                closePeer(peer);
+                allocateBandwidth();
+            }
+            if (peers.isEmpty()) {
+                release();
+            }
+        });
     }
 
 
     // Each Session can contain multiple PeerConnection
-    private class Peer implements SdpObserver, PeerConnection.Observer {
+    private class Peer implements PeerNegotiator.Signaling, PeerNegotiator.Listener, WebRtcPeer.MediaObserver {
         private PeerConnection pc;
+        private WebRtcPeer rtc;
+        // the offer/answer, the same logic the unit tests run on an in-memory engine
+        private final PeerNegotiator negotiator;
         private String userId;
-        private List<IceCandidate> queuedRemoteCandidates;
-        private SessionDescription localSdp;
+        // prepared while ringing, before anyone answered
+        private boolean speculative;
+        // caller: the offer goes out with the invite instead of as __offer
+        private boolean offerInInvite;
+        private String inviteSdp;
+        private volatile boolean inviteSent;
+        private SessionExecutor.Cancellable inviteTimer;
+        // caller: local candidates held until the callee's session is there, guarded by this
+        private List<IceCandidate> heldCandidates;
+        private int candidatesInInvite;
+        // callee: answers the offer that came with the invite
+        private boolean answersInvite;
+        private MediaStream remoteStream;
+        private IceCandidateBatcher iceBatcher;
+        private SessionExecutor.Cancellable restartCheck;
+        private volatile boolean iceConnected;
+        // when the current handover began, 0 without one
+        private volatile long handoverStart;
+        // ICE reconnected or a restart was negotiated since handoverStart
+        private volatile boolean handoverPathChecked;
+        private final CallStatsCollector stats;
+        private SessionExecutor.Cancellable statsPoll;
 
         public Peer(String userId) {
-            this.pc = createPeerConnection();
-            this.userId = userId;
-            queuedRemoteCandidates = new ArrayList<>();
+            this(userId, 0);
         }
 
-        private PeerConnection createPeerConnection() {
-            // Pipeline connection abstract class implementation method
-            PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(avEngineKit.getIceServers());
-            return _factory.createPeerConnection(rtcConfig, this);
+        public Peer(String userId, int candidatePoolSize) {
+            this.userId = userId;
+            negotiator = new PeerNegotiator(userId, executor, this, this);
+            if (engine == null) {
+                // the whole call uses the same certificate, a rotation applies to the next one
+                engine = new WebRtcEngine(_factory, avEngineKit.getRankedIceServers(), mediaEngine.getCertificates().get());
+            }
+            rtc = engine.createPeer(candidatePoolSize, negotiator, this);
+            if (rtc != null) {
+                negotiator.attach(rtc);
+                pc = rtc.getPeerConnection();
+            }
+            iceBatcher = new IceCandidateBatcher(userId, executor, avEngineKit.getIceBatchWindowMs(),
+                    (toId, candidates) -> {
+                        if (avEngineKit.mEvent != null) {
+                            avEngineKit.mEvent.sendIceCandidates(toId, candidates);
+                        }
+                    });
+            stats = new CallStatsCollector(userId, avEngineKit.getStatsIntervalMs(), CallStatsCollector.DEFAULT_WINDOW_MINUTES);
+            stats.addListener(CallSession.this::onStatsSample);
+            stats.addListener((id, sample) -> checkMediaRestored(sample));
+            for (CallStatsCollector.Listener listener : avEngineKit.getStatsListeners()) {
+                stats.addListener(listener);
+            }
+            if (pc != null) {
+                long interval = stats.getIntervalMs();
+                statsPoll = executor.scheduleWithFixedDelay(() -> {
+                    if (pc != null) pc.getStats(stats);
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
         }
 
         // Create offer
         private void createOffer() {
             if (pc == null) return;
-            pc.createOffer(this, offerOrAnswerConstraint());
+            trace.mark(CallTrace.Milestone.CREATE_OFFER);
+            negotiator.setRole(PeerNegotiator.Role.Caller);
+            negotiator.createOffer();
+        }
+
+        // On the executor, the local network changed or ICE lost the path. Negative delay only
+        // notes the start, the restart waits for the next network
+        private void onHandover(String reason, long restartDelayMs) {
+            if (pc == null) return;
+            if (handoverStart == 0) {
+                handoverStart = System.currentTimeMillis();
+                handoverPathChecked = false;
+                avEngineKit.getHandoverStats().recordHandover();
+            }
+            cancelRestartCheck();
+            if (restartDelayMs == 0) {
+                restartIce(reason);
+            } else if (restartDelayMs > 0) {
+                restartCheck = executor.schedule(() -> {
+                    restartCheck = null;
+                    if (!iceConnected) restartIce(reason);
+                }, restartDelayMs, TimeUnit.MILLISECONDS);
+            }
         }
 
-        // Create answer
-        private void createAnswer() {
+        // On the executor
+        private void restartIce(String reason) {
             if (pc == null) return;
-            pc.createAnswer(this, offerOrAnswerConstraint());
+            Log.d(TAG, "restartIce " + userId + ": " + reason);
+            negotiator.restartIce();
+        }
 
+        // On the executor
+        private void cancelRestartCheck() {
+            if (restartCheck != null) {
+                restartCheck.cancel();
+                restartCheck = null;
+            }
         }
 
-        private void addRemoteIceCandidate(final IceCandidate candidate) {
-            if (pc != null) {
-                if (queuedRemoteCandidates != null) {
-                    queuedRemoteCandidates.add(candidate);
-                } else {
-                    pc.addIceCandidate(candidate);
+        // On the webrtc signaling thread
+        private void checkMediaRestored(StatsSample sample) {
+            long start = handoverStart;
+            if (start == 0 || !handoverPathChecked || !iceConnected || sample.recvKbps <= 0) return;
+            handoverStart = 0;
+            long ms = System.currentTimeMillis() - start;
+            avEngineKit.getHandoverStats().recordRestored(ms);
+            Log.d(TAG, "media from " + userId + " restored " + ms + "ms after the handover");
+        }
+
+        // On the executor, before pc is disposed
+        private void stopStats() {
+            if (statsPoll != null) {
+                statsPoll.cancel();
+                statsPoll = null;
+            }
+            if (inviteTimer != null) {
+                inviteTimer.cancel();
+                inviteTimer = null;
+            }
+            cancelRestartCheck();
+        }
+
+        // On the executor, the offer is set and a candidate from beyond the NAT is in, or the
+        // gather window is over
+        private void sendInviteOffer() {
+            if (inviteSent || inviteSdp == null || pc == null) return;
+            inviteSent = true;
+            if (inviteTimer != null) {
+                inviteTimer.cancel();
+                inviteTimer = null;
+            }
+            // hung up before it went out
+            if (_callState != EnumType.CallState.Outgoing) return;
+            List<IceCandidate> candidates;
+            synchronized (this) {
+                candidates = heldCandidates == null ? new ArrayList<>() : new ArrayList<>(heldCandidates);
+                candidatesInInvite = candidates.size();
+            }
+            avEngineKit.mEvent.sendInvite(mRoom, userId, mIsAudioOnly, inviteSdp, candidates);
+        }
+
+        // On the executor, caller: there's no offer to carry, so invite the classic way. This peer
+        // goes, the callee offers once it accepted and newPeer makes a new one for that
+        private void sendPlainInvite(String reason) {
+            if (!offerInInvite || inviteSent) return;
+            inviteSent = true;
+            Log.w(TAG, "inviting " + userId + " without an offer: " + reason);
+            // it wasn't prepared while ringing, closing it isn't a discarded speculation
+            speculative = false;
+            closePeer(this);
+            // hung up in the meantime
+            if (_callState != EnumType.CallState.Outgoing || avEngineKit.mEvent == null) return;
+            avEngineKit.mEvent.sendInvite(mRoom, userId, mIsAudioOnly);
+        }
+
+        // The callee's session can take candidates now, those the invite didn't carry follow
+        private void releaseCandidates() {
+            List<IceCandidate> rest;
+            synchronized (this) {
+                if (heldCandidates == null) return;
+                rest = new ArrayList<>(heldCandidates.subList(candidatesInInvite, heldCandidates.size()));
+                heldCandidates = null;
+            }
+            for (IceCandidate candidate : rest) {
+                iceBatcher.add(candidate);
+            }
+        }
+
+        // Cap what the local video sends to this peer
+        private void applyAllocation(BandwidthAllocator.Allocation allocation, int maxFramerate) {
+            if (pc == null) return;
+            for (RtpSender sender : pc.getSenders()) {
+                MediaStreamTrack track = sender.track();
+                if (track == null || !MediaStreamTrack.VIDEO_TRACK_KIND.equals(track.kind())) continue;
+                RtpParameters parameters = sender.getParameters();
+                for (RtpParameters.Encoding encoding : parameters.encodings) {
+                    encoding.maxBitrateBps = allocation.maxBitrateBps;
+                    encoding.scaleResolutionDownBy = allocation.scaleResolutionDownBy;
+                    encoding.maxFramerate = maxFramerate;
+                }
+                if (!sender.setParameters(parameters)) {
+                    Log.w(TAG, "setParameters failed for " + userId);
                 }
             }
         }
@@ -496,72 +993,112 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
             if (pc == null) {
                 return;
             }
-            drainCandidates();
+            negotiator.drainCandidates();
             pc.removeIceCandidates(candidates);
         }
 
-
-        private void drainCandidates() {
-            if (queuedRemoteCandidates != null) {
-                Log.d(TAG, "Add " + queuedRemoteCandidates.size() + " remote candidates");
-                for (IceCandidate candidate : queuedRemoteCandidates) {
-                    pc.addIceCandidate(candidate);
-                }
-                queuedRemoteCandidates = null;
+        // On the executor, dispose() would dispose the local stream too, the other peers still send it
+        private void dispose() {
+            negotiator.close();
+            if (pc == null) return;
+            if (_localStream != null) {
+                pc.removeStream(_localStream);
             }
+            rtc.dispose();
+            pc = null;
         }
 
-        //-------------Observer--------------------
+        //-------------PeerNegotiator.Signaling--------------------
         @Override
-        public void onSignalingChange(PeerConnection.SignalingState signalingState) {
-            Log.i(TAG, "onSignalingChange: " + signalingState);
+        public void sendOffer(String userId, String sdp) {
+            if (offerInInvite && !inviteSent) {
+                // the invite carries it, give the first candidates a moment to go along
+                inviteSdp = sdp;
+                if (inviteTimer != null) inviteTimer.cancel();
+                inviteTimer = executor.schedule(this::sendInviteOffer, INVITE_GATHER_MS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            avEngineKit.mEvent.sendOffer(userId, sdp);
         }
 
         @Override
-        public void onIceConnectionChange(PeerConnection.IceConnectionState newState) {
-            Log.i(TAG, "onIceConnectionChange: " + newState.toString());
-            if (_callState != EnumType.CallState.Connected) return;
-            if (newState == PeerConnection.IceConnectionState.DISCONNECTED) {
-//                createOffer();
-            }
+        public void sendAnswer(String userId, String sdp) {
+            avEngineKit.mEvent.sendAnswer(userId, sdp);
         }
 
+        //-------------PeerNegotiator.Listener--------------------
         @Override
-        public void onIceConnectionReceivingChange(boolean receiving) {
-            Log.i(TAG, "onIceConnectionReceivingChange:" + receiving);
+        public void onSdpCreated(SessionDescription sdp) {
+            trace.mark(CallTrace.Milestone.SDP_CREATED);
         }
 
         @Override
-        public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
-            Log.i(TAG, "onIceGatheringChange:" + newState.toString());
+        public void onSdpSet(boolean local) {
+            trace.mark(CallTrace.Milestone.SDP_SET);
         }
 
-
         @Override
-        public void onIceCandidate(IceCandidate candidate) {
-            Log.i(TAG, "onIceCandidate:");
-            // 发送IceCandidate
-            executor.execute(() -> {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        public void onNegotiated() {
+            if (handoverStart != 0) handoverPathChecked = true;
+        }
 
-                avEngineKit.mEvent.sendIceCandidate(userId, candidate.sdpMid, candidate.sdpMLineIndex, candidate.sdp);
-            });
+        @Override
+        public void onIceRestart() {
+            avEngineKit.getHandoverStats().recordRestart();
+        }
 
+        @Override
+        public void onNegotiationFailed(boolean local, String error) {
+            if (local) sendPlainInvite(error);
+        }
 
+        @Override
+        public void onLocalCandidate(IceCandidate candidate) {
+            trace.mark(CallTrace.Milestone.FIRST_ICE_CANDIDATE);
+            synchronized (this) {
+                if (heldCandidates != null) {
+                    heldCandidates.add(candidate);
+                    // a server reflexive or relay candidate is what gets through to a callee behind NAT
+                    if (!inviteSent && !candidate.sdp.contains(" typ host")) {
+                        executor.execute(this::sendInviteOffer);
+                    }
+                    return;
+                }
+            }
+            // 发送IceCandidate, collected and sent in batches
+            iceBatcher.add(candidate);
         }
 
         @Override
-        public void onIceCandidatesRemoved(IceCandidate[] candidates) {
-            Log.i(TAG, "onIceCandidatesRemoved:");
+        public void onIceConnectionChange(RtcPeer.IceState newState) {
+            if (newState == RtcPeer.IceState.CONNECTED && acceptTime > 0 && acceptToConnectedMs < 0) {
+                acceptToConnectedMs = System.currentTimeMillis() - acceptTime;
+                avEngineKit.getCallSetupStats().record(speculative, acceptToConnectedMs);
+                Log.d(TAG, "connected " + acceptToConnectedMs + "ms after accept, speculative=" + speculative);
+            }
+            if (newState == RtcPeer.IceState.CONNECTED) {
+                trace.mark(CallTrace.Milestone.ICE_CONNECTED);
+                // encodings may only be filled in once negotiated
+                executor.execute(CallSession.this::allocateBandwidth);
+            }
+            iceConnected = newState == RtcPeer.IceState.CONNECTED || newState == RtcPeer.IceState.COMPLETED;
+            if (iceConnected) {
+                if (handoverStart != 0) handoverPathChecked = true;
+                executor.execute(this::cancelRestartCheck);
+            }
+            if (_callState != EnumType.CallState.Connected) return;
+            if (newState == RtcPeer.IceState.DISCONNECTED) {
+                executor.execute(() -> onHandover("ice disconnected", ICE_RESTART_DELAY_MS));
+            } else if (newState == RtcPeer.IceState.FAILED) {
+                executor.execute(() -> onHandover("ice failed", 0));
+            }
         }
 
+        //-------------WebRtcPeer.MediaObserver--------------------
         @Override
         public void onAddStream(MediaStream stream) {
-            _remoteStream = stream;
+            trace.mark(CallTrace.Milestone.ADD_STREAM);
+            remoteStream = stream;
             Log.i(TAG, "onAddStream:");
             if (stream.audioTracks.size() > 0) {
                 stream.audioTracks.get(0).setEnabled(true);
@@ -570,101 +1107,115 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 sessionCallback.get().didReceiveRemoteVideoTrack();
             }
         }
+    }
 
-        @Override
-        public void onRemoveStream(MediaStream stream) {
-            Log.i(TAG, "onRemoveStream:");
+    @Override
+    public void onConnectionTypeChanged(NetworkMonitorAutoDetect.ConnectionType connectionType) {
+        Log.e(TAG, "onConnectionTypeChanged" + connectionType.toString());
+        QualityController.Level cap = capFor(connectionType);
+        post(CallEvent.NETWORK, from -> {
+            if (from != EnumType.CallState.Connected) return;
+            for (Peer peer : peers.values()) {
+                // nothing to restart on without a network, the next change does it
+                peer.onHandover("network " + connectionType, cap == null ? -1 : 0);
+            }
+        });
+        // no network, keep what we had until one comes back
+        if (cap == null) return;
+        QualityController.Level level;
+        synchronized (quality) {
+            level = quality.onNetworkChanged(cap);
         }
+        executor.execute(() -> applyQuality(level));
+    }
 
-        @Override
-        public void onDataChannel(DataChannel dataChannel) {
-            Log.i(TAG, "onDataChannel:");
+    // The best the network type can carry, null to leave the level alone
+    private static QualityController.Level capFor(NetworkMonitorAutoDetect.ConnectionType connectionType) {
+        switch (connectionType) {
+            case CONNECTION_NONE:
+                return null;
+            case CONNECTION_2G:
+                return QualityController.Level.MINIMAL;
+            case CONNECTION_3G:
+            case CONNECTION_BLUETOOTH:
+                return QualityController.Level.LOW;
+            case CONNECTION_UNKNOWN_CELLULAR:
+                return QualityController.Level.MEDIUM;
+            default:
+                return QualityController.Level.HIGH;
         }
+    }
 
-        @Override
-        public void onRenegotiationNeeded() {
-            Log.i(TAG, "onRenegotiationNeeded:");
+    // On the webrtc signaling thread of the peer that polled, the worst of each period goes on
+    private void onStatsSample(String userId, StatsSample sample) {
+        QualityController.Level before, after;
+        boolean behind;
+        synchronized (quality) {
+            StatsSample period = periodStats.add(userId, sample, peers.size());
+            if (period == null) return;
+            before = quality.getLevel();
+            after = quality.onSample(period);
+            if (after != before) {
+                Log.d(TAG, "quality " + before + " -> " + after + " after " + period);
+            }
+            // face detection makes room when the encoder sends fewer frames than captured, or
+            // the remote video freezes
+            behind = (period.sendFps > 0 && period.sendFps < after.fps * ENCODER_BEHIND_RATIO)
+                    || period.freezes > 0;
         }
-
-        @Override
-        public void onAddTrack(RtpReceiver receiver, MediaStream[] mediaStreams) {
-            Log.i(TAG, "onAddTrack:");
+        if (after != before) {
+            executor.execute(() -> applyQuality(after));
         }
-
-
-        //-------------SdpObserver--------------------
-        @Override
-        public void onCreateSuccess(SessionDescription origSdp) {
-            Log.d(TAG, "sdp创建成功       " + origSdp.type);
-            String sdpString = origSdp.description;
-            final SessionDescription sdp = new SessionDescription(origSdp.type, sdpString);
-            localSdp = sdp;
-            executor.execute(() -> pc.setLocalDescription(Peer.this, sdp));
+        if (!mIsAudioOnly) {
+            FrameProcessingTask.getInstance().getScheduler().onPipelineBehind(behind);
         }
+    }
 
-        @Override
-        public void onSetSuccess() {
-            executor.execute(() -> {
-                Log.d(TAG, "sdp连接成功   " + pc.signalingState().toString());
-                if (pc == null) return;
-
-                // 发送者
-                if (_role == Role.Caller) {
-                    if (pc.getRemoteDescription() == null) {
-                        Log.d(TAG, "Local SDP set succesfully");
-                        if (_role == Role.Receiver) {
-                            //Receiver, Send Answer
-                            avEngineKit.mEvent.sendAnswer(userId, localSdp.description);
-                        } else if (_role == Role.Caller) {
-                            //Sender, send offer
-                            avEngineKit.mEvent.sendOffer(userId, localSdp.description);
-                        }
-                    } else {
-                        Log.d(TAG, "Remote SDP set succesfully");
-
-                        drainCandidates();
-                    }
-
-                } else {
-                    if (pc.getLocalDescription() != null) {
-                        Log.d(TAG, "Local SDP set succesfully");
-                        if (_role == Role.Receiver) {
-                            //Receiver, Send Answer
-                            avEngineKit.mEvent.sendAnswer(userId, localSdp.description);
-                        } else if (_role == Role.Caller) {
-                            //Sender, send offer
-                            avEngineKit.mEvent.sendOffer(userId, localSdp.description);
-                        }
-
-                        drainCandidates();
-                    } else {
-                        Log.d(TAG, "Remote SDP set succesfully");
-                    }
-                }
-            });
-
-
+    // On the executor
+    private void applyQuality(QualityController.Level level) {
+        if (mIsAudioOnly || _callState == EnumType.CallState.Idle) return;
+        if (captureAndroid != null) {
+            captureAndroid.changeCaptureFormat(level.width, level.height, level.fps);
         }
+        allocateBandwidth();
+    }
 
-        @Override
-        public void onCreateFailure(String error) {
-            Log.i(TAG, " SdpObserver onCreateFailure:" + error);
+    // What the local video is captured and sent at
+    public QualityController.Level getQualityLevel() {
+        synchronized (quality) {
+            return quality.getLevel();
         }
+    }
+    // --------------------------------界面显示相关-------------------------------------------------
 
-        @Override
-        public void onSetFailure(String error) {
-            Log.i(TAG, "SdpObserver onSetFailure:" + error);
+    public long getStartTime() {
+        return startTime;
+    }
+
+    // Time from peer creation until the first local candidate was sent, -1 if none yet
+    public long getIceTimeToFirstCandidateSentMs() {
+        Peer peer = mTargetId == null ? null : peers.get(mTargetId);
+        return peer == null ? -1 : peer.iceBatcher.getTimeToFirstCandidateSentMs();
+    }
+
+    // Number of candidate batches sent to all peers of this call
+    public int getIceBatchCount() {
+        int count = 0;
+        for (Peer peer : peers.values()) {
+            count += peer.iceBatcher.getBatchCount();
         }
+        return count;
     }
 
-    @Override
-    public void onConnectionTypeChanged(NetworkMonitorAutoDetect.ConnectionType connectionType) {
-        Log.e(TAG, "onConnectionTypeChanged" + connectionType.toString());
+    // Time series of the stats of one peer, null if there is no peer for the user
+    public StatsRing getStats(String userId) {
+        Peer peer = userId == null ? null : peers.get(userId);
+        return peer == null ? null : peer.stats.getRing();
     }
-    // --------------------------------界面显示相关-------------------------------------------------
 
-    public long getStartTime() {
-        return startTime;
+    // Users we have a peer connection with
+    public List<String> getPeerIds() {
+        return new ArrayList<>(peers.keySet());
     }
 
     public SurfaceViewRenderer createRendererView() {
@@ -679,10 +1230,17 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
     }
 
     public void setupRemoteVideo(SurfaceViewRenderer surfaceView) {
+        setupRemoteVideo(mTargetId, surfaceView);
+    }
+
+    public void setupRemoteVideo(String userId, SurfaceViewRenderer surfaceView) {
         ProxyVideoSink sink = new ProxyVideoSink();
         sink.setTarget(surfaceView);
-        if (_remoteStream != null && _remoteStream.videoTracks.size() > 0) {
-            _remoteStream.videoTracks.get(0).addSink(sink);
+        sink.setFirstFrameListener(() -> trace.mark(CallTrace.Milestone.FIRST_REMOTE_FRAME));
+        Peer peer = userId == null ? null : peers.get(userId);
+        MediaStream remoteStream = peer == null ? null : peer.remoteStream;
+        if (remoteStream != null && remoteStream.videoTracks.size() > 0) {
+            remoteStream.videoTracks.get(0).addSink(sink);
         }
     }
 
@@ -709,35 +1267,49 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
             surfaceTextureHelper = SurfaceTextureHelper.create("CaptureThread", mRootEglBase.getEglBaseContext());
             videoSource = _factory.createVideoSource(captureAndroid.isScreencast());
             captureAndroid.initialize(surfaceTextureHelper, mContext, videoSource.getCapturerObserver());
-            captureAndroid.startCapture(VIDEO_RESOLUTION_WIDTH, VIDEO_RESOLUTION_HEIGHT, FPS);
+            // the network may already have lowered the level, HIGH is VIDEO_RESOLUTION_WIDTH x HEIGHT at FPS
+            QualityController.Level level = getQualityLevel();
+            captureAndroid.startCapture(level.width, level.height, level.fps);
             _localVideoTrack = _factory.createVideoTrack(VIDEO_TRACK_ID, videoSource);
             _localStream.addTrack(_localVideoTrack);
+            _localVideoTrack.addSink(analysisSink);
         }
-
+        trace.mark(CallTrace.Milestone.LOCAL_STREAM);
     }
 
     public PeerConnectionFactory createConnectionFactory() {
-        PeerConnectionFactory.initialize(PeerConnectionFactory
-                .InitializationOptions
-                .builder(mContext)
-                .createInitializationOptions());
-
-        final VideoEncoderFactory encoderFactory;
-        final VideoDecoderFactory decoderFactory;
-
-        encoderFactory = new DefaultVideoEncoderFactory(
-                mRootEglBase.getEglBaseContext(),
-                true,
-                true);
-        decoderFactory = new DefaultVideoDecoderFactory(mRootEglBase.getEglBaseContext());
-        audioDeviceModule = JavaAudioDeviceModule.builder(mContext).createAudioDeviceModule();
-        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-        return PeerConnectionFactory.builder()
-                .setOptions(options)
-                .setAudioDeviceModule(audioDeviceModule)
-                .setVideoEncoderFactory(encoderFactory)
-                .setVideoDecoderFactory(decoderFactory)
-                .createPeerConnectionFactory();
+        // warmed up after SkyEngineKit.init, only waits when the call came in first
+        long start = System.currentTimeMillis();
+        PeerConnectionFactory factory = mediaEngine.acquire();
+        factoryAcquireMs = System.currentTimeMillis() - start;
+        trace.mark(CallTrace.Milestone.FACTORY);
+        audioDeviceModule = mediaEngine.getAudioDeviceModule();
+        Log.d(TAG, "createConnectionFactory waited " + factoryAcquireMs + "ms");
+        return factory;
+    }
+
+    public long getFactoryAcquireMs() {
+        return factoryAcquireMs;
+    }
+
+    // Setup milestones of this call
+    public CallTrace getTrace() {
+        return trace;
+    }
+
+    // Whether the peer prepared while ringing carried the call
+    public boolean isSpeculative() {
+        return speculative;
+    }
+
+    // How long preparing while ringing took, -1 if it did not happen
+    public long getSpeculativeSetupMs() {
+        return speculativeSetupMs;
+    }
+
+    // -1 until the call connected
+    public long getAcceptToConnectedMs() {
+        return acceptToConnectedMs;
     }
 
     private SurfaceTextureHelper surfaceTextureHelper;
@@ -761,6 +1333,7 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, eventsHandler);
 
                 if (videoCapturer != null) {
+                    analysisSink.setFrontFacing(true);
                     return videoCapturer;
                 }
             }
@@ -772,6 +1345,7 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
                 VideoCapturer videoCapturer = enumerator.createCapturer(deviceName, eventsHandler);
 
                 if (videoCapturer != null) {
+                    analysisSink.setFrontFacing(false);
                     return videoCapturer;
                 }
             }
@@ -804,29 +1378,20 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
         @Override
         public void onCameraOpening(String cameraName) {
             Logging.d(TAG, "onCameraOpening");
-            FrameProcessingTask.getInstance();
+            trace.mark(CallTrace.Milestone.CAMERA_OPENING);
+            FrameProcessingTask.getInstance().start();
         }
 
         @Override
         public void onFirstFrameAvailable() {
             Logging.d(TAG, "onFirstFrameAvailable");
+            trace.mark(CallTrace.Milestone.FIRST_LOCAL_FRAME);
         }
 
         @Override
         public void onCameraClosed() {
             Logging.d(TAG, "onCameraClosed");
-            FrameProcessingTask.getInstance().release();
-        }
-
-        @Override
-        public void onProcessingFrame(int width, int height, int rotation, int cameraFacing, byte[] data) {
-            Logging.d(TAG, "onProcessingFrame");
-            FrameProcessingTask.getInstance()
-                    .setCameraFacing(cameraFacing)
-                    .setWidth(width)
-                    .setHeight(height)
-                    .setRotation(rotation)
-                    .processFrame(data);
+            FrameProcessingTask.getInstance().stop();
         }
     };
 
@@ -849,18 +1414,10 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
         return audioConstraints;
     }
 
-    private MediaConstraints offerOrAnswerConstraint() {
-        MediaConstraints mediaConstraints = new MediaConstraints();
-        ArrayList<MediaConstraints.KeyValuePair> keyValuePairs = new ArrayList<>();
-        keyValuePairs.add(new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
-        keyValuePairs.add(new MediaConstraints.KeyValuePair("OfferToReceiveVideo", "true"));
-        mediaConstraints.mandatory.addAll(keyValuePairs);
-        return mediaConstraints;
-    }
-
     // ***********************************Various parameters******************************************/
     public void setIsAudioOnly(boolean _isAudioOnly) {
         this.mIsAudioOnly = _isAudioOnly;
+        trace.setAudioOnly(_isAudioOnly);
     }
 
     public boolean isAudioOnly() {
@@ -871,6 +1428,14 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
         this.mTargetId = targetIds;
     }
 
+    // Everyone an outgoing meeting invites, the first is also the target
+    public void setUserList(List<String> userList) {
+        this.mUserList = new ArrayList<>(userList);
+        if (!userList.isEmpty()) {
+            this.mTargetId = userList.get(0);
+        }
+    }
+
     public void setContext(Context context) {
         if (context instanceof Application) {
             this.mContext = context;
@@ -882,6 +1447,7 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
 
     public void setIsComing(boolean isComing) {
         this.mIsComing = isComing;
+        trace.setOutgoing(!isComing);
     }
 
     public void setRoom(String _room) {
@@ -892,10 +1458,6 @@ public class CallSession implements NetworkMonitor.NetworkObserver {
         return _callState;
     }
 
-    public void setCallState(EnumType.CallState callState) {
-        this._callState = callState;
-    }
-
     public void setSessionCallback(CallSessionCallback sessionCallback) {
         this.sessionCallback = new WeakReference<>(sessionCallback);
     }
@@ -0,0 +1,63 @@
+package com.dds.skywebrtc;
+
+/**
+ * Accept to connected latency of the calls of this process, kept apart for calls whose
+ * peer connection was prepared while ringing and calls that built it after the accept,
+ * so the two can be compared. Accept is the local user answering for incoming calls and
+ * the callee joining the room for outgoing ones, connected is the first ICE CONNECTED.
+ */
+public class CallSetupStats {
+    // guarded by this
+    private int speculativeCalls;
+    private long speculativeTotalMs;
+    private long speculativeMaxMs;
+    private int plainCalls;
+    private long plainTotalMs;
+    private long plainMaxMs;
+    // prepared while ringing, but the call ended before it was answered
+    private int discarded;
+
+    synchronized void record(boolean speculative, long acceptToConnectedMs) {
+        if (speculative) {
+            speculativeCalls++;
+            speculativeTotalMs += acceptToConnectedMs;
+            speculativeMaxMs = Math.max(speculativeMaxMs, acceptToConnectedMs);
+        } else {
+            plainCalls++;
+            plainTotalMs += acceptToConnectedMs;
+            plainMaxMs = Math.max(plainMaxMs, acceptToConnectedMs);
+        }
+    }
+
+    synchronized void recordDiscarded() {
+        discarded++;
+    }
+
+    public synchronized int getCount(boolean speculative) {
+        return speculative ? speculativeCalls : plainCalls;
+    }
+
+    // -1 without calls
+    public synchronized long getAverageMs(boolean speculative) {
+        if (speculative) {
+            return speculativeCalls == 0 ? -1 : speculativeTotalMs / speculativeCalls;
+        }
+        return plainCalls == 0 ? -1 : plainTotalMs / plainCalls;
+    }
+
+    public synchronized long getMaxMs(boolean speculative) {
+        return speculative ? speculativeMaxMs : plainMaxMs;
+    }
+
+    public synchronized int getDiscarded() {
+        return discarded;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CallSetupStats{speculative: " + speculativeCalls + " calls avg=" + getAverageMs(true)
+                + "ms max=" + speculativeMaxMs + "ms discarded=" + discarded
+                + ", plain: " + plainCalls + " calls avg=" + getAverageMs(false)
+                + "ms max=" + plainMaxMs + "ms}";
+    }
+}
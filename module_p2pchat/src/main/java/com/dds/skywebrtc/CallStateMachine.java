@@ -0,0 +1,72 @@
+package com.dds.skywebrtc;
+
+import com.dds.skywebrtc.EnumType.CallState;
+
+/**
+ * Which {@link CallEvent} a call accepts in which state and where it goes from there.
+ * <p>
+ * An event the table has no entry for is dropped, a late answer after the hang up or a
+ * cancel for a call that is already connected can't resurrect or end anything.
+ * Transitions that depend on more than the state, like the last peer of a meeting
+ * leaving, are decided by the session, which then sends END.
+ */
+public class CallStateMachine {
+    private static final CallState[] STATES = CallState.values();
+    private static final CallEvent[] EVENTS = CallEvent.values();
+    // next state by state and event, null where the event is dropped
+    private static final CallState[][] TABLE = new CallState[STATES.length][EVENTS.length];
+
+    static {
+        move(CallState.Idle, CallEvent.INVITE, CallState.Outgoing);
+        move(CallState.Idle, CallEvent.INCOMING, CallState.Incoming);
+
+        // INVITE again is the room being created for the call
+        stay(CallState.Outgoing, CallEvent.INVITE, CallEvent.RING, CallEvent.JOINED, CallEvent.REFUSE,
+                CallEvent.LEAVE, CallEvent.OFFER, CallEvent.ANSWER, CallEvent.ICE, CallEvent.NETWORK);
+        move(CallState.Outgoing, CallEvent.PEER_JOINED, CallState.Connected);
+
+        // candidates trickling in after an invite that carried the offer
+        stay(CallState.Incoming, CallEvent.RING, CallEvent.ICE, CallEvent.NETWORK);
+        move(CallState.Incoming, CallEvent.ACCEPT, CallState.Connecting);
+        move(CallState.Incoming, CallEvent.CANCEL, CallState.Idle);
+
+        stay(CallState.Connecting, CallEvent.OFFER, CallEvent.ANSWER, CallEvent.ICE, CallEvent.LEAVE,
+                CallEvent.NETWORK);
+        move(CallState.Connecting, CallEvent.JOINED, CallState.Connected);
+        move(CallState.Connecting, CallEvent.PEER_JOINED, CallState.Connected);
+        move(CallState.Connecting, CallEvent.CANCEL, CallState.Idle);
+
+        stay(CallState.Connected, CallEvent.PEER_JOINED, CallEvent.OFFER, CallEvent.ANSWER, CallEvent.ICE,
+                CallEvent.LEAVE, CallEvent.REFUSE, CallEvent.NETWORK);
+
+        for (CallState state : STATES) {
+            if (state != CallState.Idle) {
+                move(state, CallEvent.HANG_UP, CallState.Idle);
+            }
+            // teardown and the session's own follow up work are never dropped
+            move(state, CallEvent.END, CallState.Idle);
+            stay(state, CallEvent.TASK);
+        }
+    }
+
+    private static void move(CallState from, CallEvent event, CallState to) {
+        TABLE[from.ordinal()][event.ordinal()] = to;
+    }
+
+    private static void stay(CallState state, CallEvent... events) {
+        for (CallEvent event : events) {
+            move(state, event, state);
+        }
+    }
+
+    /**
+     * @return the state after the event, null if the state does not accept it
+     */
+    public static CallState next(CallState state, CallEvent event) {
+        return TABLE[state.ordinal()][event.ordinal()];
+    }
+
+    public static boolean accepts(CallState state, CallEvent event) {
+        return next(state, event) != null;
+    }
+}
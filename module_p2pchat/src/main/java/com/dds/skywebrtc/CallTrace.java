@@ -0,0 +1,119 @@
+package com.dds.skywebrtc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each step of one call's setup happened.
+ * <p>
+ * Every milestone has a preallocated slot that keeps the System.nanoTime() of its first
+ * occurrence, later ones are ignored. mark() is a single compare and set, it doesn't
+ * allocate or log, so it can sit on the camera, render and signaling threads. The
+ * breakdown is read when the call ends, see {@link #toRecord()} and {@link CallTraceStats}.
+ */
+public class CallTrace {
+
+    public enum Milestone {
+        // startOutCall / startInCall / startOutMeeting
+        START,
+        CREATE_HOME,
+        // __peers arrived on the socket
+        PEERS,
+        FACTORY,
+        LOCAL_STREAM,
+        CAMERA_OPENING,
+        FIRST_LOCAL_FRAME,
+        CREATE_OFFER,
+        SDP_CREATED,
+        SDP_SET,
+        FIRST_ICE_CANDIDATE,
+        ICE_CONNECTED,
+        ADD_STREAM,
+        FIRST_REMOTE_FRAME
+    }
+
+    // values() copies, look them up once
+    static final Milestone[] MILESTONES = Milestone.values();
+
+    // column names of toRecord()
+    public static final String RECORD_HEADER;
+
+    static {
+        StringBuilder sb = new StringBuilder("direction,media");
+        for (Milestone milestone : MILESTONES) {
+            sb.append(',').append(milestone.name().toLowerCase());
+        }
+        RECORD_HEADER = sb.toString();
+    }
+
+    // nanoTime of the first occurrence, 0 until then
+    private final AtomicLongArray times = new AtomicLongArray(MILESTONES.length);
+    // filled in as the session learns them
+    private volatile boolean outgoing;
+    private volatile boolean audioOnly;
+
+    public CallTrace(boolean outgoing, boolean audioOnly) {
+        this.outgoing = outgoing;
+        this.audioOnly = audioOnly;
+    }
+
+    void setOutgoing(boolean outgoing) {
+        this.outgoing = outgoing;
+    }
+
+    void setAudioOnly(boolean audioOnly) {
+        this.audioOnly = audioOnly;
+    }
+
+    public void mark(Milestone milestone) {
+        mark(milestone, System.nanoTime());
+    }
+
+    void mark(Milestone milestone, long nanos) {
+        // 0 means unset, nanoTime can be anything
+        times.compareAndSet(milestone.ordinal(), 0, nanos == 0 ? 1 : nanos);
+    }
+
+    public boolean reached(Milestone milestone) {
+        return times.get(milestone.ordinal()) != 0;
+    }
+
+    /**
+     * Milliseconds from START to the milestone, -1 if either was not reached.
+     */
+    public long getMs(Milestone milestone) {
+        return getMs(Milestone.START, milestone);
+    }
+
+    public long getMs(Milestone from, Milestone to) {
+        long start = times.get(from.ordinal());
+        long end = times.get(to.ordinal());
+        if (start == 0 || end == 0) return -1;
+        return (end - start) / 1_000_000;
+    }
+
+    public boolean isOutgoing() {
+        return outgoing;
+    }
+
+    public boolean isAudioOnly() {
+        return audioOnly;
+    }
+
+    /**
+     * One csv line matching {@link #RECORD_HEADER}: direction, media, then the
+     * milliseconds from START to each milestone, -1 for those not reached.
+     */
+    public String toRecord() {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append(outgoing ? "out" : "in").append(',').append(audioOnly ? "audio" : "video");
+        for (Milestone milestone : MILESTONES) {
+            sb.append(',').append(getMs(milestone));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "CallTrace{" + toRecord() + "}";
+    }
+}
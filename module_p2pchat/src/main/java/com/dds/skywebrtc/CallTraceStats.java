@@ -0,0 +1,79 @@
+package com.dds.skywebrtc;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles of the call setup milestones over the most recent calls.
+ * <p>
+ * Each finished {@link CallTrace} is copied into a preallocated ring of WINDOW rows, so
+ * old calls age out and adding one never allocates. Percentiles are exact over the
+ * calls in the window that reached the milestone.
+ */
+public class CallTraceStats {
+    static final int WINDOW = 100;
+
+    private static final int COLUMNS = CallTrace.MILESTONES.length;
+
+    // guarded by this, ms from START per milestone, -1 if not reached
+    private final long[][] rows = new long[WINDOW][COLUMNS];
+    private int next;
+    private int filled;
+    private long calls;
+
+    public synchronized void add(CallTrace trace) {
+        long[] row = rows[next];
+        for (int i = 0; i < COLUMNS; i++) {
+            row[i] = trace.getMs(CallTrace.MILESTONES[i]);
+        }
+        next = (next + 1) % WINDOW;
+        if (filled < WINDOW) filled++;
+        calls++;
+    }
+
+    // All calls ever added, not just the window
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    // Calls in the window that reached the milestone
+    public synchronized int getCount(CallTrace.Milestone milestone) {
+        int count = 0;
+        for (int i = 0; i < filled; i++) {
+            if (rows[i][milestone.ordinal()] >= 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return ms from START to the milestone, -1 if no call in the window reached it
+     */
+    public synchronized long getPercentileMs(CallTrace.Milestone milestone, double percentile) {
+        long[] values = new long[filled];
+        int count = 0;
+        for (int i = 0; i < filled; i++) {
+            long value = rows[i][milestone.ordinal()];
+            if (value >= 0) values[count++] = value;
+        }
+        if (count == 0) return -1;
+        Arrays.sort(values, 0, count);
+        // nearest rank
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return values[Math.max(0, Math.min(count - 1, rank - 1))];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("CallTraceStats{calls=").append(calls);
+        for (CallTrace.Milestone milestone : CallTrace.MILESTONES) {
+            if (milestone == CallTrace.Milestone.START) continue;
+            long p50 = getPercentileMs(milestone, 50);
+            if (p50 < 0) continue;
+            sb.append(", ").append(milestone.name().toLowerCase())
+                    .append(" p50=").append(p50)
+                    .append(" p90=").append(getPercentileMs(milestone, 90))
+                    .append(" p99=").append(getPercentileMs(milestone, 99));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,209 @@
+package com.dds.skywebrtc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.RtcCertificatePem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DTLS certificate every peer connection of the process is configured with.
+ * <p>
+ * Without one in the RTCConfiguration webrtc generates a key pair for every peer connection,
+ * which is a noticeable part of the call setup on a slow phone. It is generated once, on a
+ * background thread after the engine's warm-up, kept in {@link CertificateStore} so the next
+ * start of the app only reads it, and replaced before it gets close to its expiry. A call
+ * that comes before it is ready isn't held up, webrtc then generates its own as before.
+ * The private key is only in the app's private storage.
+ */
+public class CertificateManager {
+    private final static String TAG = "dds_CertificateManager";
+    public static final long DEFAULT_EXPIRY_SECONDS = TimeUnit.DAYS.toSeconds(30);
+    // a new one is made when less than this is left
+    public static final long ROTATE_BEFORE_MS = TimeUnit.DAYS.toMillis(7);
+    // no call starts on one that could expire during it
+    public static final long MIN_REMAINING_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final CertificateStore store;
+
+    // guarded by this
+    private PeerConnection.KeyType keyType = PeerConnection.KeyType.ECDSA;
+    private long expirySeconds = DEFAULT_EXPIRY_SECONDS;
+    private CertificateStore.Entry entry;
+    private RtcCertificatePem certificate;
+    private boolean loadedStore;
+    private boolean refreshing;
+
+    // stats, guarded by this
+    private int generated;
+    private long lastGenerateMs = -1;
+    private long loadMs = -1;
+    private int hits;
+    private int misses;
+
+    public CertificateManager(File file) {
+        this.store = new CertificateStore(file);
+    }
+
+    // Takes effect with the next certificate, an RSA one takes far longer to make
+    public synchronized void setKeyType(PeerConnection.KeyType keyType) {
+        this.keyType = keyType;
+    }
+
+    public synchronized PeerConnection.KeyType getKeyType() {
+        return keyType;
+    }
+
+    public synchronized void setExpirySeconds(long expirySeconds) {
+        this.expirySeconds = expirySeconds;
+    }
+
+    /**
+     * For the RTCConfiguration of a new call, never blocks.
+     *
+     * @return null while there is none yet, webrtc then makes one for the call itself
+     */
+    public synchronized RtcCertificatePem get() {
+        long now = System.currentTimeMillis();
+        if (certificate != null && entry.isUsableAt(now, MIN_REMAINING_MS)) {
+            hits++;
+            if (entry.isRotationDueAt(now, ROTATE_BEFORE_MS) || !keyType.name().equals(entry.keyType)) {
+                refreshAsync();
+            }
+            return certificate;
+        }
+        misses++;
+        refreshAsync();
+        return null;
+    }
+
+    // On a thread of its own
+    private void refreshAsync() {
+        synchronized (this) {
+            if (refreshing) return;
+            refreshing = true;
+        }
+        Thread thread = new Thread(this::doRefresh, "CertificateRefresh");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Blocks, loads the stored certificate or makes a new one if it is missing or due.
+     * The native library has to be loaded, the engine's warm-up calls it once it is.
+     */
+    public void refresh() {
+        synchronized (this) {
+            if (refreshing) return;
+            refreshing = true;
+        }
+        doRefresh();
+    }
+
+    private void doRefresh() {
+        PeerConnection.KeyType type;
+        long expiry;
+        CertificateStore.Entry current;
+        synchronized (this) {
+            if (!loadedStore) {
+                loadedStore = true;
+                long start = SystemClock.elapsedRealtime();
+                CertificateStore.Entry stored = store.load();
+                loadMs = SystemClock.elapsedRealtime() - start;
+                if (stored != null) {
+                    entry = stored;
+                    certificate = new RtcCertificatePem(stored.privateKey, stored.certificate);
+                    Log.d(TAG, "loaded " + stored + " in " + loadMs + "ms");
+                }
+            }
+            type = keyType;
+            expiry = expirySeconds;
+            current = entry;
+        }
+        long now = System.currentTimeMillis();
+        if (current != null && current.isUsableAt(now, MIN_REMAINING_MS)
+                && !current.isRotationDueAt(now, ROTATE_BEFORE_MS) && type.name().equals(current.keyType)) {
+            synchronized (this) {
+                refreshing = false;
+            }
+            return;
+        }
+        // the slow part runs outside the lock, calls keep getting the old one meanwhile
+        long start = SystemClock.elapsedRealtime();
+        RtcCertificatePem pem = null;
+        try {
+            pem = RtcCertificatePem.generateCertificate(type, expiry);
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            Log.e(TAG, "generate failed: " + e);
+        }
+        long ms = SystemClock.elapsedRealtime() - start;
+        CertificateStore.Entry fresh = null;
+        if (pem != null) {
+            fresh = new CertificateStore.Entry(type.name(), pem.privateKey, pem.certificate,
+                    now, now + TimeUnit.SECONDS.toMillis(expiry), ms);
+            try {
+                store.save(fresh);
+            } catch (IOException e) {
+                // still good for this process
+                Log.w(TAG, "save failed: " + e);
+            }
+        }
+        synchronized (this) {
+            refreshing = false;
+            if (fresh == null) return;
+            entry = fresh;
+            certificate = pem;
+            generated++;
+            lastGenerateMs = ms;
+        }
+        Log.d(TAG, "generated " + fresh + " in " + ms + "ms");
+    }
+
+    // -----------------------------------------stats------------------------------------------
+
+    // Certificates made by this process
+    public synchronized int getGenerated() {
+        return generated;
+    }
+
+    // How long the last one took, -1 if none was made
+    public synchronized long getLastGenerateMs() {
+        return lastGenerateMs;
+    }
+
+    // Reading the stored one, -1 before the first refresh
+    public synchronized long getLoadMs() {
+        return loadMs;
+    }
+
+    // Calls that got the certificate / had to let webrtc make one
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Setup time the calls of this process didn't spend on key generation, each hit would
+     * have paid about what making the certificate took. The generating itself ran off the
+     * setup path.
+     *
+     * @return -1 while there is no certificate
+     */
+    public synchronized long getSavedMs() {
+        return entry == null ? -1 : hits * entry.generateMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CertificateManager{" + keyType + " " + entry + ", generated=" + generated
+                + " lastGenerate=" + lastGenerateMs + "ms load=" + loadMs + "ms hits=" + hits
+                + " misses=" + misses + "}";
+    }
+}
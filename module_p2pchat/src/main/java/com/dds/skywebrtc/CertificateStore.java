@@ -0,0 +1,133 @@
+package com.dds.skywebrtc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the DTLS certificate of {@link CertificateManager} in one file of the app's private
+ * storage: a few header lines with the key type and the validity, then the private key and
+ * the certificate in PEM.
+ * <p>
+ * A file that can't be read or parsed counts as no certificate, a new one is written to a
+ * temporary file first and renamed over the old one, so a crash never leaves half a key.
+ */
+public class CertificateStore {
+    private static final String MAGIC = "dtls-certificate 1";
+    private static final String END = "-----END ";
+
+    public static class Entry {
+        public final String keyType;
+        public final String privateKey;
+        public final String certificate;
+        public final long createdMs;
+        public final long expiresMs;
+        // how long generating it took, what a call without it pays
+        public final long generateMs;
+
+        public Entry(String keyType, String privateKey, String certificate, long createdMs, long expiresMs,
+                     long generateMs) {
+            this.keyType = keyType;
+            this.privateKey = privateKey;
+            this.certificate = certificate;
+            this.createdMs = createdMs;
+            this.expiresMs = expiresMs;
+            this.generateMs = generateMs;
+        }
+
+        // A call started now can't outlive it
+        public boolean isUsableAt(long nowMs, long minRemainingMs) {
+            return nowMs >= createdMs && nowMs + minRemainingMs < expiresMs;
+        }
+
+        // Still usable, but time to make the next one
+        public boolean isRotationDueAt(long nowMs, long rotateBeforeMs) {
+            return nowMs + rotateBeforeMs >= expiresMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" + keyType + " created=" + createdMs + " expires=" + expiresMs
+                    + " generate=" + generateMs + "ms}";
+        }
+    }
+
+    private final File file;
+
+    public CertificateStore(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // null if there is none or it is unreadable
+    public Entry load() {
+        if (!file.isFile()) return null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!MAGIC.equals(reader.readLine())) return null;
+            String keyType = value(reader.readLine(), "keyType");
+            long created = Long.parseLong(value(reader.readLine(), "created"));
+            long expires = Long.parseLong(value(reader.readLine(), "expires"));
+            long generateMs = Long.parseLong(value(reader.readLine(), "generateMs"));
+            String privateKey = readPem(reader);
+            String certificate = readPem(reader);
+            if (keyType == null || privateKey == null || certificate == null) return null;
+            return new Entry(keyType, privateKey, certificate, created, expires, generateMs);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String value(String line, String key) {
+        if (line == null || !line.startsWith(key + "=")) throw new IllegalArgumentException("no " + key);
+        return line.substring(key.length() + 1);
+    }
+
+    // One block up to and including its END line, null if the file ends first
+    private static String readPem(BufferedReader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append('\n');
+            if (line.startsWith(END)) return sb.toString();
+        }
+        return null;
+    }
+
+    public void save(Entry entry) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            writer.write(MAGIC + "\n");
+            writer.write("keyType=" + entry.keyType + "\n");
+            writer.write("created=" + entry.createdMs + "\n");
+            writer.write("expires=" + entry.expiresMs + "\n");
+            writer.write("generateMs=" + entry.generateMs + "\n");
+            writer.write(withNewline(entry.privateKey));
+            writer.write(withNewline(entry.certificate));
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("can't replace " + file);
+        }
+    }
+
+    private static String withNewline(String pem) {
+        return pem.endsWith("\n") ? pem : pem + "\n";
+    }
+
+    public void delete() {
+        file.delete();
+    }
+}
@@ -0,0 +1,65 @@
+package com.dds.skywebrtc;
+
+/**
+ * How calls of this process got through network handovers.
+ * <p>
+ * A handover starts when the local connection type changes or ICE reports the path lost,
+ * and the media counts as restored at the first stats poll that sees inbound media after
+ * the new path was checked, so the times are as coarse as the stats interval.
+ */
+public class HandoverStats {
+    // guarded by this
+    private int handovers;
+    private int restarts;
+    private int restored;
+    private long restoredTotalMs;
+    private long restoredMaxMs;
+    private long restoredLastMs = -1;
+
+    synchronized void recordHandover() {
+        handovers++;
+    }
+
+    synchronized void recordRestart() {
+        restarts++;
+    }
+
+    synchronized void recordRestored(long ms) {
+        restored++;
+        restoredTotalMs += ms;
+        restoredMaxMs = Math.max(restoredMaxMs, ms);
+        restoredLastMs = ms;
+    }
+
+    public synchronized int getHandovers() {
+        return handovers;
+    }
+
+    // ICE restart offers sent
+    public synchronized int getRestarts() {
+        return restarts;
+    }
+
+    public synchronized int getRestored() {
+        return restored;
+    }
+
+    // -1 without restored handovers
+    public synchronized long getAverageRestoreMs() {
+        return restored == 0 ? -1 : restoredTotalMs / restored;
+    }
+
+    public synchronized long getMaxRestoreMs() {
+        return restoredMaxMs;
+    }
+
+    public synchronized long getLastRestoreMs() {
+        return restoredLastMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HandoverStats{handovers=" + handovers + " restarts=" + restarts + " restored=" + restored
+                + " avg=" + getAverageRestoreMs() + "ms max=" + restoredMaxMs + "ms}";
+    }
+}
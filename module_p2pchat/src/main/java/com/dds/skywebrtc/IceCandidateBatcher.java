@@ -0,0 +1,94 @@
+package com.dds.skywebrtc;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects local ice candidates of one peer and sends them as a single batch
+ * once the batch window has elapsed, instead of one signaling message per candidate.
+ */
+public class IceCandidateBatcher {
+    public static final long DEFAULT_WINDOW_MS = 50;
+
+    private final String userId;
+    private final SessionExecutor scheduler;
+    private final Sender sender;
+    private final long windowMs;
+
+    // guarded by this
+    private List<IceCandidate> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean closed;
+
+    // metrics
+    private final long createTimeNanos;
+    private volatile long firstSentDelayNanos = -1;
+    private volatile int batchCount;
+    private volatile int candidateCount;
+
+    public interface Sender {
+        void send(String userId, List<IceCandidate> candidates);
+    }
+
+    public IceCandidateBatcher(String userId, SessionExecutor scheduler, long windowMs, Sender sender) {
+        this.userId = userId;
+        this.scheduler = scheduler;
+        this.windowMs = windowMs < 0 ? 0 : windowMs;
+        this.sender = sender;
+        this.createTimeNanos = System.nanoTime();
+    }
+
+    // Called from the PeerConnection signaling thread for every gathered candidate
+    public synchronized void add(IceCandidate candidate) {
+        if (closed || candidate == null) return;
+        pending.add(candidate);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Send everything collected so far
+    public void flush() {
+        List<IceCandidate> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (closed || pending.isEmpty()) return;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        sender.send(userId, batch);
+        if (firstSentDelayNanos < 0) {
+            firstSentDelayNanos = System.nanoTime() - createTimeNanos;
+        }
+        batchCount++;
+        candidateCount += batch.size();
+    }
+
+    // Drop anything pending, later candidates are ignored
+    public synchronized void close() {
+        closed = true;
+        pending.clear();
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    // Time from peer creation to the first batch leaving, -1 if nothing was sent yet
+    public long getTimeToFirstCandidateSentMs() {
+        long delay = firstSentDelayNanos;
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+}
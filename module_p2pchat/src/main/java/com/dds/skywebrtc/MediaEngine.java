@@ -0,0 +1,240 @@
+package com.dds.skywebrtc;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.webrtc.DefaultVideoDecoderFactory;
+import org.webrtc.DefaultVideoEncoderFactory;
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.VideoDecoderFactory;
+import org.webrtc.VideoEncoderFactory;
+import org.webrtc.audio.AudioDeviceModule;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+import java.io.File;
+
+/**
+ * WebRTC objects that outlive a call: the root EGL context, the codec factories, the audio
+ * device module and the PeerConnectionFactory built from them.
+ * <p>
+ * Building them loads the native library, enumerates codecs and opens audio, which is far
+ * too slow for the call setup path. It is done once on a background thread after
+ * {@link SkyEngineKit#init(com.dds.skywebrtc.inter.ISkyEvent, Context)}, every CallSession
+ * then borrows the same objects. A session that arrives while the warm-up is still running
+ * waits for it, one that arrives before any warm-up builds the engine itself. The DTLS
+ * certificate of the {@link CertificateManager} is made right after the warm-up.
+ */
+public class MediaEngine {
+    private final static String TAG = "dds_MediaEngine";
+    // PeerConnectionFactory.initialize once per process
+    private static boolean initialized;
+
+    private final Context context;
+    private final CertificateManager certificates;
+    // the egl context is cheap and the UI needs it early, it has its own lock so a
+    // renderer never waits for the rest of the warm-up
+    private final Object eglLock = new Object();
+    private EglBase rootEglBase;
+
+    // guarded by this
+    private VideoEncoderFactory encoderFactory;
+    private VideoDecoderFactory decoderFactory;
+    private AudioDeviceModule audioDeviceModule;
+    private PeerConnectionFactory factory;
+    private int users;
+    private boolean shutdownRequested;
+    private boolean warming;
+
+    // startup timings of the last build, -1 before the first
+    private long initializeMs = -1;
+    private long eglMs = -1;
+    private long codecMs = -1;
+    private long audioMs = -1;
+    private long factoryMs = -1;
+    private long buildMs = -1;
+    private int builds;
+    private int acquires;
+    private long lastAcquireWaitMs = -1;
+
+    public MediaEngine(Context context) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.certificates = new CertificateManager(new File(this.context.getFilesDir(), "dtls_certificate.pem"));
+    }
+
+    // Build everything on a background thread, returns right away
+    public void warmUp() {
+        synchronized (this) {
+            if (factory != null || warming) return;
+            warming = true;
+        }
+        Thread thread = new Thread(() -> {
+            synchronized (MediaEngine.this) {
+                warming = false;
+                if (factory == null) {
+                    build();
+                }
+            }
+            // needs the native library, outside the lock so a call can take the engine
+            certificates.refresh();
+        }, "MediaEngineWarmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized boolean isWarm() {
+        return factory != null;
+    }
+
+    public EglBase getRootEglBase() {
+        synchronized (eglLock) {
+            if (rootEglBase == null) {
+                long start = SystemClock.elapsedRealtime();
+                rootEglBase = EglBase.create();
+                eglMs = SystemClock.elapsedRealtime() - start;
+            }
+            return rootEglBase;
+        }
+    }
+
+    /**
+     * Borrow the engine for one call, blocks until it is built. Pair with {@link #release()}.
+     */
+    public synchronized PeerConnectionFactory acquire() {
+        long start = SystemClock.elapsedRealtime();
+        if (factory == null) {
+            build();
+        }
+        users++;
+        acquires++;
+        shutdownRequested = false;
+        lastAcquireWaitMs = SystemClock.elapsedRealtime() - start;
+        return factory;
+    }
+
+    public CertificateManager getCertificates() {
+        return certificates;
+    }
+
+    public synchronized AudioDeviceModule getAudioDeviceModule() {
+        return audioDeviceModule;
+    }
+
+    public synchronized void release() {
+        if (users > 0) users--;
+        if (users == 0 && shutdownRequested) {
+            dispose();
+        }
+    }
+
+    // Free everything once the last call has released it
+    public synchronized void shutdown() {
+        shutdownRequested = true;
+        if (users == 0) {
+            dispose();
+        }
+    }
+
+    private void build() {
+        long start = SystemClock.elapsedRealtime();
+        if (!initialized) {
+            PeerConnectionFactory.initialize(PeerConnectionFactory
+                    .InitializationOptions
+                    .builder(context)
+                    .createInitializationOptions());
+            initialized = true;
+            initializeMs = SystemClock.elapsedRealtime() - start;
+        }
+        EglBase.Context eglContext = getRootEglBase().getEglBaseContext();
+
+        long step = SystemClock.elapsedRealtime();
+        encoderFactory = new DefaultVideoEncoderFactory(eglContext, true, true);
+        decoderFactory = new DefaultVideoDecoderFactory(eglContext);
+        codecMs = SystemClock.elapsedRealtime() - step;
+
+        step = SystemClock.elapsedRealtime();
+        audioDeviceModule = JavaAudioDeviceModule.builder(context).createAudioDeviceModule();
+        audioMs = SystemClock.elapsedRealtime() - step;
+
+        step = SystemClock.elapsedRealtime();
+        PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+        factory = PeerConnectionFactory.builder()
+                .setOptions(options)
+                .setAudioDeviceModule(audioDeviceModule)
+                .setVideoEncoderFactory(encoderFactory)
+                .setVideoDecoderFactory(decoderFactory)
+                .createPeerConnectionFactory();
+        factoryMs = SystemClock.elapsedRealtime() - step;
+
+        buildMs = SystemClock.elapsedRealtime() - start;
+        builds++;
+        Log.i(TAG, "engine built in " + buildMs + "ms (initialize " + initializeMs + "ms, codecs " + codecMs
+                + "ms, audio " + audioMs + "ms, factory " + factoryMs + "ms)");
+    }
+
+    private void dispose() {
+        shutdownRequested = false;
+        if (factory != null) {
+            factory.dispose();
+            factory = null;
+        }
+        if (audioDeviceModule != null) {
+            audioDeviceModule.release();
+            audioDeviceModule = null;
+        }
+        encoderFactory = null;
+        decoderFactory = null;
+        synchronized (eglLock) {
+            if (rootEglBase != null) {
+                rootEglBase.release();
+                rootEglBase = null;
+            }
+        }
+    }
+
+    // -----------------------------------------stats------------------------------------------
+
+    // Whole build, -1 before the first
+    public synchronized long getBuildMs() {
+        return buildMs;
+    }
+
+    // Native library load, only paid by the first build in the process
+    public synchronized long getInitializeMs() {
+        return initializeMs;
+    }
+
+    public long getEglMs() {
+        synchronized (eglLock) {
+            return eglMs;
+        }
+    }
+
+    public synchronized long getCodecMs() {
+        return codecMs;
+    }
+
+    public synchronized long getAudioMs() {
+        return audioMs;
+    }
+
+    public synchronized long getFactoryMs() {
+        return factoryMs;
+    }
+
+    // Times the engine was built, more than one only after a shutdown
+    public synchronized int getBuilds() {
+        return builds;
+    }
+
+    // Calls served, the difference to getBuilds() is how often a warm engine was reused
+    public synchronized int getAcquires() {
+        return acquires;
+    }
+
+    // How long the last call waited for the engine, about 0 when it was warm
+    public synchronized long getLastAcquireWaitMs() {
+        return lastAcquireWaitMs;
+    }
+}
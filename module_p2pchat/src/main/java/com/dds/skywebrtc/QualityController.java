@@ -0,0 +1,155 @@
+package com.dds.skywebrtc;
+
+import com.dds.skywebrtc.stats.StatsSample;
+
+/**
+ * Picks the capture and send quality of the local video from the network type and the
+ * stats the peers report.
+ * <p>
+ * The network type caps the level, the stats move it below the cap: a few bad samples in a
+ * row step down one level, a much longer run of good ones steps back up. The asymmetry keeps
+ * it from flapping, a congested link gets relief within seconds while a recovered one has to
+ * prove itself first. Not thread safe, the session synchronizes on it.
+ */
+public class QualityController {
+
+    // Highest quality first
+    public enum Level {
+        HIGH(1280, 720, 20, 1_500_000),
+        MEDIUM(960, 540, 20, 800_000),
+        LOW(640, 360, 15, 400_000),
+        MINIMAL(320, 180, 10, 150_000);
+
+        public final int width;
+        public final int height;
+        public final int fps;
+        public final int maxBitrateBps;
+
+        Level(int width, int height, int fps, int maxBitrateBps) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+            this.maxBitrateBps = maxBitrateBps;
+        }
+
+        Level lower() {
+            return this == MINIMAL ? this : values()[ordinal() + 1];
+        }
+
+        Level higher() {
+            return this == HIGH ? this : values()[ordinal() - 1];
+        }
+
+        boolean isBelow(Level other) {
+            return ordinal() > other.ordinal();
+        }
+    }
+
+    // consecutive samples before a step, at the 1s stats interval these are seconds
+    static final int DOWN_AFTER = 2;
+    static final int UP_AFTER = 8;
+    static final float BAD_LOSS_PERCENT = 8;
+    static final float GOOD_LOSS_PERCENT = 2;
+    static final float BAD_RTT_MS = 450;
+    static final float GOOD_RTT_MS = 250;
+    // the bandwidth estimate has to cover this much of the level's bitrate to stay ...
+    static final float BAD_BANDWIDTH_RATIO = 0.7f;
+    // ... and this much of the next level's to go up
+    static final float GOOD_BANDWIDTH_RATIO = 1.2f;
+
+    private Level level;
+    private Level cap;
+    private int badRun;
+    private int goodRun;
+    private int changes;
+
+    public QualityController() {
+        this(Level.HIGH);
+    }
+
+    public QualityController(Level start) {
+        this.level = start;
+        this.cap = Level.HIGH;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public Level getCap() {
+        return cap;
+    }
+
+    // How often the level changed, for judging the hysteresis
+    public int getChanges() {
+        return changes;
+    }
+
+    /**
+     * The network changed, the old stats say nothing about the new path so start over at its cap.
+     *
+     * @return the level to apply
+     */
+    public Level onNetworkChanged(Level cap) {
+        this.cap = cap;
+        badRun = 0;
+        goodRun = 0;
+        setLevel(cap);
+        return level;
+    }
+
+    /**
+     * @return the level to apply, the current one if nothing changed
+     */
+    public Level onSample(StatsSample sample) {
+        if (isBad(sample)) {
+            goodRun = 0;
+            if (++badRun >= DOWN_AFTER) {
+                badRun = 0;
+                setLevel(level.lower());
+            }
+        } else if (isGood(sample)) {
+            badRun = 0;
+            if (++goodRun >= UP_AFTER) {
+                goodRun = 0;
+                if (level.isBelow(cap)) setLevel(level.higher());
+            }
+        } else {
+            // in between, hold
+            badRun = 0;
+            goodRun = 0;
+        }
+        return level;
+    }
+
+    boolean isBad(StatsSample sample) {
+        if (sample.lossPercent >= BAD_LOSS_PERCENT) return true;
+        if (sample.rttMs >= BAD_RTT_MS) return true;
+        return sample.availableSendKbps > 0
+                && sample.availableSendKbps * 1000 < level.maxBitrateBps * BAD_BANDWIDTH_RATIO;
+    }
+
+    boolean isGood(StatsSample sample) {
+        if (sample.lossPercent > GOOD_LOSS_PERCENT) return false;
+        if (sample.rttMs > GOOD_RTT_MS) return false;
+        // no estimate yet counts as good, loss and rtt still guard the step
+        return sample.availableSendKbps == 0
+                || sample.availableSendKbps * 1000 >= level.higher().maxBitrateBps * GOOD_BANDWIDTH_RATIO;
+    }
+
+    private void setLevel(Level level) {
+        if (level == this.level) return;
+        this.level = level;
+        changes++;
+    }
+
+    /**
+     * What a peer's video encoding may use at this level given its share of the uplink,
+     * the share's scale is relative to 720p while the capture is already at the level.
+     */
+    public static BandwidthAllocator.Allocation limit(BandwidthAllocator.Allocation allocation, Level level) {
+        int bitrate = Math.min(allocation.maxBitrateBps, level.maxBitrateBps);
+        double scale = Math.max(1.0, allocation.scaleResolutionDownBy * level.height / Level.HIGH.height);
+        return new BandwidthAllocator.Allocation(bitrate, scale);
+    }
+}
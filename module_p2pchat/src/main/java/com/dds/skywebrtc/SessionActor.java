@@ -0,0 +1,191 @@
+package com.dds.skywebrtc;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one session's messages one at a time, in the order they were posted, on a pool
+ * shared by all sessions.
+ * <p>
+ * No thread belongs to a session: a message is queued in the mailbox and the actor asks the
+ * pool to drain it if it isn't already. A drain runs at most BATCH messages before it goes
+ * to the back of the pool's queue, so a busy call can't starve another one. Timers fire on
+ * a shared timer thread and only post their task here, the delay of a fixed delay task is
+ * counted from that post rather than from when it ran. Once shutdown() is called, from the
+ * session's teardown, everything still queued or posted later is dropped.
+ */
+public class SessionActor implements SessionExecutor {
+    private final static String TAG = "dds_SessionActor";
+    static final int BATCH = 16;
+
+    private static final class Message {
+        final CallEvent event;
+        final Runnable task;
+        final long enqueueNanos;
+
+        Message(CallEvent event, Runnable task) {
+            this.event = event;
+            this.task = task;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    private final String name;
+    private final Executor pool;
+    private final ScheduledExecutorService timer;
+    private final ActorMetrics metrics;
+    private final ConcurrentLinkedQueue<Message> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    // a drain is queued on the pool or running
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean shutdown;
+    // counted down once no message will run any more
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    public SessionActor(String name, Executor pool, ScheduledExecutorService timer, ActorMetrics metrics) {
+        this.name = name;
+        this.pool = pool;
+        this.timer = timer;
+        this.metrics = metrics;
+    }
+
+    // Any thread, never blocks
+    public void post(CallEvent event, Runnable task) {
+        if (shutdown) {
+            metrics.recordDropped();
+            Log.w(TAG, name + " is shut down, dropped " + event);
+            return;
+        }
+        mailbox.offer(new Message(event, task));
+        metrics.recordDepth(depth.incrementAndGet());
+        if (draining.compareAndSet(false, true)) {
+            pool.execute(this::drain);
+        }
+    }
+
+    // Messages posted but not started yet
+    public int getDepth() {
+        return depth.get();
+    }
+
+    private void drain() {
+        for (int i = 0; i < BATCH; i++) {
+            Message message = mailbox.poll();
+            if (message == null) break;
+            depth.decrementAndGet();
+            if (shutdown) {
+                // posted while the teardown ran
+                metrics.recordDropped();
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                message.task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, name + " " + message.event + " failed: " + e);
+            }
+            metrics.record(message.event, start - message.enqueueNanos, System.nanoTime() - start);
+        }
+        if (!mailbox.isEmpty()) {
+            // still ours, go around the pool again
+            pool.execute(this::drain);
+            return;
+        }
+        draining.set(false);
+        if (shutdown) {
+            // whatever comes in from here on is dropped without running
+            terminated.countDown();
+        }
+        // a post may have seen draining still set before we cleared it
+        if (!mailbox.isEmpty() && draining.compareAndSet(false, true)) {
+            pool.execute(this::drain);
+        }
+    }
+
+    // ------------------------------------SessionExecutor---------------------------------------
+
+    // Dropped once shut down, like post
+    @Override
+    public void execute(Runnable command) {
+        post(CallEvent.TASK, command);
+    }
+
+    @Override
+    public Cancellable schedule(Runnable command, long delay, TimeUnit unit) {
+        Timed timed = new Timed(command);
+        timed.future = timer.schedule(timed, delay, unit);
+        return timed;
+    }
+
+    @Override
+    public Cancellable scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        Timed timed = new Timed(command);
+        timed.future = timer.scheduleWithFixedDelay(timed, initialDelay, delay, unit);
+        return timed;
+    }
+
+    // Posts the command when the timer fires, skipped if cancelled while it waited in the mailbox
+    private final class Timed implements Runnable, Cancellable {
+        private final Runnable command;
+        volatile ScheduledFuture<?> future;
+        private volatile boolean cancelled;
+
+        Timed(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            if (shutdown || cancelled) {
+                // future is set right after scheduling, a zero delay may fire before that
+                ScheduledFuture<?> f = future;
+                if (f != null) f.cancel(false);
+                return;
+            }
+            post(CallEvent.TASK, () -> {
+                if (!cancelled) command.run();
+            });
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> f = future;
+            if (f != null) f.cancel(false);
+        }
+    }
+
+    /**
+     * Drops everything still queued or posted later, from the session's teardown. The message
+     * calling this finishes, nothing runs after it.
+     */
+    public void shutdown() {
+        shutdown = true;
+        // idle, no drain is left to notice
+        if (!draining.get()) {
+            terminated.countDown();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    // Waits until no message runs any more, false if the timeout passed first
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "SessionActor{" + name + " depth=" + depth.get() + (shutdown ? " shut down" : "") + "}";
+    }
+}
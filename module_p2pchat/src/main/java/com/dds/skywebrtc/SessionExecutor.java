@@ -0,0 +1,27 @@
+package com.dds.skywebrtc;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where a session's work runs, one task at a time in the order it was handed over.
+ * <p>
+ * Not an ExecutorService on purpose: once the session has ended, tasks are dropped instead of
+ * rejected, WebRTC callbacks and timers keep coming in for a while after the teardown and
+ * have nothing left to do. Delayed tasks give back a {@link Cancellable} rather than a
+ * future, there is no result to wait for.
+ */
+public interface SessionExecutor extends Executor {
+
+    /** A delayed task that hasn't run yet can still be called off. */
+    interface Cancellable {
+        // Called on the session, the task doesn't run after this
+        void cancel();
+    }
+
+    // Runs command on the session once the delay has passed
+    Cancellable schedule(Runnable command, long delay, TimeUnit unit);
+
+    // Runs command on the session again and again, delay after each run was posted
+    Cancellable scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit);
+}
@@ -4,12 +4,23 @@ import android.content.Context;
 import android.util.Log;
 
 import com.dds.skywebrtc.except.NotInitializedException;
+import com.dds.skywebrtc.ice.IceServerManager;
+import com.dds.skywebrtc.ice.IceServerProbe;
 import com.dds.skywebrtc.inter.ISkyEvent;
+import com.dds.skywebrtc.stats.CallStatsCollector;
 
+import org.webrtc.IceCandidate;
 import org.webrtc.PeerConnection;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by dds on 2019/8/19.
@@ -17,9 +28,35 @@ import java.util.List;
 public class SkyEngineKit {
     private final static String TAG = "dds_AVEngineKit";
     private static SkyEngineKit avEngineKit;
-    private CallSession mCurrentCallSession;
+    // read by the signaling dispatcher thread
+    private volatile CallSession mCurrentCallSession;
     public ISkyEvent mEvent;
-    private List<PeerConnection.IceServer> iceServers = new ArrayList<>();
+    // read by the ice server probe thread
+    private final List<PeerConnection.IceServer> iceServers = new CopyOnWriteArrayList<>();
+    // probes iceServers in the background, started by init with a context
+    private IceServerManager iceServerManager;
+    private long iceBatchWindowMs = IceCandidateBatcher.DEFAULT_WINDOW_MS;
+    // factory, audio device module and egl context shared by all calls
+    private MediaEngine mediaEngine;
+    // prepare media and the peer connection while ringing, off unless the app opts in
+    private boolean speculativeSetup;
+    // 1:1 calls send the offer with the invite, the callee answers right on accept
+    private boolean offerInInvite;
+    private final CallSetupStats callSetupStats = new CallSetupStats();
+    private final CallTraceStats callTraceStats = new CallTraceStats();
+    private final HandoverStats handoverStats = new HandoverStats();
+    // the sessions' actors share these instead of a thread each
+    private static final int ACTOR_THREADS = 2;
+    private ExecutorService actorPool;
+    private ScheduledExecutorService actorTimer;
+    private final ActorMetrics actorMetrics = new ActorMetrics();
+    // splits the uplink between the peers of a meeting
+    private final BandwidthAllocator bandwidthAllocator = new BandwidthAllocator();
+    private long statsIntervalMs = CallStatsCollector.DEFAULT_INTERVAL_MS;
+    // handed to the stats collector of every new peer
+    private final List<CallStatsCollector.Listener> statsListeners = new CopyOnWriteArrayList<>();
+    // StatsRing dumps of the last call's peers, by user
+    private volatile Map<String, byte[]> lastStatsDumps = Collections.emptyMap();
 
     public static SkyEngineKit Instance() {
         SkyEngineKit var;
@@ -59,6 +96,28 @@ public class SkyEngineKit {
         }
     }
 
+    // initialization, and build the media engine in the background so the first call does not wait for it
+    public static void init(ISkyEvent iSocketEvent, Context context) {
+        init(iSocketEvent);
+        avEngineKit.getMediaEngine(context).warmUp();
+        avEngineKit.getIceServerManager().start();
+    }
+
+    // Release the media engine, it is freed once the current call (if any) has ended
+    public static void shutdown() {
+        SkyEngineKit var = avEngineKit;
+        if (var == null) return;
+        MediaEngine engine;
+        synchronized (var) {
+            engine = var.mediaEngine;
+            var.mediaEngine = null;
+        }
+        if (engine != null) {
+            engine.shutdown();
+        }
+        var.getIceServerManager().stop();
+    }
+
 
     // dial number
     public boolean startOutCall(Context context,
@@ -82,17 +141,56 @@ public class SkyEngineKit {
         mCurrentCallSession.setRoom(room);
         mCurrentCallSession.setTargetId(targetId);
         mCurrentCallSession.setIsComing(false);
-        mCurrentCallSession.setCallState(EnumType.CallState.Outgoing);
+        mCurrentCallSession.start(CallEvent.INVITE);
         // create room
         mCurrentCallSession.createHome(room, 2);
         return true;
     }
 
+    // Call several users at once, everyone connects to everyone (mesh)
+    public boolean startOutMeeting(Context context,
+                                   final String room,
+                                   final List<String> userIds,
+                                   final boolean audioOnly) {
+        if (avEngineKit == null) {
+            Log.e(TAG, "startOutMeeting error,please init first");
+            return false;
+        }
+        if (userIds.isEmpty()) {
+            return false;
+        }
+        // Busy
+        if (mCurrentCallSession != null && mCurrentCallSession.getState() != EnumType.CallState.Idle) {
+            Log.i(TAG, "startOutMeeting error,currentCallSession is exist");
+            return false;
+        }
+        mCurrentCallSession = new CallSession(avEngineKit, context, audioOnly);
+        mCurrentCallSession.setContext(context);
+        mCurrentCallSession.setIsAudioOnly(audioOnly);
+        mCurrentCallSession.setRoom(room);
+        mCurrentCallSession.setUserList(userIds);
+        mCurrentCallSession.setIsComing(false);
+        mCurrentCallSession.start(CallEvent.INVITE);
+        // room for everyone invited and ourselves
+        mCurrentCallSession.createHome(room, userIds.size() + 1);
+        return true;
+    }
+
     // answer the phone
     public boolean startInCall(Context context,
                                final String room,
                                final String targetId,
                                final boolean audioOnly) {
+        return startInCall(context, room, targetId, audioOnly, null, null);
+    }
+
+    // answer the phone, offer and candidates came with the invite, null if they didn't
+    public boolean startInCall(Context context,
+                               final String room,
+                               final String targetId,
+                               final boolean audioOnly,
+                               final String offer,
+                               final List<IceCandidate> candidates) {
         if (avEngineKit == null) {
             Log.e(TAG, "startInCall error,init is not set");
             return false;
@@ -113,11 +211,16 @@ public class SkyEngineKit {
         mCurrentCallSession.setTargetId(targetId);
         mCurrentCallSession.setContext(context);
         mCurrentCallSession.setIsComing(true);
-        mCurrentCallSession.setCallState(EnumType.CallState.Incoming);
+        if (offer != null) {
+            mCurrentCallSession.setInviteOffer(offer, candidates);
+        }
+        mCurrentCallSession.start(CallEvent.INCOMING);
 
         // Start ringing and reply
         mCurrentCallSession.shouldStartRing();
         mCurrentCallSession.sendRingBack(targetId);
+        // get the peer connection ready while the user decides
+        mCurrentCallSession.prepareSpeculative();
 
 
         return true;
@@ -126,26 +229,8 @@ public class SkyEngineKit {
     // Hang up the session
     public void endCall() {
         if (mCurrentCallSession != null) {
-            // stop ringing
-            mCurrentCallSession.shouldStopRing();
-
-            if (mCurrentCallSession.mIsComing) {
-                if (mCurrentCallSession.getState() == EnumType.CallState.Incoming) {
-                    // Received invitation, did not agree, send rejection
-                    mCurrentCallSession.sendRefuse();
-                } else {
-                    // Already connected, hang up
-                    mCurrentCallSession.leave();
-                }
-            } else {
-                if (mCurrentCallSession.getState() == EnumType.CallState.Outgoing) {
-                    mCurrentCallSession.sendCancel();
-                } else {
-                    // Already connected, hang up
-                    mCurrentCallSession.leave();
-                }
-            }
-            mCurrentCallSession.setCallState(EnumType.CallState.Idle);
+            // refuses, cancels or leaves on the session's actor, by its state there
+            mCurrentCallSession.hangUp();
         }
     }
 
@@ -154,6 +239,40 @@ public class SkyEngineKit {
         return this.mCurrentCallSession;
     }
 
+    // Runs on the shared pool, created on first use
+    synchronized SessionActor newSessionActor(String name) {
+        if (actorPool == null) {
+            AtomicInteger threads = new AtomicInteger();
+            actorPool = Executors.newFixedThreadPool(ACTOR_THREADS, r -> {
+                Thread thread = new Thread(r, "CallActor-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "CallTimer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // cancelled stats polls and ice timers shouldn't sit in the queue until due
+            timer.setRemoveOnCancelPolicy(true);
+            actorTimer = timer;
+        }
+        return new SessionActor(name, actorPool, actorTimer, actorMetrics);
+    }
+
+    // Mailbox depth and per event wait and run times of the sessions' actors
+    public ActorMetrics getActorMetrics() {
+        return actorMetrics;
+    }
+
+    // Created on first use, warmUp() has only been called if init was given a context
+    public synchronized MediaEngine getMediaEngine(Context context) {
+        if (mediaEngine == null) {
+            mediaEngine = new MediaEngine(context);
+        }
+        return mediaEngine;
+    }
+
     // --------------------------------iceServers------------------------------------
 
     // Add turn and stun
@@ -164,11 +283,105 @@ public class SkyEngineKit {
                 .setPassword(pwd)
                 .createIceServer();
         var.iceServers.add(var4);
+        // measured before the next call if the manager runs
+        var.getIceServerManager().probeSoon();
     }
 
     public List<PeerConnection.IceServer> getIceServers() {
         return iceServers;
     }
 
+    public synchronized IceServerManager getIceServerManager() {
+        if (iceServerManager == null) {
+            iceServerManager = new IceServerManager(iceServers, new IceServerProbe());
+        }
+        return iceServerManager;
+    }
+
+    // The servers for a new call, ranked and pruned by the probes on the current network
+    public List<PeerConnection.IceServer> getRankedIceServers() {
+        return getIceServerManager().getServers();
+    }
+
+    // How long local candidates are collected before they are sent as one batch
+    public void setIceBatchWindowMs(long windowMs) {
+        this.iceBatchWindowMs = windowMs;
+    }
+
+    public long getIceBatchWindowMs() {
+        return iceBatchWindowMs;
+    }
+
+    // Whether calls build their peer connection while ringing, off by default. Opens the camera
+    // before the accept, for calls that are refused or cancelled too
+    public void setSpeculativeSetup(boolean speculativeSetup) {
+        this.speculativeSetup = speculativeSetup;
+    }
+
+    public boolean isSpeculativeSetup() {
+        return speculativeSetup;
+    }
+
+    // Whether 1:1 calls put the offer into the invite. A callee that doesn't take it offers
+    // the classic way after joining, the call then falls back to that
+    public void setOfferInInvite(boolean offerInInvite) {
+        this.offerInInvite = offerInInvite;
+    }
+
+    public boolean isOfferInInvite() {
+        return offerInInvite;
+    }
+
+    // Uplink shared by the peers of a meeting, set it from what the network can actually carry
+    public BandwidthAllocator getBandwidthAllocator() {
+        return bandwidthAllocator;
+    }
+
+    // Setup milestone percentiles of the recent calls
+    public CallTraceStats getCallTraceStats() {
+        return callTraceStats;
+    }
+
+    // How often the peers poll getStats, applies to peers created after the call
+    public void setStatsIntervalMs(long intervalMs) {
+        this.statsIntervalMs = intervalMs;
+    }
+
+    public long getStatsIntervalMs() {
+        return statsIntervalMs;
+    }
+
+    // Gets a sample from every peer on every poll, for the controllers adapting to the network
+    public void addStatsListener(CallStatsCollector.Listener listener) {
+        statsListeners.add(listener);
+    }
+
+    public void removeStatsListener(CallStatsCollector.Listener listener) {
+        statsListeners.remove(listener);
+    }
+
+    List<CallStatsCollector.Listener> getStatsListeners() {
+        return statsListeners;
+    }
+
+    // Read back with StatsRing.fromDump
+    public Map<String, byte[]> getLastStatsDumps() {
+        return lastStatsDumps;
+    }
+
+    void setLastStatsDumps(Map<String, byte[]> dumps) {
+        lastStatsDumps = Collections.unmodifiableMap(dumps);
+    }
+
+    // Network handovers of the calls and how long until media came back
+    public HandoverStats getHandoverStats() {
+        return handoverStats;
+    }
+
+    // Accept to connected latency with and without the speculative setup
+    public CallSetupStats getCallSetupStats() {
+        return callSetupStats;
+    }
+
 
 }
@@ -0,0 +1,262 @@
+package com.dds.skywebrtc.engine;
+
+import android.util.Log;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The offer/answer of one peer of a session: who offers, which description is being set,
+ * holding remote candidates back until they can be added, and ICE restarts.
+ * <p>
+ * Everything but the {@link RtcPeer.Observer} callbacks runs on the session's executor, the
+ * callbacks come on the engine's thread and post their follow up work there. It only knows
+ * the {@link RtcPeer} interface, so the same logic runs on webrtc in the app and on an
+ * in-memory engine in the unit tests.
+ */
+public class PeerNegotiator implements RtcPeer.Observer {
+    private final static String TAG = "dds_PeerNegotiator";
+
+    public enum Role {Caller, Receiver,}
+
+    // Where the descriptions go, the candidates are sent by the Listener
+    public interface Signaling {
+        void sendOffer(String userId, String sdp);
+
+        void sendAnswer(String userId, String sdp);
+    }
+
+    public interface Listener {
+        // On the engine thread, a description was created / set
+        void onSdpCreated(SessionDescription sdp);
+
+        void onSdpSet(boolean local);
+
+        // On the executor, both descriptions are in place and the state is STABLE
+        void onNegotiated();
+
+        // On the executor, a restart offer is being created
+        void onIceRestart();
+
+        // On the executor, creating or setting a description failed. local: it was our own
+        void onNegotiationFailed(boolean local, String error);
+
+        // On the engine thread
+        void onLocalCandidate(IceCandidate candidate);
+
+        void onIceConnectionChange(RtcPeer.IceState state);
+    }
+
+    private final String userId;
+    private final Executor executor;
+    private final Signaling signaling;
+    private final Listener listener;
+    private RtcPeer peer;
+    private Role role = Role.Receiver;
+    // remote candidates held until the remote description is set, null when they go straight in
+    private List<IceCandidate> queuedRemoteCandidates = new ArrayList<>();
+    private SessionDescription localSdp;
+    // the description being set is our own, see onSetSuccess
+    private boolean settingLocal;
+    // an ICE restart waits for the negotiation in flight
+    private boolean restartPending;
+    private volatile boolean closed;
+
+    public PeerNegotiator(String userId, Executor executor, Signaling signaling, Listener listener) {
+        this.userId = userId;
+        this.executor = executor;
+        this.signaling = signaling;
+        this.listener = listener;
+    }
+
+    // The peer is made with this as its observer, so it comes after the constructor
+    public void attach(RtcPeer peer) {
+        this.peer = peer;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public void setRole(Role role) {
+        this.role = role;
+    }
+
+    public boolean isRestartPending() {
+        return restartPending;
+    }
+
+    public void createOffer() {
+        if (closed) return;
+        peer.createOffer(false);
+    }
+
+    public void createAnswer() {
+        if (closed) return;
+        peer.createAnswer();
+    }
+
+    /**
+     * @return false if the offer was ignored because ours is outstanding
+     */
+    public boolean onRemoteOffer(String description) {
+        if (!setRemoteOffer(description)) return false;
+        peer.createAnswer();
+        return true;
+    }
+
+    /**
+     * Only sets the offer, {@link #createAnswer()} follows later. An invite that carried
+     * the offer is answered once the call is accepted.
+     *
+     * @return false if the offer was ignored because ours is outstanding
+     */
+    public boolean setRemoteOffer(String description) {
+        if (closed) return false;
+        if (peer.signalingState() == RtcPeer.SignalingState.HAVE_LOCAL_OFFER) {
+            // glare, both restarted at once. This webrtc can't roll back an offer, so
+            // the caller's wins and the other side answers it
+            Log.w(TAG, "ignoring offer from " + userId + ", ours is outstanding");
+            return false;
+        }
+        // a restart offer doesn't change who restarts
+        if (!peer.hasRemoteDescription()) {
+            role = Role.Receiver;
+        }
+        peer.setRemoteDescription(new SessionDescription(SessionDescription.Type.OFFER, description));
+        return true;
+    }
+
+    public void onRemoteAnswer(String description) {
+        if (closed) return;
+        peer.setRemoteDescription(new SessionDescription(SessionDescription.Type.ANSWER, description));
+    }
+
+    public void addRemoteIceCandidate(IceCandidate candidate) {
+        if (closed) return;
+        if (queuedRemoteCandidates != null) {
+            queuedRemoteCandidates.add(candidate);
+        } else {
+            peer.addIceCandidate(candidate);
+        }
+    }
+
+    public void drainCandidates() {
+        if (closed || queuedRemoteCandidates == null) return;
+        Log.d(TAG, "Add " + queuedRemoteCandidates.size() + " remote candidates");
+        for (IceCandidate candidate : queuedRemoteCandidates) {
+            peer.addIceCandidate(candidate);
+        }
+        queuedRemoteCandidates = null;
+    }
+
+    /**
+     * Only the caller restarts so the two sides never offer at once, the callee's new
+     * candidates still reach it through continual gathering.
+     *
+     * @return true if the restart offer is being created, false if it waits for the
+     * negotiation in flight or this side doesn't restart
+     */
+    public boolean restartIce() {
+        if (closed || role != Role.Caller) return false;
+        if (peer.signalingState() != RtcPeer.SignalingState.STABLE) {
+            restartPending = true;
+            return false;
+        }
+        // the answer's candidates may overtake it, hold them until it is set
+        if (queuedRemoteCandidates == null) {
+            queuedRemoteCandidates = new ArrayList<>();
+        }
+        listener.onIceRestart();
+        // the old pair keeps carrying media until the new one is selected
+        peer.createOffer(true);
+        return true;
+    }
+
+    // The owner disposes the peer, callbacks still in flight are ignored
+    public void close() {
+        closed = true;
+    }
+
+    //-------------RtcPeer.Observer--------------------
+    @Override
+    public void onCreateSuccess(SessionDescription sdp) {
+        listener.onSdpCreated(sdp);
+        Log.d(TAG, "sdp创建成功       " + sdp.type);
+        executor.execute(() -> {
+            // the peer may have left in the meantime
+            if (closed) return;
+            localSdp = sdp;
+            settingLocal = true;
+            peer.setLocalDescription(sdp);
+        });
+    }
+
+    @Override
+    public void onSetSuccess() {
+        executor.execute(() -> {
+            if (closed) return;
+            RtcPeer.SignalingState state = peer.signalingState();
+            Log.d(TAG, "sdp连接成功   " + state);
+            boolean local = settingLocal;
+            if (settingLocal) {
+                settingLocal = false;
+                if (localSdp.type == SessionDescription.Type.ANSWER) {
+                    signaling.sendAnswer(userId, localSdp.description);
+                } else {
+                    signaling.sendOffer(userId, localSdp.description);
+                }
+            }
+            listener.onSdpSet(local);
+            // negotiated, both descriptions are in place again after a restart too
+            if (state == RtcPeer.SignalingState.STABLE && peer.hasLocalDescription() && peer.hasRemoteDescription()) {
+                drainCandidates();
+                listener.onNegotiated();
+                if (restartPending) {
+                    restartPending = false;
+                    restartIce();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onCreateFailure(String error) {
+        Log.i(TAG, "onCreateFailure:" + error);
+        executor.execute(() -> {
+            if (closed) return;
+            // a failed restart must not hold the remote candidates back
+            if (peer.hasRemoteDescription()) drainCandidates();
+            listener.onNegotiationFailed(true, error);
+        });
+    }
+
+    @Override
+    public void onSetFailure(String error) {
+        Log.i(TAG, "onSetFailure:" + error);
+        executor.execute(() -> {
+            boolean local = settingLocal;
+            settingLocal = false;
+            if (!closed) listener.onNegotiationFailed(local, error);
+        });
+    }
+
+    @Override
+    public void onIceCandidate(IceCandidate candidate) {
+        if (!closed) listener.onLocalCandidate(candidate);
+    }
+
+    @Override
+    public void onIceConnectionChange(RtcPeer.IceState state) {
+        Log.i(TAG, "onIceConnectionChange: " + state);
+        if (!closed) listener.onIceConnectionChange(state);
+    }
+}
@@ -0,0 +1,14 @@
+package com.dds.skywebrtc.engine;
+
+/**
+ * Makes the {@link RtcPeer}s of a session. {@link WebRtcEngine} is the real one, the unit
+ * tests run the negotiation against an in-memory engine instead.
+ */
+public interface RtcEngine {
+
+    /**
+     * @param candidatePoolSize candidates to gather before there is a description, 0 for none
+     * @return the peer, null if the engine couldn't make one
+     */
+    RtcPeer createPeer(int candidatePoolSize, RtcPeer.Observer observer);
+}
@@ -0,0 +1,55 @@
+package com.dds.skywebrtc.engine;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+/**
+ * The part of a peer connection the negotiation needs: creating and setting descriptions,
+ * adding candidates, and the callbacks for them.
+ * <p>
+ * Every call is asynchronous like webrtc's, its result comes back through the
+ * {@link Observer} on a thread of the engine. The states mirror webrtc's by name.
+ */
+public interface RtcPeer {
+
+    enum SignalingState {
+        STABLE, HAVE_LOCAL_OFFER, HAVE_LOCAL_PRANSWER, HAVE_REMOTE_OFFER, HAVE_REMOTE_PRANSWER, CLOSED
+    }
+
+    enum IceState {
+        NEW, CHECKING, CONNECTED, COMPLETED, FAILED, DISCONNECTED, CLOSED
+    }
+
+    interface Observer {
+        void onCreateSuccess(SessionDescription sdp);
+
+        void onCreateFailure(String error);
+
+        // the description of the last setLocal or setRemote call is in place
+        void onSetSuccess();
+
+        void onSetFailure(String error);
+
+        void onIceCandidate(IceCandidate candidate);
+
+        void onIceConnectionChange(IceState state);
+    }
+
+    void createOffer(boolean iceRestart);
+
+    void createAnswer();
+
+    void setLocalDescription(SessionDescription sdp);
+
+    void setRemoteDescription(SessionDescription sdp);
+
+    void addIceCandidate(IceCandidate candidate);
+
+    SignalingState signalingState();
+
+    boolean hasLocalDescription();
+
+    boolean hasRemoteDescription();
+
+    void dispose();
+}
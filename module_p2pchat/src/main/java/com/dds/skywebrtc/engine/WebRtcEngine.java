@@ -0,0 +1,46 @@
+package com.dds.skywebrtc.engine;
+
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtcCertificatePem;
+
+import java.util.List;
+
+/**
+ * {@link RtcEngine} on a webrtc {@link PeerConnectionFactory}.
+ */
+public class WebRtcEngine implements RtcEngine {
+    private final PeerConnectionFactory factory;
+    // the session's snapshot, servers added later are used by the next session
+    private final List<PeerConnection.IceServer> iceServers;
+    // the DTLS certificate of every peer, null lets webrtc generate one per peer
+    private final RtcCertificatePem certificate;
+
+    public WebRtcEngine(PeerConnectionFactory factory, List<PeerConnection.IceServer> iceServers,
+                        RtcCertificatePem certificate) {
+        this.factory = factory;
+        this.iceServers = iceServers;
+        this.certificate = certificate;
+    }
+
+    @Override
+    public WebRtcPeer createPeer(int candidatePoolSize, RtcPeer.Observer observer) {
+        return createPeer(candidatePoolSize, observer, null);
+    }
+
+    // media is told about the remote streams, may be null
+    public WebRtcPeer createPeer(int candidatePoolSize, RtcPeer.Observer observer, WebRtcPeer.MediaObserver media) {
+        PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+        rtcConfig.iceCandidatePoolSize = candidatePoolSize;
+        // candidates of a network that comes up mid call are sent without a restart
+        rtcConfig.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY;
+        if (certificate != null) {
+            rtcConfig.certificate = certificate;
+        }
+        WebRtcPeer peer = new WebRtcPeer(observer, media);
+        PeerConnection pc = factory.createPeerConnection(rtcConfig, peer);
+        if (pc == null) return null;
+        peer.attach(pc);
+        return peer;
+    }
+}
@@ -0,0 +1,174 @@
+package com.dds.skywebrtc.engine;
+
+import android.util.Log;
+
+import org.webrtc.DataChannel;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.PeerConnection;
+import org.webrtc.RtpReceiver;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+
+/**
+ * {@link RtcPeer} on a webrtc {@link PeerConnection}. The media side, streams, senders and
+ * stats, is used on {@link #getPeerConnection()} directly.
+ */
+public class WebRtcPeer implements RtcPeer, SdpObserver, PeerConnection.Observer {
+    private final static String TAG = "dds_WebRtcPeer";
+
+    public interface MediaObserver {
+        // On the webrtc signaling thread
+        void onAddStream(MediaStream stream);
+    }
+
+    private final RtcPeer.Observer observer;
+    private final MediaObserver media;
+    private PeerConnection pc;
+
+    WebRtcPeer(RtcPeer.Observer observer, MediaObserver media) {
+        this.observer = observer;
+        this.media = media;
+    }
+
+    void attach(PeerConnection pc) {
+        this.pc = pc;
+    }
+
+    public PeerConnection getPeerConnection() {
+        return pc;
+    }
+
+    @Override
+    public void createOffer(boolean iceRestart) {
+        pc.createOffer(this, offerOrAnswerConstraint(iceRestart));
+    }
+
+    @Override
+    public void createAnswer() {
+        pc.createAnswer(this, offerOrAnswerConstraint(false));
+    }
+
+    @Override
+    public void setLocalDescription(SessionDescription sdp) {
+        pc.setLocalDescription(this, sdp);
+    }
+
+    @Override
+    public void setRemoteDescription(SessionDescription sdp) {
+        pc.setRemoteDescription(this, sdp);
+    }
+
+    @Override
+    public void addIceCandidate(IceCandidate candidate) {
+        pc.addIceCandidate(candidate);
+    }
+
+    @Override
+    public SignalingState signalingState() {
+        return SignalingState.valueOf(pc.signalingState().name());
+    }
+
+    @Override
+    public boolean hasLocalDescription() {
+        return pc.getLocalDescription() != null;
+    }
+
+    @Override
+    public boolean hasRemoteDescription() {
+        return pc.getRemoteDescription() != null;
+    }
+
+    @Override
+    public void dispose() {
+        pc.dispose();
+    }
+
+    private static MediaConstraints offerOrAnswerConstraint(boolean iceRestart) {
+        MediaConstraints mediaConstraints = new MediaConstraints();
+        mediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
+        mediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveVideo", "true"));
+        if (iceRestart) {
+            mediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
+        }
+        return mediaConstraints;
+    }
+
+    //-------------SdpObserver--------------------
+    @Override
+    public void onCreateSuccess(SessionDescription sdp) {
+        observer.onCreateSuccess(sdp);
+    }
+
+    @Override
+    public void onSetSuccess() {
+        observer.onSetSuccess();
+    }
+
+    @Override
+    public void onCreateFailure(String error) {
+        observer.onCreateFailure(error);
+    }
+
+    @Override
+    public void onSetFailure(String error) {
+        observer.onSetFailure(error);
+    }
+
+    //-------------Observer--------------------
+    @Override
+    public void onSignalingChange(PeerConnection.SignalingState signalingState) {
+        Log.i(TAG, "onSignalingChange: " + signalingState);
+    }
+
+    @Override
+    public void onIceConnectionChange(PeerConnection.IceConnectionState newState) {
+        observer.onIceConnectionChange(IceState.valueOf(newState.name()));
+    }
+
+    @Override
+    public void onIceConnectionReceivingChange(boolean receiving) {
+        Log.i(TAG, "onIceConnectionReceivingChange:" + receiving);
+    }
+
+    @Override
+    public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
+        Log.i(TAG, "onIceGatheringChange:" + newState);
+    }
+
+    @Override
+    public void onIceCandidate(IceCandidate candidate) {
+        observer.onIceCandidate(candidate);
+    }
+
+    @Override
+    public void onIceCandidatesRemoved(IceCandidate[] candidates) {
+        Log.i(TAG, "onIceCandidatesRemoved:");
+    }
+
+    @Override
+    public void onAddStream(MediaStream stream) {
+        if (media != null) media.onAddStream(stream);
+    }
+
+    @Override
+    public void onRemoveStream(MediaStream stream) {
+        Log.i(TAG, "onRemoveStream:");
+    }
+
+    @Override
+    public void onDataChannel(DataChannel dataChannel) {
+        Log.i(TAG, "onDataChannel:");
+    }
+
+    @Override
+    public void onRenegotiationNeeded() {
+        Log.i(TAG, "onRenegotiationNeeded:");
+    }
+
+    @Override
+    public void onAddTrack(RtpReceiver receiver, MediaStream[] mediaStreams) {
+        Log.i(TAG, "onAddTrack:");
+    }
+}
@@ -0,0 +1,116 @@
+package com.dds.skywebrtc.ice;
+
+import android.util.Log;
+
+import org.webrtc.NetworkMonitor;
+import org.webrtc.NetworkMonitorAutoDetect;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes the configured ICE servers in the background and hands calls the list ranked for
+ * the network the phone is on now, see {@link IceServerRanking}.
+ * <p>
+ * The results are kept per connection type as NetworkMonitor reports it, going back to a
+ * wifi that was probed a few minutes ago doesn't probe again. Every PROBE_INTERVAL_MS and
+ * after every network change the urls whose result isn't fresh any more are probed, one at
+ * a time on a thread of its own.
+ */
+public class IceServerManager implements NetworkMonitor.NetworkObserver {
+    private final static String TAG = "dds_IceServerManager";
+    public static final long PROBE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(15);
+    // before the first change is reported
+    static final String UNKNOWN_NETWORK = "unknown";
+
+    // the configured servers, SkyEngineKit's list
+    private final List<PeerConnection.IceServer> servers;
+    private final IceServerProbe probe;
+    private final IceServerRanking ranking = new IceServerRanking();
+    private final IceServerRanking.Urls<PeerConnection.IceServer> urls = server -> server.urls;
+    private volatile String network = UNKNOWN_NETWORK;
+    private ScheduledExecutorService scheduler;
+    // probes run or skipped since start
+    private volatile int probes;
+
+    public IceServerManager(List<PeerConnection.IceServer> servers, IceServerProbe probe) {
+        this.servers = servers;
+        this.probe = probe;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IceServerProbe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::probeStale, 0, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        NetworkMonitor.getInstance().addObserver(this);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        NetworkMonitor.getInstance().removeObserver(this);
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    // Probe what isn't fresh soon, e.g. after a server was added
+    public synchronized void probeSoon() {
+        if (scheduler != null) {
+            scheduler.execute(this::probeStale);
+        }
+    }
+
+    @Override
+    public void onConnectionTypeChanged(NetworkMonitorAutoDetect.ConnectionType connectionType) {
+        // nothing to probe without a network, and nothing to rank for it
+        if (connectionType == NetworkMonitorAutoDetect.ConnectionType.CONNECTION_NONE) return;
+        network = connectionType.name();
+        probeSoon();
+    }
+
+    // On the probe thread
+    private void probeStale() {
+        String current = network;
+        for (PeerConnection.IceServer server : new ArrayList<>(servers)) {
+            for (String url : server.urls) {
+                if (!ranking.needsProbe(current, url, System.currentTimeMillis())) continue;
+                ProbeResult result = probe.probe(url, server.username, server.password);
+                probes++;
+                if (result == null) continue;
+                // the network changed while it ran, it says nothing about the new one
+                if (!current.equals(network)) return;
+                ranking.record(current, result);
+                Log.d(TAG, current + ": " + result);
+            }
+        }
+    }
+
+    /**
+     * For the RTCConfiguration of a new call, never blocks.
+     */
+    public List<PeerConnection.IceServer> getServers() {
+        List<PeerConnection.IceServer> ranked = ranking.rank(network, new ArrayList<>(servers), urls,
+                System.currentTimeMillis());
+        Log.d(TAG, network + ": " + ranked.size() + " of " + servers.size() + " ice servers");
+        return ranked;
+    }
+
+    public String getNetwork() {
+        return network;
+    }
+
+    public IceServerRanking getRanking() {
+        return ranking;
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+}
@@ -0,0 +1,227 @@
+package com.dds.skywebrtc.ice;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes one ICE server url the way gathering would use it. A stun url gets a binding request,
+ * a turn url an allocation with its long-term credentials, which is released again right away.
+ * <p>
+ * Over UDP a request is sent again after timeoutMs, doubling like RFC 5389 does, the round
+ * trip is counted from the last send. Blocks for up to a few seconds, call it off the main
+ * thread. stuns: and turns: need TLS and aren't probed.
+ */
+public class IceServerProbe {
+    public static final int DEFAULT_ATTEMPTS = 3;
+    public static final long DEFAULT_TIMEOUT_MS = 400;
+    // REQUESTED-TRANSPORT UDP, the relay webrtc asks for
+    private static final byte[] TRANSPORT_UDP = {17, 0, 0, 0};
+
+    private final int attempts;
+    private final long timeoutMs;
+
+    public IceServerProbe() {
+        this(DEFAULT_ATTEMPTS, DEFAULT_TIMEOUT_MS);
+    }
+
+    public IceServerProbe(int attempts, long timeoutMs) {
+        this.attempts = attempts;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @return null if the url can't be probed
+     */
+    public ProbeResult probe(String url, String username, String password) {
+        IceServerUrl parsed = IceServerUrl.parse(url);
+        if (parsed == null || parsed.secure) return null;
+        long now = System.currentTimeMillis();
+        InetSocketAddress address;
+        try {
+            address = new InetSocketAddress(InetAddress.getByName(parsed.host), parsed.port);
+        } catch (UnknownHostException e) {
+            return new ProbeResult(url, now, false, false, -1, "unknown host");
+        }
+        try (Channel channel = parsed.tcp ? new TcpChannel(address) : new UdpChannel(address)) {
+            return parsed.turn ? allocate(channel, url, now, username, password) : bind(channel, url, now);
+        } catch (IOException e) {
+            return new ProbeResult(url, now, false, false, -1, e.toString());
+        }
+    }
+
+    private ProbeResult bind(Channel channel, String url, long now) throws IOException {
+        Exchange exchange = channel.exchange(new StunMessage(StunMessage.BINDING_REQUEST), null);
+        if (exchange == null) return new ProbeResult(url, now, false, false, -1, "timeout");
+        if (exchange.response.type != StunMessage.BINDING_SUCCESS) {
+            return new ProbeResult(url, now, true, false, -1, "error " + exchange.response.getErrorCode());
+        }
+        return new ProbeResult(url, now, true, false, exchange.rttMs, null);
+    }
+
+    private ProbeResult allocate(Channel channel, String url, long now, String username, String password)
+            throws IOException {
+        // the first one is only to learn the realm and the nonce
+        Exchange exchange = channel.exchange(new StunMessage(StunMessage.ALLOCATE_REQUEST)
+                .put(StunMessage.ATTR_REQUESTED_TRANSPORT, TRANSPORT_UDP), null);
+        if (exchange == null) return new ProbeResult(url, now, false, false, -1, "timeout");
+        if (exchange.response.type == StunMessage.ALLOCATE_SUCCESS) {
+            // a server without authentication
+            channel.exchange(new StunMessage(StunMessage.REFRESH_REQUEST).putInt(StunMessage.ATTR_LIFETIME, 0), null);
+            return new ProbeResult(url, now, true, true, exchange.rttMs, null);
+        }
+        if (exchange.response.getErrorCode() != 401) {
+            return new ProbeResult(url, now, true, false, -1, "error " + exchange.response.getErrorCode());
+        }
+        String realm = exchange.response.getString(StunMessage.ATTR_REALM);
+        String nonce = exchange.response.getString(StunMessage.ATTR_NONCE);
+        if (username == null || password == null || realm == null || nonce == null) {
+            return new ProbeResult(url, now, true, false, -1, "no credentials");
+        }
+        byte[] key = StunMessage.longTermKey(username, realm, password);
+        for (int tries = 0; tries < 2; tries++) {
+            exchange = channel.exchange(authenticated(StunMessage.ALLOCATE_REQUEST, username, realm, nonce)
+                    .put(StunMessage.ATTR_REQUESTED_TRANSPORT, TRANSPORT_UDP), key);
+            if (exchange == null) return new ProbeResult(url, now, false, false, -1, "timeout");
+            // stale nonce, once more with the new one
+            if (exchange.response.getErrorCode() != 438) break;
+            String fresh = exchange.response.getString(StunMessage.ATTR_NONCE);
+            if (fresh == null) break;
+            nonce = fresh;
+        }
+        if (exchange.response.type != StunMessage.ALLOCATE_SUCCESS) {
+            return new ProbeResult(url, now, true, false, -1, "error " + exchange.response.getErrorCode());
+        }
+        long rttMs = exchange.rttMs;
+        // give the relay back, nobody is going to use it
+        channel.exchange(authenticated(StunMessage.REFRESH_REQUEST, username, realm, nonce)
+                .putInt(StunMessage.ATTR_LIFETIME, 0), key);
+        return new ProbeResult(url, now, true, true, rttMs, null);
+    }
+
+    private static StunMessage authenticated(int type, String username, String realm, String nonce) {
+        return new StunMessage(type)
+                .put(StunMessage.ATTR_USERNAME, username)
+                .put(StunMessage.ATTR_REALM, realm)
+                .put(StunMessage.ATTR_NONCE, nonce);
+    }
+
+    private static class Exchange {
+        final StunMessage response;
+        final long rttMs;
+
+        Exchange(StunMessage response, long rttMs) {
+            this.response = response;
+            this.rttMs = rttMs;
+        }
+    }
+
+    private interface Channel extends Closeable {
+        // null on timeout
+        Exchange exchange(StunMessage request, byte[] key) throws IOException;
+    }
+
+    private class UdpChannel implements Channel {
+        private final DatagramSocket socket = new DatagramSocket();
+        private final InetSocketAddress address;
+        private final byte[] buffer = new byte[1500];
+
+        UdpChannel(InetSocketAddress address) throws IOException {
+            this.address = address;
+        }
+
+        @Override
+        public Exchange exchange(StunMessage request, byte[] key) throws IOException {
+            byte[] data = request.encode(key);
+            long timeout = timeoutMs;
+            for (int attempt = 0; attempt < attempts; attempt++, timeout *= 2) {
+                long sent = System.nanoTime();
+                socket.send(new DatagramPacket(data, data.length, address));
+                long deadline = sent + TimeUnit.MILLISECONDS.toNanos(timeout);
+                long left;
+                while ((left = deadline - System.nanoTime()) > 0) {
+                    socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    try {
+                        socket.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        break;
+                    }
+                    StunMessage response = StunMessage.decode(buffer, packet.getLength());
+                    // a late answer to an earlier request is skipped
+                    if (response != null && response.isResponseTo(request)) {
+                        return new Exchange(response, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent));
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+
+    private class TcpChannel implements Channel {
+        private final Socket socket = new Socket();
+        private final InputStream in;
+        private final OutputStream out;
+
+        TcpChannel(InetSocketAddress address) throws IOException {
+            socket.connect(address, (int) totalTimeoutMs());
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        // TCP retransmits by itself, wait as long as all UDP attempts would
+        private long totalTimeoutMs() {
+            return timeoutMs * ((1L << attempts) - 1);
+        }
+
+        @Override
+        public Exchange exchange(StunMessage request, byte[] key) throws IOException {
+            long sent = System.nanoTime();
+            long deadline = sent + TimeUnit.MILLISECONDS.toNanos(totalTimeoutMs());
+            out.write(request.encode(key));
+            out.flush();
+            DataInputStream data = new DataInputStream(in);
+            try {
+                while (true) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) return null;
+                    socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                    byte[] header = new byte[StunMessage.HEADER_BYTES];
+                    data.readFully(header);
+                    int length = StunMessage.bodyLength(header);
+                    if (length < 0) throw new IOException("not stun");
+                    byte[] message = new byte[StunMessage.HEADER_BYTES + length];
+                    System.arraycopy(header, 0, message, 0, header.length);
+                    data.readFully(message, header.length, length);
+                    StunMessage response = StunMessage.decode(message, message.length);
+                    if (response != null && response.isResponseTo(request)) {
+                        return new Exchange(response, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent));
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.dds.skywebrtc.ice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latest {@link ProbeResult} of every url, per network, and the server list ranked by them.
+ * <p>
+ * Servers that answered are put first, fastest first, a stun server only needs to be asked
+ * by a couple of them. TURN servers that couldn't allocate are dropped, and so are those far
+ * slower than the best one, webrtc prefers the relay of the first turn server and a distant
+ * relay adds its detour to every packet. Servers without a result are kept after the ranked
+ * ones. Without a single usable result, a network that is down or not probed yet, the list
+ * stays as configured.
+ */
+public class IceServerRanking {
+    // younger results are not probed again
+    public static final long FRESH_MS = TimeUnit.MINUTES.toMillis(10);
+    // older ones aren't trusted any more
+    public static final long EXPIRE_MS = TimeUnit.HOURS.toMillis(24);
+    public static final int MAX_STUN = 2;
+    // a relay slower than FAR_FACTOR x the best one plus the slack is a detour
+    public static final int FAR_FACTOR = 3;
+    public static final long FAR_SLACK_MS = 50;
+
+    public interface Urls<T> {
+        List<String> of(T server);
+    }
+
+    // guarded by this, network -> url -> latest result
+    private final Map<String, Map<String, ProbeResult>> results = new HashMap<>();
+
+    public synchronized void record(String network, ProbeResult result) {
+        Map<String, ProbeResult> byUrl = results.get(network);
+        if (byUrl == null) {
+            byUrl = new HashMap<>();
+            results.put(network, byUrl);
+        }
+        byUrl.put(result.url, result);
+    }
+
+    public synchronized ProbeResult get(String network, String url) {
+        Map<String, ProbeResult> byUrl = results.get(network);
+        return byUrl == null ? null : byUrl.get(url);
+    }
+
+    public boolean needsProbe(String network, String url, long nowMs) {
+        ProbeResult result = get(network, url);
+        return result == null || nowMs - result.timeMs >= FRESH_MS;
+    }
+
+    private static class Ranked<T> {
+        final T server;
+        final long rttMs;
+
+        Ranked(T server, long rttMs) {
+            this.server = server;
+            this.rttMs = rttMs;
+        }
+    }
+
+    private static final Comparator<Ranked<?>> BY_RTT = new Comparator<Ranked<?>>() {
+        @Override
+        public int compare(Ranked<?> a, Ranked<?> b) {
+            return Long.compare(a.rttMs, b.rttMs);
+        }
+    };
+
+    public <T> List<T> rank(String network, List<T> servers, Urls<T> urls, long nowMs) {
+        List<Ranked<T>> stun = new ArrayList<>();
+        List<Ranked<T>> turn = new ArrayList<>();
+        List<T> unknownStun = new ArrayList<>();
+        List<T> unknownTurn = new ArrayList<>();
+        for (T server : servers) {
+            boolean isTurn = false;
+            boolean unknown = false;
+            long best = -1;
+            for (String url : urls.of(server)) {
+                IceServerUrl parsed = IceServerUrl.parse(url);
+                if (parsed == null) continue;
+                isTurn |= parsed.turn;
+                ProbeResult result = get(network, url);
+                if (result == null || nowMs - result.timeMs >= EXPIRE_MS) {
+                    unknown = true;
+                } else if (result.isUsable(parsed.turn) && (best < 0 || result.rttMs < best)) {
+                    best = result.rttMs;
+                }
+            }
+            if (best >= 0) {
+                (isTurn ? turn : stun).add(new Ranked<>(server, best));
+            } else if (unknown) {
+                (isTurn ? unknownTurn : unknownStun).add(server);
+            }
+            // otherwise every url failed, it is dropped
+        }
+        if (stun.isEmpty() && turn.isEmpty()) return servers;
+        Collections.sort(stun, BY_RTT);
+        Collections.sort(turn, BY_RTT);
+        List<T> ranked = new ArrayList<>();
+        for (int i = 0; i < stun.size() && i < MAX_STUN; i++) {
+            ranked.add(stun.get(i).server);
+        }
+        if (stun.isEmpty()) ranked.addAll(unknownStun);
+        if (!turn.isEmpty()) {
+            long far = turn.get(0).rttMs * FAR_FACTOR + FAR_SLACK_MS;
+            for (Ranked<T> r : turn) {
+                if (r.rttMs <= far) ranked.add(r.server);
+            }
+        }
+        ranked.addAll(unknownTurn);
+        return ranked;
+    }
+}
@@ -0,0 +1,65 @@
+package com.dds.skywebrtc.ice;
+
+/**
+ * A stun: or turn: url as webrtc takes them (RFC 7064/7065), e.g.
+ * "turn:47.93.186.97:3478?transport=tcp".
+ */
+public class IceServerUrl {
+    public final String url;
+    public final boolean turn;
+    // stuns: and turns:, not probed
+    public final boolean secure;
+    public final String host;
+    public final int port;
+    public final boolean tcp;
+
+    private IceServerUrl(String url, boolean turn, boolean secure, String host, int port, boolean tcp) {
+        this.url = url;
+        this.turn = turn;
+        this.secure = secure;
+        this.host = host;
+        this.port = port;
+        this.tcp = tcp;
+    }
+
+    /**
+     * @return null if it isn't a stun or turn url
+     */
+    public static IceServerUrl parse(String url) {
+        int colon = url.indexOf(':');
+        if (colon < 0) return null;
+        String scheme = url.substring(0, colon).toLowerCase();
+        boolean turn = scheme.startsWith("turn");
+        boolean secure = scheme.endsWith("s");
+        if (!turn && !scheme.startsWith("stun") || scheme.length() - (secure ? 1 : 0) != 4) return null;
+        String rest = url.substring(colon + 1);
+        boolean tcp = secure;
+        int query = rest.indexOf('?');
+        if (query >= 0) {
+            tcp = rest.substring(query + 1).toLowerCase().contains("transport=tcp");
+            rest = rest.substring(0, query);
+        }
+        int port = secure ? 5349 : 3478;
+        String host = rest;
+        int portColon = rest.lastIndexOf(':');
+        // an IPv6 address is in brackets
+        if (portColon > rest.lastIndexOf(']')) {
+            host = rest.substring(0, portColon);
+            try {
+                port = Integer.parseInt(rest.substring(portColon + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        if (host.isEmpty()) return null;
+        return new IceServerUrl(url, turn, secure, host, port, tcp);
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
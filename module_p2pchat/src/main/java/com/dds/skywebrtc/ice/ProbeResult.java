@@ -0,0 +1,37 @@
+package com.dds.skywebrtc.ice;
+
+/**
+ * What one probe of one ICE server url found.
+ */
+public class ProbeResult {
+    public final String url;
+    // when it was probed, System.currentTimeMillis()
+    public final long timeMs;
+    // the server answered at all
+    public final boolean reachable;
+    // a turn url allocated a relay with its credentials, always false for stun
+    public final boolean allocated;
+    // the binding, or for turn the authenticated allocate, round trip. -1 without one
+    public final long rttMs;
+    public final String error;
+
+    public ProbeResult(String url, long timeMs, boolean reachable, boolean allocated, long rttMs, String error) {
+        this.url = url;
+        this.timeMs = timeMs;
+        this.reachable = reachable;
+        this.allocated = allocated;
+        this.rttMs = rttMs;
+        this.error = error;
+    }
+
+    // Good enough to gather against
+    public boolean isUsable(boolean turn) {
+        return turn ? allocated : reachable && rttMs >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return url + (reachable ? " rtt=" + rttMs + "ms" : " unreachable")
+                + (allocated ? " allocated" : "") + (error != null ? " (" + error + ")" : "");
+    }
+}
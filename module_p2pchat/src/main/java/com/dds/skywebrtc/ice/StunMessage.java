@@ -0,0 +1,217 @@
+package com.dds.skywebrtc.ice;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The few STUN (RFC 5389) and TURN (RFC 5766) messages the probe needs: binding, allocate
+ * and refresh, with long-term credentials. Attributes are kept by type, a message carries
+ * each of them at most once here.
+ */
+public class StunMessage {
+    public static final int BINDING_REQUEST = 0x0001;
+    public static final int BINDING_SUCCESS = 0x0101;
+    public static final int ALLOCATE_REQUEST = 0x0003;
+    public static final int ALLOCATE_SUCCESS = 0x0103;
+    public static final int ALLOCATE_ERROR = 0x0113;
+    public static final int REFRESH_REQUEST = 0x0004;
+    public static final int REFRESH_SUCCESS = 0x0104;
+    public static final int REFRESH_ERROR = 0x0114;
+
+    public static final int ATTR_USERNAME = 0x0006;
+    public static final int ATTR_MESSAGE_INTEGRITY = 0x0008;
+    public static final int ATTR_ERROR_CODE = 0x0009;
+    public static final int ATTR_LIFETIME = 0x000D;
+    public static final int ATTR_REALM = 0x0014;
+    public static final int ATTR_NONCE = 0x0015;
+    public static final int ATTR_REQUESTED_TRANSPORT = 0x0019;
+    public static final int ATTR_XOR_MAPPED_ADDRESS = 0x0020;
+
+    public static final int MAGIC_COOKIE = 0x2112A442;
+    public static final int HEADER_BYTES = 20;
+    private static final int INTEGRITY_BYTES = 20;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    public final int type;
+    public final byte[] transactionId;
+    private final Map<Integer, byte[]> attributes = new LinkedHashMap<>();
+
+    public StunMessage(int type) {
+        this(type, newTransactionId());
+    }
+
+    public StunMessage(int type, byte[] transactionId) {
+        this.type = type;
+        this.transactionId = transactionId;
+    }
+
+    private static byte[] newTransactionId() {
+        byte[] id = new byte[12];
+        RANDOM.nextBytes(id);
+        return id;
+    }
+
+    public StunMessage put(int attribute, byte[] value) {
+        attributes.put(attribute, value);
+        return this;
+    }
+
+    public StunMessage put(int attribute, String value) {
+        return put(attribute, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public StunMessage putInt(int attribute, int value) {
+        return put(attribute, ByteBuffer.allocate(4).putInt(value).array());
+    }
+
+    public byte[] get(int attribute) {
+        return attributes.get(attribute);
+    }
+
+    public String getString(int attribute) {
+        byte[] value = attributes.get(attribute);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    // 0 without an ERROR-CODE
+    public int getErrorCode() {
+        byte[] value = attributes.get(ATTR_ERROR_CODE);
+        if (value == null || value.length < 4) return 0;
+        return (value[2] & 0x7) * 100 + (value[3] & 0xff);
+    }
+
+    public StunMessage putErrorCode(int code, String reason) {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer value = ByteBuffer.allocate(4 + text.length);
+        value.putShort((short) 0).put((byte) (code / 100)).put((byte) (code % 100)).put(text);
+        return put(ATTR_ERROR_CODE, value.array());
+    }
+
+    public boolean isResponseTo(StunMessage request) {
+        return Arrays.equals(transactionId, request.transactionId);
+    }
+
+    // The key of the long-term credentials, MD5(username:realm:password)
+    public static byte[] longTermKey(String username, String realm, String password) {
+        try {
+            return MessageDigest.getInstance("MD5")
+                    .digest((username + ":" + realm + ":" + password).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public byte[] encode() {
+        return encode(null);
+    }
+
+    /**
+     * @param key appends a MESSAGE-INTEGRITY with it, null for none
+     */
+    public byte[] encode(byte[] key) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Map.Entry<Integer, byte[]> attribute : attributes.entrySet()) {
+            if (attribute.getKey() == ATTR_MESSAGE_INTEGRITY) continue;
+            writeAttribute(body, attribute.getKey(), attribute.getValue());
+        }
+        byte[] attrs = body.toByteArray();
+        int length = attrs.length + (key != null ? 4 + INTEGRITY_BYTES : 0);
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + length);
+        out.putShort((short) type).putShort((short) length).putInt(MAGIC_COOKIE).put(transactionId).put(attrs);
+        if (key != null) {
+            // over everything before it, with the length already counting it
+            byte[] hmac = hmac(key, out.array(), HEADER_BYTES + attrs.length);
+            out.putShort((short) ATTR_MESSAGE_INTEGRITY).putShort((short) INTEGRITY_BYTES).put(hmac);
+        }
+        return out.array();
+    }
+
+    private static void writeAttribute(ByteArrayOutputStream out, int type, byte[] value) {
+        out.write(type >> 8);
+        out.write(type);
+        out.write(value.length >> 8);
+        out.write(value.length);
+        out.write(value, 0, value.length);
+        for (int pad = (4 - value.length % 4) % 4; pad > 0; pad--) {
+            out.write(0);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data, int length) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(key, "HmacSHA1"));
+            mac.update(data, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Body length from a header, -1 if it isn't one of a STUN message
+    public static int bodyLength(byte[] header) {
+        if (header.length < HEADER_BYTES || (header[0] & 0xc0) != 0) return -1;
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        int length = buffer.getShort(2) & 0xffff;
+        return buffer.getInt(4) == MAGIC_COOKIE && length % 4 == 0 ? length : -1;
+    }
+
+    /**
+     * @return null if it is not a STUN message
+     */
+    public static StunMessage decode(byte[] data, int length) {
+        if (length < HEADER_BYTES) return null;
+        int bodyLength = bodyLength(Arrays.copyOf(data, HEADER_BYTES));
+        if (bodyLength < 0 || HEADER_BYTES + bodyLength > length) return null;
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, HEADER_BYTES + bodyLength);
+        int type = buffer.getShort() & 0xffff;
+        buffer.getShort();
+        buffer.getInt();
+        byte[] transactionId = new byte[12];
+        buffer.get(transactionId);
+        StunMessage message = new StunMessage(type, transactionId);
+        while (buffer.remaining() >= 4) {
+            int attribute = buffer.getShort() & 0xffff;
+            int valueLength = buffer.getShort() & 0xffff;
+            if (valueLength > buffer.remaining()) return null;
+            byte[] value = new byte[valueLength];
+            buffer.get(value);
+            buffer.position(Math.min(buffer.limit(), buffer.position() + (4 - valueLength % 4) % 4));
+            message.attributes.put(attribute, value);
+        }
+        return message;
+    }
+
+    /**
+     * Whether data, an encoded message, has a MESSAGE-INTEGRITY that matches key.
+     */
+    public static boolean checkIntegrity(byte[] data, int length, byte[] key) {
+        int offset = HEADER_BYTES;
+        while (offset + 4 <= length) {
+            int attribute = ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+            int valueLength = ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            if (attribute == ATTR_MESSAGE_INTEGRITY) {
+                if (valueLength != INTEGRITY_BYTES || offset + 4 + INTEGRITY_BYTES > length) return false;
+                byte[] copy = Arrays.copyOf(data, offset);
+                // the length as it was when the integrity was computed
+                int lengthThen = offset + 4 + INTEGRITY_BYTES - HEADER_BYTES;
+                copy[2] = (byte) (lengthThen >> 8);
+                copy[3] = (byte) lengthThen;
+                byte[] expected = hmac(key, copy, offset);
+                return MessageDigest.isEqual(expected, Arrays.copyOfRange(data, offset + 4, offset + 4 + INTEGRITY_BYTES));
+            }
+            offset += 4 + valueLength + (4 - valueLength % 4) % 4;
+        }
+        return false;
+    }
+}
@@ -1,5 +1,9 @@
 package com.dds.skywebrtc.inter;
 
+import org.webrtc.IceCandidate;
+
+import java.util.List;
+
 /**
  * Created by dds on 2019/8/21.
  * android_shuai@163.com
@@ -12,8 +16,11 @@ public interface ISkyEvent {
     // Send single invitation
     void sendInvite(String room, String userId, boolean audioOnly);
 
-    // Initiate a meeting invitation
-    void sendMeetingInvite(String userList);
+    // Single invitation carrying our offer and the candidates gathered so far
+    void sendInvite(String room, String userId, boolean audioOnly, String sdp, List<IceCandidate> candidates);
+
+    // Initiate a meeting invitation, userList is comma separated
+    void sendMeetingInvite(String room, String userList, boolean audioOnly);
 
     void sendRefuse(String inviteId, int refuseType);
 
@@ -34,6 +41,9 @@ public interface ISkyEvent {
     // sendIceCandidate
     void sendIceCandidate(String userId, String id, int label, String candidate);
 
+    // send a batch of ice candidates in one message
+    void sendIceCandidates(String userId, List<IceCandidate> candidates);
+
 
     void shouldStartRing(boolean isComing);
 
@@ -0,0 +1,73 @@
+package com.dds.skywebrtc.render;
+
+import com.example.tracking.DetectionDownscaler;
+import com.example.tracking.FrameBufferPool;
+import com.example.tracking.FrameMetadata;
+import com.example.tracking.FrameProcessingTask;
+import com.example.tracking.Nv21Converter;
+
+import org.webrtc.Logging;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+/**
+ * Taps the local video track for face detection, instead of a second stream from the camera.
+ * <p>
+ * Only the frames the task wants are touched. Those are scaled down while still a texture,
+ * read back as I420 and handed over as NV21 with the frame's rotation, the camera's facing
+ * and the capture timestamp. Frames arrive on the capture thread.
+ */
+public class AnalysisSink implements VideoSink {
+    private static final String TAG = "dds_AnalysisSink";
+    // Scaling on the GPU is bilinear and aliases beyond 2x, the downscaler averages the rest
+    static final int LONG_EDGE = DetectionDownscaler.DEFAULT_LONG_EDGE * 2;
+
+    private final FrameProcessingTask task;
+    private volatile boolean frontFacing = true;
+
+    public AnalysisSink(FrameProcessingTask task) {
+        this.task = task;
+    }
+
+    // After the camera opened or switched
+    public void setFrontFacing(boolean frontFacing) {
+        this.frontFacing = frontFacing;
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        if (!task.wantsFrame()) return;
+        VideoFrame.Buffer buffer = frame.getBuffer();
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        float scale = Math.min(1, LONG_EDGE / (float) Math.max(width, height));
+        // NV21 wants even sizes
+        int scaledWidth = Math.max(2, Math.round(width * scale) & ~1);
+        int scaledHeight = Math.max(2, Math.round(height * scale) & ~1);
+
+        VideoFrame.Buffer scaled = buffer.cropAndScale(0, 0, width, height, scaledWidth, scaledHeight);
+        VideoFrame.I420Buffer i420 = scaled.toI420();
+        scaled.release();
+        if (i420 == null) {
+            Logging.w(TAG, "Frame could not be read back");
+            return;
+        }
+        FrameBufferPool pool = FrameBufferPool.getInstance();
+        byte[] data = pool.acquire(Nv21Converter.nv21Size(scaledWidth, scaledHeight));
+        try {
+            Nv21Converter.i420ToNv21(scaledWidth, scaledHeight,
+                    i420.getDataY(), i420.getStrideY(),
+                    i420.getDataU(), i420.getStrideU(),
+                    i420.getDataV(), i420.getStrideV(), data);
+        } finally {
+            i420.release();
+        }
+        task.processFrame(data, new FrameMetadata.Builder()
+                .setWidth(scaledWidth)
+                .setHeight(scaledHeight)
+                .setRotation(frame.getRotation() / 90)
+                .setCameraFacing(frontFacing ? FrameMetadata.FACING_FRONT : FrameMetadata.FACING_BACK)
+                .setTimestampNs(frame.getTimestampNs())
+                .build());
+    }
+}
@@ -11,6 +11,8 @@ import org.webrtc.VideoSink;
 public class ProxyVideoSink implements VideoSink {
     private static final String TAG = "dds_ProxyVideoSink";
     private VideoSink target;
+    // run once, after the first frame went to the target
+    private Runnable firstFrameListener;
 
     @Override
     synchronized public void onFrame(VideoFrame frame) {
@@ -19,6 +21,15 @@ public class ProxyVideoSink implements VideoSink {
             return;
         }
         target.onFrame(frame);
+        if (firstFrameListener != null) {
+            Runnable listener = firstFrameListener;
+            firstFrameListener = null;
+            listener.run();
+        }
+    }
+
+    synchronized public void setFirstFrameListener(Runnable listener) {
+        this.firstFrameListener = listener;
     }
 
     synchronized public void setTarget(VideoSink target) {
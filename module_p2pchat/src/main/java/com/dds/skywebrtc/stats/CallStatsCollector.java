@@ -0,0 +1,204 @@
+package com.dds.skywebrtc.stats;
+
+import android.util.Log;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsCollectorCallback;
+import org.webrtc.RTCStatsReport;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes one peer connection's periodic getStats reports and keeps the last minutes as a
+ * {@link StatsRing}. The owner of the peer connection schedules the polls.
+ * <p>
+ * The report only has running counters, the rates come from the difference to the previous
+ * report, which is kept in primitive fields. Every poll fills the same {@link StatsSample},
+ * copies it into the ring and hands it to the listeners, nothing is allocated per poll
+ * besides what webrtc itself builds for the report.
+ */
+public class CallStatsCollector implements RTCStatsCollectorCallback {
+    private final static String TAG = "dds_CallStatsCollector";
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+    public static final int DEFAULT_WINDOW_MINUTES = 5;
+
+    public interface Listener {
+        // On the webrtc signaling thread, sample is reused by the next poll
+        void onStatsSample(String userId, StatsSample sample);
+    }
+
+    private final String userId;
+    private final long intervalMs;
+    private final StatsRing ring;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // guarded by this
+    private final StatsSample sample = new StatsSample();
+    // counters of the previous report, prevTimestampUs is -1 before the first one
+    private double prevTimestampUs = -1;
+    private long prevBytesSent;
+    private long prevBytesReceived;
+    private long prevFramesEncoded;
+    private long prevFramesDecoded;
+    private long prevPacketsReceived;
+    private long prevPacketsLost;
+    private long prevFreezeCount;
+    private float prevRecvFps;
+
+    public CallStatsCollector(String userId) {
+        this(userId, DEFAULT_INTERVAL_MS, DEFAULT_WINDOW_MINUTES);
+    }
+
+    public CallStatsCollector(String userId, long intervalMs, int windowMinutes) {
+        this.userId = userId;
+        this.intervalMs = intervalMs;
+        this.ring = new StatsRing((int) Math.max(1, TimeUnit.MINUTES.toMillis(windowMinutes) / intervalMs));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    // For the UI, read it with a StatsSample of its own
+    public StatsRing getRing() {
+        return ring;
+    }
+
+    // Compact form of the whole window, see StatsRing#dump
+    public byte[] dump() {
+        return ring.dump((int) intervalMs);
+    }
+
+    @Override
+    public void onStatsDelivered(RTCStatsReport report) {
+        synchronized (this) {
+            if (!update(report)) return;
+            ring.add(sample);
+        }
+        for (Listener listener : listeners) {
+            listener.onStatsSample(userId, sample);
+        }
+    }
+
+    // Fills sample from the report, false for the first one as there is nothing to diff against
+    private boolean update(RTCStatsReport report) {
+        long bytesSent = 0, bytesReceived = 0, framesEncoded = 0, framesDecoded = 0;
+        long packetsReceived = 0, packetsLost = 0, freezeCount = -1;
+        double jitter = 0, remoteRtt = -1;
+        String selectedPairId = null;
+        RTCStats nominatedPair = null;
+        Map<String, RTCStats> stats = report.getStatsMap();
+        for (RTCStats stat : stats.values()) {
+            Map<String, Object> members = stat.getMembers();
+            switch (stat.getType()) {
+                case "outbound-rtp":
+                    bytesSent += longMember(members, "bytesSent");
+                    if (isVideo(members)) {
+                        framesEncoded += longMember(members, "framesEncoded");
+                    }
+                    break;
+                case "inbound-rtp":
+                    bytesReceived += longMember(members, "bytesReceived");
+                    packetsReceived += longMember(members, "packetsReceived");
+                    packetsLost += longMember(members, "packetsLost");
+                    if (isVideo(members)) {
+                        framesDecoded += longMember(members, "framesDecoded");
+                        jitter = Math.max(jitter, doubleMember(members, "jitter", 0));
+                        if (members.get("freezeCount") instanceof Number) {
+                            freezeCount = Math.max(0, freezeCount) + longMember(members, "freezeCount");
+                        }
+                    }
+                    break;
+                case "remote-inbound-rtp":
+                    remoteRtt = Math.max(remoteRtt, doubleMember(members, "roundTripTime", -1));
+                    break;
+                case "transport":
+                    Object id = members.get("selectedCandidatePairId");
+                    if (id instanceof String) selectedPairId = (String) id;
+                    break;
+                case "candidate-pair":
+                    if (Boolean.TRUE.equals(members.get("nominated"))) nominatedPair = stat;
+                    break;
+                default:
+                    break;
+            }
+        }
+        RTCStats pair = selectedPairId != null ? stats.get(selectedPairId) : nominatedPair;
+        double timestampUs = report.getTimestampUs();
+        boolean first = prevTimestampUs < 0;
+        double seconds = (timestampUs - prevTimestampUs) / 1_000_000;
+        if (!first && seconds > 0) {
+            sample.timeMs = (long) (timestampUs / 1000);
+            sample.sendKbps = (int) (delta(bytesSent, prevBytesSent) * 8 / seconds / 1000);
+            sample.recvKbps = (int) (delta(bytesReceived, prevBytesReceived) * 8 / seconds / 1000);
+            sample.sendFps = (float) (delta(framesEncoded, prevFramesEncoded) / seconds);
+            sample.recvFps = (float) (delta(framesDecoded, prevFramesDecoded) / seconds);
+            long received = delta(packetsReceived, prevPacketsReceived);
+            long lost = delta(packetsLost, prevPacketsLost);
+            sample.lossPercent = received + lost == 0 ? 0 : 100f * lost / (received + lost);
+            sample.jitterMs = (float) (jitter * 1000);
+            double rtt = pair == null ? -1 : doubleMember(pair.getMembers(), "currentRoundTripTime", -1);
+            if (rtt < 0) rtt = remoteRtt;
+            sample.rttMs = rtt < 0 ? -1 : (float) (rtt * 1000);
+            double available = pair == null ? 0 : doubleMember(pair.getMembers(), "availableOutgoingBitrate", 0);
+            sample.availableSendKbps = (int) (available / 1000);
+            if (freezeCount >= 0) {
+                sample.freezes = (int) delta(freezeCount, prevFreezeCount);
+            } else {
+                // older webrtc has no freezeCount, count the times decoding stopped
+                sample.freezes = prevRecvFps > 0 && sample.recvFps == 0 ? 1 : 0;
+            }
+            prevRecvFps = sample.recvFps;
+        }
+        prevTimestampUs = timestampUs;
+        prevBytesSent = bytesSent;
+        prevBytesReceived = bytesReceived;
+        prevFramesEncoded = framesEncoded;
+        prevFramesDecoded = framesDecoded;
+        prevPacketsReceived = packetsReceived;
+        prevPacketsLost = packetsLost;
+        prevFreezeCount = Math.max(0, freezeCount);
+        if (!first && seconds <= 0) {
+            Log.w(TAG, "stats report for " + userId + " did not advance");
+        }
+        return !first && seconds > 0;
+    }
+
+    // Counters restart when a stream is replaced, don't report that as negative traffic
+    private static long delta(long now, long before) {
+        return now >= before ? now - before : now;
+    }
+
+    private static boolean isVideo(Map<String, Object> members) {
+        // "mediaType" before "kind" was added
+        Object kind = members.get("kind");
+        if (kind == null) kind = members.get("mediaType");
+        return "video".equals(kind);
+    }
+
+    // uint64 members come as BigInteger, the others as Long/Integer/Double
+    private static long longMember(Map<String, Object> members, String name) {
+        Object value = members.get(name);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static double doubleMember(Map<String, Object> members, String name, double fallback) {
+        Object value = members.get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+    }
+}
@@ -0,0 +1,74 @@
+package com.dds.skywebrtc.stats;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Combines the samples of all peers of a call into one per poll period, the worst value of
+ * each. The local video goes out to every peer, so its quality has to suit the worst path,
+ * and what reads the combined sample sees one sample per period however many peers there are.
+ * <p>
+ * Peers poll on their own schedule. A period ends once every peer reported, or when one of
+ * them reports again before the others did. Not thread safe, the session synchronizes on it.
+ */
+public class PeerStatsAggregator {
+    private final Set<String> reported = new HashSet<>();
+    private final StatsSample worst = new StatsSample();
+    private final StatsSample period = new StatsSample();
+
+    /**
+     * @param peerCount the peers polling right now
+     * @return the period's worst sample if this one completed it, null otherwise. The
+     * instance is reused by the next period
+     */
+    public StatsSample add(String userId, StatsSample sample, int peerCount) {
+        if (reported.contains(userId)) {
+            // a peer that is slow to report doesn't hold back the others
+            worst.copyFrom(period);
+            start(userId, sample);
+            return worst;
+        }
+        if (reported.isEmpty()) {
+            start(userId, sample);
+        } else {
+            reported.add(userId);
+            merge(sample);
+        }
+        if (reported.size() < peerCount) return null;
+        worst.copyFrom(period);
+        reported.clear();
+        return worst;
+    }
+
+    private void start(String userId, StatsSample sample) {
+        reported.clear();
+        reported.add(userId);
+        period.copyFrom(sample);
+    }
+
+    private void merge(StatsSample sample) {
+        period.timeMs = Math.max(period.timeMs, sample.timeMs);
+        period.sendKbps = Math.min(period.sendKbps, sample.sendKbps);
+        period.recvKbps = Math.min(period.recvKbps, sample.recvKbps);
+        // no estimate or no video yet is unknown, not worse
+        period.availableSendKbps = minKnown(period.availableSendKbps, sample.availableSendKbps);
+        period.rttMs = Math.max(period.rttMs, sample.rttMs);
+        period.jitterMs = Math.max(period.jitterMs, sample.jitterMs);
+        period.lossPercent = Math.max(period.lossPercent, sample.lossPercent);
+        period.sendFps = minKnown(period.sendFps, sample.sendFps);
+        period.recvFps = minKnown(period.recvFps, sample.recvFps);
+        period.freezes += sample.freezes;
+    }
+
+    private static int minKnown(int a, int b) {
+        if (a <= 0) return b;
+        if (b <= 0) return a;
+        return Math.min(a, b);
+    }
+
+    private static float minKnown(float a, float b) {
+        if (a <= 0) return b;
+        if (b <= 0) return a;
+        return Math.min(a, b);
+    }
+}
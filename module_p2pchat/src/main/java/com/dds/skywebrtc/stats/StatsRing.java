@@ -0,0 +1,162 @@
+package com.dds.skywebrtc.stats;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size time series of {@link StatsSample}s, one primitive array per metric.
+ * <p>
+ * Adding overwrites the oldest sample once full and never allocates. Reads copy into a
+ * sample the caller owns, so the UI can poll it every frame without garbage.
+ */
+public class StatsRing {
+    // "CST1"
+    static final int MAGIC = 0x43535431;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    static final int SAMPLE_BYTES = 4 * 4 + 2 * 6;
+    // rtt of -1 in a dump, a real one is clamped below it
+    static final int UNKNOWN_RTT = 0xffff;
+
+    private final int capacity;
+    // guarded by this
+    private final long[] timeMs;
+    private final int[] sendKbps;
+    private final int[] recvKbps;
+    private final int[] availableSendKbps;
+    private final float[] rttMs;
+    private final float[] jitterMs;
+    private final float[] lossPercent;
+    private final float[] sendFps;
+    private final float[] recvFps;
+    private final int[] freezes;
+    private int next;
+    private int size;
+
+    public StatsRing(int capacity) {
+        this.capacity = capacity;
+        timeMs = new long[capacity];
+        sendKbps = new int[capacity];
+        recvKbps = new int[capacity];
+        availableSendKbps = new int[capacity];
+        rttMs = new float[capacity];
+        jitterMs = new float[capacity];
+        lossPercent = new float[capacity];
+        sendFps = new float[capacity];
+        recvFps = new float[capacity];
+        freezes = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void add(StatsSample sample) {
+        int i = next;
+        timeMs[i] = sample.timeMs;
+        sendKbps[i] = sample.sendKbps;
+        recvKbps[i] = sample.recvKbps;
+        availableSendKbps[i] = sample.availableSendKbps;
+        rttMs[i] = sample.rttMs;
+        jitterMs[i] = sample.jitterMs;
+        lossPercent[i] = sample.lossPercent;
+        sendFps[i] = sample.sendFps;
+        recvFps[i] = sample.recvFps;
+        freezes[i] = sample.freezes;
+        next = (next + 1) % capacity;
+        if (size < capacity) size++;
+    }
+
+    /**
+     * @param index 0 is the oldest sample, size() - 1 the newest
+     * @return false if there is no such sample
+     */
+    public synchronized boolean get(int index, StatsSample out) {
+        if (index < 0 || index >= size) return false;
+        int i = (next - size + index + capacity) % capacity;
+        out.timeMs = timeMs[i];
+        out.sendKbps = sendKbps[i];
+        out.recvKbps = recvKbps[i];
+        out.availableSendKbps = availableSendKbps[i];
+        out.rttMs = rttMs[i];
+        out.jitterMs = jitterMs[i];
+        out.lossPercent = lossPercent[i];
+        out.sendFps = sendFps[i];
+        out.recvFps = recvFps[i];
+        out.freezes = freezes[i];
+        return true;
+    }
+
+    public synchronized boolean getLatest(StatsSample out) {
+        return get(size - 1, out);
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    // ------------------------------------------dump------------------------------------------
+
+    /**
+     * Big endian: magic, interval, time of the first sample, count, then per sample the ms
+     * since the first one, send/receive/available kbps as ints, and rtt ms, jitter ms,
+     * loss in 1/1000, send and receive fps in 1/10 and freezes as unsigned shorts. An unknown
+     * rtt is written as {@link #UNKNOWN_RTT}.
+     */
+    public synchronized byte[] dump(int intervalMs) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + size * SAMPLE_BYTES);
+        int first = (next - size + capacity) % capacity;
+        long start = size == 0 ? 0 : timeMs[first];
+        out.putInt(MAGIC).putInt(intervalMs).putLong(start).putInt(size);
+        for (int n = 0; n < size; n++) {
+            int i = (first + n) % capacity;
+            out.putInt((int) (timeMs[i] - start));
+            out.putInt(sendKbps[i]);
+            out.putInt(recvKbps[i]);
+            out.putInt(availableSendKbps[i]);
+            out.putShort(rttMs[i] < 0 ? (short) UNKNOWN_RTT
+                    : unsigned(Math.min(rttMs[i], UNKNOWN_RTT - 1)));
+            out.putShort(unsigned(jitterMs[i]));
+            out.putShort(unsigned(lossPercent[i] * 10));
+            out.putShort(unsigned(sendFps[i] * 10));
+            out.putShort(unsigned(recvFps[i] * 10));
+            out.putShort(unsigned(freezes[i]));
+        }
+        return out.array();
+    }
+
+    // Reads a dump back, the ring is sized to hold it exactly
+    public static StatsRing fromDump(byte[] dump) {
+        ByteBuffer in = ByteBuffer.wrap(dump);
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a stats dump");
+        }
+        in.getInt();
+        long start = in.getLong();
+        int count = in.getInt();
+        StatsRing ring = new StatsRing(Math.max(1, count));
+        StatsSample sample = new StatsSample();
+        for (int n = 0; n < count; n++) {
+            sample.timeMs = start + in.getInt();
+            sample.sendKbps = in.getInt();
+            sample.recvKbps = in.getInt();
+            sample.availableSendKbps = in.getInt();
+            int rtt = in.getShort() & 0xffff;
+            sample.rttMs = rtt == UNKNOWN_RTT ? -1 : rtt;
+            sample.jitterMs = in.getShort() & 0xffff;
+            sample.lossPercent = (in.getShort() & 0xffff) / 10f;
+            sample.sendFps = (in.getShort() & 0xffff) / 10f;
+            sample.recvFps = (in.getShort() & 0xffff) / 10f;
+            sample.freezes = in.getShort() & 0xffff;
+            ring.add(sample);
+        }
+        return ring;
+    }
+
+    private static short unsigned(float value) {
+        return (short) Math.max(0, Math.min(0xffff, Math.round(value)));
+    }
+}
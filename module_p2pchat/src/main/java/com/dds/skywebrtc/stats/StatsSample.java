@@ -0,0 +1,43 @@
+package com.dds.skywebrtc.stats;
+
+/**
+ * One poll of a peer connection's stats, rates are over the interval since the previous poll.
+ * Mutable so readers can reuse one instance.
+ */
+public class StatsSample {
+    public long timeMs;
+    // all outbound / inbound rtp streams, audio and video
+    public int sendKbps;
+    public int recvKbps;
+    // the sender's bandwidth estimate, 0 if unknown
+    public int availableSendKbps;
+    // -1 if unknown
+    public float rttMs = -1;
+    public float jitterMs;
+    // inbound packets lost in the interval
+    public float lossPercent;
+    public float sendFps;
+    public float recvFps;
+    // inbound video freezes that started in the interval
+    public int freezes;
+
+    public void copyFrom(StatsSample other) {
+        timeMs = other.timeMs;
+        sendKbps = other.sendKbps;
+        recvKbps = other.recvKbps;
+        availableSendKbps = other.availableSendKbps;
+        rttMs = other.rttMs;
+        jitterMs = other.jitterMs;
+        lossPercent = other.lossPercent;
+        sendFps = other.sendFps;
+        recvFps = other.recvFps;
+        freezes = other.freezes;
+    }
+
+    @Override
+    public String toString() {
+        return "StatsSample{send=" + sendKbps + "kbps recv=" + recvKbps + "kbps available=" + availableSendKbps
+                + "kbps rtt=" + rttMs + "ms jitter=" + jitterMs + "ms loss=" + lossPercent
+                + "% fps=" + sendFps + "/" + recvFps + " freezes=" + freezes + "}";
+    }
+}
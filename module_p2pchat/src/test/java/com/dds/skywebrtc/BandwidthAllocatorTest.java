@@ -0,0 +1,35 @@
+package com.dds.skywebrtc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthAllocatorTest {
+
+    @Test
+    public void aSinglePeerGetsTheWholeUplink() {
+        BandwidthAllocator.Allocation allocation = new BandwidthAllocator(1_500_000).allocate(1);
+        assertEquals(1_500_000 - BandwidthAllocator.AUDIO_BPS, allocation.maxBitrateBps);
+        assertEquals(1.0, allocation.scaleResolutionDownBy, 0);
+    }
+
+    @Test
+    public void aFourPersonMeshStaysWithinTheUplink() {
+        BandwidthAllocator allocator = new BandwidthAllocator(1_500_000);
+        BandwidthAllocator.Allocation allocation = allocator.allocate(3);
+        long total = 3L * (allocation.maxBitrateBps + BandwidthAllocator.AUDIO_BPS);
+        assertTrue(total <= allocator.getUplinkBps());
+        // 460kbps each, sent at 640x360
+        assertEquals(2.0, allocation.scaleResolutionDownBy, 0);
+    }
+
+    @Test
+    public void sharesAreClamped() {
+        assertEquals(BandwidthAllocator.MIN_VIDEO_BPS, new BandwidthAllocator(200_000).allocate(8).maxBitrateBps);
+        assertEquals(4.0, new BandwidthAllocator(200_000).allocate(8).scaleResolutionDownBy, 0);
+        assertEquals(BandwidthAllocator.MAX_VIDEO_BPS, new BandwidthAllocator(10_000_000).allocate(1).maxBitrateBps);
+        // no peers yet is treated as one
+        assertEquals(new BandwidthAllocator().allocate(1).maxBitrateBps, new BandwidthAllocator().allocate(0).maxBitrateBps);
+    }
+}
@@ -0,0 +1,68 @@
+package com.dds.skywebrtc;
+
+import com.dds.skywebrtc.EnumType.CallState;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallStateMachineTest {
+
+    private static CallState run(CallState state, CallEvent... events) {
+        for (CallEvent event : events) {
+            CallState next = CallStateMachine.next(state, event);
+            if (next != null) state = next;
+        }
+        return state;
+    }
+
+    @Test
+    public void outgoingCall() {
+        assertEquals(CallState.Connected, run(CallState.Idle, CallEvent.INVITE, CallEvent.INVITE, CallEvent.JOINED,
+                CallEvent.RING, CallEvent.PEER_JOINED, CallEvent.OFFER, CallEvent.ANSWER, CallEvent.ICE));
+        assertEquals(CallState.Idle, run(CallState.Connected, CallEvent.LEAVE, CallEvent.END));
+    }
+
+    @Test
+    public void incomingCall() {
+        assertEquals(CallState.Connected, run(CallState.Idle, CallEvent.INCOMING, CallEvent.RING,
+                CallEvent.ACCEPT, CallEvent.JOINED, CallEvent.ANSWER, CallEvent.ICE));
+        assertEquals(CallState.Idle, run(CallState.Idle, CallEvent.INCOMING, CallEvent.CANCEL));
+    }
+
+    @Test
+    public void lateEventsAreDropped() {
+        // the caller gave up just as we answered and connected
+        assertNull(CallStateMachine.next(CallState.Connected, CallEvent.CANCEL));
+        // nothing brings a finished call back
+        for (CallEvent event : CallEvent.values()) {
+            CallState next = CallStateMachine.next(CallState.Idle, event);
+            if (event == CallEvent.INVITE) {
+                assertEquals(CallState.Outgoing, next);
+            } else if (event == CallEvent.INCOMING) {
+                assertEquals(CallState.Incoming, next);
+            } else if (next != null) {
+                assertEquals(event.toString(), CallState.Idle, next);
+            }
+        }
+        assertFalse(CallStateMachine.accepts(CallState.Idle, CallEvent.ANSWER));
+        // an offer before the user answered has nowhere to go
+        assertFalse(CallStateMachine.accepts(CallState.Incoming, CallEvent.OFFER));
+        // but the candidates following an invite that carried the offer are kept
+        assertEquals(CallState.Incoming, CallStateMachine.next(CallState.Incoming, CallEvent.ICE));
+    }
+
+    @Test
+    public void teardownIsAlwaysAccepted() {
+        for (CallState state : CallState.values()) {
+            assertEquals(CallState.Idle, CallStateMachine.next(state, CallEvent.END));
+            assertTrue(CallStateMachine.accepts(state, CallEvent.TASK));
+            if (state != CallState.Idle) {
+                assertEquals(CallState.Idle, CallStateMachine.next(state, CallEvent.HANG_UP));
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.dds.skywebrtc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallTraceTest {
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void keepsTheFirstOccurrence() {
+        CallTrace trace = new CallTrace(true, false);
+        trace.mark(CallTrace.Milestone.START, 1000 * MS);
+        trace.mark(CallTrace.Milestone.FIRST_ICE_CANDIDATE, 1040 * MS);
+        trace.mark(CallTrace.Milestone.FIRST_ICE_CANDIDATE, 1090 * MS);
+        assertEquals(40, trace.getMs(CallTrace.Milestone.FIRST_ICE_CANDIDATE));
+        assertEquals(-1, trace.getMs(CallTrace.Milestone.ICE_CONNECTED));
+        assertFalse(trace.reached(CallTrace.Milestone.ICE_CONNECTED));
+    }
+
+    @Test
+    public void recordMatchesTheHeader() {
+        CallTrace trace = new CallTrace(false, true);
+        trace.mark(CallTrace.Milestone.START, 5 * MS);
+        trace.mark(CallTrace.Milestone.PEERS, 125 * MS);
+        String record = trace.toRecord();
+        assertEquals(CallTrace.RECORD_HEADER.split(",").length, record.split(",").length);
+        assertTrue(record.startsWith("in,audio,0,-1,120,"));
+    }
+
+    @Test
+    public void percentilesOverTheWindow() {
+        CallTraceStats stats = new CallTraceStats();
+        // 200 calls, only the last WINDOW (101..200 ms) count
+        for (int i = 1; i <= 200; i++) {
+            CallTrace trace = new CallTrace(true, false);
+            trace.mark(CallTrace.Milestone.START, MS);
+            trace.mark(CallTrace.Milestone.ICE_CONNECTED, (1 + i) * MS);
+            stats.add(trace);
+        }
+        assertEquals(200, stats.getCalls());
+        assertEquals(CallTraceStats.WINDOW, stats.getCount(CallTrace.Milestone.ICE_CONNECTED));
+        assertEquals(150, stats.getPercentileMs(CallTrace.Milestone.ICE_CONNECTED, 50));
+        assertEquals(190, stats.getPercentileMs(CallTrace.Milestone.ICE_CONNECTED, 90));
+        assertEquals(200, stats.getPercentileMs(CallTrace.Milestone.ICE_CONNECTED, 100));
+        assertEquals(-1, stats.getPercentileMs(CallTrace.Milestone.ADD_STREAM, 50));
+    }
+}
@@ -0,0 +1,150 @@
+package com.dds.skywebrtc;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IceCandidateBatcherTest {
+
+    // Runs the delayed tasks when the test says the time is up
+    private static class ManualExecutor implements SessionExecutor {
+        final List<Runnable> due = new ArrayList<>();
+        final List<Long> delaysMs = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public Cancellable schedule(Runnable command, long delay, TimeUnit unit) {
+            due.add(command);
+            delaysMs.add(unit.toMillis(delay));
+            return () -> due.remove(command);
+        }
+
+        @Override
+        public Cancellable scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            throw new AssertionError("not used by the batcher");
+        }
+
+        void elapse() {
+            List<Runnable> tasks = new ArrayList<>(due);
+            due.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final List<List<IceCandidate>> sent = new ArrayList<>();
+
+    private IceCandidateBatcher batcher(long windowMs) {
+        return new IceCandidateBatcher("peer", executor, windowMs, (userId, candidates) -> {
+            assertEquals("peer", userId);
+            sent.add(candidates);
+        });
+    }
+
+    private static IceCandidate candidate(int i) {
+        return new IceCandidate("0", 0, "candidate:" + i + " 1 udp 2122260223 10.0.0." + i + " 5000" + i + " typ host");
+    }
+
+    @Test
+    public void candidatesOfOneWindowGoAsOneBatch() {
+        IceCandidateBatcher batcher = batcher(50);
+        IceCandidate first = candidate(1);
+        batcher.add(first);
+        batcher.add(candidate(2));
+        batcher.add(candidate(3));
+        // one timer for the whole window
+        assertEquals(1, executor.due.size());
+        assertEquals(50L, (long) executor.delaysMs.get(0));
+        assertTrue(sent.isEmpty());
+        executor.elapse();
+        assertEquals(1, sent.size());
+        assertEquals(3, sent.get(0).size());
+        assertSame(first, sent.get(0).get(0));
+
+        // the next candidate opens a new window
+        batcher.add(candidate(4));
+        assertEquals(1, executor.due.size());
+        executor.elapse();
+        assertEquals(2, sent.size());
+        assertEquals(1, sent.get(1).size());
+    }
+
+    @Test
+    public void flushSendsRightAwayAndTheWindowFindsNothing() {
+        IceCandidateBatcher batcher = batcher(50);
+        batcher.add(candidate(1));
+        batcher.add(candidate(2));
+        batcher.flush();
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).size());
+        executor.elapse();
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void nothingIsSentAfterClose() {
+        IceCandidateBatcher batcher = batcher(50);
+        batcher.add(candidate(1));
+        batcher.close();
+        // the window of the dropped candidate is still running
+        executor.elapse();
+        batcher.add(candidate(2));
+        assertTrue(executor.due.isEmpty());
+        batcher.flush();
+        assertTrue(sent.isEmpty());
+        assertEquals(0, batcher.getBatchCount());
+        assertEquals(-1, batcher.getTimeToFirstCandidateSentMs());
+    }
+
+    @Test
+    public void flushedBeforeCloseIsSent() {
+        IceCandidateBatcher batcher = batcher(50);
+        batcher.add(candidate(1));
+        batcher.flush();
+        batcher.add(candidate(2));
+        batcher.close();
+        executor.elapse();
+        assertEquals(1, sent.size());
+        assertEquals(1, sent.get(0).size());
+    }
+
+    @Test
+    public void countsBatchesAndCandidates() {
+        IceCandidateBatcher batcher = batcher(50);
+        assertEquals(-1, batcher.getTimeToFirstCandidateSentMs());
+        batcher.add(candidate(1));
+        batcher.add(candidate(2));
+        executor.elapse();
+        batcher.add(candidate(3));
+        executor.elapse();
+        assertEquals(2, batcher.getBatchCount());
+        assertEquals(3, batcher.getCandidateCount());
+        assertTrue(batcher.getTimeToFirstCandidateSentMs() >= 0);
+        // null is ignored
+        batcher.add(null);
+        assertTrue(executor.due.isEmpty());
+        assertEquals("peer", batcher.getUserId());
+    }
+
+    @Test
+    public void negativeWindowSendsOnTheNextTurn() {
+        IceCandidateBatcher batcher = batcher(-5);
+        batcher.add(candidate(1));
+        assertEquals(0L, (long) executor.delaysMs.get(0));
+        executor.elapse();
+        assertEquals(1, sent.size());
+    }
+}
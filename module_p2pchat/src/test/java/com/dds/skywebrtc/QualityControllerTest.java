@@ -0,0 +1,108 @@
+package com.dds.skywebrtc;
+
+import com.dds.skywebrtc.QualityController.Level;
+import com.dds.skywebrtc.stats.PeerStatsAggregator;
+import com.dds.skywebrtc.stats.StatsSample;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QualityControllerTest {
+
+    private static StatsSample sample(float lossPercent, float rttMs, int availableSendKbps) {
+        StatsSample sample = new StatsSample();
+        sample.lossPercent = lossPercent;
+        sample.rttMs = rttMs;
+        sample.availableSendKbps = availableSendKbps;
+        return sample;
+    }
+
+    // feeds the same one second sample for the given seconds
+    private static Level run(QualityController controller, StatsSample sample, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            controller.onSample(sample);
+        }
+        return controller.getLevel();
+    }
+
+    @Test
+    public void congestionStepsDownQuicklyAndRecoversSlowly() {
+        QualityController controller = new QualityController();
+        StatsSample good = sample(0, 60, 3000);
+        StatsSample lossy = sample(12, 300, 900);
+
+        assertEquals(Level.HIGH, run(controller, good, 30));
+        assertEquals(Level.MEDIUM, run(controller, lossy, QualityController.DOWN_AFTER));
+        assertEquals(Level.MINIMAL, run(controller, lossy, 2 * QualityController.DOWN_AFTER));
+        // one good second is not enough to trust the link again
+        assertEquals(Level.MINIMAL, run(controller, good, QualityController.UP_AFTER - 1));
+        assertEquals(Level.LOW, run(controller, good, 1));
+        assertEquals(Level.HIGH, run(controller, good, 2 * QualityController.UP_AFTER));
+    }
+
+    @Test
+    public void aFlappingLinkDoesNotFlap() {
+        QualityController controller = new QualityController(Level.MEDIUM);
+        StatsSample good = sample(0, 60, 3000);
+        StatsSample bad = sample(10, 80, 3000);
+        // a lost burst every few seconds, never two in a row
+        for (int i = 0; i < 60; i++) {
+            controller.onSample(i % 4 == 0 ? bad : good);
+        }
+        assertEquals(Level.MEDIUM, controller.getLevel());
+        assertEquals(0, controller.getChanges());
+    }
+
+    @Test
+    public void theBandwidthEstimateLimitsTheLevel() {
+        QualityController controller = new QualityController();
+        // 500kbps can't carry 720p, but does carry 360p with room to spare
+        StatsSample capped = sample(0, 60, 500);
+        assertEquals(Level.LOW, run(controller, capped, 10 * QualityController.DOWN_AFTER));
+        // 540p would want 960kbps before stepping up
+        assertEquals(Level.LOW, run(controller, capped, 10 * QualityController.UP_AFTER));
+    }
+
+    @Test
+    public void theNetworkTypeCapsTheLevel() {
+        QualityController controller = new QualityController();
+        StatsSample good = sample(0, 60, 0);
+        assertEquals(Level.LOW, controller.onNetworkChanged(Level.LOW));
+        assertEquals(Level.LOW, run(controller, good, 10 * QualityController.UP_AFTER));
+        // back on wifi, straight to its cap
+        assertEquals(Level.HIGH, controller.onNetworkChanged(Level.HIGH));
+    }
+
+    @Test
+    public void aMeshStepsDownOncePerPeriodWhateverThePeerCount() {
+        // one bad peer among good ones, the good samples must not reset its bad run
+        QualityController controller = new QualityController();
+        PeerStatsAggregator aggregator = new PeerStatsAggregator();
+        StatsSample good = sample(0, 60, 3000);
+        StatsSample bad = sample(12, 300, 3000);
+        String[] peers = {"a", "b", "c", "d"};
+        for (int period = 0; period < QualityController.DOWN_AFTER; period++) {
+            for (String peer : peers) {
+                StatsSample worst = aggregator.add(peer, peer.equals("b") ? bad : good, peers.length);
+                if (worst != null) controller.onSample(worst);
+            }
+        }
+        assertEquals(Level.MEDIUM, controller.getLevel());
+        assertEquals(1, controller.getChanges());
+    }
+
+    @Test
+    public void limitKeepsTheShareWithinTheLevel() {
+        BandwidthAllocator.Allocation share = new BandwidthAllocator(1_500_000).allocate(1);
+        BandwidthAllocator.Allocation limited = QualityController.limit(share, Level.LOW);
+        assertEquals(Level.LOW.maxBitrateBps, limited.maxBitrateBps);
+        // already captured at 360p
+        assertEquals(1.0, limited.scaleResolutionDownBy, 0);
+        // a 4 person mesh wants 360p per peer, capture at 720p is scaled by 2
+        BandwidthAllocator.Allocation mesh = new BandwidthAllocator(1_500_000).allocate(3);
+        assertEquals(2.0, QualityController.limit(mesh, Level.HIGH).scaleResolutionDownBy, 0);
+        assertTrue(QualityController.limit(mesh, Level.HIGH).maxBitrateBps <= mesh.maxBitrateBps);
+    }
+}
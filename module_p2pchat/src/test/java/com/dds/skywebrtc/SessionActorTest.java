@@ -0,0 +1,154 @@
+package com.dds.skywebrtc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionActorTest {
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ActorMetrics metrics = new ActorMetrics();
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void messagesRunOneAtATimeInOrder() throws Exception {
+        List<SessionActor> actors = new ArrayList<>();
+        List<List<Integer>> seen = new ArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        int messages = 2000;
+        CountDownLatch done = new CountDownLatch(3 * messages);
+        for (int a = 0; a < 3; a++) {
+            actors.add(new SessionActor("test" + a, pool, timer, metrics));
+            seen.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        for (int i = 0; i < messages; i++) {
+            for (int a = 0; a < 3; a++) {
+                int value = i;
+                List<Integer> list = seen.get(a);
+                AtomicInteger own = a == 0 ? running : new AtomicInteger();
+                actors.get(a).post(CallEvent.ICE, () -> {
+                    if (own.incrementAndGet() > 1) overlaps.incrementAndGet();
+                    list.add(value);
+                    own.decrementAndGet();
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // a message is recorded after it ran, one more behind them on each actor has them all in
+        CountDownLatch recorded = new CountDownLatch(3);
+        for (SessionActor actor : actors) {
+            actor.post(CallEvent.TASK, recorded::countDown);
+        }
+        assertTrue(recorded.await(5, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (List<Integer> list : seen) {
+            for (int i = 0; i < messages; i++) {
+                assertEquals(i, (int) list.get(i));
+            }
+        }
+        assertEquals(3L * messages, metrics.getCount(CallEvent.ICE));
+        assertTrue(metrics.getMaxDepth() > 0);
+    }
+
+    @Test
+    public void nothingRunsAfterTheTeardown() throws Exception {
+        SessionActor actor = new SessionActor("test", pool, timer, metrics);
+        CountDownLatch teardown = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger after = new AtomicInteger();
+        actor.post(CallEvent.END, () -> {
+            try {
+                // work posted while the teardown runs
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            actor.shutdown();
+            teardown.countDown();
+        });
+        actor.post(CallEvent.ANSWER, after::incrementAndGet);
+        release.countDown();
+        assertTrue(teardown.await(5, TimeUnit.SECONDS));
+        actor.post(CallEvent.ICE, after::incrementAndGet);
+        assertTrue(actor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, after.get());
+        assertEquals(2, metrics.getDropped());
+    }
+
+    @Test
+    public void timersRunOnTheActorAndCanBeCancelled() throws Exception {
+        SessionActor actor = new SessionActor("test", pool, timer, metrics);
+        CountDownLatch fired = new CountDownLatch(3);
+        SessionExecutor.Cancellable poll = actor.scheduleWithFixedDelay(fired::countDown, 1, 1, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        poll.cancel();
+        AtomicInteger cancelled = new AtomicInteger();
+        Runnable count = cancelled::incrementAndGet;
+        actor.schedule(count, 50, TimeUnit.MILLISECONDS).cancel();
+        Thread.sleep(100);
+        assertEquals(0, cancelled.get());
+        assertTrue(metrics.getCount(CallEvent.TASK) >= 3);
+    }
+
+    @Test
+    public void aTimerCancelledOnTheActorDoesNotRunEvenIfItFired() throws Exception {
+        SessionActor actor = new SessionActor("test", pool, timer, metrics);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        AtomicReference<SessionExecutor.Cancellable> timed = new AtomicReference<>();
+        actor.post(CallEvent.ICE, () -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            timed.get().cancel();
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        timed.set(actor.schedule(ran::incrementAndGet, 0, TimeUnit.MILLISECONDS));
+        // fired and waiting in the mailbox behind the blocked message
+        long deadline = System.currentTimeMillis() + 5000;
+        while (actor.getDepth() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        actor.post(CallEvent.ICE, done::countDown);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, ran.get());
+    }
+
+    @Test
+    public void anIdleActorTerminatesOnShutdown() throws Exception {
+        SessionActor actor = new SessionActor("test", pool, timer, metrics);
+        assertFalse(actor.awaitTermination(10, TimeUnit.MILLISECONDS));
+        actor.shutdown();
+        assertTrue(actor.awaitTermination(0, TimeUnit.MILLISECONDS));
+        AtomicInteger after = new AtomicInteger();
+        actor.execute(after::incrementAndGet);
+        actor.schedule(after::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+        assertEquals(0, after.get());
+    }
+}
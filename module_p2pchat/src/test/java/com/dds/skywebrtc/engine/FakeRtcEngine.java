@@ -0,0 +1,262 @@
+package com.dds.skywebrtc.engine;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory {@link RtcEngine}. Its peers keep webrtc's offer/answer states, gather a few
+ * candidates once their description is set and connect when both descriptions are in place
+ * and a remote candidate arrived, each step after the configured delay.
+ * <p>
+ * Like webrtc, all peers run on one signaling thread, and one peer's operations complete in
+ * the order they were called. What webrtc would reject, a candidate before the remote
+ * description or an offer in the wrong state, fails the same way and is counted in
+ * {@link #getErrors()}.
+ */
+public class FakeRtcEngine implements RtcEngine {
+
+    public static class Delays {
+        public long createMs;
+        public long setMs;
+        // between two gathered candidates
+        public long gatherMs;
+        // from having a remote candidate to connected
+        public long connectMs;
+        public int candidates = 2;
+
+        public static Delays none() {
+            return new Delays();
+        }
+
+        public static Delays of(long createMs, long setMs, long gatherMs, long connectMs) {
+            Delays delays = new Delays();
+            delays.createMs = createMs;
+            delays.setMs = setMs;
+            delays.gatherMs = gatherMs;
+            delays.connectMs = connectMs;
+            return delays;
+        }
+    }
+
+    private final ScheduledExecutorService thread;
+    private final Delays delays;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    public FakeRtcEngine(ScheduledExecutorService signalingThread, Delays delays) {
+        this.thread = signalingThread;
+        this.delays = delays;
+    }
+
+    @Override
+    public FakePeer createPeer(int candidatePoolSize, RtcPeer.Observer observer) {
+        return new FakePeer("p" + ids.incrementAndGet(), candidatePoolSize, observer);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public class FakePeer implements RtcPeer {
+        private final String id;
+        private final int poolSize;
+        private final Observer observer;
+        // written on the signaling thread only
+        private volatile SignalingState state = SignalingState.STABLE;
+        private volatile String local;
+        private volatile String remote;
+        // ufrag generation, a restart starts a new one
+        private volatile int generation = 1;
+        private int gatheredGeneration;
+        private int remoteGeneration;
+        private int answeredGeneration;
+        private int remoteCandidates;
+        private IceState iceState = IceState.NEW;
+        private boolean connecting;
+        private boolean disposed;
+        // completes the operations in call order
+        private long busyUntilNanos;
+
+        FakePeer(String id, int poolSize, Observer observer) {
+            this.id = id;
+            this.poolSize = poolSize;
+            this.observer = observer;
+        }
+
+        private synchronized void run(long delayMs, Runnable op) {
+            long now = System.nanoTime();
+            long at = Math.max(now, busyUntilNanos) + TimeUnit.MILLISECONDS.toNanos(delayMs);
+            busyUntilNanos = at;
+            thread.schedule(() -> {
+                if (!disposed) op.run();
+            }, at - now, TimeUnit.NANOSECONDS);
+        }
+
+        private void fail(String error) {
+            errors.add(id + ": " + error);
+        }
+
+        @Override
+        public void createOffer(boolean iceRestart) {
+            run(delays.createMs, () -> {
+                if (iceRestart) generation++;
+                observer.onCreateSuccess(new SessionDescription(SessionDescription.Type.OFFER, sdp("offer")));
+            });
+        }
+
+        @Override
+        public void createAnswer() {
+            run(delays.createMs, () -> {
+                if (state != SignalingState.HAVE_REMOTE_OFFER) {
+                    observer.onCreateFailure("createAnswer in " + state);
+                    return;
+                }
+                // a restarted offer is answered with new credentials too
+                if (answeredGeneration != 0 && answeredGeneration != remoteGeneration) generation++;
+                answeredGeneration = remoteGeneration;
+                observer.onCreateSuccess(new SessionDescription(SessionDescription.Type.ANSWER, sdp("answer")));
+            });
+        }
+
+        private String sdp(String kind) {
+            return "v=0 " + kind + " ufrag=" + id + " gen=" + generation;
+        }
+
+        @Override
+        public void setLocalDescription(SessionDescription sdp) {
+            run(delays.setMs, () -> {
+                if (sdp.type == SessionDescription.Type.OFFER && state == SignalingState.STABLE) {
+                    state = SignalingState.HAVE_LOCAL_OFFER;
+                } else if (sdp.type == SessionDescription.Type.ANSWER && state == SignalingState.HAVE_REMOTE_OFFER) {
+                    state = SignalingState.STABLE;
+                } else {
+                    observer.onSetFailure("local " + sdp.type + " in " + state);
+                    fail("local " + sdp.type + " in " + state);
+                    return;
+                }
+                local = sdp.description;
+                observer.onSetSuccess();
+                gather();
+                maybeConnect();
+            });
+        }
+
+        @Override
+        public void setRemoteDescription(SessionDescription sdp) {
+            run(delays.setMs, () -> {
+                if (sdp.type == SessionDescription.Type.OFFER && state == SignalingState.STABLE) {
+                    state = SignalingState.HAVE_REMOTE_OFFER;
+                } else if (sdp.type == SessionDescription.Type.ANSWER && state == SignalingState.HAVE_LOCAL_OFFER) {
+                    state = SignalingState.STABLE;
+                } else {
+                    // no rollback, an offer in HAVE_LOCAL_OFFER fails like in this webrtc
+                    observer.onSetFailure("remote " + sdp.type + " in " + state);
+                    fail("remote " + sdp.type + " in " + state);
+                    return;
+                }
+                int gen = generationOf(sdp.description);
+                if (gen != remoteGeneration) {
+                    // new remote credentials, their candidates have to come again
+                    remoteGeneration = gen;
+                    remoteCandidates = 0;
+                }
+                remote = sdp.description;
+                observer.onSetSuccess();
+                maybeConnect();
+            });
+        }
+
+        private int generationOf(String description) {
+            int at = description.lastIndexOf("gen=");
+            return at < 0 ? 1 : Integer.parseInt(description.substring(at + 4));
+        }
+
+        // Once per ufrag generation, a prepared pool hands its candidates out at once
+        private void gather() {
+            if (gatheredGeneration == generation) return;
+            gatheredGeneration = generation;
+            int gen = generation;
+            long gatherMs = poolSize > 0 && gen == 1 ? 0 : delays.gatherMs;
+            for (int i = 0; i < delays.candidates; i++) {
+                int n = i;
+                thread.schedule(() -> {
+                    if (disposed || gen != generation) return;
+                    observer.onIceCandidate(new IceCandidate("0", 0,
+                            "candidate:" + n + " 1 udp " + (2130706431 - n) + " 10.0.0." + n + " 5000" + n
+                                    + " typ host ufrag " + id + " gen " + gen));
+                }, gatherMs * (i + 1), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void addIceCandidate(IceCandidate candidate) {
+            run(0, () -> {
+                if (remote == null) {
+                    fail("candidate before the remote description");
+                    return;
+                }
+                remoteCandidates++;
+                maybeConnect();
+            });
+        }
+
+        private void maybeConnect() {
+            if (connecting || iceState == IceState.CONNECTED) return;
+            if (local == null || remote == null || remoteCandidates == 0) return;
+            connecting = true;
+            setIceState(IceState.CHECKING);
+            thread.schedule(() -> {
+                if (disposed) return;
+                connecting = false;
+                setIceState(IceState.CONNECTED);
+            }, delays.connectMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void setIceState(IceState newState) {
+            if (iceState == newState) return;
+            iceState = newState;
+            observer.onIceConnectionChange(newState);
+        }
+
+        // The path broke, it comes back with the candidates of a restart
+        public void dropPath() {
+            thread.execute(() -> {
+                remoteCandidates = 0;
+                setIceState(IceState.DISCONNECTED);
+            });
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        @Override
+        public SignalingState signalingState() {
+            return state;
+        }
+
+        @Override
+        public boolean hasLocalDescription() {
+            return local != null;
+        }
+
+        @Override
+        public boolean hasRemoteDescription() {
+            return remote != null;
+        }
+
+        @Override
+        public void dispose() {
+            thread.execute(() -> {
+                disposed = true;
+                state = SignalingState.CLOSED;
+            });
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.dds.skywebrtc.engine;
+
+import com.dds.skywebrtc.ActorMetrics;
+import com.dds.skywebrtc.CallEvent;
+import com.dds.skywebrtc.IceCandidateBatcher;
+import com.dds.skywebrtc.SessionActor;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the negotiation of calls on the JVM: each side is a {@link PeerNegotiator} on its own
+ * {@link SessionActor}, sending its candidates through an {@link IceCandidateBatcher}, on a
+ * {@link FakeRtcEngine} peer. The actors share one pool and timer like the sessions of the app.
+ * <p>
+ * {@link #call} wires two sides through an in-memory link with the given latencies and
+ * records what they send, {@link #replay} drives the caller's side of a recorded trace into a
+ * live callee as fast as it can take it.
+ */
+public class NegotiationHarness {
+    public static final String CALLER = "caller";
+    public static final String CALLEE = "callee";
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService signalingThread = Executors.newSingleThreadScheduledExecutor();
+    private final ActorMetrics metrics = new ActorMetrics();
+    private final FakeRtcEngine engine;
+    private final AtomicInteger ids = new AtomicInteger();
+    // the batch window of the candidates, 0 sends each one right away
+    private long iceBatchWindowMs;
+
+    public NegotiationHarness(FakeRtcEngine.Delays delays) {
+        engine = new FakeRtcEngine(signalingThread, delays);
+    }
+
+    public NegotiationHarness setIceBatchWindowMs(long iceBatchWindowMs) {
+        this.iceBatchWindowMs = iceBatchWindowMs;
+        return this;
+    }
+
+    public FakeRtcEngine getEngine() {
+        return engine;
+    }
+
+    public ActorMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+        timer.shutdownNow();
+        signalingThread.shutdownNow();
+    }
+
+    // Where a side's messages go
+    interface Outbox {
+        void send(SignalingTrace.Kind kind, String payload);
+    }
+
+    public class Side implements PeerNegotiator.Signaling, PeerNegotiator.Listener {
+        public final String name;
+        public final SessionActor actor;
+        public final PeerNegotiator negotiator;
+        public final FakeRtcEngine.FakePeer peer;
+        private final IceCandidateBatcher batcher;
+        private volatile Outbox outbox;
+        private final CountDownLatch connected = new CountDownLatch(1);
+        private volatile long connectedNanos;
+        private final AtomicInteger negotiated = new AtomicInteger();
+        private final AtomicInteger restarts = new AtomicInteger();
+        private final AtomicInteger localFailures = new AtomicInteger();
+        private final AtomicInteger remoteFailures = new AtomicInteger();
+        private volatile RtcPeer.IceState iceState = RtcPeer.IceState.NEW;
+        // the offer came with the invite and waits for accept(), like a ringing callee
+        public volatile boolean answerOnAccept;
+
+        Side(String name) {
+            this.name = name;
+            actor = new SessionActor(name + ids.incrementAndGet(), pool, timer, metrics);
+            negotiator = new PeerNegotiator(name, actor, this, this);
+            peer = engine.createPeer(0, negotiator);
+            negotiator.attach(peer);
+            batcher = new IceCandidateBatcher(name, actor, iceBatchWindowMs, (userId, candidates) -> {
+                for (IceCandidate candidate : candidates) {
+                    outbox.send(SignalingTrace.Kind.CANDIDATE, SignalingTrace.candidate(candidate));
+                }
+            });
+        }
+
+        // Any thread, as the socket would hand the message to the session
+        public void receive(SignalingTrace.Kind kind, String payload) {
+            switch (kind) {
+                case OFFER:
+                    actor.post(CallEvent.OFFER, () -> {
+                        if (answerOnAccept) {
+                            negotiator.setRemoteOffer(payload);
+                        } else {
+                            negotiator.onRemoteOffer(payload);
+                        }
+                    });
+                    break;
+                case ANSWER:
+                    actor.post(CallEvent.ANSWER, () -> negotiator.onRemoteAnswer(payload));
+                    break;
+                case CANDIDATE:
+                    IceCandidate candidate = SignalingTrace.candidate(payload);
+                    actor.post(CallEvent.ICE, () -> negotiator.addRemoteIceCandidate(candidate));
+                    break;
+            }
+        }
+
+        public void offer() {
+            actor.post(CallEvent.INVITE, () -> {
+                negotiator.setRole(PeerNegotiator.Role.Caller);
+                negotiator.createOffer();
+            });
+        }
+
+        public void accept() {
+            actor.post(CallEvent.ACCEPT, negotiator::createAnswer);
+        }
+
+        public void restartIce() {
+            actor.post(CallEvent.NETWORK, negotiator::restartIce);
+        }
+
+        public boolean awaitConnected(long timeoutMs) throws InterruptedException {
+            return connected.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        public long getConnectedNanos() {
+            return connectedNanos;
+        }
+
+        public int getNegotiated() {
+            return negotiated.get();
+        }
+
+        public int getRestarts() {
+            return restarts.get();
+        }
+
+        public int getLocalFailures() {
+            return localFailures.get();
+        }
+
+        public int getRemoteFailures() {
+            return remoteFailures.get();
+        }
+
+        public RtcPeer.IceState getIceState() {
+            return iceState;
+        }
+
+        @Override
+        public void sendOffer(String userId, String sdp) {
+            outbox.send(SignalingTrace.Kind.OFFER, sdp);
+        }
+
+        @Override
+        public void sendAnswer(String userId, String sdp) {
+            outbox.send(SignalingTrace.Kind.ANSWER, sdp);
+        }
+
+        @Override
+        public void onSdpCreated(SessionDescription sdp) {
+        }
+
+        @Override
+        public void onSdpSet(boolean local) {
+        }
+
+        @Override
+        public void onNegotiated() {
+            negotiated.incrementAndGet();
+        }
+
+        @Override
+        public void onIceRestart() {
+            restarts.incrementAndGet();
+        }
+
+        @Override
+        public void onNegotiationFailed(boolean local, String error) {
+            (local ? localFailures : remoteFailures).incrementAndGet();
+        }
+
+        @Override
+        public void onLocalCandidate(IceCandidate candidate) {
+            batcher.add(candidate);
+        }
+
+        @Override
+        public void onIceConnectionChange(RtcPeer.IceState state) {
+            iceState = state;
+            if (state == RtcPeer.IceState.CONNECTED && connectedNanos == 0) {
+                connectedNanos = System.nanoTime();
+                connected.countDown();
+            }
+        }
+
+        public void close() {
+            actor.post(CallEvent.END, () -> {
+                batcher.close();
+                negotiator.close();
+                peer.dispose();
+                actor.shutdown();
+            });
+        }
+    }
+
+    public class Call {
+        public final Side caller = new Side(CALLER);
+        public final Side callee = new Side(CALLEE);
+        public final SignalingTrace trace = new SignalingTrace();
+        private volatile long startNanos;
+
+        Call(long sdpLatencyMs, long iceLatencyMs) {
+            caller.outbox = link(caller, callee, sdpLatencyMs, iceLatencyMs);
+            callee.outbox = link(callee, caller, sdpLatencyMs, iceLatencyMs);
+        }
+
+        private Outbox link(Side from, Side to, long sdpLatencyMs, long iceLatencyMs) {
+            return (kind, payload) -> {
+                trace.record(from.name, kind, payload);
+                long latency = kind == SignalingTrace.Kind.CANDIDATE ? iceLatencyMs : sdpLatencyMs;
+                if (latency <= 0) {
+                    to.receive(kind, payload);
+                } else {
+                    timer.schedule(() -> to.receive(kind, payload), latency, TimeUnit.MILLISECONDS);
+                }
+            };
+        }
+
+        public Call start() {
+            startNanos = System.nanoTime();
+            caller.offer();
+            return this;
+        }
+
+        public boolean awaitConnected(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            return caller.awaitConnected(timeoutMs)
+                    && callee.awaitConnected(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+
+        // From the caller's createOffer to both sides connected
+        public double getSetupMs() {
+            return (Math.max(caller.connectedNanos, callee.connectedNanos) - startNanos) / 1e6;
+        }
+
+        public void close() {
+            caller.close();
+            callee.close();
+        }
+    }
+
+    public Call call(long sdpLatencyMs, long iceLatencyMs) {
+        return new Call(sdpLatencyMs, iceLatencyMs);
+    }
+
+    public class Replay {
+        public final Side side;
+        // what the live side sent back
+        public final SignalingTrace answers = new SignalingTrace();
+        private final long startNanos = System.nanoTime();
+
+        Replay() {
+            side = new Side(CALLEE);
+            side.outbox = (kind, payload) -> answers.record(side.name, kind, payload);
+        }
+
+        // From the first replayed message to the live side connected
+        public double getSetupMs() {
+            return (side.connectedNanos - startNanos) / 1e6;
+        }
+    }
+
+    /**
+     * Sends everything the caller sent in the trace to a new callee.
+     *
+     * @param speedup how much faster than recorded, 0 sends it all at once in order
+     */
+    public Replay replay(SignalingTrace trace, double speedup) {
+        Replay replay = new Replay();
+        List<SignalingTrace.Step> steps = trace.from(CALLER);
+        for (SignalingTrace.Step step : steps) {
+            if (speedup <= 0) {
+                replay.side.receive(step.kind, step.payload);
+            } else {
+                long atMicros = (long) (step.atMs * 1000 / speedup);
+                timer.schedule(() -> replay.side.receive(step.kind, step.payload), atMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        return replay;
+    }
+}
@@ -0,0 +1,123 @@
+package com.dds.skywebrtc.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets up many calls at once through {@link NegotiationHarness}, all sessions sharing the
+ * actor pool, and reports how long each took from the caller's offer until both sides were
+ * connected. With the engine's delays at zero that is the cost of the session's own
+ * negotiation logic and its actors, not of the network.
+ * <p>
+ * Run main() with the number of calls, the signaling latency and the engine delays in ms,
+ * e.g. "1000 0 0" or "200 40 20". It also replays the recorded call of SignalingReplayTest
+ * into a live callee, all at once and at 50x its pace.
+ */
+public class NegotiationLoadGenerator {
+    private final int calls;
+    private final long latencyMs;
+    private final FakeRtcEngine.Delays delays;
+
+    public NegotiationLoadGenerator(int calls, long latencyMs, FakeRtcEngine.Delays delays) {
+        this.calls = calls;
+        this.latencyMs = latencyMs;
+        this.delays = delays;
+    }
+
+    public Report run(long timeoutMs) throws InterruptedException {
+        NegotiationHarness harness = new NegotiationHarness(delays);
+        try {
+            long start = System.nanoTime();
+            List<NegotiationHarness.Call> started = new ArrayList<>(calls);
+            for (int i = 0; i < calls; i++) {
+                started.add(harness.call(latencyMs, latencyMs).start());
+            }
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long[] setupNanos = new long[calls];
+            int completed = 0;
+            for (NegotiationHarness.Call call : started) {
+                if (call.awaitConnected(Math.max(0, deadline - System.currentTimeMillis()))) {
+                    setupNanos[completed++] = (long) (call.getSetupMs() * 1e6);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            for (NegotiationHarness.Call call : started) {
+                call.close();
+            }
+            setupNanos = Arrays.copyOf(setupNanos, completed);
+            Arrays.sort(setupNanos);
+            return new Report(calls, completed, setupNanos, elapsed,
+                    harness.getEngine().getErrors().size(), harness.getMetrics().getDropped());
+        } finally {
+            harness.shutdown();
+        }
+    }
+
+    public static class Report {
+        public final int calls;
+        public final int completed;
+        // sorted
+        public final long[] setupNanos;
+        public final long elapsedNanos;
+        // what webrtc would have rejected, see FakeRtcEngine
+        public final int engineErrors;
+        public final long droppedMessages;
+
+        Report(int calls, int completed, long[] setupNanos, long elapsedNanos, int engineErrors, long droppedMessages) {
+            this.calls = calls;
+            this.completed = completed;
+            this.setupNanos = setupNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.engineErrors = engineErrors;
+            this.droppedMessages = droppedMessages;
+        }
+
+        // Exact percentile of the measured setups, 0..100
+        public long getSetupPercentileNanos(double percentile) {
+            if (setupNanos.length == 0) return 0;
+            int rank = (int) Math.ceil(percentile / 100 * setupNanos.length);
+            return setupNanos[Math.max(0, Math.min(setupNanos.length, rank) - 1)];
+        }
+
+        public double getCallsPerSecond() {
+            return elapsedNanos == 0 ? 0 : completed * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d calls set up in %dms (%.0f/s), setup p50=%.2fms p99=%.2fms max=%.2fms, "
+                            + "engine errors=%d, dropped=%d",
+                    completed, calls, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getCallsPerSecond(),
+                    getSetupPercentileNanos(50) / 1e6, getSetupPercentileNanos(99) / 1e6,
+                    getSetupPercentileNanos(100) / 1e6, engineErrors, droppedMessages);
+        }
+    }
+
+    // From the first replayed message to the callee connected, -1 if it didn't
+    static double replaySetupMs(SignalingTrace trace, double speedup) throws InterruptedException {
+        NegotiationHarness harness = new NegotiationHarness(FakeRtcEngine.Delays.none());
+        try {
+            // warm up the classes and the pool first
+            harness.replay(trace, 0).side.awaitConnected(5000);
+            NegotiationHarness.Replay replay = harness.replay(trace, speedup);
+            return replay.side.awaitConnected(5000) ? replay.getSetupMs() : -1;
+        } finally {
+            harness.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long latencyMs = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        long delayMs = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        FakeRtcEngine.Delays delays = FakeRtcEngine.Delays.of(delayMs, delayMs / 4, delayMs / 2, delayMs);
+        System.out.println(new NegotiationLoadGenerator(calls, latencyMs, delays).run(60000));
+        SignalingTrace trace = SignalingReplayTest.recorded();
+        for (double speedup : new double[]{0, 50}) {
+            System.out.println(String.format("replay at %.0fx: setup %.2fms", speedup, replaySetupMs(trace, speedup)));
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,56 @@
+package com.dds.skywebrtc.engine;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A small run of the load generator, every call has to get connected without anything the
+ * real engine would reject.
+ */
+public class NegotiationLoadGeneratorTest {
+
+    @Test
+    public void everyCallConnects() throws Exception {
+        NegotiationLoadGenerator.Report report =
+                new NegotiationLoadGenerator(200, 0, FakeRtcEngine.Delays.none()).run(20000);
+        assertEquals(report.toString(), 200, report.completed);
+        assertEquals(0, report.engineErrors);
+        assertEquals(0, report.droppedMessages);
+        assertTrue(report.getSetupPercentileNanos(50) <= report.getSetupPercentileNanos(99));
+    }
+
+    @Test
+    public void callsConnectOverALink() throws Exception {
+        NegotiationLoadGenerator.Report report =
+                new NegotiationLoadGenerator(20, 20, FakeRtcEngine.Delays.of(5, 1, 2, 10)).run(20000);
+        assertEquals(report.toString(), 20, report.completed);
+        assertEquals(0, report.engineErrors);
+        assertTrue(report.getSetupPercentileNanos(0) <= report.getSetupPercentileNanos(50));
+        assertTrue(report.getSetupPercentileNanos(50) <= report.getSetupPercentileNanos(100));
+    }
+
+    @Test
+    public void offerAndAnswerCrossTheLinkOnce() throws Exception {
+        NegotiationHarness harness = new NegotiationHarness(FakeRtcEngine.Delays.of(5, 1, 2, 10));
+        try {
+            NegotiationHarness.Call call = harness.call(20, 20).start();
+            assertTrue(call.awaitConnected(5000));
+            // the candidates go after the description they belong to
+            List<SignalingTrace.Kind> caller = call.trace.kinds(NegotiationHarness.CALLER);
+            List<SignalingTrace.Kind> callee = call.trace.kinds(NegotiationHarness.CALLEE);
+            assertEquals(SignalingTrace.Kind.OFFER, caller.get(0));
+            assertEquals(1, Collections.frequency(caller, SignalingTrace.Kind.OFFER));
+            assertEquals(SignalingTrace.Kind.ANSWER, callee.get(0));
+            assertEquals(1, Collections.frequency(callee, SignalingTrace.Kind.ANSWER));
+            assertEquals(0, Collections.frequency(caller, SignalingTrace.Kind.ANSWER));
+            assertEquals(0, Collections.frequency(callee, SignalingTrace.Kind.OFFER));
+        } finally {
+            harness.shutdown();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.dds.skywebrtc.engine;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeerNegotiatorTest {
+    private final NegotiationHarness harness = new NegotiationHarness(FakeRtcEngine.Delays.of(2, 1, 1, 2));
+
+    @After
+    public void tearDown() {
+        harness.shutdown();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void candidatesThatOvertakeTheOfferAreHeld() throws Exception {
+        // the candidates get there long before the descriptions
+        NegotiationHarness.Call call = harness.call(30, 0).start();
+        assertTrue(call.awaitConnected(5000));
+        assertEquals(0, harness.getEngine().getErrors().size());
+        assertEquals(PeerNegotiator.Role.Caller, call.caller.negotiator.getRole());
+        assertEquals(PeerNegotiator.Role.Receiver, call.callee.negotiator.getRole());
+        assertEquals(SignalingTrace.Kind.OFFER, call.trace.kinds(NegotiationHarness.CALLER).get(0));
+        assertEquals(SignalingTrace.Kind.ANSWER, call.trace.kinds(NegotiationHarness.CALLEE).get(0));
+        // connected may come before the set that completed the negotiation was reported
+        await(() -> call.caller.getNegotiated() == 1 && call.callee.getNegotiated() == 1);
+    }
+
+    @Test
+    public void offerFromTheInviteIsAnsweredOnAccept() throws Exception {
+        NegotiationHarness.Call call = harness.call(1, 1);
+        call.callee.answerOnAccept = true;
+        call.start();
+        await(() -> call.callee.peer.signalingState() == RtcPeer.SignalingState.HAVE_REMOTE_OFFER
+                && call.trace.kinds(NegotiationHarness.CALLER).contains(SignalingTrace.Kind.CANDIDATE));
+        Thread.sleep(20);
+        // ringing: nothing goes back before the user accepts
+        assertTrue(call.trace.from(NegotiationHarness.CALLEE).isEmpty());
+        assertEquals(RtcPeer.IceState.NEW, call.callee.getIceState());
+        call.callee.accept();
+        assertTrue(call.awaitConnected(5000));
+        assertEquals(SignalingTrace.Kind.ANSWER, call.trace.kinds(NegotiationHarness.CALLEE).get(0));
+        assertEquals(PeerNegotiator.Role.Receiver, call.callee.negotiator.getRole());
+        await(() -> call.callee.getNegotiated() == 1);
+        assertEquals(0, harness.getEngine().getErrors().size());
+    }
+
+    @Test
+    public void restartWaitsForTheNegotiationInFlight() throws Exception {
+        NegotiationHarness.Call call = harness.call(50, 50).start();
+        await(() -> !call.trace.from(NegotiationHarness.CALLER).isEmpty());
+        // our offer is out, the network changes before the answer came
+        call.caller.restartIce();
+        await(() -> call.caller.getNegotiated() == 2 && call.callee.getNegotiated() == 2);
+        assertEquals(1, call.caller.getRestarts());
+        assertFalse(call.caller.negotiator.isRestartPending());
+        assertEquals(2, call.caller.peer.getGeneration());
+        assertEquals(2, call.callee.peer.getGeneration());
+        assertEquals(0, harness.getEngine().getErrors().size());
+    }
+
+    @Test
+    public void onlyTheCallerRestarts() throws Exception {
+        NegotiationHarness.Call call = harness.call(1, 1).start();
+        assertTrue(call.awaitConnected(5000));
+        call.caller.peer.dropPath();
+        call.callee.peer.dropPath();
+        await(() -> call.caller.getIceState() == RtcPeer.IceState.DISCONNECTED
+                && call.callee.getIceState() == RtcPeer.IceState.DISCONNECTED);
+        call.callee.restartIce();
+        call.caller.restartIce();
+        await(() -> call.caller.getIceState() == RtcPeer.IceState.CONNECTED
+                && call.callee.getIceState() == RtcPeer.IceState.CONNECTED);
+        assertEquals(0, call.callee.getRestarts());
+        assertEquals(1, call.caller.getRestarts());
+        assertEquals(0, harness.getEngine().getErrors().size());
+    }
+
+    @Test
+    public void failuresReachTheListener() throws Exception {
+        NegotiationHarness.Call call = harness.call(1, 1);
+        // nothing to answer yet
+        call.callee.accept();
+        await(() -> call.callee.getLocalFailures() == 1);
+        // an answer nobody asked for
+        call.callee.receive(SignalingTrace.Kind.ANSWER, "v=0 answer ufrag=other gen=1");
+        await(() -> call.callee.getRemoteFailures() == 1);
+        assertEquals(1, call.callee.getLocalFailures());
+        assertTrue(call.trace.from(NegotiationHarness.CALLEE).isEmpty());
+    }
+
+    @Test
+    public void offerDuringOursIsIgnored() throws Exception {
+        // the answer is never going to come
+        NegotiationHarness.Call call = harness.call(60000, 0).start();
+        await(() -> !call.trace.from(NegotiationHarness.CALLER).isEmpty());
+        AtomicBoolean accepted = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(1);
+        call.caller.actor.execute(() -> {
+            accepted.set(call.caller.negotiator.onRemoteOffer("v=0 offer ufrag=other gen=1"));
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(accepted.get());
+        assertEquals(PeerNegotiator.Role.Caller, call.caller.negotiator.getRole());
+        assertEquals(RtcPeer.SignalingState.HAVE_LOCAL_OFFER, call.caller.peer.signalingState());
+        assertEquals(0, harness.getEngine().getErrors().size());
+    }
+}
@@ -0,0 +1,65 @@
+package com.dds.skywebrtc.engine;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the caller's side of a recorded call into a live callee and checks that it still
+ * answers the same way, all at once and at the recorded pace. How long that takes is in
+ * {@link NegotiationLoadGenerator}'s main().
+ */
+public class SignalingReplayTest {
+    private final NegotiationHarness harness = new NegotiationHarness(FakeRtcEngine.Delays.none());
+
+    @After
+    public void tearDown() {
+        harness.shutdown();
+    }
+
+    static SignalingTrace recorded() throws Exception {
+        try (InputStream in = SignalingReplayTest.class.getResourceAsStream("/traces/call_1to1.trace")) {
+            assertNotNull(in);
+            return SignalingTrace.read(in);
+        }
+    }
+
+    @Test
+    public void recordedCallIsAnsweredTheSameWay() throws Exception {
+        assertAnsweredTheSameWay(0);
+    }
+
+    @Test
+    public void recordedCallIsAnsweredTheSameWayAtItsPace() throws Exception {
+        // the caller's candidates come in after the offer, as they did
+        assertAnsweredTheSameWay(50);
+    }
+
+    private void assertAnsweredTheSameWay(double speedup) throws Exception {
+        SignalingTrace trace = recorded();
+        NegotiationHarness.Replay replay = harness.replay(trace, speedup);
+        assertTrue(replay.side.awaitConnected(5000));
+        // the candidates are sent as they are gathered, after the answer
+        List<SignalingTrace.Kind> expected = trace.kinds(NegotiationHarness.CALLEE);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (replay.answers.getSteps().size() < expected.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, replay.answers.kinds(NegotiationHarness.CALLEE));
+        assertEquals(0, harness.getEngine().getErrors().size());
+    }
+
+    @Test
+    public void recordedTraceRoundTrips() throws Exception {
+        SignalingTrace trace = recorded();
+        SignalingTrace copy = SignalingTrace.read(new ByteArrayInputStream(trace.write().getBytes("UTF-8")));
+        assertEquals(trace.write(), copy.write());
+    }
+}
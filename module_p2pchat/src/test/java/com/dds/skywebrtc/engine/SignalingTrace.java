@@ -0,0 +1,98 @@
+package com.dds.skywebrtc.engine;
+
+import org.webrtc.IceCandidate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The signaling messages of one call in the order they were sent, with the time since the
+ * call started. One line per message: time, sender, kind and payload, tab separated.
+ */
+public class SignalingTrace {
+
+    public enum Kind {OFFER, ANSWER, CANDIDATE}
+
+    public static class Step {
+        public final long atMs;
+        public final String from;
+        public final Kind kind;
+        public final String payload;
+
+        Step(long atMs, String from, Kind kind, String payload) {
+            this.atMs = atMs;
+            this.from = from;
+            this.kind = kind;
+            this.payload = payload;
+        }
+
+        @Override
+        public String toString() {
+            return atMs + "\t" + from + "\t" + kind + "\t" + payload;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final List<Step> steps = Collections.synchronizedList(new ArrayList<>());
+
+    public void record(String from, Kind kind, String payload) {
+        steps.add(new Step((System.nanoTime() - startNanos) / 1000000, from, kind, payload));
+    }
+
+    public List<Step> getSteps() {
+        synchronized (steps) {
+            return new ArrayList<>(steps);
+        }
+    }
+
+    public List<Step> from(String party) {
+        List<Step> result = new ArrayList<>();
+        for (Step step : getSteps()) {
+            if (step.from.equals(party)) result.add(step);
+        }
+        return result;
+    }
+
+    public List<Kind> kinds(String party) {
+        List<Kind> result = new ArrayList<>();
+        for (Step step : from(party)) {
+            result.add(step.kind);
+        }
+        return result;
+    }
+
+    public String write() {
+        StringBuilder sb = new StringBuilder();
+        for (Step step : getSteps()) {
+            sb.append(step).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static SignalingTrace read(InputStream in) throws IOException {
+        SignalingTrace trace = new SignalingTrace();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\t", 4);
+            trace.steps.add(new Step(Long.parseLong(parts[0]), parts[1], Kind.valueOf(parts[2]), parts[3]));
+        }
+        return trace;
+    }
+
+    static String candidate(IceCandidate candidate) {
+        return candidate.sdpMid + "|" + candidate.sdpMLineIndex + "|" + candidate.sdp;
+    }
+
+    static IceCandidate candidate(String payload) {
+        String[] parts = payload.split("\\|", 3);
+        return new IceCandidate(parts[0], Integer.parseInt(parts[1]), parts[2]);
+    }
+}
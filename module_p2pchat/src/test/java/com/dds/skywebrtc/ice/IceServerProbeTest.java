@@ -0,0 +1,105 @@
+package com.dds.skywebrtc.ice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IceServerProbeTest {
+    private StunStandIn server;
+    private final IceServerProbe probe = new IceServerProbe(3, 100);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StunStandIn("user", "secret");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void stunBinding() {
+        server.delayMs = 30;
+        ProbeResult result = probe.probe(server.url("stun"), null, null);
+        assertTrue(result.reachable);
+        assertFalse(result.allocated);
+        assertTrue(result.rttMs >= 30);
+        assertTrue(result.isUsable(false));
+        assertNull(result.error);
+    }
+
+    @Test
+    public void turnAllocatesAndReleases() {
+        ProbeResult result = probe.probe(server.url("turn"), "user", "secret");
+        assertTrue(result.toString(), result.allocated);
+        assertTrue(result.rttMs >= 0);
+        assertEquals(1, server.allocations.get());
+        assertEquals(1, server.releases.get());
+    }
+
+    @Test
+    public void turnOverTcp() {
+        ProbeResult result = probe.probe(server.url("turn") + "?transport=tcp", "user", "secret");
+        assertTrue(result.toString(), result.allocated);
+        assertEquals(1, server.releases.get());
+    }
+
+    @Test
+    public void wrongPassword() {
+        ProbeResult result = probe.probe(server.url("turn"), "user", "guess");
+        assertTrue(result.reachable);
+        assertFalse(result.allocated);
+        assertFalse(result.isUsable(true));
+        assertEquals("error 401", result.error);
+        assertEquals(0, server.allocations.get());
+    }
+
+    @Test
+    public void staleNonceIsRetried() {
+        server.expireNonce = true;
+        ProbeResult result = probe.probe(server.url("turn"), "user", "secret");
+        assertTrue(result.toString(), result.allocated);
+        assertEquals(1, server.allocations.get());
+    }
+
+    @Test
+    public void silentServerTimesOut() {
+        server.silent = true;
+        ProbeResult result = probe.probe(server.url("stun"), null, null);
+        assertFalse(result.reachable);
+        assertFalse(result.isUsable(false));
+        assertEquals("timeout", result.error);
+        // three attempts, waiting 100, 200 and 400ms
+        assertEquals(3, server.requests.get());
+    }
+
+    @Test
+    public void secureAndInvalidUrlsAreNotProbed() {
+        assertNull(probe.probe("turns:127.0.0.1:5349", "user", "secret"));
+        assertNull(probe.probe("http://127.0.0.1", null, null));
+        assertNotNull(probe.probe(server.url("stun"), null, null));
+    }
+
+    @Test
+    public void parsesUrls() {
+        IceServerUrl url = IceServerUrl.parse("turn:47.93.186.97:3478?transport=tcp");
+        assertTrue(url.turn);
+        assertTrue(url.tcp);
+        assertEquals("47.93.186.97", url.host);
+        assertEquals(3478, url.port);
+        url = IceServerUrl.parse("stun:stun.l.google.com:19302");
+        assertFalse(url.turn);
+        assertFalse(url.tcp);
+        assertEquals(19302, url.port);
+        assertEquals(5349, IceServerUrl.parse("turns:[::1]").port);
+        assertEquals("::1", IceServerUrl.parse("stun:[::1]:3478").host);
+        assertNull(IceServerUrl.parse("stunx:host"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.dds.skywebrtc.ice;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IceServerRankingTest {
+    private static final String WIFI = "CONNECTION_WIFI";
+    private static final long NOW = 1_000_000_000L;
+    private static final IceServerRanking.Urls<String> ONE_URL = server -> Collections.singletonList(server);
+
+    private final IceServerRanking ranking = new IceServerRanking();
+
+    private void stun(String url, long rttMs) {
+        ranking.record(WIFI, new ProbeResult(url, NOW, rttMs >= 0, false, rttMs, rttMs >= 0 ? null : "timeout"));
+    }
+
+    private void turn(String url, long rttMs) {
+        ranking.record(WIFI, new ProbeResult(url, NOW, true, rttMs >= 0, rttMs, rttMs >= 0 ? null : "error 401"));
+    }
+
+    private List<String> rank(String... servers) {
+        return ranking.rank(WIFI, Arrays.asList(servers), ONE_URL, NOW + 1000);
+    }
+
+    @Test
+    public void fastestFirstAndFailedDropped() {
+        stun("stun:a", 80);
+        stun("stun:b", 20);
+        turn("turn:c", 60);
+        turn("turn:d", 30);
+        turn("turn:e", -1);
+        assertEquals(Arrays.asList("stun:b", "stun:a", "turn:d", "turn:c"),
+                rank("stun:a", "stun:b", "turn:c", "turn:d", "turn:e"));
+    }
+
+    @Test
+    public void onlyTheBestStunServers() {
+        stun("stun:a", 40);
+        stun("stun:b", 10);
+        stun("stun:c", 20);
+        assertEquals(IceServerRanking.MAX_STUN, 2);
+        assertEquals(Arrays.asList("stun:b", "stun:c"), rank("stun:a", "stun:b", "stun:c", "stun:new"));
+    }
+
+    @Test
+    public void farRelaysArePruned() {
+        turn("turn:near", 20);
+        // 3 x 20 + 50
+        turn("turn:ok", 110);
+        turn("turn:far", 111);
+        assertEquals(Arrays.asList("turn:near", "turn:ok"), rank("turn:far", "turn:ok", "turn:near"));
+    }
+
+    @Test
+    public void unknownServersAreKept() {
+        stun("stun:down", -1);
+        turn("turn:a", 50);
+        assertEquals(Arrays.asList("stun:new", "turn:a", "turn:new"),
+                rank("turn:new", "stun:down", "stun:new", "turn:a"));
+    }
+
+    @Test
+    public void nothingUsableKeepsTheList() {
+        stun("stun:a", -1);
+        turn("turn:b", -1);
+        List<String> servers = Arrays.asList("stun:a", "turn:b", "turn:c");
+        assertEquals(servers, ranking.rank(WIFI, servers, ONE_URL, NOW));
+        // another network has no results at all
+        stun("stun:c", 10);
+        assertEquals(servers, ranking.rank("CONNECTION_4G", servers, ONE_URL, NOW));
+    }
+
+    @Test
+    public void serverWithSeveralUrlsTakesItsBest() {
+        IceServerRanking.Urls<List<String>> urls = server -> server;
+        turn("turn:x?transport=udp", -1);
+        turn("turn:x?transport=tcp", 40);
+        turn("turn:y", 30);
+        List<String> x = Arrays.asList("turn:x?transport=udp", "turn:x?transport=tcp");
+        List<String> y = Collections.singletonList("turn:y");
+        assertEquals(Arrays.asList(y, x), ranking.rank(WIFI, Arrays.asList(x, y), urls, NOW));
+    }
+
+    @Test
+    public void resultsAgeOut() {
+        turn("turn:a", 10);
+        assertFalse(ranking.needsProbe(WIFI, "turn:a", NOW + IceServerRanking.FRESH_MS - 1));
+        assertTrue(ranking.needsProbe(WIFI, "turn:a", NOW + IceServerRanking.FRESH_MS));
+        assertTrue(ranking.needsProbe("CONNECTION_4G", "turn:a", NOW));
+        // an expired result counts as none
+        turn("turn:b", -1);
+        List<String> servers = Arrays.asList("turn:b", "turn:a");
+        assertEquals(servers, ranking.rank(WIFI, servers, ONE_URL, NOW + IceServerRanking.EXPIRE_MS));
+    }
+}
@@ -0,0 +1,173 @@
+package com.dds.skywebrtc.ice;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local STUN/TURN server for the probe tests, on UDP and TCP of a free port.
+ * <p>
+ * Answers a binding with XOR-MAPPED-ADDRESS, challenges an allocate for the long-term
+ * credentials and allocates once they check out, nothing is actually relayed. silent drops
+ * every request, delayMs holds every answer back.
+ */
+class StunStandIn implements Closeable {
+    static final String REALM = "standin";
+
+    private final String username;
+    private final String password;
+    private final DatagramSocket udp;
+    private final ServerSocket tcp;
+    volatile boolean silent;
+    volatile long delayMs;
+    volatile String nonce = "nonce-1";
+    // the next authenticated request finds its nonce expired
+    volatile boolean expireNonce;
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger allocations = new AtomicInteger();
+    final AtomicInteger releases = new AtomicInteger();
+
+    StunStandIn(String username, String password) throws IOException {
+        this.username = username;
+        this.password = password;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        tcp = new ServerSocket(0, 4, loopback);
+        udp = new DatagramSocket(new InetSocketAddress(loopback, tcp.getLocalPort()));
+        start("StunStandIn-udp", this::serveUdp);
+        start("StunStandIn-tcp", this::serveTcp);
+    }
+
+    private static void start(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String url(String scheme) {
+        return scheme + ":127.0.0.1:" + tcp.getLocalPort();
+    }
+
+    private void serveUdp() {
+        byte[] buffer = new byte[1500];
+        while (!udp.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                udp.receive(packet);
+                byte[] response = answer(buffer, packet.getLength(), (InetSocketAddress) packet.getSocketAddress());
+                if (response != null) {
+                    udp.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serveTcp() {
+        while (!tcp.isClosed()) {
+            try {
+                final Socket socket = tcp.accept();
+                start("StunStandIn-conn", () -> serveConnection(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                byte[] header = new byte[StunMessage.HEADER_BYTES];
+                in.readFully(header);
+                int length = StunMessage.bodyLength(header);
+                if (length < 0) return;
+                byte[] message = new byte[StunMessage.HEADER_BYTES + length];
+                System.arraycopy(header, 0, message, 0, header.length);
+                in.readFully(message, header.length, length);
+                byte[] response = answer(message, message.length, (InetSocketAddress) s.getRemoteSocketAddress());
+                if (response != null) {
+                    out.write(response);
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the probe hung up
+        }
+    }
+
+    private byte[] answer(byte[] data, int length, InetSocketAddress from) {
+        StunMessage request = StunMessage.decode(data, length);
+        if (request == null) return null;
+        requests.incrementAndGet();
+        if (silent) return null;
+        if (delayMs > 0) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        switch (request.type) {
+            case StunMessage.BINDING_REQUEST:
+                return new StunMessage(StunMessage.BINDING_SUCCESS, request.transactionId)
+                        .put(StunMessage.ATTR_XOR_MAPPED_ADDRESS, xorMapped(from)).encode();
+            case StunMessage.ALLOCATE_REQUEST:
+            case StunMessage.REFRESH_REQUEST:
+                byte[] key = StunMessage.longTermKey(username, REALM, password);
+                boolean authenticated = username.equals(request.getString(StunMessage.ATTR_USERNAME))
+                        && StunMessage.checkIntegrity(data, length, key);
+                int error = request.type == StunMessage.ALLOCATE_REQUEST
+                        ? StunMessage.ALLOCATE_ERROR : StunMessage.REFRESH_ERROR;
+                if (!authenticated) {
+                    return new StunMessage(error, request.transactionId).putErrorCode(401, "Unauthorized")
+                            .put(StunMessage.ATTR_REALM, REALM).put(StunMessage.ATTR_NONCE, nonce).encode();
+                }
+                if (expireNonce) {
+                    expireNonce = false;
+                    nonce = nonce + "'";
+                }
+                if (!nonce.equals(request.getString(StunMessage.ATTR_NONCE))) {
+                    return new StunMessage(error, request.transactionId).putErrorCode(438, "Stale Nonce")
+                            .put(StunMessage.ATTR_REALM, REALM).put(StunMessage.ATTR_NONCE, nonce).encode(key);
+                }
+                if (request.type == StunMessage.ALLOCATE_REQUEST) {
+                    allocations.incrementAndGet();
+                    return new StunMessage(StunMessage.ALLOCATE_SUCCESS, request.transactionId)
+                            .putInt(StunMessage.ATTR_LIFETIME, 600).encode(key);
+                }
+                releases.incrementAndGet();
+                return new StunMessage(StunMessage.REFRESH_SUCCESS, request.transactionId).encode(key);
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] xorMapped(InetSocketAddress address) {
+        byte[] ip = address.getAddress().getAddress();
+        ByteBuffer value = ByteBuffer.allocate(4 + ip.length);
+        value.put((byte) 0).put((byte) (ip.length == 4 ? 1 : 2))
+                .putShort((short) (address.getPort() ^ (StunMessage.MAGIC_COOKIE >>> 16)));
+        byte[] cookie = ByteBuffer.allocate(4).putInt(StunMessage.MAGIC_COOKIE).array();
+        for (int i = 0; i < ip.length; i++) {
+            value.put((byte) (ip[i] ^ cookie[i % 4]));
+        }
+        return value.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        udp.close();
+        tcp.close();
+    }
+}
@@ -0,0 +1,119 @@
+package com.dds.skywebrtc.stats;
+
+import org.junit.Test;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallStatsCollectorTest {
+
+    // one second of a call at 1Mbps up and 500kbps down, 30fps each way
+    private static RTCStatsReport report(int second, long freezes) {
+        long us = 1_000_000L * (1000 + second);
+        Map<String, RTCStats> stats = new HashMap<>();
+        Map<String, Object> out = new HashMap<>();
+        out.put("kind", "video");
+        out.put("bytesSent", BigInteger.valueOf(125_000L * second));
+        out.put("framesEncoded", 30L * second);
+        stats.put("out", new RTCStats(us, "outbound-rtp", "out", out));
+        Map<String, Object> in = new HashMap<>();
+        in.put("kind", "video");
+        in.put("bytesReceived", BigInteger.valueOf(62_500L * second));
+        in.put("framesDecoded", 30L * second);
+        in.put("packetsReceived", 95L * second);
+        in.put("packetsLost", 5 * second);
+        in.put("jitter", 0.012);
+        in.put("freezeCount", freezes);
+        stats.put("in", new RTCStats(us, "inbound-rtp", "in", in));
+        Map<String, Object> pair = new HashMap<>();
+        pair.put("nominated", true);
+        pair.put("currentRoundTripTime", 0.08);
+        pair.put("availableOutgoingBitrate", 1_200_000.0);
+        stats.put("pair", new RTCStats(us, "candidate-pair", "pair", pair));
+        return new RTCStatsReport(us, stats);
+    }
+
+    @Test
+    public void ratesComeFromCounterDeltas() {
+        CallStatsCollector collector = new CallStatsCollector("peer", 1000, 1);
+        StatsSample[] seen = new StatsSample[1];
+        collector.addListener((userId, sample) -> {
+            seen[0] = new StatsSample();
+            seen[0].copyFrom(sample);
+        });
+        collector.onStatsDelivered(report(0, 0));
+        // nothing to diff the first report against
+        assertEquals(0, collector.getRing().size());
+        collector.onStatsDelivered(report(1, 0));
+        collector.onStatsDelivered(report(2, 1));
+
+        StatsSample sample = new StatsSample();
+        assertTrue(collector.getRing().getLatest(sample));
+        assertEquals(1000, sample.sendKbps);
+        assertEquals(500, sample.recvKbps);
+        assertEquals(1200, sample.availableSendKbps);
+        assertEquals(30, sample.sendFps, 0.01);
+        assertEquals(30, sample.recvFps, 0.01);
+        assertEquals(5, sample.lossPercent, 0.01);
+        assertEquals(80, sample.rttMs, 0.01);
+        assertEquals(12, sample.jitterMs, 0.01);
+        assertEquals(1, sample.freezes);
+        assertEquals(1_002_000, sample.timeMs);
+        assertEquals(sample.toString(), seen[0].toString());
+    }
+
+    @Test
+    public void ringKeepsTheNewestAndDumpsCompactly() {
+        StatsRing ring = new StatsRing(3);
+        StatsSample sample = new StatsSample();
+        for (int i = 0; i < 5; i++) {
+            sample.timeMs = 1000L * i;
+            sample.sendKbps = i;
+            sample.lossPercent = 1.5f;
+            sample.recvFps = 29.97f;
+            ring.add(sample);
+        }
+        assertEquals(3, ring.size());
+        assertTrue(ring.get(0, sample));
+        assertEquals(2, sample.sendKbps);
+        assertFalse(ring.get(3, sample));
+
+        byte[] dump = ring.dump(1000);
+        assertEquals(StatsRing.HEADER_BYTES + 3 * StatsRing.SAMPLE_BYTES, dump.length);
+        StatsRing back = StatsRing.fromDump(dump);
+        assertEquals(3, back.size());
+        assertTrue(back.getLatest(sample));
+        assertEquals(4000, sample.timeMs);
+        assertEquals(4, sample.sendKbps);
+        assertEquals(1.5f, sample.lossPercent, 0.001);
+        assertEquals(30.0f, sample.recvFps, 0.001);
+    }
+
+    @Test
+    public void unknownRttSurvivesTheDump() {
+        StatsRing ring = new StatsRing(4);
+        StatsSample sample = new StatsSample();
+        float[] rtts = {-1, 0, 80, 100_000};
+        for (float rtt : rtts) {
+            sample.rttMs = rtt;
+            ring.add(sample);
+        }
+        StatsRing back = StatsRing.fromDump(ring.dump(1000));
+        assertTrue(back.get(0, sample));
+        assertEquals(-1, sample.rttMs, 0);
+        assertTrue(back.get(1, sample));
+        assertEquals(0, sample.rttMs, 0);
+        assertTrue(back.get(2, sample));
+        assertEquals(80, sample.rttMs, 0);
+        // too long to tell apart from unknown, kept as the longest there is
+        assertTrue(back.get(3, sample));
+        assertEquals(StatsRing.UNKNOWN_RTT - 1, sample.rttMs, 0);
+    }
+}
@@ -0,0 +1,62 @@
+package com.dds.skywebrtc.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PeerStatsAggregatorTest {
+
+    private static StatsSample sample(float lossPercent, float rttMs, int availableSendKbps, float sendFps) {
+        StatsSample sample = new StatsSample();
+        sample.lossPercent = lossPercent;
+        sample.rttMs = rttMs;
+        sample.availableSendKbps = availableSendKbps;
+        sample.sendFps = sendFps;
+        return sample;
+    }
+
+    @Test
+    public void onePeriodGivesTheWorstOfEveryPeer() {
+        PeerStatsAggregator aggregator = new PeerStatsAggregator();
+        StatsSample a = sample(1, 80, 2000, 20);
+        a.freezes = 1;
+        StatsSample b = sample(9, -1, 0, 12);
+        StatsSample c = sample(0, 300, 900, 0);
+        c.freezes = 2;
+
+        assertNull(aggregator.add("a", a, 3));
+        assertNull(aggregator.add("b", b, 3));
+        StatsSample worst = aggregator.add("c", c, 3);
+        assertNotNull(worst);
+        assertEquals(9, worst.lossPercent, 0);
+        assertEquals(300, worst.rttMs, 0);
+        // unknown values don't count as the worst
+        assertEquals(900, worst.availableSendKbps);
+        assertEquals(12, worst.sendFps, 0);
+        assertEquals(3, worst.freezes);
+    }
+
+    @Test
+    public void aPeerReportingAgainEndsThePeriod() {
+        PeerStatsAggregator aggregator = new PeerStatsAggregator();
+        assertNull(aggregator.add("a", sample(0, 50, 0, 0), 2));
+        // b stopped polling, a's next sample closes the period with a alone
+        StatsSample worst = aggregator.add("a", sample(10, 50, 0, 0), 2);
+        assertNotNull(worst);
+        assertEquals(0, worst.lossPercent, 0);
+        StatsSample next = aggregator.add("b", sample(1, 50, 0, 0), 2);
+        assertNotNull(next);
+        assertEquals(10, next.lossPercent, 0);
+    }
+
+    @Test
+    public void onePeerIsPassedThrough() {
+        PeerStatsAggregator aggregator = new PeerStatsAggregator();
+        StatsSample worst = aggregator.add("a", sample(3, 120, 1500, 20), 1);
+        assertNotNull(worst);
+        assertEquals(3, worst.lossPercent, 0);
+        assertNotNull(aggregator.add("a", sample(3, 120, 1500, 20), 1));
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.tracking;
+
+/**
+ * Decides which camera frames go to the detector, at a target rate independent of the
+ * capture rate.
+ * <p>
+ * The interval between analysed frames is the target's, stretched so the detector is busy
+ * no more than a share of the time: half of it while the process leaves room on the cores,
+ * down to a tenth when it doesn't (the encoder needs the cpu more). The latency is an
+ * average of the detections reported with {@link #onDetected(long)}. While the encoder or
+ * the renderer fall behind the interval doubles with every report, and it shrinks back
+ * gradually once they keep up. Paused, no frame is analysed at all.
+ * <p>
+ * Times are in the caller's milliseconds, any monotonic clock.
+ */
+public class AnalysisScheduler {
+    public static final float DEFAULT_TARGET_FPS = 5;
+    // the share of the time the detector may be busy, with room and without
+    static final float MAX_DUTY = 0.5f;
+    static final float MIN_DUTY = 0.1f;
+    // the process using this much of all cores leaves no room
+    static final float BUSY_LOAD = 0.9f;
+    // with less than this it's all room
+    static final float IDLE_LOAD = 0.5f;
+    static final int MAX_BACKOFF = 8;
+    static final long MAX_INTERVAL_MS = 2000;
+    // a frame this much ahead of its time still counts, frames don't arrive on the dot
+    static final long EARLY_MS = 10;
+    // weight of a new latency in the average
+    private static final float LATENCY_WEIGHT = 0.2f;
+
+    private final long targetIntervalMs;
+    private boolean paused;
+    // 0 before the first detection
+    private float latencyMs;
+    private float cpuLoad;
+    private float backoff = 1;
+    private long nextMs;
+    private boolean started;
+
+    public AnalysisScheduler(float targetFps) {
+        targetIntervalMs = Math.round(1000 / targetFps);
+    }
+
+    /**
+     * Whether the frame arriving now should be analysed, it's counted as analysed if so.
+     */
+    public synchronized boolean shouldAnalyze(long nowMs) {
+        if (paused) return false;
+        long interval = getIntervalMs();
+        if (started && nowMs < nextMs - EARLY_MS) return false;
+        // a frame a little late keeps the cadence, after a long gap it starts anew
+        long base = started && nowMs - nextMs < interval ? nextMs : nowMs;
+        nextMs = base + interval;
+        started = true;
+        return true;
+    }
+
+    public synchronized void setPaused(boolean paused) {
+        if (this.paused && !paused) {
+            started = false;
+        }
+        this.paused = paused;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    // From the detector's success callback
+    public synchronized void onDetected(long latencyMs) {
+        this.latencyMs = this.latencyMs == 0 ? latencyMs
+                : this.latencyMs + LATENCY_WEIGHT * (latencyMs - this.latencyMs);
+    }
+
+    // The process's cpu time over the last period as a share of all cores
+    public synchronized void onCpuLoad(float load) {
+        cpuLoad = Math.max(0, Math.min(1, load));
+    }
+
+    // Once per stats period, whether the encoder or the renderer fell behind in it
+    public synchronized void onPipelineBehind(boolean behind) {
+        backoff = behind ? Math.min(MAX_BACKOFF, backoff * 2) : Math.max(1, backoff - 0.5f);
+    }
+
+    public synchronized long getIntervalMs() {
+        float duty = MAX_DUTY;
+        if (cpuLoad > IDLE_LOAD) {
+            float room = (BUSY_LOAD - cpuLoad) / (BUSY_LOAD - IDLE_LOAD);
+            duty = Math.max(MIN_DUTY, MIN_DUTY + room * (MAX_DUTY - MIN_DUTY));
+        }
+        float interval = Math.max(targetIntervalMs, latencyMs / duty) * backoff;
+        return Math.min(MAX_INTERVAL_MS, Math.round(interval));
+    }
+
+    public synchronized float getLatencyMs() {
+        return latencyMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AnalysisScheduler{interval=" + getIntervalMs() + "ms latency=" + latencyMs + "ms cpu=" + cpuLoad
+                + " backoff=" + backoff + (paused ? " paused" : "") + "}";
+    }
+}
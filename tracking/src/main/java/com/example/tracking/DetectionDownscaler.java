@@ -0,0 +1,107 @@
+package com.example.tracking;
+
+/**
+ * The stage before the detector: crops the camera frame, turns it upright and scales it
+ * down to longEdge pixels on its long edge, 320 by default. The face detector looks for
+ * faces of at least a tenth of the image, it finds them as well there as in 720p.
+ * <p>
+ * The crop is given in fractions of the upright frame, the whole frame by default. The small
+ * frames come from a FrameBufferPool of their own, give them back with release().
+ */
+public class DetectionDownscaler {
+    public static final int DEFAULT_LONG_EDGE = 320;
+
+    private final int longEdge;
+    private final FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_CAPACITY);
+    private volatile float[] crop = {0, 0, 1, 1};
+
+    public DetectionDownscaler() {
+        this(DEFAULT_LONG_EDGE);
+    }
+
+    public DetectionDownscaler(int longEdge) {
+        this.longEdge = longEdge;
+    }
+
+    public int getLongEdge() {
+        return longEdge;
+    }
+
+    // Fractions of the upright frame, 0 to 1
+    public void setCrop(float left, float top, float right, float bottom) {
+        if (left < 0 || top < 0 || right > 1 || bottom > 1 || left >= right || top >= bottom) {
+            throw new IllegalArgumentException("crop " + left + "," + top + "," + right + "," + bottom);
+        }
+        crop = new float[]{left, top, right, bottom};
+    }
+
+    /**
+     * What the detector will get for a frame of the camera's metadata: the upright small
+     * image, rotation 0, which maps back to the camera frame.
+     */
+    public FrameMetadata prepare(FrameMetadata frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int rotation = frame.getRotation() & 3;
+        boolean turned = (rotation & 1) == 1;
+        // the crop in the upright frame, then in the camera's orientation, on even pixels
+        float[] crop = this.crop;
+        float uprightWidth = turned ? height : width;
+        float uprightHeight = turned ? width : height;
+        float[] a = toCamera(crop[0] * uprightWidth, crop[1] * uprightHeight, width, height, rotation);
+        float[] b = toCamera(crop[2] * uprightWidth, crop[3] * uprightHeight, width, height, rotation);
+        int left = Math.round(Math.min(a[0], b[0])) & ~1;
+        int top = Math.round(Math.min(a[1], b[1])) & ~1;
+        int cropWidth = Math.max(2, (Math.min(width, Math.round(Math.max(a[0], b[0]))) - left) & ~1);
+        int cropHeight = Math.max(2, (Math.min(height, Math.round(Math.max(a[1], b[1]))) - top) & ~1);
+
+        int cropLong = Math.max(cropWidth, cropHeight);
+        float scale = Math.max(1, cropLong / (float) longEdge);
+        int smallWidth = Math.max(2, Math.round((turned ? cropHeight : cropWidth) / scale) & ~1);
+        int smallHeight = Math.max(2, Math.round((turned ? cropWidth : cropHeight) / scale) & ~1);
+        return new FrameMetadata.Builder()
+                .setWidth(smallWidth)
+                .setHeight(smallHeight)
+                .setRotation(0)
+                .setCameraFacing(frame.getCameraFacing())
+                .setTimestampNs(frame.getTimestampNs())
+                .setFrame(width, height, rotation)
+                .setCrop(left, top, cropWidth, cropHeight)
+                .setScale((turned ? cropHeight : cropWidth) / (float) smallWidth)
+                .build();
+    }
+
+    // An upright point back into the camera's orientation
+    private static float[] toCamera(float x, float y, int width, int height, int rotation) {
+        switch (rotation) {
+            case 1:
+                return new float[]{y, height - x};
+            case 2:
+                return new float[]{width - x, height - y};
+            case 3:
+                return new float[]{width - y, x};
+            default:
+                return new float[]{x, y};
+        }
+    }
+
+    /**
+     * The camera frame's NV21 data as the small upright image prepare() described, in a
+     * buffer of this stage's pool.
+     */
+    public byte[] scale(byte[] data, FrameMetadata small) {
+        byte[] out = pool.acquire(Nv21Converter.nv21Size(small.getWidth(), small.getHeight()));
+        Nv21Scaler.scale(data, small.getFrameWidth(), small.getFrameHeight(),
+                small.getCropLeft(), small.getCropTop(), small.getCropWidth(), small.getCropHeight(),
+                small.getFrameRotation(), out, small.getWidth(), small.getHeight());
+        return out;
+    }
+
+    public void release(byte[] small) {
+        pool.release(small);
+    }
+
+    FrameBufferPool getPool() {
+        return pool;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.tracking;
+
+import java.util.ArrayDeque;
+
+/**
+ * A few recycled frame buffers of the current frame size, so the analysis stream doesn't
+ * allocate a new byte[] for every camera frame.
+ * <p>
+ * Whoever ends up with a frame returns it with {@link #release(byte[])} once nothing reads
+ * it any more. A buffer that's never returned is simply garbage collected. When the frame
+ * size changes the buffers of the old size are dropped.
+ */
+public class FrameBufferPool {
+    // the camera's ImageReader holds 3, a pending, a processed and a detected frame on top
+    public static final int DEFAULT_CAPACITY = 6;
+
+    private static FrameBufferPool instance;
+
+    public static synchronized FrameBufferPool getInstance() {
+        if (instance == null) {
+            instance = new FrameBufferPool(DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    private final int capacity;
+    private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+    private int size;
+    private int allocations;
+    private int reuses;
+
+    public FrameBufferPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized byte[] acquire(int size) {
+        if (size != this.size) {
+            free.clear();
+            this.size = size;
+        }
+        byte[] buffer = free.pollFirst();
+        if (buffer != null) {
+            reuses++;
+            return buffer;
+        }
+        allocations++;
+        return new byte[size];
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length != size || free.size() >= capacity) return;
+        // a second release would hand the same frame to two owners
+        for (byte[] b : free) {
+            if (b == buffer) return;
+        }
+        free.addFirst(buffer);
+    }
+
+    public synchronized int getAllocations() {
+        return allocations;
+    }
+
+    public synchronized int getReuses() {
+        return reuses;
+    }
+
+    synchronized int getFree() {
+        return free.size();
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.tracking;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds the latest camera frame for the processing thread, one slot and no locks.
+ * <p>
+ * The camera thread swaps its frame in, a frame that's still waiting there is dropped and
+ * its buffer goes back to the FrameBufferPool. The processing thread swaps the slot empty
+ * and parks while there's nothing in it. After close() frames are refused and take()
+ * returns null.
+ */
+public class FrameMailbox {
+
+    /** A frame's NV21 data with what the detector needs to read it. */
+    public static class Frame {
+        public final byte[] data;
+        public final FrameMetadata metadata;
+
+        public Frame(byte[] data, FrameMetadata metadata) {
+            this.data = data;
+            this.metadata = metadata;
+        }
+    }
+
+    private final FrameBufferPool pool;
+    private final AtomicReference<Frame> slot = new AtomicReference<>();
+    private volatile Thread taker;
+    private volatile boolean closed;
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+
+    public FrameMailbox(FrameBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Takes over the frame's buffer, false if the mailbox is closed and the buffer went
+     * straight back to the pool.
+     */
+    public boolean offer(Frame frame) {
+        if (closed) {
+            pool.release(frame.data);
+            return false;
+        }
+        offered.incrementAndGet();
+        Frame displaced = slot.getAndSet(frame);
+        if (displaced != null) {
+            dropped.incrementAndGet();
+            pool.release(displaced.data);
+        }
+        // close() may have missed this frame
+        if (closed) {
+            clear();
+        }
+        LockSupport.unpark(taker);
+        return true;
+    }
+
+    // The waiting frame if there is one, for one thread only
+    public Frame poll() {
+        Frame frame = slot.getAndSet(null);
+        if (frame != null) {
+            taken.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Waits for the next frame, null once closed or interrupted. For one thread only, the
+     * buffer is the caller's from here on.
+     */
+    public Frame take() {
+        taker = Thread.currentThread();
+        try {
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                Frame frame = poll();
+                if (frame != null) return frame;
+                // a frame offered in between leaves the permit and park returns at once
+                LockSupport.park(this);
+            }
+            return null;
+        } finally {
+            taker = null;
+        }
+    }
+
+    public void close() {
+        closed = true;
+        clear();
+        LockSupport.unpark(taker);
+    }
+
+    private void clear() {
+        Frame frame = slot.getAndSet(null);
+        if (frame != null) {
+            dropped.incrementAndGet();
+            pool.release(frame.data);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public long getOffered() {
+        return offered.get();
+    }
+
+    // replaced by a newer frame before the processing thread got to it, or left at close()
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getTaken() {
+        return taken.get();
+    }
+}
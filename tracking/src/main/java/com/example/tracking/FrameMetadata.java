@@ -13,13 +13,34 @@
 // limitations under the License.
 package com.example.tracking;
 
-/** Describing a frame info. */
+/**
+ * Describing a frame info.
+ * <p>
+ * width, height and rotation describe the image the detector gets. When that's a crop of
+ * the camera frame, downscaled and turned upright by {@link DetectionDownscaler}, the frame
+ * fields keep the camera frame and {@link #toFrame(float[])} takes detected coordinates back
+ * to the upright full frame, where the detector's coordinates were before.
+ */
 public class FrameMetadata {
+  // camera facings, as the GraphicOverlay has them
+  public static final int FACING_BACK = 0;
+  public static final int FACING_FRONT = 1;
 
   private final int width;
   private final int height;
   private final int rotation;
   private final int cameraFacing;
+  // when the camera captured the frame, 0 if unknown
+  private final long timestampNs;
+  // the camera frame and the crop of it in the frame's orientation, scaled by scale
+  private final int frameWidth;
+  private final int frameHeight;
+  private final int frameRotation;
+  private final int cropLeft;
+  private final int cropTop;
+  private final int cropWidth;
+  private final int cropHeight;
+  private final float scale;
 
   public int getWidth() {
     return width;
@@ -37,11 +58,124 @@ public class FrameMetadata {
     return cameraFacing;
   }
 
-  private FrameMetadata(int width, int height, int rotation, int facing) {
-    this.width = width;
-    this.height = height;
-    this.rotation = rotation;
-    cameraFacing = facing;
+  public long getTimestampNs() {
+    return timestampNs;
+  }
+
+  public int getFrameWidth() {
+    return frameWidth;
+  }
+
+  public int getFrameHeight() {
+    return frameHeight;
+  }
+
+  public int getFrameRotation() {
+    return frameRotation;
+  }
+
+  public int getCropLeft() {
+    return cropLeft;
+  }
+
+  public int getCropTop() {
+    return cropTop;
+  }
+
+  public int getCropWidth() {
+    return cropWidth;
+  }
+
+  public int getCropHeight() {
+    return cropHeight;
+  }
+
+  // camera pixels per detected pixel
+  public float getScale() {
+    return scale;
+  }
+
+  /**
+   * Maps a point of the detected image, upright, to the upright full frame. out gets x, y.
+   */
+  public void toFrame(float x, float y, float[] out) {
+    // upright in the crop, then the crop as the camera has it
+    float ux = x * scale;
+    float uy = y * scale;
+    float cx, cy;
+    switch (frameRotation & 3) {
+      case 1:
+        cx = uy;
+        cy = cropHeight - ux;
+        break;
+      case 2:
+        cx = cropWidth - ux;
+        cy = cropHeight - uy;
+        break;
+      case 3:
+        cx = cropWidth - uy;
+        cy = ux;
+        break;
+      default:
+        cx = ux;
+        cy = uy;
+        break;
+    }
+    // in the camera frame, then upright
+    float fx = cropLeft + cx;
+    float fy = cropTop + cy;
+    switch (frameRotation & 3) {
+      case 1:
+        out[0] = frameHeight - fy;
+        out[1] = fx;
+        break;
+      case 2:
+        out[0] = frameWidth - fx;
+        out[1] = frameHeight - fy;
+        break;
+      case 3:
+        out[0] = fy;
+        out[1] = frameWidth - fx;
+        break;
+      default:
+        out[0] = fx;
+        out[1] = fy;
+        break;
+    }
+  }
+
+  /**
+   * Maps a left, top, right, bottom rect of the detected image to the upright full frame, in
+   * place.
+   */
+  public void toFrame(float[] rect) {
+    float[] a = new float[2];
+    float[] b = new float[2];
+    toFrame(rect[0], rect[1], a);
+    toFrame(rect[2], rect[3], b);
+    rect[0] = Math.min(a[0], b[0]);
+    rect[1] = Math.min(a[1], b[1]);
+    rect[2] = Math.max(a[0], b[0]);
+    rect[3] = Math.max(a[1], b[1]);
+  }
+
+  private FrameMetadata(Builder builder) {
+    width = builder.width;
+    height = builder.height;
+    rotation = builder.rotation;
+    cameraFacing = builder.cameraFacing;
+    timestampNs = builder.timestampNs;
+    // the detected image is the camera frame unless told otherwise
+    boolean whole = builder.frameWidth == 0;
+    frameWidth = whole ? width : builder.frameWidth;
+    frameHeight = whole ? height : builder.frameHeight;
+    frameRotation = whole ? rotation : builder.frameRotation;
+    boolean uncropped = builder.cropWidth == 0;
+    cropLeft = uncropped ? 0 : builder.cropLeft;
+    cropTop = uncropped ? 0 : builder.cropTop;
+    cropWidth = uncropped ? frameWidth : builder.cropWidth;
+    cropHeight = uncropped ? frameHeight : builder.cropHeight;
+    scale = builder.scale == 0 ? 1 : builder.scale;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -51,6 +185,15 @@ public class FrameMetadata {
     private int height;
     private int rotation;
     private int cameraFacing;
+    private long timestampNs;
+    private int frameWidth;
+    private int frameHeight;
+    private int frameRotation;
+    private int cropLeft;
+    private int cropTop;
+    private int cropWidth;
+    private int cropHeight;
+    private float scale;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -72,8 +215,33 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setTimestampNs(long timestampNs) {
+      this.timestampNs = timestampNs;
+      return this;
+    }
+
+    public Builder setFrame(int width, int height, int rotation) {
+      frameWidth = width;
+      frameHeight = height;
+      frameRotation = rotation;
+      return this;
+    }
+
+    public Builder setCrop(int left, int top, int width, int height) {
+      cropLeft = left;
+      cropTop = top;
+      cropWidth = width;
+      cropHeight = height;
+      return this;
+    }
+
+    public Builder setScale(float scale) {
+      this.scale = scale;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation, cameraFacing);
+      return new FrameMetadata(this);
     }
   }
 }
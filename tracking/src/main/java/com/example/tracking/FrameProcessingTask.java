@@ -1,91 +1,221 @@
 package com.example.tracking;
 
-import android.annotation.SuppressLint;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import com.example.tracking.face.FaceDetectionProcessor;
+import com.example.tracking.face.FaceDetectionProcessor.IFaceDetecterListener;
 import com.google.firebase.ml.vision.face.FirebaseVisionFace;
 
 import java.util.List;
-
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs face detection on frames of the local video on a thread of its own.
+ * <p>
+ * start() when the camera opens, stop() when it closes, the task can be started again for
+ * the next call. The detector and its thread only exist while the camera is open and a face
+ * listener is registered, a call nobody watches faces in costs nothing.
+ * <p>
+ * Frames go through a {@link FrameMailbox}: the processing thread always gets the latest
+ * one, frames that arrive while it's busy are dropped and their buffers recycled.
+ * <p>
+ * Which frames are analysed at all is up to the {@link AnalysisScheduler}: about 5 a
+ * second, fewer when detection is slow, the cpu busy or the call's video falls behind, none
+ * while no listener is registered. Whoever taps the video asks {@link #wantsFrame()}
+ * before it converts a frame.
+ */
 public class FrameProcessingTask{
-    private final String TAG = this.getClass().getSimpleName();
-
-    public FrameProcessingTask(){
-        startThread();
-    }
+    private final static String TAG = "FrameProcessingTask";
+    // how often the process's cpu load is sampled
+    private static final long CPU_SAMPLE_MS = 1000;
 
     private static FrameProcessingTask instance;
 
-    public static FrameProcessingTask getInstance(){
+    public static synchronized FrameProcessingTask getInstance(){
         if (instance == null){
             instance = new FrameProcessingTask();
         }
         return instance;
     }
 
-    public FrameProcessingTask setWidth(int width){
-        this.width = width;
-        return this;
+    private FrameProcessingTask(){
+        // nobody listens yet
+        scheduler.setPaused(true);
     }
 
-    public FrameProcessingTask setHeight(int height){
-        this.height = height;
-        return this;
+    /**
+     * Hands an NV21 frame of the FrameBufferPool to the processing thread, the metadata with
+     * its size, rotation, facing and timestamp. The task returns the buffer to the pool.
+     */
+    public void processFrame(byte[] data, FrameMetadata metadata){
+        if (data == null) return;
+        mailbox.offer(new FrameMailbox.Frame(data, metadata));
     }
 
-    public FrameProcessingTask setRotation(int rotation){
-        this.rotation = rotation;
-        return this;
+    /**
+     * Whether to analyse the frame that arrived now. A frame it says yes to is counted as
+     * analysed, pass it to processFrame. From one thread, the one frames arrive on.
+     */
+    public boolean wantsFrame(){
+        if (mailbox.isClosed()) return false;
+        long nowMs = SystemClock.elapsedRealtime();
+        sampleCpu(nowMs);
+        return scheduler.shouldAnalyze(nowMs);
     }
 
-    public FrameProcessingTask setCameraFacing(int cameraFacing){
-        this.cameraFacing = cameraFacing;
-        return this;
+    // Only from wantsFrame, one thread
+    private void sampleCpu(long nowMs) {
+        if (nowMs - cpuSampleMs < CPU_SAMPLE_MS) return;
+        long cpuMs = Process.getElapsedCpuTime();
+        if (cpuSampleMs > 0) {
+            float load = (cpuMs - cpuSampleCpuMs) / (float) ((nowMs - cpuSampleMs) * CORES);
+            scheduler.onCpuLoad(load);
+        }
+        cpuSampleMs = nowMs;
+        cpuSampleCpuMs = cpuMs;
     }
 
-    public void processFrame(byte[] data){
-        if (processingRunnable!=null){
-            processingRunnable.setNextFrame(data);
-        }
+    public AnalysisScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * The stage that makes frames small before detection, null to detect in full frames.
+     * Takes effect the next time the detector starts.
+     */
+    public synchronized void setDownscaler(DetectionDownscaler downscaler) {
+        this.downscaler = downscaler;
+    }
+
+    /**
+     * Faces are only detected while there's a listener for them, the first one starts the
+     * detector if the camera is open. Called on the main thread.
+     */
+    public synchronized void addFaceListener(
+            IFaceDetecterListener<List<FirebaseVisionFace>> listener) {
+        listeners.add(listener);
+        update();
     }
 
+    // The last one stops the detector
+    public synchronized void removeFaceListener(
+            IFaceDetecterListener<List<FirebaseVisionFace>> listener) {
+        listeners.remove(listener);
+        update();
+    }
+
+    // closed until start()
+    private volatile FrameMailbox mailbox = closedMailbox();
     private Thread processingThread;
-    private FrameProcessingRunnable processingRunnable;
+    // between start() and stop()
+    private boolean cameraOpen;
     private VisionImageProcessor frameProcessor;
     private final Object processorLock = new Object();
+    private final AtomicLong processed = new AtomicLong();
+    private final AnalysisScheduler scheduler =
+            new AnalysisScheduler(AnalysisScheduler.DEFAULT_TARGET_FPS);
+    private final List<IFaceDetecterListener<List<FirebaseVisionFace>>> listeners =
+            new CopyOnWriteArrayList<>();
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private long cpuSampleMs;
+    private DetectionDownscaler downscaler = new DetectionDownscaler();
+    private long cpuSampleCpuMs;
 
-    // Tracking required fields
-    private int width;
-    private int height;
-    private int rotation;
-    private int cameraFacing;
     private DETECTOR detector = DETECTOR.FACE;
 
     private GraphicOverlay mGraphicOverlay;
 
+    private static FrameMailbox closedMailbox() {
+        FrameMailbox mailbox = new FrameMailbox(FrameBufferPool.getInstance());
+        mailbox.close();
+        return mailbox;
+    }
+
     /**
-     * Stops the camera and releases the resources of the camera and underlying detector.
+     * The camera opened, the detector runs from now on if anyone listens.
      */
-    public void release() {
-        synchronized (processorLock) {
-            stopThread();
-            processingRunnable.release();
-//            cleanScreen();
+    public synchronized void start() {
+        cameraOpen = true;
+        update();
+    }
+
+    /**
+     * The camera closed, the processing thread stops and the detector is released. Frames
+     * that come in afterwards go straight back to the pool.
+     */
+    public synchronized void stop() {
+        cameraOpen = false;
+        update();
+    }
 
-//            isInitialized = false;
+    public synchronized boolean isRunning() {
+        return processingThread != null;
+    }
 
+    // Runs the detector exactly while the camera is open and someone listens
+    private void update() {
+        boolean wanted = cameraOpen && !listeners.isEmpty();
+        scheduler.setPaused(!wanted);
+        if (wanted && processingThread == null) {
+            startProcessing();
+        } else if (!wanted && processingThread != null) {
+            stopProcessing();
+        }
+    }
+
+    private void startProcessing() {
+        //start face detection processor
+        FaceDetectionProcessor processor = new FaceDetectionProcessor(faceDetecterListener);
+        processor.setAnalysisScheduler(scheduler);
+        processor.setDownscaler(downscaler);
+        setMLFrameProcessor(processor);
+        final FrameMailbox frames = new FrameMailbox(FrameBufferPool.getInstance());
+        processed.set(0);
+        mailbox = frames;
+        processingThread = new Thread(() -> processFrames(frames), "FrameProcessing");
+        processingThread.start();
+    }
+
+    private void stopProcessing() {
+        mailbox.close();
+        try {
+            // Wait for the thread to complete to ensure that we can't have multiple threads
+            // executing at the same time (i.e., which would happen if we called start too
+            // quickly after stop).
+            processingThread.join();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Frame processing thread interrupted on stop.");
+            Thread.currentThread().interrupt();
+        }
+        processingThread = null;
+        synchronized (processorLock) {
             if (frameProcessor != null) {
                 frameProcessor.stop();
+                frameProcessor = null;
             }
         }
     }
 
+    // Counters since the detector last started
+    public long getFramesOffered() {
+        return mailbox.getOffered();
+    }
+
+    public long getFramesDropped() {
+        return mailbox.getDropped();
+    }
+
+    public long getFramesProcessed() {
+        return processed.get();
+    }
+
     private void setMLFrameProcessor(VisionImageProcessor processor) {
         synchronized (processorLock) {
-//            cleanScreen();
             if (frameProcessor != null) {
                 frameProcessor.stop();
             }
@@ -93,15 +223,23 @@ public class FrameProcessingTask{
         }
     }
 
-    private FaceDetectionProcessor.IFaceDetecterListener<List<FirebaseVisionFace>> faceDetecterListener = new FaceDetectionProcessor.IFaceDetecterListener<List<FirebaseVisionFace>>() {
+    private IFaceDetecterListener<List<FirebaseVisionFace>> faceDetecterListener =
+            new IFaceDetecterListener<List<FirebaseVisionFace>>() {
         @Override
-        public void onSuccess(@NonNull List<FirebaseVisionFace> results, @NonNull FrameMetadata frameMetadata, @NonNull GraphicOverlay graphicOverlay) {
-            Log.e(TAG, "Face is detected: "+results.size());
+        public void onSuccess(@NonNull List<FirebaseVisionFace> results,
+                              @NonNull FrameMetadata frameMetadata,
+                              @NonNull GraphicOverlay graphicOverlay) {
+            for (IFaceDetecterListener<List<FirebaseVisionFace>> listener : listeners) {
+                listener.onSuccess(results, frameMetadata, graphicOverlay);
+            }
         }
 
         @Override
         public void onFailure(@NonNull Exception e) {
             Log.e(TAG, "onFailure");
+            for (IFaceDetecterListener<List<FirebaseVisionFace>> listener : listeners) {
+                listener.onFailure(e);
+            }
         }
 
         @Override
@@ -114,140 +252,26 @@ public class FrameProcessingTask{
         }
     };
 
-    private void startThread(){
-        processingRunnable = new FrameProcessingRunnable();
-        processingThread = new Thread(processingRunnable);
-        processingRunnable.setActive(true);
-        processingThread.start();
-
-        //start face detection processor
-        setMLFrameProcessor(new FaceDetectionProcessor(faceDetecterListener));
-    }
-
-    private void stopThread(){
-        if (processingRunnable!=null){
-            processingRunnable.setActive(false);
-        }
-
-        if (processingThread != null) {
+    // On the processing thread, until the mailbox is closed
+    private void processFrames(FrameMailbox frames) {
+        FrameMailbox.Frame frame;
+        while ((frame = frames.take()) != null) {
+            // The detector runs outside of the mailbox, the video can add the next frame
+            // while it's busy with this one. The frame processor owns the buffer from here on
+            // and returns it to the pool.
             try {
-                // Wait for the thread to complete to ensure that we can't have multiple threads
-                // executing at the same time (i.e., which would happen if we called init too
-                // quickly after stop).
-                processingThread.join();
-            } catch (InterruptedException e) {
-                Log.d(TAG, "Frame processing thread interrupted on release.");
-            }
-            processingThread = null;
-        }
-    }
-
-    private class FrameProcessingRunnable implements Runnable{
-
-        // This lock guards all of the member variables below.
-        private final Object lock = new Object();
-        private boolean active = true;
-
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private byte[] pendingFrameData;
-
-        FrameProcessingRunnable() {}
-
-        /**
-         * Releases the underlying receiver. This is only safe to do after the associated thread has
-         * completed, which is managed in camera source's release method above.
-         */
-        @SuppressLint("Assert")
-        void release() {
-            assert (processingThread.getState() == Thread.State.TERMINATED);
-        }
-
-        /** Marks the runnable as active/not active. Signals any blocked threads to continue. */
-        void setActive(boolean active) {
-            synchronized (lock) {
-                this.active = active;
-                lock.notifyAll();
-            }
-        }
-
-        /**
-         * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
-         * present) back to the camera, and keeps a pending reference to the frame data for future use.
-         */
-        public void setNextFrame(byte[] data) {
-            if (data == null)return;
-            synchronized (lock) {
-                if (pendingFrameData != null) {
-                    pendingFrameData = null;
-                }
-
-                pendingFrameData =  data;
-                // Notify the processor thread if it is waiting on the next frame (see below).
-                lock.notifyAll();
-            }
-        }
-
-        @SuppressLint("InlinedApi")
-        @SuppressWarnings("GuardedBy")
-        @Override
-        public void run() {
-            byte[] data;
-
-            while (true) {
-                Log.d(TAG,"run");
-                synchronized (lock) {
-                    Log.d(TAG,"run lock");
-                    while (active && (pendingFrameData == null)) {
-                        try {
-                            Log.d(TAG,"run wait");
-                            // Wait for the next frame to be received from the camera, since we
-                            // don't have it yet.
-                            lock.wait();
-                        } catch (InterruptedException e) {
-                            Log.e(TAG, "Frame processing loop terminated.", e);
-                            return;
-                        }
+                synchronized (processorLock) {
+                    if (detector == DETECTOR.FACE && frameProcessor != null) {
+                        frameProcessor.process(frame.data, frame.metadata, mGraphicOverlay);
+                        processed.incrementAndGet();
+                    } else {
+                        FrameBufferPool.getInstance().release(frame.data);
                     }
-
-                    if (!active) {
-                        Log.d(TAG,"!active");
-                        // Exit the loop once this camera source is stopped or released.  We check
-                        // this here, immediately after the wait() above, to handle the case where
-                        // setActive(false) had been called, triggering the termination of this
-                        // loop.
-                        return;
-                    }
-
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear pendingFrameData to ensure that this buffer isn't
-                    // recycled back to the camera before we are done using that data.
-                    data = pendingFrameData;
-                    pendingFrameData = null;
-                }
-
-                // The code below needs to run outside of synchronization, because this will allow
-                // the camera to add pending frame(s) while we are running detection on the current
-                // frame.
-                try {
-                    if (detector == DETECTOR.FACE) {
-                        synchronized (processorLock) {
-                            frameProcessor.process(
-                                    data,
-                                    new FrameMetadata.Builder()
-                                            .setWidth(width)
-                                            .setHeight(height)
-                                            .setRotation(rotation)
-                                            .setCameraFacing(cameraFacing)
-                                            .build(),
-                                    mGraphicOverlay);
-                        }
-                    }
-                } catch (Throwable t) {
-                    Log.e(TAG, "Exception thrown from receiver.", t);
                 }
+            } catch (Throwable t) {
+                Log.e(TAG, "Exception thrown from receiver.", t);
             }
         }
     }
 
-
-}
\ No newline at end of file
+}
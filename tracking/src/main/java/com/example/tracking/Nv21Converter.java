@@ -0,0 +1,138 @@
+package com.example.tracking;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * Copies the three planes of a YUV_420_888 image into an NV21 buffer: the Y rows, then the
+ * chroma as V,U pairs.
+ * <p>
+ * Any row and pixel stride is handled, the planes of an Image often have padded rows. Most
+ * cameras hand out U and V as views of one interleaved VU plane, pixel stride 2 with V one
+ * byte ahead of U. That's NV21 already and each chroma row is copied in bulk. Width and
+ * height are expected to be even, as they are for camera formats.
+ * <p>
+ * WebRTC's I420 buffers come with planar U and V, {@link #i420ToNv21} interleaves those.
+ */
+public final class Nv21Converter {
+
+    private Nv21Converter() {
+    }
+
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * (width / 2) * (height / 2);
+    }
+
+    /**
+     * Fills out, which takes at least nv21Size(width, height) bytes, and returns it. The
+     * positions of the plane buffers are left alone.
+     */
+    public static byte[] yuv420888ToNv21(int width, int height,
+                                         ByteBuffer y, int yRowStride,
+                                         ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                         byte[] out) {
+        if (out.length < nv21Size(width, height)) {
+            throw new IllegalArgumentException("buffer of " + out.length + " for " + width + "x" + height);
+        }
+        copyPlane(y.duplicate(), yRowStride, width, height, out, 0);
+        int offset = width * height;
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (chromaWidth == 0 || chromaHeight == 0) return out;
+        u = u.duplicate();
+        v = v.duplicate();
+        if (isInterleavedVu(u, v, uvPixelStride)) {
+            // the last V of a row comes from the V plane, the rest of the row from the U
+            // plane which starts on the byte after it, and ends with the row's last U
+            int startU = u.position();
+            int startV = v.position();
+            int rowBytes = 2 * chromaWidth - 1;
+            if (uvRowStride == 2 * chromaWidth) {
+                out[offset] = v.get(startV);
+                u.get(out, offset + 1, rowBytes + (chromaHeight - 1) * uvRowStride);
+                return out;
+            }
+            for (int row = 0; row < chromaHeight; row++) {
+                out[offset] = v.get(startV + row * uvRowStride);
+                u.position(startU + row * uvRowStride);
+                u.get(out, offset + 1, rowBytes);
+                offset += 2 * chromaWidth;
+            }
+            return out;
+        }
+        interleave(u, uvRowStride, v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, out, offset);
+        return out;
+    }
+
+    /**
+     * The same for the planes of a WebRTC I420 buffer, U and V each with its own row stride
+     * and packed pixels. The positions of the plane buffers are left alone.
+     */
+    public static byte[] i420ToNv21(int width, int height,
+                                    ByteBuffer y, int yStride,
+                                    ByteBuffer u, int uStride,
+                                    ByteBuffer v, int vStride,
+                                    byte[] out) {
+        if (out.length < nv21Size(width, height)) {
+            throw new IllegalArgumentException("buffer of " + out.length + " for " + width + "x" + height);
+        }
+        copyPlane(y.duplicate(), yStride, width, height, out, 0);
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (chromaWidth == 0 || chromaHeight == 0) return out;
+        interleave(u.duplicate(), uStride, v.duplicate(), vStride, 1, chromaWidth, chromaHeight, out, width * height);
+        return out;
+    }
+
+    // V,U pairs from separate planes, a row at a time through scratch rows
+    private static void interleave(ByteBuffer u, int uRowStride, ByteBuffer v, int vRowStride, int pixelStride,
+                                   int chromaWidth, int chromaHeight, byte[] out, int offset) {
+        int rowBytes = (chromaWidth - 1) * pixelStride + 1;
+        byte[] rowU = new byte[rowBytes];
+        byte[] rowV = new byte[rowBytes];
+        int startU = u.position();
+        int startV = v.position();
+        for (int row = 0; row < chromaHeight; row++) {
+            u.position(startU + row * uRowStride);
+            u.get(rowU, 0, rowBytes);
+            v.position(startV + row * vRowStride);
+            v.get(rowV, 0, rowBytes);
+            for (int col = 0, i = 0; col < chromaWidth; col++, i += pixelStride) {
+                out[offset++] = rowV[i];
+                out[offset++] = rowU[i];
+            }
+        }
+    }
+
+    private static void copyPlane(ByteBuffer plane, int rowStride, int width, int height, byte[] out, int offset) {
+        if (rowStride == width) {
+            plane.get(out, offset, width * height);
+            return;
+        }
+        int start = plane.position();
+        for (int row = 0; row < height; row++) {
+            plane.position(start + row * rowStride);
+            plane.get(out, offset, width);
+            offset += width;
+        }
+    }
+
+    // Whether U starts one byte into V's memory: flip V's second byte and see if U changes
+    static boolean isInterleavedVu(ByteBuffer u, ByteBuffer v, int uvPixelStride) {
+        if (uvPixelStride != 2 || v.remaining() < 2 || u.remaining() < 1) return false;
+        int index = v.position() + 1;
+        byte saved = v.get(index);
+        try {
+            v.put(index, (byte) ~saved);
+            return u.get(u.position()) == (byte) ~saved;
+        } catch (ReadOnlyBufferException e) {
+            return false;
+        } finally {
+            try {
+                v.put(index, saved);
+            } catch (ReadOnlyBufferException e) {
+                // nothing was written
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.tracking;
+
+/**
+ * Crops, rotates upright and downscales an NV21 frame into a smaller NV21 frame.
+ * <p>
+ * Rotations are in quarter turns clockwise, as in FrameMetadata: the crop is turned by
+ * that much to come out upright. Each output pixel takes the source pixel under its center,
+ * luma is averaged over a 2x2 block when shrinking by 2 or more so faces don't alias away.
+ * Positions step in 16.16 fixed point, along a source row or column depending on the
+ * rotation. The crop's left and top and the output size are expected to be even.
+ */
+public final class Nv21Scaler {
+    private static final int SHIFT = 16;
+    private static final int HALF = 1 << (SHIFT - 1);
+
+    private Nv21Scaler() {
+    }
+
+    public static void scale(byte[] src, int srcWidth, int srcHeight,
+                             int cropLeft, int cropTop, int cropWidth, int cropHeight, int rotation,
+                             byte[] dst, int dstWidth, int dstHeight) {
+        if (cropLeft < 0 || cropTop < 0 || cropLeft + cropWidth > srcWidth || cropTop + cropHeight > srcHeight) {
+            throw new IllegalArgumentException("crop " + cropLeft + "," + cropTop + " " + cropWidth + "x"
+                    + cropHeight + " outside of " + srcWidth + "x" + srcHeight);
+        }
+        if (dst.length < Nv21Converter.nv21Size(dstWidth, dstHeight)) {
+            throw new IllegalArgumentException("buffer of " + dst.length + " for " + dstWidth + "x" + dstHeight);
+        }
+        rotation &= 3;
+        boolean turned = (rotation & 1) == 1;
+        // source pixels per output pixel
+        int stepX = (int) (((long) (turned ? cropHeight : cropWidth) << SHIFT) / dstWidth);
+        int stepY = (int) (((long) (turned ? cropWidth : cropHeight) << SHIFT) / dstHeight);
+        boolean average = stepX >= 2 << SHIFT && stepY >= 2 << SHIFT;
+        int right = cropLeft + cropWidth - 1;
+        int bottom = cropTop + cropHeight - 1;
+        int[] start = new int[4];
+
+        int out = 0;
+        for (int oy = 0; oy < dstHeight; oy++) {
+            // the centers of the row's pixels
+            walk(rotation, cropWidth, cropHeight, stepX / 2, stepX, oy * stepY + stepY / 2, start);
+            int x = start[0], y = start[1];
+            if (average) {
+                // the block's top left, half a pixel before the center either way
+                x -= HALF;
+                y -= HALF;
+            }
+            for (int ox = 0; ox < dstWidth; ox++, x += start[2], y += start[3]) {
+                int sx = cropLeft + Math.max(0, x >> SHIFT);
+                int sy = cropTop + Math.max(0, y >> SHIFT);
+                int i = sy * srcWidth + sx;
+                if (average) {
+                    int dx = sx < right ? 1 : 0;
+                    int dy = sy < bottom ? srcWidth : 0;
+                    dst[out++] = (byte) (((src[i] & 0xff) + (src[i + dx] & 0xff)
+                            + (src[i + dy] & 0xff) + (src[i + dx + dy] & 0xff) + 2) >> 2);
+                } else {
+                    dst[out++] = src[i];
+                }
+            }
+        }
+
+        int chroma = srcWidth * srcHeight;
+        for (int oy = 0; oy < dstHeight / 2; oy++) {
+            // the centers of the 2x2 blocks a VU pair covers
+            walk(rotation, cropWidth, cropHeight, stepX, 2 * stepX, 2 * oy * stepY + stepY, start);
+            int x = start[0], y = start[1];
+            for (int ox = 0; ox < dstWidth / 2; ox++, x += start[2], y += start[3]) {
+                int sx = Math.min(cropLeft + (x >> SHIFT), right) >> 1;
+                int sy = Math.min(cropTop + (y >> SHIFT), bottom) >> 1;
+                int i = chroma + sy * srcWidth + 2 * sx;
+                dst[out++] = src[i];
+                dst[out++] = src[i + 1];
+            }
+        }
+    }
+
+    /**
+     * Where an output row starts in the crop and how it steps, for an upright row at uy
+     * whose first pixel is at ux. Fills x, y, dx, dy in fixed point.
+     */
+    private static void walk(int rotation, int cropWidth, int cropHeight, int ux, int step, int uy, int[] out) {
+        // the last index backwards, floor(n - u) for a u that isn't whole
+        int lastX = (cropWidth << SHIFT) - 1;
+        int lastY = (cropHeight << SHIFT) - 1;
+        switch (rotation) {
+            case 1:
+                set(out, uy, lastY - ux, 0, -step);
+                break;
+            case 2:
+                set(out, lastX - ux, lastY - uy, -step, 0);
+                break;
+            case 3:
+                set(out, lastX - uy, ux, 0, step);
+                break;
+            default:
+                set(out, ux, uy, step, 0);
+                break;
+        }
+    }
+
+    private static void set(int[] out, int x, int y, int dx, int dy) {
+        out[0] = x;
+        out[1] = y;
+        out[2] = dx;
+        out[3] = dy;
+    }
+}
@@ -14,6 +14,7 @@
 package com.example.tracking;
 
 import android.media.Image;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.GuardedBy;
@@ -53,8 +54,29 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
     private FrameMetadata processingMetaData;
 
+    // The FrameBufferPool arrays behind latestImage and processingImage, returned once the
+    // frame is dropped or detected. Null for a ByteBuffer the caller still owns.
+    @GuardedBy("this")
+    private byte[] latestData;
+
+    @GuardedBy("this")
+    private byte[] processingData;
+
+    // the small frame detected in place of processingData and the stage it's from
+    @GuardedBy("this")
+    private byte[] processingScaled;
+
+    @GuardedBy("this")
+    private DetectionDownscaler scaledBy;
+
+    // null detects in the full frame
+    private volatile DetectionDownscaler downscaler;
+
     FaceDetectionProcessor.IFaceDetecterListener mListener;
 
+    // told how long each detection took, may be null
+    private volatile AnalysisScheduler scheduler;
+
     public VisionProcessorBase() {
     }
 
@@ -66,22 +88,30 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     public synchronized void process(
             byte[] data, final FrameMetadata frameMetadata, final GraphicOverlay
             graphicOverlay) {
-        Log.e(TAG, "process()");
+        FrameBufferPool.getInstance().release(latestData);
         latestImage = ByteBuffer.wrap(data);
+        latestData = data;
         latestImageMetaData = frameMetadata;
         if (processingImage == null && processingMetaData == null) {
-            Log.e(TAG, "processLatestImage()");
             processLatestImage(graphicOverlay);
         }
     }
 
     private synchronized void processLatestImage(final GraphicOverlay graphicOverlay) {
+        // the previous frame is detected, if there was one
+        FrameBufferPool.getInstance().release(processingData);
+        if (scaledBy != null) {
+            scaledBy.release(processingScaled);
+            processingScaled = null;
+            scaledBy = null;
+        }
         processingImage = latestImage;
+        processingData = latestData;
         processingMetaData = latestImageMetaData;
         latestImage = null;
+        latestData = null;
         latestImageMetaData = null;
         if (processingImage != null && processingMetaData != null) {
-            Log.e(TAG, "processLatestImage() if");
             processImage(processingImage, processingMetaData, graphicOverlay);
         }
     }
@@ -90,7 +120,9 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     public synchronized void process(
             ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay
             graphicOverlay) {
+        FrameBufferPool.getInstance().release(latestData);
         latestImage = data;
+        latestData = null;
         latestImageMetaData = frameMetadata;
         if (processingImage == null && processingMetaData == null) {
             processLatestImage(graphicOverlay);
@@ -101,9 +133,34 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     public void process(Image data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay) {
     }
 
+    public void setAnalysisScheduler(AnalysisScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Detects in frames made small by the downscaler from now on, null for full frames. The
+     * listener then gets the small frame's metadata, FrameMetadata#toFrame maps the results
+     * back. Frames passed as a ByteBuffer are always detected as they are.
+     */
+    public void setDownscaler(DetectionDownscaler downscaler) {
+        this.downscaler = downscaler;
+    }
+
+    // Under the lock of processLatestImage
     private void processImage(
-            ByteBuffer data, final FrameMetadata frameMetadata,
+            ByteBuffer data, FrameMetadata frameMetadata,
             final GraphicOverlay graphicOverlay) {
+        DetectionDownscaler downscaler = this.downscaler;
+        if (downscaler != null && processingData != null) {
+            FrameMetadata small = downscaler.prepare(frameMetadata);
+            processingScaled = downscaler.scale(processingData, small);
+            scaledBy = downscaler;
+            // the full frame can go back to the camera right away
+            FrameBufferPool.getInstance().release(processingData);
+            processingData = null;
+            data = ByteBuffer.wrap(processingScaled);
+            frameMetadata = small;
+        }
         FirebaseVisionImageMetadata metadata =
                 new FirebaseVisionImageMetadata.Builder()
                         .setFormat(FirebaseVisionImageMetadata.IMAGE_FORMAT_NV21)
@@ -120,10 +177,14 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             FirebaseVisionImage image,
             final FrameMetadata metadata,
             final GraphicOverlay graphicOverlay) {
-
+        final long startMs = SystemClock.elapsedRealtime();
         detectInImage(image)
                 .addOnSuccessListener(
                         results -> {
+                            AnalysisScheduler scheduler = this.scheduler;
+                            if (scheduler != null) {
+                                scheduler.onDetected(SystemClock.elapsedRealtime() - startMs);
+                            }
                             mListener.onSuccess(results, metadata, graphicOverlay);
                             processLatestImage(graphicOverlay);
                         })
@@ -131,6 +192,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                         e -> {
                             Log.e(TAG, "onFace detection error");
                             mListener.onFailure(e);
+                            // returns the frame and goes on with the next one
+                            processLatestImage(graphicOverlay);
                         });
     }
 
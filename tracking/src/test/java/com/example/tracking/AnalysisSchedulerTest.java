@@ -0,0 +1,138 @@
+package com.example.tracking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisSchedulerTest {
+    private static final int CAPTURE_FPS = 30;
+
+    private final AnalysisScheduler scheduler = new AnalysisScheduler(AnalysisScheduler.DEFAULT_TARGET_FPS);
+    private long now;
+
+    /**
+     * Stands in for VisionProcessorBase and its detector: takes a frame only when it isn't
+     * busy, reports the latency once the detection is done.
+     */
+    private class FakeDetector {
+        final long latencyMs;
+        long busyUntil = -1;
+        int detections;
+
+        FakeDetector(long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        void advance() {
+            if (busyUntil >= 0 && now >= busyUntil) {
+                scheduler.onDetected(latencyMs);
+                detections++;
+                busyUntil = -1;
+            }
+        }
+
+        void process() {
+            if (busyUntil < 0) {
+                busyUntil = now + latencyMs;
+            }
+        }
+    }
+
+    // Camera frames for the given seconds, the analysed frames per second
+    private float run(FakeDetector detector, int seconds) {
+        int analysed = 0;
+        long end = now + seconds * 1000L;
+        for (int frame = 0; now < end; frame++) {
+            detector.advance();
+            if (scheduler.shouldAnalyze(now)) {
+                analysed++;
+                detector.process();
+            }
+            now = end - seconds * 1000L + (frame + 1) * 1000L / CAPTURE_FPS;
+        }
+        return analysed / (float) seconds;
+    }
+
+    @Test
+    public void fastDetectorRunsAtTheTarget() {
+        FakeDetector detector = new FakeDetector(20);
+        assertEquals(5, run(detector, 10), 0.2);
+        assertEquals(200, scheduler.getIntervalMs());
+        assertEquals(detector.detections, 50, 1);
+    }
+
+    @Test
+    public void slowDetectorIsBusyHalfTheTime() {
+        FakeDetector detector = new FakeDetector(150);
+        run(detector, 2);
+        assertEquals(300, scheduler.getIntervalMs());
+        assertEquals(1000 / 300f, run(detector, 10), 0.2);
+    }
+
+    @Test
+    public void busyCpuLeavesTheDetectorLess() {
+        FakeDetector detector = new FakeDetector(60);
+        run(detector, 2);
+        assertEquals(200, scheduler.getIntervalMs());
+        scheduler.onCpuLoad(0.7f);
+        // a duty of 0.3
+        assertEquals(200, scheduler.getIntervalMs());
+        scheduler.onCpuLoad(0.8f);
+        assertEquals(300, scheduler.getIntervalMs());
+        scheduler.onCpuLoad(1);
+        assertEquals(600, scheduler.getIntervalMs());
+        assertEquals(1000 / 600f, run(detector, 12), 0.2);
+        scheduler.onCpuLoad(0.2f);
+        assertEquals(200, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void backsOffWhileThePipelineIsBehind() {
+        FakeDetector detector = new FakeDetector(20);
+        run(detector, 1);
+        scheduler.onPipelineBehind(true);
+        assertEquals(400, scheduler.getIntervalMs());
+        scheduler.onPipelineBehind(true);
+        assertEquals(800, scheduler.getIntervalMs());
+        assertEquals(1.25, run(detector, 8), 0.2);
+        for (int i = 0; i < 10; i++) {
+            scheduler.onPipelineBehind(true);
+        }
+        assertEquals(1600, scheduler.getIntervalMs());
+        // recovers a step per period
+        scheduler.onPipelineBehind(false);
+        assertEquals(1500, scheduler.getIntervalMs());
+        for (int i = 0; i < 14; i++) {
+            scheduler.onPipelineBehind(false);
+        }
+        assertEquals(200, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void intervalIsCapped() {
+        scheduler.onDetected(5000);
+        assertEquals(AnalysisScheduler.MAX_INTERVAL_MS, scheduler.getIntervalMs());
+    }
+
+    @Test
+    public void pausedAnalysesNothing() {
+        FakeDetector detector = new FakeDetector(20);
+        scheduler.setPaused(true);
+        assertEquals(0, run(detector, 3), 0);
+        assertTrue(scheduler.isPaused());
+        scheduler.setPaused(false);
+        // the first frame after the pause goes right away
+        assertTrue(scheduler.shouldAnalyze(now));
+        assertFalse(scheduler.shouldAnalyze(now + 100));
+    }
+
+    @Test
+    public void latencyIsAveraged() {
+        scheduler.onDetected(100);
+        assertEquals(100, scheduler.getLatencyMs(), 0);
+        scheduler.onDetected(200);
+        assertEquals(120, scheduler.getLatencyMs(), 0.01);
+    }
+}
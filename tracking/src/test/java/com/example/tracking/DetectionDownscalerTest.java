@@ -0,0 +1,141 @@
+package com.example.tracking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DetectionDownscalerTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    private final DetectionDownscaler downscaler = new DetectionDownscaler();
+
+    private static FrameMetadata camera(int rotation) {
+        return new FrameMetadata.Builder().setWidth(WIDTH).setHeight(HEIGHT).setRotation(rotation)
+                .setCameraFacing(1).build();
+    }
+
+    // A bright square at x, y of the camera frame, all else dark
+    private static byte[] marked(int x, int y, int size) {
+        byte[] nv21 = new byte[Nv21Converter.nv21Size(WIDTH, HEIGHT)];
+        for (int row = y; row < y + size; row++) {
+            for (int col = x; col < x + size; col++) {
+                nv21[row * WIDTH + col] = (byte) 255;
+            }
+        }
+        return nv21;
+    }
+
+    // Center of the bright pixels of the small image
+    private static float[] findMark(byte[] small, FrameMetadata metadata) {
+        float sumX = 0, sumY = 0;
+        int count = 0;
+        for (int y = 0; y < metadata.getHeight(); y++) {
+            for (int x = 0; x < metadata.getWidth(); x++) {
+                if ((small[y * metadata.getWidth() + x] & 0xff) > 128) {
+                    sumX += x + 0.5f;
+                    sumY += y + 0.5f;
+                    count++;
+                }
+            }
+        }
+        return new float[]{sumX / count, sumY / count};
+    }
+
+    @Test
+    public void longEdgeComesDownTo320() {
+        FrameMetadata small = downscaler.prepare(camera(0));
+        assertEquals(320, small.getWidth());
+        assertEquals(180, small.getHeight());
+        assertEquals(0, small.getRotation());
+        assertEquals(1, small.getCameraFacing());
+        assertEquals(4, small.getScale(), 0);
+        small = downscaler.prepare(camera(1));
+        assertEquals(180, small.getWidth());
+        assertEquals(320, small.getHeight());
+    }
+
+    @Test
+    public void smallFramesAreNotEnlarged() {
+        FrameMetadata small = new DetectionDownscaler(320).prepare(new FrameMetadata.Builder()
+                .setWidth(240).setHeight(160).build());
+        assertEquals(240, small.getWidth());
+        assertEquals(160, small.getHeight());
+        assertEquals(1, small.getScale(), 0);
+    }
+
+    @Test
+    public void cropIsInTheUprightFrame() {
+        // the left half of a portrait picture is the bottom half of the landscape sensor
+        downscaler.setCrop(0, 0, 0.5f, 1);
+        FrameMetadata small = downscaler.prepare(camera(1));
+        assertEquals(0, small.getCropLeft());
+        assertEquals(HEIGHT / 2, small.getCropTop());
+        assertEquals(WIDTH, small.getCropWidth());
+        assertEquals(HEIGHT / 2, small.getCropHeight());
+        assertEquals(90, small.getWidth());
+        assertEquals(320, small.getHeight());
+    }
+
+    @Test
+    public void detectionsMapBackToTheUprightFrame() {
+        // the mark at 800,200 of the sensor is where the full-frame detector saw it
+        for (int rotation = 0; rotation < 4; rotation++) {
+            FrameMetadata full = camera(rotation);
+            FrameMetadata small = downscaler.prepare(full);
+            float[] found = findMark(downscaler.scale(marked(800, 200, 40), small), small);
+            float[] mapped = new float[2];
+            small.toFrame(found[0], found[1], mapped);
+            float[] upright = upright(820, 220, rotation);
+            // the full frame's metadata maps nothing
+            float[] same = new float[2];
+            full.toFrame(upright[0], upright[1], same);
+            assertEquals(upright[0], same[0], 0.01);
+            assertEquals(upright[1], same[1], 0.01);
+            assertEquals("rotation " + rotation, upright[0], mapped[0], 4);
+            assertEquals("rotation " + rotation, upright[1], mapped[1], 4);
+        }
+    }
+
+    @Test
+    public void croppedDetectionsMapBackToo() {
+        downscaler.setCrop(0.25f, 0.25f, 0.75f, 0.75f);
+        FrameMetadata small = downscaler.prepare(camera(3));
+        float[] found = findMark(downscaler.scale(marked(700, 300, 20), small), small);
+        float[] rect = {found[0] - 1, found[1] - 1, found[0] + 1, found[1] + 1};
+        small.toFrame(rect);
+        float[] upright = upright(710, 310, 3);
+        assertEquals(upright[0], (rect[0] + rect[2]) / 2, 2);
+        assertEquals(upright[1], (rect[1] + rect[3]) / 2, 2);
+        // a two pixel box of the small image, the crop is 640 wide at 320
+        assertEquals(4, rect[2] - rect[0], 0.1);
+    }
+
+    @Test
+    public void smallFramesAreRecycled() {
+        FrameMetadata small = downscaler.prepare(camera(0));
+        byte[] first = downscaler.scale(new byte[Nv21Converter.nv21Size(WIDTH, HEIGHT)], small);
+        downscaler.release(first);
+        assertSame(first, downscaler.scale(new byte[Nv21Converter.nv21Size(WIDTH, HEIGHT)], small));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyCrop() {
+        downscaler.setCrop(0.5f, 0, 0.5f, 1);
+    }
+
+    // The sensor point turned clockwise with the frame
+    private static float[] upright(float x, float y, int rotation) {
+        switch (rotation) {
+            case 1:
+                return new float[]{HEIGHT - y, x};
+            case 2:
+                return new float[]{WIDTH - x, HEIGHT - y};
+            case 3:
+                return new float[]{y, WIDTH - x};
+            default:
+                return new float[]{x, y};
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.tracking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class FrameBufferPoolTest {
+    private final FrameBufferPool pool = new FrameBufferPool(2);
+
+    @Test
+    public void releasedBuffersAreReused() {
+        byte[] a = pool.acquire(16);
+        byte[] b = pool.acquire(16);
+        assertNotSame(a, b);
+        pool.release(a);
+        assertSame(a, pool.acquire(16));
+        assertEquals(2, pool.getAllocations());
+        assertEquals(1, pool.getReuses());
+    }
+
+    @Test
+    public void keepsAtMostItsCapacity() {
+        byte[] a = pool.acquire(16);
+        byte[] b = pool.acquire(16);
+        byte[] c = pool.acquire(16);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(2, pool.getFree());
+    }
+
+    @Test
+    public void aSecondReleaseIsIgnored() {
+        byte[] a = pool.acquire(16);
+        pool.release(a);
+        pool.release(a);
+        assertEquals(1, pool.getFree());
+        assertSame(a, pool.acquire(16));
+        assertNotSame(a, pool.acquire(16));
+    }
+
+    @Test
+    public void newSizeDropsTheOldBuffers() {
+        byte[] a = pool.acquire(16);
+        pool.release(a);
+        assertEquals(24, pool.acquire(24).length);
+        assertEquals(0, pool.getFree());
+        // one still out from before the change
+        pool.release(a);
+        assertEquals(0, pool.getFree());
+        pool.release(null);
+        assertEquals(0, pool.getFree());
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.tracking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The benchmark thread is the camera, offering 640x480 frames as fast as it can while a
+ * consumer thread takes them and spends a little time on each. FrameMailbox against the
+ * synchronized wait/notify slot FrameProcessingTask had before. Run main() from the IDE,
+ * add "-prof gc" to the options to see allocation per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameMailboxBenchmark {
+    private static final int SIZE = Nv21Converter.nv21Size(640, 480);
+    private static final FrameMetadata METADATA = new FrameMetadata.Builder().setWidth(640).setHeight(480).build();
+
+    @Param({"mailbox", "legacyLocked"})
+    public String slot;
+
+    private FrameBufferPool pool;
+    private FrameMailbox mailbox;
+    private LockedSlot locked;
+    private Thread consumer;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        pool = new FrameBufferPool(FrameBufferPool.DEFAULT_CAPACITY);
+        mailbox = new FrameMailbox(pool);
+        locked = new LockedSlot();
+        consumer = new Thread(slot.equals("mailbox") ? this::takeFromMailbox : this::takeFromLocked, "consumer");
+        consumer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        mailbox.close();
+        locked.setActive(false);
+        consumer.join();
+    }
+
+    private void takeFromMailbox() {
+        FrameMailbox.Frame frame;
+        while ((frame = mailbox.take()) != null) {
+            work();
+            pool.release(frame.data);
+        }
+    }
+
+    private void takeFromLocked() {
+        while (locked.take() != null) {
+            work();
+        }
+    }
+
+    // about ten microseconds of detector
+    private static void work() {
+        long end = System.nanoTime() + 10_000;
+        while (System.nanoTime() < end) {
+            // spin
+        }
+    }
+
+    @Benchmark
+    public void offer() {
+        if (slot.equals("mailbox")) {
+            mailbox.offer(new FrameMailbox.Frame(pool.acquire(SIZE), METADATA));
+        } else {
+            locked.setNextFrame(new byte[SIZE]);
+        }
+    }
+
+    // FrameProcessingRunnable's slot before: a lock per frame, the displaced frame left to the GC
+    static class LockedSlot {
+        private final Object lock = new Object();
+        private boolean active = true;
+        private byte[] pendingFrameData;
+
+        void setActive(boolean active) {
+            synchronized (lock) {
+                this.active = active;
+                lock.notifyAll();
+            }
+        }
+
+        void setNextFrame(byte[] data) {
+            synchronized (lock) {
+                pendingFrameData = data;
+                lock.notifyAll();
+            }
+        }
+
+        byte[] take() {
+            synchronized (lock) {
+                while (active && pendingFrameData == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return null;
+                    }
+                }
+                if (!active) return null;
+                byte[] data = pendingFrameData;
+                pendingFrameData = null;
+                return data;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FrameMailboxBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.tracking;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameMailboxTest {
+    private static final int SIZE = 16;
+
+    private final FrameBufferPool pool = new FrameBufferPool(8);
+    private final FrameMailbox mailbox = new FrameMailbox(pool);
+
+    private FrameMailbox.Frame frame() {
+        return new FrameMailbox.Frame(pool.acquire(SIZE), new FrameMetadata.Builder().build());
+    }
+
+    @Test
+    public void latestFrameWinsAndTheOtherIsRecycled() {
+        FrameMailbox.Frame first = frame();
+        FrameMailbox.Frame second = frame();
+        assertTrue(mailbox.offer(first));
+        assertTrue(mailbox.offer(second));
+        assertSame(second, mailbox.take());
+        assertNull(mailbox.poll());
+        assertEquals(2, mailbox.getOffered());
+        assertEquals(1, mailbox.getDropped());
+        assertEquals(1, mailbox.getTaken());
+        assertSame(first.data, pool.acquire(SIZE));
+    }
+
+    @Test
+    public void takeWaitsForAFrame() throws Exception {
+        AtomicReference<FrameMailbox.Frame> taken = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            taken.set(mailbox.take());
+            done.countDown();
+        });
+        thread.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        FrameMailbox.Frame frame = frame();
+        mailbox.offer(frame);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertSame(frame, taken.get());
+    }
+
+    @Test
+    public void closeWakesTheTakerAndRefusesFrames() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<FrameMailbox.Frame> taken = new AtomicReference<>(frame());
+        Thread thread = new Thread(() -> {
+            taken.set(mailbox.take());
+            done.countDown();
+        });
+        thread.start();
+        Thread.sleep(20);
+        mailbox.close();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertNull(taken.get());
+
+        FrameMailbox.Frame late = frame();
+        assertFalse(mailbox.offer(late));
+        assertNull(mailbox.poll());
+        assertEquals(0, mailbox.getOffered());
+        assertSame(late.data, pool.acquire(SIZE));
+    }
+
+    @Test
+    public void waitingFrameIsRecycledOnClose() {
+        FrameMailbox.Frame frame = frame();
+        mailbox.offer(frame);
+        mailbox.close();
+        assertNull(mailbox.take());
+        assertEquals(1, mailbox.getDropped());
+        assertSame(frame.data, pool.acquire(SIZE));
+    }
+
+    @Test
+    public void everyFrameIsTakenOrDropped() throws Exception {
+        final int frames = 100_000;
+        Thread consumer = new Thread(() -> {
+            while (mailbox.take() != null) {
+                // a busy detector
+                Thread.yield();
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < frames; i++) {
+            mailbox.offer(new FrameMailbox.Frame(new byte[1], null));
+        }
+        mailbox.close();
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(frames, mailbox.getOffered());
+        assertEquals(frames, mailbox.getTaken() + mailbox.getDropped());
+        assertTrue(mailbox.getTaken() > 0);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.tracking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled NV21 conversion against the previous per-frame allocation, on synthetic direct
+ * planes of a 1280x720 frame. Run main() from the IDE, add "-prof gc" to the options to see
+ * allocation per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Nv21ConverterBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    // interleaved: one VU plane as most cameras have it, planar: separate U and V
+    @Param({"interleaved", "interleaved-padded", "planar-padded"})
+    public String layout;
+
+    private ByteBuffer y;
+    private ByteBuffer u;
+    private ByteBuffer v;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private FrameBufferPool pool;
+
+    @Setup
+    public void setUp() {
+        int padding = layout.endsWith("-padded") ? 64 : 0;
+        yRowStride = WIDTH + padding;
+        y = ByteBuffer.allocateDirect((HEIGHT - 1) * yRowStride + WIDTH);
+        if (layout.startsWith("interleaved")) {
+            uvRowStride = WIDTH + padding;
+            uvPixelStride = 2;
+            ByteBuffer vu = ByteBuffer.allocateDirect((HEIGHT / 2 - 1) * uvRowStride + WIDTH);
+            v = vu.duplicate();
+            v.limit(vu.capacity() - 1);
+            v = v.slice();
+            vu.position(1);
+            u = vu.slice();
+        } else {
+            uvRowStride = WIDTH / 2 + padding;
+            uvPixelStride = 1;
+            u = ByteBuffer.allocateDirect((HEIGHT / 2 - 1) * uvRowStride + WIDTH / 2);
+            v = ByteBuffer.allocateDirect((HEIGHT / 2 - 1) * uvRowStride + WIDTH / 2);
+        }
+        pool = new FrameBufferPool(FrameBufferPool.DEFAULT_CAPACITY);
+    }
+
+    @Benchmark
+    public byte[] pooled() {
+        byte[] data = pool.acquire(Nv21Converter.nv21Size(WIDTH, HEIGHT));
+        Nv21Converter.yuv420888ToNv21(WIDTH, HEIGHT, y, yRowStride, u, v, uvRowStride, uvPixelStride, data);
+        // the frame processor's part
+        pool.release(data);
+        return data;
+    }
+
+    // What Camera2Session did before: a new array for the Y and V planes as they are,
+    // right for the unpadded interleaved layout only
+    @Benchmark
+    public byte[] legacyCopy() {
+        ByteBuffer buffer0 = y.duplicate();
+        ByteBuffer buffer2 = v.duplicate();
+        byte[] data = new byte[buffer0.remaining() + buffer2.remaining()];
+        int size0 = buffer0.remaining();
+        buffer0.get(data, 0, size0);
+        buffer2.get(data, size0, buffer2.remaining());
+        return data;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(Nv21ConverterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.tracking;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Nv21ConverterTest {
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 4;
+
+    private static byte luma(int x, int y) {
+        return (byte) (10 * y + x);
+    }
+
+    private static byte u(int x, int y) {
+        return (byte) (100 + 10 * y + x);
+    }
+
+    private static byte v(int x, int y) {
+        return (byte) (-100 + 10 * y + x);
+    }
+
+    // what every layout has to come out as
+    private static byte[] expected() {
+        byte[] nv21 = new byte[Nv21Converter.nv21Size(WIDTH, HEIGHT)];
+        int i = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[i++] = luma(x, y);
+            }
+        }
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                nv21[i++] = v(x, y);
+                nv21[i++] = u(x, y);
+            }
+        }
+        return nv21;
+    }
+
+    // Like an Image plane, the last row stops after its last pixel
+    private static ByteBuffer yPlane(int rowStride) {
+        ByteBuffer plane = ByteBuffer.allocate((HEIGHT - 1) * rowStride + WIDTH);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(y * rowStride + x, luma(x, y));
+            }
+        }
+        return plane;
+    }
+
+    private static ByteBuffer chromaPlane(int rowStride, int pixelStride, boolean isU) {
+        int width = WIDTH / 2;
+        ByteBuffer plane = ByteBuffer.allocate((HEIGHT / 2 - 1) * rowStride + (width - 1) * pixelStride + 1);
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < width; x++) {
+                plane.put(y * rowStride + x * pixelStride, isU ? u(x, y) : v(x, y));
+            }
+        }
+        return plane;
+    }
+
+    // One VU plane, U a view starting on its second byte
+    private static ByteBuffer[] interleaved(int rowStride) {
+        int width = WIDTH / 2;
+        ByteBuffer vu = ByteBuffer.allocate((HEIGHT / 2 - 1) * rowStride + 2 * width);
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < width; x++) {
+                vu.put(y * rowStride + 2 * x, v(x, y));
+                vu.put(y * rowStride + 2 * x + 1, u(x, y));
+            }
+        }
+        ByteBuffer v = vu.duplicate();
+        v.limit(vu.capacity() - 1);
+        vu.position(1);
+        ByteBuffer u = vu.slice();
+        return new ByteBuffer[]{u, v.slice()};
+    }
+
+    private static byte[] convert(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int rowStride, int pixelStride) {
+        return Nv21Converter.yuv420888ToNv21(WIDTH, HEIGHT, y, yRowStride, u, v, rowStride, pixelStride,
+                new byte[Nv21Converter.nv21Size(WIDTH, HEIGHT)]);
+    }
+
+    @Test
+    public void planar() {
+        assertArrayEquals(expected(), convert(yPlane(WIDTH), WIDTH,
+                chromaPlane(WIDTH / 2, 1, true), chromaPlane(WIDTH / 2, 1, false), WIDTH / 2, 1));
+    }
+
+    @Test
+    public void paddedRows() {
+        assertArrayEquals(expected(), convert(yPlane(WIDTH + 10), WIDTH + 10,
+                chromaPlane(WIDTH / 2 + 5, 1, true), chromaPlane(WIDTH / 2 + 5, 1, false), WIDTH / 2 + 5, 1));
+    }
+
+    @Test
+    public void separatePlanesWithPixelStride() {
+        assertArrayEquals(expected(), convert(yPlane(WIDTH), WIDTH,
+                chromaPlane(WIDTH + 4, 2, true), chromaPlane(WIDTH + 4, 2, false), WIDTH + 4, 2));
+        assertArrayEquals(expected(), convert(yPlane(WIDTH), WIDTH,
+                chromaPlane(9, 3, true), chromaPlane(9, 3, false), 9, 3));
+    }
+
+    @Test
+    public void interleavedVu() {
+        ByteBuffer[] uv = interleaved(WIDTH);
+        assertTrue(Nv21Converter.isInterleavedVu(uv[0], uv[1], 2));
+        assertArrayEquals(expected(), convert(yPlane(WIDTH), WIDTH, uv[0], uv[1], WIDTH, 2));
+        uv = interleaved(WIDTH + 8);
+        assertArrayEquals(expected(), convert(yPlane(WIDTH + 8), WIDTH + 8, uv[0], uv[1], WIDTH + 8, 2));
+    }
+
+    @Test
+    public void interleavedUvIsNotTakenForNv21() {
+        // the V plane starting one byte into U's memory is NV12
+        ByteBuffer[] uv = interleaved(WIDTH);
+        assertFalse(Nv21Converter.isInterleavedVu(uv[1], uv[0], 2));
+        ByteBuffer u = chromaPlane(WIDTH, 2, true);
+        ByteBuffer v = chromaPlane(WIDTH, 2, false);
+        assertFalse(Nv21Converter.isInterleavedVu(u, v, 2));
+        assertFalse(Nv21Converter.isInterleavedVu(u, v.asReadOnlyBuffer(), 2));
+    }
+
+    @Test
+    public void planesAreLeftAsTheyWere() {
+        ByteBuffer[] uv = interleaved(WIDTH + 8);
+        ByteBuffer y = yPlane(WIDTH + 8);
+        byte[] before = uv[1].array().clone();
+        convert(y, WIDTH + 8, uv[0], uv[1], WIDTH + 8, 2);
+        assertEquals(0, y.position());
+        assertEquals(0, uv[0].position());
+        assertEquals(0, uv[1].position());
+        assertArrayEquals(before, uv[1].array());
+    }
+
+    @Test
+    public void i420WithOwnStrides() {
+        ByteBuffer y = yPlane(WIDTH + 2);
+        ByteBuffer u = chromaPlane(WIDTH / 2 + 1, 1, true);
+        ByteBuffer v = chromaPlane(WIDTH / 2 + 7, 1, false);
+        byte[] out = Nv21Converter.i420ToNv21(WIDTH, HEIGHT, y, WIDTH + 2, u, WIDTH / 2 + 1, v, WIDTH / 2 + 7,
+                new byte[Nv21Converter.nv21Size(WIDTH, HEIGHT)]);
+        assertArrayEquals(expected(), out);
+        assertEquals(0, u.position());
+        assertEquals(0, v.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bufferTooSmall() {
+        Nv21Converter.yuv420888ToNv21(WIDTH, HEIGHT, yPlane(WIDTH), WIDTH,
+                chromaPlane(WIDTH / 2, 1, true), chromaPlane(WIDTH / 2, 1, false), WIDTH / 2, 1,
+                new byte[WIDTH * HEIGHT]);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.tracking;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Nv21ScalerTest {
+
+    // Luma is 10 * row + column, each VU pair is -(10 * row + column), 1 + 10 * row + column
+    private static byte[] frame(int width, int height) {
+        byte[] nv21 = new byte[Nv21Converter.nv21Size(width, height)];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                nv21[y * width + x] = (byte) (10 * y + x);
+            }
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                int i = width * height + y * width + 2 * x;
+                nv21[i] = (byte) -(10 * y + x);
+                nv21[i + 1] = (byte) (1 + 10 * y + x);
+            }
+        }
+        return nv21;
+    }
+
+    private static byte[] luma(byte[] nv21, int width, int height) {
+        byte[] luma = new byte[width * height];
+        System.arraycopy(nv21, 0, luma, 0, luma.length);
+        return luma;
+    }
+
+    private static byte[] scale(byte[] src, int width, int height, int rotation, int dstWidth, int dstHeight) {
+        byte[] dst = new byte[Nv21Converter.nv21Size(dstWidth, dstHeight)];
+        Nv21Scaler.scale(src, width, height, 0, 0, width, height, rotation, dst, dstWidth, dstHeight);
+        return dst;
+    }
+
+    @Test
+    public void sameSizeIsACopy() {
+        byte[] src = frame(4, 2);
+        assertArrayEquals(src, scale(src, 4, 2, 0, 4, 2));
+    }
+
+    @Test
+    public void rotatesClockwise() {
+        // 4x2:  0  1  2  3
+        //      10 11 12 13
+        byte[] src = frame(4, 2);
+        assertArrayEquals(new byte[]{10, 0, 11, 1, 12, 2, 13, 3}, luma(scale(src, 4, 2, 1, 2, 4), 2, 4));
+        assertArrayEquals(new byte[]{13, 12, 11, 10, 3, 2, 1, 0}, luma(scale(src, 4, 2, 2, 4, 2), 4, 2));
+        assertArrayEquals(new byte[]{3, 13, 2, 12, 1, 11, 0, 10}, luma(scale(src, 4, 2, 3, 2, 4), 2, 4));
+    }
+
+    @Test
+    public void chromaFollowsTheRotation() {
+        // 4x4 has a 2x2 chroma grid: (0,1) (-1,2) / (-10,11) (-11,12)
+        byte[] src = frame(4, 4);
+        byte[] turned = scale(src, 4, 4, 1, 4, 4);
+        byte[] chroma = new byte[8];
+        System.arraycopy(turned, 16, chroma, 0, 8);
+        assertArrayEquals(new byte[]{-10, 11, 0, 1, -11, 12, -1, 2}, chroma);
+    }
+
+    @Test
+    public void halvingAveragesBlocks() {
+        byte[] src = frame(4, 4);
+        byte[] half = scale(src, 4, 4, 0, 2, 2);
+        // (0 + 1 + 10 + 11) / 4, rounded
+        assertArrayEquals(new byte[]{6, 8, 26, 28}, luma(half, 2, 2));
+        // one VU pair, the top left one covers the center
+        assertEquals(-11, half[4]);
+        assertEquals(12, half[5]);
+    }
+
+    @Test
+    public void cropsBeforeScaling() {
+        byte[] src = frame(8, 6);
+        byte[] dst = new byte[Nv21Converter.nv21Size(2, 2)];
+        Nv21Scaler.scale(src, 8, 6, 4, 2, 2, 2, 0, dst, 2, 2);
+        assertArrayEquals(new byte[]{24, 25, 34, 35}, luma(dst, 2, 2));
+        assertEquals(-12, dst[4]);
+        assertEquals(13, dst[5]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropOutsideTheFrame() {
+        Nv21Scaler.scale(frame(4, 4), 4, 4, 2, 0, 4, 4, 0, new byte[6], 2, 2);
+    }
+}